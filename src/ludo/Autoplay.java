@@ -6,13 +6,24 @@
 
 package ludo;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import ludo.FlightEvents.DecisionEvent;
+import ludo.FlightEvents.QTableEvent;
 import static ludo.Board.GLOBE_TILES;
 import static ludo.Board.STAR_TILES;
 import static ludo.Player.GOAL;
@@ -26,7 +37,7 @@ import static ludo.Player.START_DISTANCE;
 public class Autoplay {
     
     /**
-     * The three possible modes to control a computer-operated player
+     * The possible modes to control a computer-operated player
      */
     public enum AutoplayMode {
 
@@ -43,10 +54,38 @@ public class Autoplay {
         /**
          * Selects the next move by choosing randomly from all possible moves.
          */
-        random};
+        random,
+
+        /**
+         * Selects the next move by reading the Q-value of each possible move, given an abstraction of the whole game state,
+         * from a table trained by StateQLearning.
+         */
+        stateQLearning,
+
+        /**
+         * Selects the next move leading to the position with the highest value, given by a linear function of features
+         * of the game with weights trained by TDLearning.
+         */
+        tdLambda,
+
+        /**
+         * Selects the next move by asking a bot running in other local processes through the protocol of ExternalBot,
+         * which batches the decisions of the games played at the same time.
+         */
+        external};
     
+    public static final long DEFAULT_DEADLINE = 200; //milliseconds, for the computer players of an interactive game
+    
+    private static ExecutorService decisions; //threads taking the decisions with a deadline, shared by all games
+    private static final DecisionCache CACHE = new DecisionCache(1 << 16); //customAI rewards, shared by all games
     private final Random r;
+    private final long[] deadlines = new long[4]; //0 by default, so the decisions only depend on the game and the seed
     private final Map<String, Integer> rewards;
+    private final List<Map<String, Integer>> seatRewards = new ArrayList<>(); //reward table of each player, by default rewards
+    private final File[] qTables = new File[4]; //qTable file of each player, by default QLearning.inputFile
+    private final StateQLearning[] stateQ = new StateQLearning[4]; //state learner of each player, by default StateQLearning.getDefault()
+    private final TDLearning[] td = new TDLearning[4]; //TD learner of each player, by default TDLearning.getDefault()
+    private final ExternalBot[] external = new ExternalBot[4]; //external bot of each player, by default ExternalBot.getDefault()
     private static QLearning actionQLudo;
 
     /**
@@ -67,10 +106,102 @@ public class Autoplay {
         rewards.put("aheadOpponent", -3);
         rewards.put("behindOpponent", 2);  
         rewards.put("hitLastStar", -15);
+        rewards.put("danger", 0); //opt-in with setRewards, e.g. -40, so the default players play as they always did
+        for (int i = 0; i < 4; i++)
+            seatRewards.add(rewards);
+    }
+    
+    /**
+     * Sets the custom AI rewards used by one player, so that players with different weight sets can share a game.
+     * The rewards not given keep their default value.
+     * @param pIndex the index of the player [0-3]
+     * @param weights the rewards to be changed, e.g. "sendHome" to 20
+     */
+    public void setRewards(int pIndex, Map<String, Integer> weights){
+        Map<String, Integer> seat = new HashMap<>(this.rewards);
+        for (Map.Entry<String, Integer> w : weights.entrySet()) {
+            if (!seat.containsKey(w.getKey()))
+                throw new IllegalArgumentException("Unknown reward: "+w.getKey());
+            seat.put(w.getKey(), w.getValue());
+        }
+        this.seatRewards.set(pIndex, seat);
+    }
+    
+    /**
+     * Gets the custom AI rewards used by one player.
+     * @param pIndex the index of the player [0-3]
+     * @return the reward of each condition
+     */
+    public Map<String, Integer> getRewards(int pIndex){
+        return Collections.unmodifiableMap(this.seatRewards.get(pIndex));
+    }
+    
+    /**
+     * Sets the qTable file read by one player with the qLearning mode, e.g. the one generated for the special board.
+     * @param pIndex the index of the player [0-3]
+     * @param qTable the qTable file, or null to use the default one
+     */
+    public void setQTable(int pIndex, File qTable){
+        this.qTables[pIndex] = qTable;
+    }
+    
+    /**
+     * Sets the learner used by one player with the stateQLearning mode, e.g. one with a table trained for a league.
+     * @param pIndex the index of the player [0-3]
+     * @param learner the learner, or null to use the default one
+     */
+    public void setStateQLearning(int pIndex, StateQLearning learner){
+        this.stateQ[pIndex] = learner;
+    }
+    
+    /**
+     * Sets the weights used by one player with the tdLambda mode.
+     * @param pIndex the index of the player [0-3]
+     * @param learner the learner, or null to use the default one
+     */
+    public void setTDLearning(int pIndex, TDLearning learner){
+        this.td[pIndex] = learner;
+    }
+    
+    /**
+     * Sets the bot asked by one player with the external mode.
+     * @param pIndex the index of the player [0-3]
+     * @param bot the bot, or null to use the default one
+     */
+    public void setExternalBot(int pIndex, ExternalBot bot){
+        this.external[pIndex] = bot;
+    }
+    
+    /**
+     * Sets the time one player has to take a decision in decideToken, 0 by default. Only interactive games, such as
+     * the ones of the GUI, should give a deadline, since the fallback at the deadline depends on the load of the machine.
+     * @param pIndex the index of the player [0-3]
+     * @param millis the deadline in milliseconds, or 0 to take the decisions in the calling thread without deadline
+     */
+    public void setDeadline(int pIndex, long millis){
+        this.deadlines[pIndex] = millis;
     }
     
-    //Reads the reward of each of the possible moves from a qTable and select the token with the highest reward.
-    private int maxQToken(GameState game){
+    /**
+     * Gets the time one player has to take a decision in decideToken.
+     * @param pIndex the index of the player [0-3]
+     * @return the deadline in milliseconds, 0 if the decisions are taken without deadline
+     */
+    public long getDeadline(int pIndex){
+        return this.deadlines[pIndex];
+    }
+    
+    /**
+     * Sets the seed of the random number generator used by the random controller.
+     * @param seed the initial seed
+     */
+    public void setSeed(long seed){
+        this.r.setSeed(seed);
+    }
+    
+    //Reads the reward of each of the possible moves from a qTable and select the token with the highest reward,
+    //offering every new best token to the decision if there is one
+    private int maxQToken(GameState game, Decision decision){
         Player currentPlayer = game.getPlayers()[game.getCurrentPlayer()];
         double qValue=0;
         double maxQ=-100;
@@ -93,12 +224,24 @@ public class Autoplay {
             
             //System.out.printf("\nToken in position: %d\n",tokenPosition);
             //qValue = actionQLudo.QTable[tokenPosition][game.getDice().getResult()-1];
-            try{qValue = QLearning.readQTable(game.getDice().getResult()-1, tokenPosition);}
+            QTableEvent event = new QTableEvent();
+            event.begin();
+            File qTable = this.qTables[currentPlayer.getPIndex()];
+            try{qValue = qTable == null ? QLearning.readQTable(game.getDice().getResult()-1, tokenPosition)
+                                        : QLearning.readQTable(qTable, game.getDice().getResult()-1, tokenPosition);}
             catch (FileNotFoundException ex) {}
+            if (event.shouldCommit()) {
+                event.dice = game.getDice().getResult();
+                event.position = tokenPosition;
+                event.value = qValue;
+                event.commit();
+            }
             //System.out.printf("token %d: pos %d, qvalue %.15f\n",tokenIndex,currentPlayer.getToken(tokenIndex).getPosition(),qValue);
             if (qValue>maxQ){
                 maxQ=qValue;
                 maxQToken=tokenIndex;
+                if (decision != null)
+                    decision.offer(maxQToken);
             }
         }
         //System.out.printf("maxReward:%.15f, selectedToken:%d\n",maxQ,maxQToken);
@@ -108,7 +251,8 @@ public class Autoplay {
     //Calculates the rewards for each of the possible moves and selects the token with the maximum reward
     private int maxRewardToken(GameState game){
         Player currentPlayer = game.getPlayers()[game.getCurrentPlayer()];
-        List<Integer> opponentPositions=getOpponentPositions(game);
+        int[] opponentPositions=getOpponentPositions(game);
+        DangerMap danger=this.seatRewards.get(game.getCurrentPlayer()).get("danger")==0?null:game.getDangerMap();
         int reward;
         int maxReward=-100;
         int maxRewardToken=0;
@@ -116,7 +260,8 @@ public class Autoplay {
         if (game.getDice().getIsSix()){
             for(Token token: currentPlayer.getTokens()){
                 if (!(token.getFinalTrack()&&!token.getOut())){
-                    reward = getReward(game.getCurrentPlayer(), token, opponentPositions, game.getBoard().getSpecial(), game.getDice().getResult());
+                    reward = cachedReward(game.getCurrentPlayer(), token, opponentPositions, game.getBoard().getSpecial(), game.getDice().getResult())
+                            + dangerReward(game.getCurrentPlayer(), token, danger, game.getBoard().getSpecial(), game.getDice().getResult());
                     //System.out.printf("token %d: pos %d, reward %d\n",token.getIndex(),token.getPosition(),reward);
                     if (reward>maxReward){
                         maxReward=reward;
@@ -127,7 +272,8 @@ public class Autoplay {
         }
         else{
             for(int tokenIndex: currentPlayer.getTokensOut()){
-               reward = getReward(game.getCurrentPlayer(),currentPlayer.getToken(tokenIndex), opponentPositions, game.getBoard().getSpecial(), game.getDice().getResult());
+               reward = cachedReward(game.getCurrentPlayer(), currentPlayer.getToken(tokenIndex), opponentPositions, game.getBoard().getSpecial(), game.getDice().getResult())
+                       + dangerReward(game.getCurrentPlayer(), currentPlayer.getToken(tokenIndex), danger, game.getBoard().getSpecial(), game.getDice().getResult());
                 //System.out.printf("token %d: pos %d, reward %d\n",tokenIndex,currentPlayer.getToken(tokenIndex).getPosition(),reward);
                 if (reward>maxReward){
                     maxReward=reward;
@@ -139,8 +285,46 @@ public class Autoplay {
         return maxRewardToken;
     }
     
+    //Gets the reward for a move without the danger term from the decision cache, calculating it on a miss.
+    //Only the players with the default rewards share the cache
+    private int cachedReward(int pIndex, Token token, int[] opponentPositions, boolean specialBoard, int diceResult){
+        if(this.seatRewards.get(pIndex)!=this.rewards||diceResult>7)
+            return getReward(pIndex, token, toList(opponentPositions), specialBoard, diceResult);
+        int key=rewardKey(pIndex, token, opponentPositions, specialBoard, diceResult);
+        int reward=CACHE.get(key, Integer.MIN_VALUE);
+        if(reward==Integer.MIN_VALUE){
+            reward=getReward(pIndex, token, toList(opponentPositions), specialBoard, diceResult);
+            CACHE.put(key, reward);
+        }
+        return reward;
+    }
+    
+    //Packs everything getReward depends on: the player, the token, the dice, the board and, for a token moving in the track,
+    //the opponent tokens in the next position and within 6 tiles ahead and behind
+    private static int rewardKey(int pIndex, Token token, int[] opponentPositions, boolean specialBoard, int diceResult){
+        int hit=0, ahead=0, behind=0;
+        if(!token.getFinalTrack()&&!(token.getPosition()==OUT_OF_BOARD&&diceResult==6)){
+            int next=(token.getPosition()+diceResult)%52;
+            for(int position: opponentPositions){
+                int gap=position-next;
+                hit|=gap==0? 1:0;
+                ahead+=gap>=1&&gap<=6? 1:0;
+                behind+=gap>=-6&&gap<=-1? 1:0;
+            }
+        }
+        int key=pIndex;
+        key=key<<1|(token.getFinalTrack()? 1:0);
+        key=key<<6|token.getPosition();
+        key=key<<3|diceResult;
+        key=key<<1|(specialBoard? 1:0);
+        key=key<<4|ahead;
+        key=key<<4|behind;
+        return key<<1|hit;
+    }
+    
     //Calculates the reward for a move by adding up the rewards from the hash table for each of the verified conditions
     private int getReward (int pIndex, Token token, List<Integer> opponentPositions, boolean specialBoard, int diceResult){
+        Map<String, Integer> rewards = this.seatRewards.get(pIndex);
         int reward=0;
         int nextPosition= token.getPosition()+diceResult;
         if(token.getPosition()==OUT_OF_BOARD&&diceResult==6){
@@ -195,6 +379,27 @@ public class Autoplay {
         return reward;
     }
     
+   //Calculates the reward for the change in the probability of the token being captured before the next turn,
+   //with the token resting in the next star after a star and safe in the final track, 0 without danger map
+    private int dangerReward(int pIndex, Token token, DangerMap danger, boolean specialBoard, int diceResult){
+        if(danger==null)
+            return 0;
+        int weight=this.seatRewards.get(pIndex).get("danger");
+        int position=token.getPosition(), nextPosition=position+diceResult;
+        if(position==OUT_OF_BOARD&&diceResult==6)
+            return Math.round(weight*danger.getDanger(pIndex, pIndex*START_DISTANCE));
+        if(token.getFinalTrack())
+            return 0;
+        float before = danger.getDanger(pIndex, position), after = 0;
+        if((position-pIndex*START_DISTANCE+52)%52+nextPosition-position<=50){
+            int rest = nextPosition%52;
+            if(specialBoard&&STAR_TILES.contains(rest))
+                rest = BatchEngine.NEXT_STAR[rest];
+            after = danger.getDanger(pIndex, rest);
+        }
+        return Math.round(weight*(after-before));
+    }
+    
    //Calculates the number of opponent's tokens that will be within 6 tiles ahead of the player's token
    //in case the token moves to the position nextPosition
     private int tokensAhead(List<Integer> opponentPositions, int nextPosition){
@@ -218,16 +423,25 @@ public class Autoplay {
         return tokens;
     }
     
-   //Generates a list of integers with the positions of all the opponent's tokens that are currently in the board.
-    private List<Integer> getOpponentPositions(GameState game){
-        List<Integer> opponentPositions=new ArrayList<>();
+   //Generates an array with the positions of all the opponent's tokens that are currently in the board.
+    private int[] getOpponentPositions(GameState game){
+        int[] opponentPositions=new int[12];
+        int n=0;
         for(int playerIndex: game.getXPlayers())
             if(playerIndex!=game.getCurrentPlayer()){
                 for(int tokenIndex: game.getPlayers()[playerIndex].getTokensOut())
                     if(!game.getPlayers()[playerIndex].getToken(tokenIndex).getFinalTrack())
-                        opponentPositions.add(game.getPlayers()[playerIndex].getToken(tokenIndex).getPosition());
+                        opponentPositions[n++]=game.getPlayers()[playerIndex].getToken(tokenIndex).getPosition();
             }
-        return opponentPositions;                 
+        return Arrays.copyOf(opponentPositions, n);
+    }
+    
+   //Converts the positions of the opponent's tokens into the list read by getReward
+    private static List<Integer> toList(int[] opponentPositions){
+        List<Integer> list=new ArrayList<>(opponentPositions.length);
+        for(int position: opponentPositions)
+            list.add(position);
+        return list;
     }
     
     //Selects a random token from all the possible options available
@@ -243,18 +457,139 @@ public class Autoplay {
         return selectedToken;
     }
    
+    /**
+     * Best token found so far by a decision taken in another thread.
+     * The modes that improve their answer over time offer every new best token, the others offer their only answer.
+     */
+    static class Decision {
+        private volatile int token = -1;
+
+        void offer(int token) {
+            this.token = token;
+        }
+
+        int getToken() {
+            return this.token;
+        }
+    }
+    
+    //Gets the executor of the decisions with a deadline, daemon threads created as needed so a stuck decision never blocks the others
+    private static synchronized ExecutorService getDecisions() {
+        if (decisions == null) {
+            decisions = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ludo-decisions");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return decisions;
+    }
+    
+    /**
+     * Selects the index of the token to be moved within the deadline of the current player.
+     * The decision is taken by selectToken in another thread, on a copy of the game. At the deadline the best token
+     * found so far is used, or the customAI token if there is none yet, and the timeout is recorded in the Metrics.
+     * The modes that evaluate the candidate tokens one by one (qLearning, stateQLearning and tdLambda) offer the best
+     * token after every candidate.
+     * The customAI and random modes, which are the fallback themselves, the external mode, which has the timeout of its
+     * ExternalBot, and the players without deadline decide in the calling thread.
+     * @param game instance of the GameState class containing the state of each of the elements present in a round of Ludo
+     * @return the index of the selected token
+     * @see #setDeadline(int, long)
+     */
+    public int decideToken(GameState game){
+        AutoplayMode autoMode=game.getPlayers()[game.getCurrentPlayer()].getAutoMode();
+        long deadline=this.deadlines[game.getCurrentPlayer()];
+        if(deadline<=0||autoMode==AutoplayMode.customAI||autoMode==AutoplayMode.random||autoMode==AutoplayMode.external)
+            return selectToken(game);
+        final GameState copy=new GameState(GameSnapshot.capture(game));
+        final Decision decision=new Decision();
+        Future<?> task=getDecisions().submit(new Runnable() {
+            @Override
+            public void run() {
+                decision.offer(selectToken(copy, decision));
+            }
+        });
+        int selectedToken;
+        try {
+            task.get(deadline, TimeUnit.MILLISECONDS);
+            selectedToken=decision.getToken();}
+        catch (TimeoutException ex) {
+            selectedToken=decision.getToken(); //before the task is interrupted, which could still offer a token
+            task.cancel(true);
+            Metrics.getInstance().decisionTimeout(autoMode);}
+        catch (ExecutionException ex) {
+            selectedToken=-1;} //the mode failed, the fallback is counted in the Metrics
+        catch (InterruptedException ex) {
+            selectedToken=decision.getToken();
+            task.cancel(true);
+            Thread.currentThread().interrupt();}
+        if(selectedToken<0){
+            Metrics.getInstance().decisionFallback(autoMode);
+            selectedToken=maxRewardToken(game);
+        }
+        return selectedToken;
+    }
+    
     /**
      * Selects the index of the token to be moved according to the player's AutoplayMode settings.
+     * All the modes but random play the races, where the tokens of the player can no longer meet its opponents,
+     * with the moves of the RaceTablebase. The players without deadline wait for the tablebase to be loaded, so a seeded
+     * game always plays the same moves; the players with a deadline, such as the ones of the GUI, play their own moves
+     * until it has been loaded in the background.
+     * The time taken by the decision is recorded in the Metrics of the application.
      * @param game instance of the GameState class containing the state of each of the elements present in a round of Ludo
      * @return the index of the selected token
      */
     public int selectToken(GameState game){
+        return selectToken(game, null);
+    }
+
+    //Selects the token as selectToken, offering the best token found so far to the decision if there is one
+    int selectToken(GameState game, Decision decision){
         AutoplayMode autoMode=game.getPlayers()[game.getCurrentPlayer()].getAutoMode();
         int selectedToken=0;
-        switch(autoMode){
+        DecisionEvent event = new DecisionEvent();
+        event.begin();
+        long start = System.nanoTime();
+        RaceTablebase race;
+        if (autoMode != AutoplayMode.random && RaceTablebase.isRace(game)
+                && (race = this.deadlines[game.getCurrentPlayer()] > 0 ? RaceTablebase.getLoaded() : RaceTablebase.getDefault()) != null)
+            selectedToken = race.selectToken(game);
+        else switch(autoMode){
             case customAI:{selectedToken = maxRewardToken(game); break;}
-            case qLearning:{selectedToken = maxQToken(game); break;}
+            case qLearning:{selectedToken = maxQToken(game, decision); break;}
             case random:{selectedToken = randomToken(game); break;}
+            case stateQLearning:{
+                StateQLearning learner = this.stateQ[game.getCurrentPlayer()];
+                selectedToken = (learner == null ? StateQLearning.getDefault() : learner).selectToken(game, decision);
+                break;}
+            case tdLambda:{
+                TDLearning learner = this.td[game.getCurrentPlayer()];
+                selectedToken = (learner == null ? TDLearning.getDefault() : learner).selectToken(game, decision);
+                break;}
+            case external:{
+                ExternalBot bot = this.external[game.getCurrentPlayer()];
+                if (bot == null)
+                    bot = ExternalBot.getDefault();
+                selectedToken = bot == null ? -1 : bot.selectToken(game);
+                if (selectedToken < 0) {
+                    Metrics.getInstance().decisionFallback(autoMode);
+                    selectedToken = maxRewardToken(game);
+                }
+                break;}
+        }
+        Metrics.getInstance().decision(autoMode, System.nanoTime() - start);
+        if (event.shouldCommit()) {
+            event.mode = autoMode.name();
+            event.player = game.getCurrentPlayer();
+            event.dice = game.getDice().getResult();
+            event.candidates = game.getXTokens().size();
+            event.token = selectedToken;
+            event.commit();
         }
         return selectedToken;
     }
@@ -0,0 +1,91 @@
+package ludo;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Saves a round of Ludo in the background every time a roll or a move is complete.
+ * <p>
+ * The thread that plays the game only takes a snapshot of the state (about a hundred bytes) and hands it
+ * to a writer thread, so it never waits for the disk. The writer always saves the latest snapshot:
+ * if several snapshots arrive while a file is being written, only the last one is saved.
+ * Save files are replaced atomically by the GameSaver.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.GameSaver
+ */
+public class Autosave implements GameListener, Closeable {
+
+    private final GameState game;
+    private final File file;
+    private final AtomicReference<byte[]> latest = new AtomicReference<>();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    /**
+     * Starts saving a game into the given file.
+     * @param game the game to be saved
+     * @param file the save file
+     */
+    public Autosave(GameState game, File file) {
+        this.game = game;
+        this.file = file;
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "ludo-autosave");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        this.latest.set(GameSnapshot.capture(game));
+        game.getEvents().subscribe(this);
+    }
+
+    /**
+     * Takes a snapshot of the game whenever it is in a consistent state and wakes up the writer thread.
+     * @param event the change published by the game
+     */
+    @Override
+    public void onEvent(GameEvent event) {
+        if (event.getType() == GameEvent.Type.ready || event.getType() == GameEvent.Type.settings) {
+            this.latest.set(GameSnapshot.capture(this.game));
+            LockSupport.unpark(this.writer);
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            byte[] snapshot = this.latest.getAndSet(null);
+            if (snapshot != null) {
+                try {
+                    GameSaver.write(this.game.getSeed(), snapshot, this.file);
+                } catch (IOException ex) {
+                    System.err.println("Autosave could not be written.");
+                }
+            } else if (this.closed) {
+                return;
+            } else {
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    /**
+     * Stops saving the game, waiting until the latest snapshot is written.
+     */
+    @Override
+    public void close() {
+        this.game.getEvents().unsubscribe(this);
+        this.closed = true;
+        LockSupport.unpark(this.writer);
+        try {
+            this.writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,663 @@
+package ludo;
+
+import java.util.Arrays;
+import ludo.Autoplay.AutoplayMode;
+
+/**
+ * Engine that plays many rounds of Ludo between computer-operated players in lockstep, without GUI.
+ * <p>
+ * Instead of one GameState per game, the state of all the games is kept in flat arrays of primitives
+ * (structure of arrays), indexed by game, seat and token. Every call to step advances every game by one
+ * dice roll and its move, with one simple loop per phase (roll, possible moves, selection, move),
+ * so the games are processed without pointer chasing and the loops stay small enough for the JIT to optimize.
+ * The random and customAI controllers are implemented as batch kernels over these arrays; the learning
+ * controllers are not supported, but a seat can be given a Policy that selects its tokens instead. The customAI players
+ * in a race select their moves with the RaceTablebase, as in Autoplay. Finished games are counted and, by default, restarted, so the engine can
+ * be used for bulk self-play.
+ * <p>
+ * The rules are the same as in GameState. The position of a token is stored as its progress from the point of view
+ * of its player: HOME, BOARD + relative tile [0-50] of the track, FINAL + position [0-5] in the final track.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.GameState
+ */
+public class BatchEngine {
+
+    /**
+     * Receives the decisions of the players and the end of the games of an engine, e.g. to record self-play data.
+     * The methods are called from the thread running the engine, and the state of the game can be read with the getters of the engine.
+     */
+    public interface Observer {
+        /**
+         * Called when the current player of a game has selected the token to move, before the move.
+         * @param engine the engine
+         * @param g the index of the game
+         */
+        void onDecision(BatchEngine engine, int g);
+
+        /**
+         * Called when a game is over, before it restarts.
+         * @param engine the engine
+         * @param g the index of the game
+         */
+        void onGameOver(BatchEngine engine, int g);
+    }
+
+    /**
+     * Selects the token moved by the player of a seat, instead of the kernel of its AutoplayMode, e.g. a learner in training.
+     */
+    public interface Policy {
+        /**
+         * Called when the player of the seat has tokens to move, before the move.
+         * @param engine the engine
+         * @param g the index of the game
+         * @return the index of the token to move, one of the movable tokens [0-3]
+         */
+        int selectToken(BatchEngine engine, int g);
+    }
+
+    public static final int HOME = 0, BOARD = 1, FINAL = 52, GOAL = FINAL + Player.GOAL;
+    private static final int TRACK = 52, START_DISTANCE = Player.START_DISTANCE;
+    static final boolean[] STAR = new boolean[TRACK], GLOBE = new boolean[TRACK];
+    static final byte[] NEXT_STAR = new byte[TRACK];
+
+    static {
+        for (int tile : Board.STAR_TILES)
+            STAR[tile] = true;
+        for (int tile : Board.GLOBE_TILES)
+            GLOBE[tile] = true;
+        for (int tile = 0; tile < TRACK; tile++) {
+            int next = (tile + 1) % TRACK;
+            while (!STAR[next])
+                next = (next + 1) % TRACK;
+            NEXT_STAR[tile] = (byte) next;
+        }
+    }
+
+    //customAI rewards, in the order of the conditions of Autoplay
+    static final int START_TOKEN = 0, HIT_GOAL = 1, HIT_STAR = 2, HIT_GLOBE = 3, START_FINAL_TRACK = 4,
+            SEND_HOME = 5, HIT_LAST_STAR = 6, AHEAD_OPPONENT = 7, BEHIND_OPPONENT = 8, DANGER = 9;
+    private static final String[] REWARD_NAMES = {"startToken", "hitGoal", "hitStar", "hitGlobe", "startFinalTrack",
+        "sendHome", "hitLastStar", "aheadOpponent", "behindOpponent", "danger"};
+
+    private final int games;
+    private final boolean special, restart;
+    private final AutoplayMode[] modes;
+    private final int[][] rewards = new int[4][];
+    private final int initialPlayers;
+
+    private final byte[] progress;        //[game*16 + seat*4 + token]
+    private final short[] safe;           //bit seat*4+token set if the token is safe in its start tile
+    private final byte[] playing;         //bit seat set while the player has tokens out of the goal
+    private final byte[] current, dice, movable, selected, winnerCount;
+    private final byte[] winners;         //[game*4 + place]
+    private final boolean[] extra;        //the current player plays again
+    private final int[] turn, casts;
+    private final int[] outTime;          //[game*16 + seat*4 + token] cast in which the token left home, orders the tokens as tokensOut
+    private final long[] rng;
+
+    private RaceTablebase race; //loaded by the first race
+    private Observer observer;
+    private final Policy[] policies = new Policy[4];
+    private long finished, totalTurns, totalCasts, steps;
+    private final long[][] places = new long[4][4]; //row is place, column is seat
+
+    /**
+     * Initializes an engine with all the games at the start.
+     * @param games the number of games played in lockstep
+     * @param players the seats that take part, e.g. all the values of ImgPath.Color
+     * @param modes the AutoplayMode of each of the 4 seats, random or customAI
+     * @param special whether the board is special (true) or regular (false)
+     * @param seed the seed of the random number generators of the games
+     * @param restart whether a finished game starts again (true) or stays over (false)
+     * @throws IllegalArgumentException if a seat uses a mode other than random or customAI
+     */
+    public BatchEngine(int games, java.util.List<ImgPath.Color> players, AutoplayMode[] modes, boolean special, long seed, boolean restart) {
+        this.games = games;
+        this.special = special;
+        this.restart = restart;
+        this.modes = modes.clone();
+        Autoplay defaults = new Autoplay();
+        for (int seat = 0; seat < 4; seat++) {
+            if (modes[seat] != AutoplayMode.customAI && modes[seat] != AutoplayMode.random)
+                throw new IllegalArgumentException("The batch engine only supports the random and customAI modes.");
+            setRewards(seat, defaults.getRewards(seat));
+        }
+        int mask = 0;
+        for (ImgPath.Color c : players)
+            mask |= 1 << c.ordinal();
+        this.initialPlayers = mask;
+        this.progress = new byte[games * 16];
+        this.safe = new short[games];
+        this.playing = new byte[games];
+        this.current = new byte[games];
+        this.dice = new byte[games];
+        this.movable = new byte[games];
+        this.selected = new byte[games];
+        this.winnerCount = new byte[games];
+        this.winners = new byte[games * 4];
+        this.extra = new boolean[games];
+        this.turn = new int[games];
+        this.casts = new int[games];
+        this.outTime = new int[games * 16];
+        this.rng = new long[games];
+        for (int g = 0; g < games; g++) {
+            this.rng[g] = seed + g * 0x9E3779B97F4A7C15L;
+            reset(g);
+        }
+    }
+
+    /**
+     * Sets the customAI rewards of a seat.
+     * @param seat the index of the player [0-3]
+     * @param weights the reward of each condition, as in Autoplay
+     */
+    public final void setRewards(int seat, java.util.Map<String, Integer> weights) {
+        int[] r = new int[REWARD_NAMES.length];
+        for (int i = 0; i < r.length; i++)
+            r[i] = weights.get(REWARD_NAMES[i]);
+        this.rewards[seat] = r;
+    }
+
+    /**
+     * Sets the observer notified of every decision and of every game over.
+     * @param observer the observer, or null to have none
+     */
+    public void setObserver(Observer observer) {
+        this.observer = observer;
+    }
+
+    /**
+     * Sets the policy that selects the tokens of a seat, replacing the kernel of its mode.
+     * @param seat the index of the player [0-3]
+     * @param policy the policy, or null to use the mode of the seat again
+     */
+    public void setPolicy(int seat, Policy policy) {
+        this.policies[seat] = policy;
+    }
+
+    private void reset(int g) {
+        Arrays.fill(this.progress, g * 16, g * 16 + 16, (byte) HOME);
+        this.safe[g] = 0;
+        this.playing[g] = (byte) this.initialPlayers;
+        this.winnerCount[g] = 0;
+        this.extra[g] = false;
+        this.turn[g] = 0;
+        this.casts[g] = 0;
+        this.current[g] = (byte) nthPlayer(this.initialPlayers, 0);
+    }
+
+    //the seat of the n-th active player (modulo the number of active players), as xPlayers.get(turn % xPlayers.size())
+    private static int nthPlayer(int mask, int n) {
+        n %= Integer.bitCount(mask);
+        for (int seat = 0; seat < 4; seat++)
+            if ((mask & (1 << seat)) != 0 && n-- == 0)
+                return seat;
+        return 0;
+    }
+
+    /**
+     * Gets the progress of a token of a GameState, as stored by the engine.
+     * @param t the token
+     * @param seat the index of its player [0-3]
+     * @return HOME, BOARD + relative tile [0-50] or FINAL + position in the final track [0-5]
+     */
+    static int progress(Token t, int seat) {
+        if (t.getFinalTrack())
+            return FINAL + t.getPosition();
+        if (t.getPosition() == Player.OUT_OF_BOARD)
+            return HOME;
+        return BOARD + (t.getPosition() + TRACK - seat * START_DISTANCE) % TRACK;
+    }
+
+    private long nextRandom(int g) {
+        long z = (this.rng[g] += 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Advances every game that is not over by one dice roll and its move.
+     */
+    public void step() {
+        roll();
+        play();
+    }
+
+    /**
+     * Advances every game that is not over by the given number of steps.
+     * @param count the number of steps
+     */
+    public void run(int count) {
+        for (int i = 0; i < count; i++)
+            step();
+    }
+
+    //Kernel: every game rolls its dice
+    void roll() {
+        for (int g = 0; g < this.games; g++)
+            this.dice[g] = (byte) ((((nextRandom(g) >>> 32) * 6) >>> 32) + 1);
+    }
+
+    /**
+     * Applies the dice of every game that is not over: finds the possible moves, selects a token and moves it.
+     * The dice are the ones of the last roll, or the ones given with setDice.
+     */
+    public void play() {
+        findMovable();
+        for (int seat = 0; seat < 4; seat++) {
+            if (this.policies[seat] != null)
+                selectPolicy(seat);
+            else if (this.modes[seat] == AutoplayMode.customAI)
+                selectCustom(seat);
+            else
+                selectRandom(seat);
+        }
+        if (this.observer != null)
+            for (int g = 0; g < this.games; g++)
+                if (this.movable[g] != 0)
+                    this.observer.onDecision(this, g);
+        move();
+        this.steps++;
+    }
+
+    //Kernel: bit mask of the tokens of the current player that can be moved with the dice
+    private void findMovable() {
+        for (int g = 0; g < this.games; g++) {
+            int base = g * 16 + this.current[g] * 4;
+            boolean six = this.dice[g] == 6;
+            int mask = 0;
+            for (int t = 0; t < 4; t++) {
+                int p = this.progress[base + t];
+                boolean can = six ? p != GOAL : p >= BOARD && p < GOAL;
+                mask |= (can ? 1 : 0) << t;
+            }
+            this.movable[g] = (byte) (this.playing[g] == 0 ? 0 : mask);
+        }
+    }
+
+    //Kernel: the games whose current player is in the given seat select a random movable token
+    private void selectRandom(int seat) {
+        for (int g = 0; g < this.games; g++) {
+            int mask = this.movable[g];
+            if (this.current[g] != seat || mask == 0)
+                continue;
+            int n = (int) ((((nextRandom(g) >>> 32) * Integer.bitCount(mask)) >>> 32));
+            int t = 0;
+            for (; t < 4; t++)
+                if ((mask & (1 << t)) != 0 && n-- == 0)
+                    break;
+            this.selected[g] = (byte) t;
+        }
+    }
+
+    //The games whose current player is in the given seat ask the policy of the seat
+    private void selectPolicy(int seat) {
+        Policy policy = this.policies[seat];
+        for (int g = 0; g < this.games; g++)
+            if (this.current[g] == seat && this.movable[g] != 0)
+                this.selected[g] = (byte) policy.selectToken(this, g);
+    }
+
+    //Kernel: the games whose current player is in the given seat select the movable token with the highest customAI reward
+    private void selectCustom(int seat) {
+        int[] r = this.rewards[seat];
+        int lastStar = (seat * START_DISTANCE + 50) % TRACK;
+        int[] opponents = new int[12], threats = new int[24];
+        for (int g = 0; g < this.games; g++) {
+            int mask = this.movable[g];
+            if (this.current[g] != seat || mask == 0)
+                continue;
+            if ((mask & (mask - 1)) == 0) {
+                this.selected[g] = (byte) Integer.numberOfTrailingZeros(mask); //a single movable token needs no rewards
+                continue;
+            }
+            if (RaceTablebase.isRace(this.progress, g * 16, this.playing[g], seat, this.special)) {
+                selectRace(g, seat);
+                continue;
+            }
+            //absolute positions of the opponent tokens on the track
+            int n = 0;
+            for (int o = 0; o < 4; o++) {
+                if (o == seat || (this.playing[g] & (1 << o)) == 0)
+                    continue;
+                for (int t = 0; t < 4; t++) {
+                    int p = this.progress[g * 16 + o * 4 + t];
+                    if (p >= BOARD && p < FINAL)
+                        opponents[n++] = (p - BOARD + o * START_DISTANCE) % TRACK;
+                }
+            }
+            //the danger of every tile of this roll is computed from the same threats
+            int threatCount = r[DANGER] == 0 ? 0 : DangerMap.getThreats(this.progress, g * 16, this.playing[g], seat, threats);
+            int d = this.dice[g];
+            boolean six = d == 6, found = false;
+            int best = -100, bestToken = 0, bestKey = 0;
+            for (int t = 0; t < 4; t++) {
+                if ((mask & (1 << t)) == 0)
+                    continue;
+                int p = this.progress[g * 16 + seat * 4 + t];
+                int reward = 0;
+                if (p == HOME)
+                    reward = r[START_TOKEN] + Math.round(r[DANGER] * DangerMap.getDanger(threats, threatCount, seat, seat * START_DISTANCE, this.special));
+                else if (p >= FINAL)
+                    reward = p - FINAL + d == Player.GOAL ? r[HIT_GOAL] : -(r[HIT_GOAL] / 2);
+                else {
+                    int position = (p - BOARD + seat * START_DISTANCE) % TRACK;
+                    int next = position + d; //not wrapped, as in Autoplay
+                    if (this.special && next < TRACK) {
+                        if (STAR[next])
+                            reward += r[HIT_STAR];
+                        if (GLOBE[next])
+                            reward += r[HIT_GLOBE];
+                    }
+                    if (position < lastStar && next > lastStar)
+                        reward += r[START_FINAL_TRACK];
+                    int ahead = 0, behind = 0;
+                    boolean hit = false;
+                    for (int i = 0; i < n; i++) {
+                        int o = opponents[i];
+                        hit |= o == next % TRACK;
+                        int gap = o - next % TRACK;
+                        ahead += gap >= 1 && gap <= 6 ? 1 : 0;
+                        behind += gap >= -6 && gap <= -1 ? 1 : 0;
+                    }
+                    if (hit)
+                        reward += r[SEND_HOME];
+                    if (next == lastStar)
+                        reward += r[HIT_LAST_STAR];
+                    reward += r[AHEAD_OPPONENT] * behind + r[BEHIND_OPPONENT] * ahead;
+                    float before = DangerMap.getDanger(threats, threatCount, seat, position, this.special), after = 0;
+                    if (p - BOARD + d <= 50) {
+                        int rest = next % TRACK;
+                        if (this.special && STAR[rest])
+                            rest = NEXT_STAR[rest];
+                        after = DangerMap.getDanger(threats, threatCount, seat, rest, this.special);
+                    }
+                    reward += Math.round(r[DANGER] * (after - before));
+                }
+                //ties go to the first token in the order of Autoplay: by index with a six, by time out of home otherwise
+                int key = six ? t : this.outTime[g * 16 + seat * 4 + t];
+                if (reward > best || (found && reward == best && key < bestKey)) {
+                    best = reward;
+                    bestToken = t;
+                    bestKey = key;
+                    found = true;
+                }
+            }
+            this.selected[g] = (byte) bestToken;
+        }
+    }
+
+    //Selects the movable token that leaves the fewest expected turns in the race tablebase, with the ties of selectCustom
+    private void selectRace(int g, int seat) {
+        int mask = this.movable[g], d = this.dice[g], bestToken = 0, bestKey = 0;
+        float best = Float.MAX_VALUE;
+        if (this.race == null)
+            this.race = RaceTablebase.getDefault();
+        for (int t = 0; t < 4; t++) {
+            if ((mask & (1 << t)) == 0)
+                continue;
+            float v = this.race.moveValue(this.progress, g * 16 + seat * 4, t, d, this.special);
+            int key = d == 6 ? t : this.outTime[g * 16 + seat * 4 + t];
+            if (v < best || (v == best && key < bestKey)) {
+                best = v;
+                bestToken = t;
+                bestKey = key;
+            }
+        }
+        this.selected[g] = (byte) bestToken;
+    }
+
+    //Kernel: moves the selected token of every game, or passes the dice if there are no possible moves
+    private void move() {
+        for (int g = 0; g < this.games; g++) {
+            if (this.playing[g] == 0)
+                continue;
+            int seat = this.current[g], d = this.dice[g];
+            this.casts[g]++;
+            this.extra[g] = d == 6;
+            if (this.movable[g] == 0) {
+                this.turn[g]++;
+                this.current[g] = (byte) nthPlayer(this.playing[g], this.turn[g]);
+                continue;
+            }
+            int t = this.selected[g];
+            int index = g * 16 + seat * 4 + t;
+            int p = this.progress[index];
+            if (p == HOME) {
+                p = BOARD;
+                this.outTime[index] = this.casts[g];
+                this.extra[g] = false;
+            } else if (p < FINAL) {
+                int r = p - BOARD + d;
+                p = r >= 51 ? FINAL + r - 51 : BOARD + r;
+            } else {
+                int x = p - FINAL + d;
+                p = FINAL + (x > Player.GOAL ? 2 * Player.GOAL - x : x);
+            }
+            if (p < FINAL) {
+                int position = (p - BOARD + seat * START_DISTANCE) % TRACK;
+                capture(g, seat, position);
+                if (this.special) {
+                    this.safe[g] &= (short) ~(1 << (seat * 4 + t));
+                    if (STAR[position])
+                        p = BOARD + (NEXT_STAR[position] - seat * START_DISTANCE + TRACK) % TRACK;
+                    else if (GLOBE[position])
+                        this.extra[g] = true;
+                    else if (position == seat * START_DISTANCE)
+                        this.safe[g] |= (short) (1 << (seat * 4 + t));
+                }
+            }
+            this.progress[index] = (byte) p;
+            if (p == GOAL && finishedTokens(g, seat) == 4) {
+                this.winners[g * 4 + this.winnerCount[g]++] = (byte) seat;
+                this.playing[g] &= (byte) ~(1 << seat);
+            }
+            if (!this.extra[g])
+                this.turn[g]++;
+            if (this.playing[g] != 0)
+                this.current[g] = (byte) nthPlayer(this.playing[g], this.turn[g]);
+            else
+                gameOver(g);
+        }
+    }
+
+    //Sends home the opponent tokens in the given absolute position of the track, unless they are safe
+    private void capture(int g, int seat, int position) {
+        for (int o = 0; o < 4; o++) {
+            if (o == seat || (this.playing[g] & (1 << o)) == 0)
+                continue;
+            int p = (position - o * START_DISTANCE + TRACK) % TRACK + BOARD;
+            if (p >= FINAL)
+                continue; //the tile before the start of the opponent, which its tokens never reach
+            for (int t = 0; t < 4; t++) {
+                int index = g * 16 + o * 4 + t;
+                if (this.progress[index] == p && (this.safe[g] & (1 << (o * 4 + t))) == 0)
+                    this.progress[index] = HOME;
+            }
+        }
+    }
+
+    private int finishedTokens(int g, int seat) {
+        int n = 0;
+        for (int t = 0; t < 4; t++)
+            n += this.progress[g * 16 + seat * 4 + t] == GOAL ? 1 : 0;
+        return n;
+    }
+
+    private void gameOver(int g) {
+        this.finished++;
+        this.totalTurns += this.turn[g];
+        this.totalCasts += this.casts[g];
+        for (int place = 0; place < this.winnerCount[g]; place++)
+            this.places[place][this.winners[g * 4 + place]]++;
+        if (this.observer != null)
+            this.observer.onGameOver(this, g);
+        if (this.restart)
+            reset(g);
+    }
+
+    /**
+     * Gets the number of games played at the same time by the engine.
+     * @return the number of games
+     */
+    public int getGameCount() {
+        return this.games;
+    }
+
+    /**
+     * Gets the number of steps (rolls) applied to every game.
+     * @return the number of calls to step
+     */
+    public long getSteps() {
+        return this.steps;
+    }
+
+    /**
+     * Gets the number of games finished so far.
+     * @return the finished games, including the ones restarted
+     */
+    public long getFinishedGames() {
+        return this.finished;
+    }
+
+    /**
+     * Gets the average number of turns of the finished games.
+     * @return the average turns per game
+     */
+    public double getAverageTurns() {
+        return this.finished == 0 ? 0 : (double) this.totalTurns / this.finished;
+    }
+
+    /**
+     * Gets the average number of dice casts of the finished games.
+     * @return the average casts per game
+     */
+    public double getAverageCasts() {
+        return this.finished == 0 ? 0 : (double) this.totalCasts / this.finished;
+    }
+
+    /**
+     * Gets the number of finished games in which a seat finished in the given place.
+     * @param seat the index of the player [0-3]
+     * @param place the place [0-3], 0 is the winner
+     * @return the number of games
+     */
+    public long getPlaceCount(int seat, int place) {
+        return this.places[place][seat];
+    }
+
+    /**
+     * Indicates whether a game is over. Only happens if the engine does not restart finished games.
+     * @param g the index of the game
+     * @return true if all the players of the game have finished
+     */
+    public boolean isOver(int g) {
+        return this.playing[g] == 0;
+    }
+
+    /**
+     * Gets the progress of a token.
+     * @param g the index of the game
+     * @param seat the index of the player [0-3]
+     * @param token the index of the token [0-3]
+     * @return HOME, BOARD + relative tile [0-50] or FINAL + position in the final track [0-5]
+     */
+    public int getProgress(int g, int seat, int token) {
+        return this.progress[g * 16 + seat * 4 + token];
+    }
+
+    /**
+     * Indicates whether a token is safe in the start tile of its player, only possible in the special board.
+     * @param g the index of the game
+     * @param seat the index of the player [0-3]
+     * @param token the index of the token [0-3]
+     * @return true if the token can not be captured
+     */
+    public boolean isSafe(int g, int seat, int token) {
+        return (this.safe[g] & (1 << (seat * 4 + token))) != 0;
+    }
+
+    /**
+     * Gets the seats that take part in the games.
+     * @return bit mask with the bit of every seat set
+     */
+    public int getPlayerMask() {
+        return this.initialPlayers;
+    }
+
+    /**
+     * Indicates whether the games are played in the special board.
+     * @return true if the board is special
+     */
+    public boolean getSpecial() {
+        return this.special;
+    }
+
+    /**
+     * Gets the seat of the player whose turn it is.
+     * @param g the index of the game
+     * @return the index of the player [0-3]
+     */
+    public int getCurrentPlayer(int g) {
+        return this.current[g];
+    }
+
+    /**
+     * Gets the result of the last roll of a game.
+     * @param g the index of the game
+     * @return the dice [1-6]
+     */
+    public int getDice(int g) {
+        return this.dice[g];
+    }
+
+    /**
+     * Gets the tokens of the current player that can be moved with the dice of the last roll.
+     * @param g the index of the game
+     * @return bit mask with the bit of every movable token set
+     */
+    public int getMovable(int g) {
+        return this.movable[g];
+    }
+
+    /**
+     * Gets the token selected by the current player, only meaningful when there are movable tokens.
+     * @param g the index of the game
+     * @return the index of the token [0-3]
+     */
+    public int getSelected(int g) {
+        return this.selected[g];
+    }
+
+    /**
+     * Gets the number of turns played in a game.
+     * @param g the index of the game
+     * @return the turns since the game started
+     */
+    public int getTurnCount(int g) {
+        return this.turn[g];
+    }
+
+    /**
+     * Gets the seats of a game in the order they finished.
+     * @param g the index of the game
+     * @return the seats that have finished
+     */
+    public int[] getWinners(int g) {
+        int[] w = new int[this.winnerCount[g]];
+        for (int i = 0; i < w.length; i++)
+            w[i] = this.winners[g * 4 + i];
+        return w;
+    }
+
+    /**
+     * Sets the dice result of a game for the next call to play, e.g. to follow a recorded game.
+     * @param g the index of the game
+     * @param result the dice result [1-6]
+     */
+    public void setDice(int g, int result) {
+        this.dice[g] = (byte) result;
+    }
+}
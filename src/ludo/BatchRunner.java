@@ -0,0 +1,292 @@
+package ludo;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import ludo.Autoplay.AutoplayMode;
+import ludo.ImgPath.Color;
+
+/**
+ * Headless runner of rounds of Ludo between computer-operated players, configured by a scenario file.
+ * <p>
+ * The scenario is a properties file with the following keys:
+ * <ul>
+ * <li>colors : the colors of the active players, e.g. "red, green, blue" (default all)
+ * <li>modes : the AutoplayMode of each seat in the order yellow, red, green, blue, or a single mode for all seats (default customAI)
+ * <li>board : "special" or "regular" (default special)
+ * <li>games : the number of games to run (default 100)
+ * <li>seed : the seed of the first game, game i uses seed+i (default current time)
+ * <li>threads : the number of games run in parallel (default number of processors)
+ * <li>output : the file the results are written to (default standard output)
+ * <li>external : the settings file of the ExternalBot of the external mode (default ExternalBot.DEFAULT_FILE); its
+ * decisions are batched across the games played at the same time, so it is worth running many more threads than processors
+ * </ul>
+ * Every game is written as soon as it finishes as a comma separated line
+ * "game,seed,turns,casts,millis,1st,2nd,3rd,4th", followed at the end by a summary in lines starting with '#'.
+ * Since every game has its own seed, the results of a scenario do not depend on the number of threads.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ */
+public class BatchRunner {
+
+    public static final String HEADER = "game,seed,turns,casts,millis,1st,2nd,3rd,4th";
+    static final int MAX_STEPS = 100000; //a game taking longer is abandoned
+
+    private final List<Color> colors = new ArrayList<>();
+    private final List<AutoplayMode> modes = new ArrayList<>();
+    private final boolean special;
+    private final int games, threads;
+    private final long seed;
+    private final String output;
+
+    //every worker thread adds its games to its own accumulator, they are merged when the summary is written
+    private final List<GameStats> workerStats = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<GameStats> stats = new ThreadLocal<GameStats>() {
+        @Override
+        protected GameStats initialValue() {
+            GameStats s = new GameStats();
+            workerStats.add(s);
+            return s;
+        }
+    };
+
+    /**
+     * Initializes a runner with the settings of a scenario.
+     * @param scenario the properties of the scenario
+     * @throws IllegalArgumentException if a value of the scenario is not valid
+     */
+    public BatchRunner(Properties scenario) {
+        String c = scenario.getProperty("colors", "").trim();
+        if (c.isEmpty())
+            this.colors.addAll(Arrays.asList(Color.values()));
+        else
+            for (String color : c.split("\\s*,\\s*"))
+                this.colors.add(Color.valueOf(color));
+        String[] m = scenario.getProperty("modes", GameState.DEFAULT_AUTOMODE.name()).trim().split("\\s*,\\s*");
+        if (m.length != 1 && m.length != 4)
+            throw new IllegalArgumentException("modes must contain 1 or 4 values.");
+        for (int i = 0; i < 4; i++)
+            this.modes.add(AutoplayMode.valueOf(m[m.length == 1 ? 0 : i]));
+        String board = scenario.getProperty("board", "special").trim();
+        if (!board.equals("special") && !board.equals("regular"))
+            throw new IllegalArgumentException("board must be special or regular.");
+        this.special = board.equals("special");
+        this.games = Integer.parseInt(scenario.getProperty("games", "100").trim());
+        this.seed = Long.parseLong(scenario.getProperty("seed", String.valueOf(System.currentTimeMillis())).trim());
+        this.threads = Integer.parseInt(scenario.getProperty("threads", String.valueOf(Runtime.getRuntime().availableProcessors())).trim());
+        this.output = scenario.getProperty("output", "").trim();
+        String external = scenario.getProperty("external", "").trim();
+        if (!external.isEmpty()) {
+            try {
+                ExternalBot.setDefault(ExternalBot.load(new File(external)));}
+            catch (IOException ex) {
+                throw new IllegalArgumentException("external bot could not be read: " + ex.getMessage());}
+        }
+    }
+
+    /**
+     * Loads a scenario file.
+     * @param file the properties file describing the scenario
+     * @return a runner for the scenario
+     * @throws IOException if the file can not be read
+     */
+    public static BatchRunner load(File file) throws IOException {
+        Properties scenario = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            scenario.load(in);}
+        return new BatchRunner(scenario);
+    }
+
+    /**
+     * Creates the game of a seat configuration with all the players computer-operated.
+     * @param seed the seed of the game
+     * @return a new game ready to be played
+     */
+    GameState newGame(long seed) {
+        GameState game = new GameState(GameState.DEFAULT_THEME, this.colors,
+                Arrays.asList(true, true, true, true), this.modes, this.special);
+        game.setSeed(seed);
+        return game;
+    }
+
+    /**
+     * Gets the number of games of the scenario.
+     * @return the number of games
+     */
+    int getGames() {
+        return this.games;
+    }
+
+    /**
+     * Gets the seed of the first game of the scenario.
+     * @return the seed, game i uses seed+i
+     */
+    long getSeed() {
+        return this.seed;
+    }
+
+    /**
+     * Gets the AutoplayMode of each seat.
+     * @return the modes in the order yellow, red, green, blue
+     */
+    AutoplayMode[] getModes() {
+        return this.modes.toArray(new AutoplayMode[4]);
+    }
+
+    /**
+     * Plays a game until it is over, without GUI.
+     * @param game the game to be played
+     * @return true if the game finished, false if it was abandoned after MAX_STEPS steps
+     */
+    public static boolean play(GameState game) {
+        for (int steps = 0; game.getPlaying(); steps++) {
+            if (steps == MAX_STEPS)
+                return false;
+            if (game.getDiceRoller()) {
+                game.rollAndCheckActiveTokens();
+                game.checkMoveOrPass();}
+            else
+                game.autoMove();
+        }
+        return true;
+    }
+
+    /**
+     * Runs all the games of the scenario and writes the results to the output of the scenario.
+     * @throws IOException if the output can not be written
+     * @throws InterruptedException if the thread is interrupted while waiting for the games
+     */
+    public void run() throws IOException, InterruptedException {
+        try (Writer out = this.output.isEmpty()
+                ? new BufferedWriter(new OutputStreamWriter(System.out))
+                : new BufferedWriter(new FileWriter(this.output))) {
+            run(out);}
+    }
+
+    /**
+     * Runs all the games of the scenario and writes the results to the given writer.
+     * @param out the writer the results are streamed to
+     * @throws IOException if the output can not be written
+     * @throws InterruptedException if the thread is interrupted while waiting for the games
+     */
+    public void run(Writer out) throws IOException, InterruptedException {
+        out.write(HEADER + "\n");
+        out.flush();
+        play(0, this.games, out);
+        out.write(summary());
+        out.flush();
+    }
+
+    /**
+     * Plays a range of the games of the scenario and writes the line of every game to the given writer.
+     * A game that throws an exception is reported on the standard error and written as abandoned, without winners.
+     * @param first the index of the first game
+     * @param count the number of games
+     * @param out the writer the lines are streamed to
+     * @throws IOException if the output can not be written
+     * @throws InterruptedException if the thread is interrupted while waiting for the games
+     * @see ludo.ShardWorker
+     */
+    void play(int first, int count, final Writer out) throws IOException, InterruptedException {
+        final IOException[] error = new IOException[1];
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, this.threads));
+        for (int g = first; g < first + count; g++) {
+            final int index = g;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    GameState game = null;
+                    boolean over = false;
+                    try {
+                        game = newGame(seed + index);
+                        over = play(game);}
+                    catch (RuntimeException ex) {
+                        System.err.println("Game " + index + " abandoned: " + ex);}
+                    long ms = (System.nanoTime() - start) / 1000000;
+                    String line = game != null ? result(index, game, over, ms)
+                            : index + "," + (seed + index) + ",0,0," + ms + ",,,,\n";
+                    synchronized (out) {
+                        try {
+                            out.write(line);
+                            out.flush();}
+                        catch (IOException ex) {
+                            error[0] = ex;}
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        if (error[0] != null)
+            throw error[0];
+    }
+
+    //Formats the line of a game and adds it to the statistics of the worker thread
+    private String result(int index, GameState game, boolean over, long ms) {
+        StringBuilder line = new StringBuilder();
+        line.append(index).append(',').append(this.seed + index).append(',').append(game.getTurnCount())
+                .append(',').append(game.getDice().getDiceRollCount()).append(',').append(ms);
+        for (int i = 0; i < 4; i++) {
+            line.append(',');
+            if (over && i < game.getWinners().size())
+                line.append(game.getPlayers()[game.getWinners().get(i)].getColor());
+        }
+        if (over)
+            this.stats.get().add(game, ms);
+        return line.append('\n').toString();
+    }
+
+    /**
+     * Gets the statistics of the games finished so far, merging the accumulators of all the worker threads.
+     * It should be called once the games are over.
+     * @return the statistics of the scenario
+     */
+    public GameStats getStats() {
+        GameStats total = new GameStats();
+        for (GameStats s : this.workerStats)
+            total.merge(s);
+        return total;
+    }
+
+    /**
+     * Gets the summary of the games finished so far: percentage of each place by color and distribution of the game length.
+     * @return the summary, every line starting with '#'
+     */
+    public String summary() {
+        GameStats total = getStats();
+        return String.format("# %d of %d games finished%n", total.getGames(), this.games)
+                + total.report(this.modes.toArray(new AutoplayMode[4]), "# ");
+    }
+
+    /**
+     * Runs the scenario file given as the only argument.
+     * @param args the path of the scenario file
+     */
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.out.println("Usage: java ludo.BatchRunner <scenario file>");
+            System.exit(1);
+        }
+        try {
+            load(new File(args[0])).run();}
+        catch (IOException | IllegalArgumentException ex) {
+            System.out.println("Scenario could not be run: " + ex.getMessage());
+            System.exit(1);}
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();}
+    }
+}
@@ -4,7 +4,7 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import javax.imageio.ImageIO;
@@ -29,8 +29,7 @@ public class Board {
     public static final List<Integer> STAR_TILES = Arrays.asList(5, 11, 18, 24, 31, 37, 44, 50);
 
     private boolean special;
-    private final Map<Theme, BufferedImage> img = new HashMap<>();
-    private final Map<Theme, BufferedImage> imgsp = new HashMap<>();
+    private static Map<Theme, BufferedImage> img, imgsp; //shared by all boards, loaded the first time they are drawn
 
     /**
      * Initializes an instance of Board according to the parameter special
@@ -38,6 +37,14 @@ public class Board {
      */
     public Board(boolean special) {
         this.special = special;
+    }
+
+    //Loads the images of the boards, so games without GUI never read them
+    private static synchronized void loadImages() {
+        if (img != null)
+            return;
+        img = new EnumMap<>(Theme.class);
+        imgsp = new EnumMap<>(Theme.class);
         for (Theme t : Theme.values()) {
             ImgPath.setBoardPath(t);
             try {
@@ -55,6 +62,7 @@ public class Board {
      * @return the image used to represent the board
      */
     public BufferedImage getImg(Theme theme) {
+        loadImages();
         return img.get(theme);
     }
 
@@ -64,6 +72,7 @@ public class Board {
      * @return the image mask used to mark the location of the special tiles (stars and globes) in the board
      */
     public BufferedImage getImgSp(Theme theme) {
+        loadImages();
         return imgsp.get(theme);
     }
 
@@ -0,0 +1,150 @@
+package ludo;
+
+import java.util.HashMap;
+import java.util.Map;
+import static ludo.Player.GOAL;
+import static ludo.Player.OUT_OF_BOARD;
+
+/**
+ * Precomputed screen coordinates for every place a token can be drawn.
+ * The table is indexed by seat (player index), token slot (token index), position in the board
+ * and whether the token is in its final track, and it is built only once for each tile size.
+ * <p>
+ * The formulas used to fill the table are the ones that used to be evaluated by the Player class
+ * every time a token was moved or a click was checked.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ */
+public class CoordinateTable {
+
+    private static final int POSITIONS = OUT_OF_BOARD + 1;
+    private static final Map<Integer, CoordinateTable> TABLES = new HashMap<>();
+
+    private final int tileSize;
+    private final int[] x, y;
+
+    private CoordinateTable(int tileSize) {
+        this.tileSize = tileSize;
+        this.x = new int[4 * 4 * 2 * POSITIONS];
+        this.y = new int[4 * 4 * 2 * POSITIONS];
+        for (int pIndex = 0; pIndex < 4; pIndex++) {
+            for (int tIndex = 0; tIndex < 4; tIndex++) {
+                int[] home = outOfBoardCoordinates(pIndex, tIndex);
+                for (int ft = 0; ft < 2; ft++) {
+                    int i = index(pIndex, tIndex, OUT_OF_BOARD, ft == 1);
+                    x[i] = home[0];
+                    y[i] = home[1];
+                }
+                for (int pos = 0; pos < 52; pos++) {
+                    int i = index(pIndex, tIndex, pos, false);
+                    x[i] = boardCoordinates(pos);
+                    y[i] = boardCoordinates((pos + 39) % 52);
+                }
+                for (int pos = 0; pos <= GOAL; pos++) {
+                    int[] coordinates = finalTrackCoordinates(pos, pIndex, tIndex);
+                    int i = index(pIndex, tIndex, pos, true);
+                    x[i] = coordinates[0];
+                    y[i] = coordinates[1];
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the coordinate table for a given tile size, building it the first time it is requested.
+     * @param tileSize the size of a board tile in pixels
+     * @return the coordinate table for the given tile size
+     */
+    public static synchronized CoordinateTable forTileSize(int tileSize) {
+        CoordinateTable table = TABLES.get(tileSize);
+        if (table == null) {
+            table = new CoordinateTable(tileSize);
+            TABLES.put(tileSize, table);
+        }
+        return table;
+    }
+
+    private static int index(int pIndex, int tIndex, int pos, boolean finalTrack) {
+        return ((pIndex * 4 + tIndex) * 2 + (finalTrack ? 1 : 0)) * POSITIONS + pos;
+    }
+
+    /**
+     * Gets the size of the tiles this table was built for.
+     * @return the tile size in pixels
+     */
+    public int getTileSize() {
+        return this.tileSize;
+    }
+
+    /**
+     * Gets the coordinate x of a token.
+     * @param pIndex int number [0-3] representing the index of the player in the players array
+     * @param tIndex int number [0-3] representing the index of the token in the tokens array
+     * @param pos position of the token in the board, in its final track or OUT_OF_BOARD
+     * @param finalTrack whether the token is in its final track
+     * @return coordinate x of the token in the graphic frame
+     */
+    public int getX(int pIndex, int tIndex, int pos, boolean finalTrack) {
+        return this.x[index(pIndex, tIndex, pos, finalTrack)];
+    }
+
+    /**
+     * Gets the coordinate y of a token.
+     * @param pIndex int number [0-3] representing the index of the player in the players array
+     * @param tIndex int number [0-3] representing the index of the token in the tokens array
+     * @param pos position of the token in the board, in its final track or OUT_OF_BOARD
+     * @param finalTrack whether the token is in its final track
+     * @return coordinate y of the token in the graphic frame
+     */
+    public int getY(int pIndex, int tIndex, int pos, boolean finalTrack) {
+        return this.y[index(pIndex, tIndex, pos, finalTrack)];
+    }
+
+    /**
+     * Gets the coordinates x and y for a token in its home area.
+     */
+    private int[] outOfBoardCoordinates(int pIndex, int tIndex) {
+        int coordinates[] = new int[2];
+        coordinates[0] = tileSize/2*(21 + 4 * (tIndex / 2) - 18 * (pIndex / 2));
+        coordinates[1] = tileSize/2*(3 + 4 * (tIndex % 2) + 18 * ((pIndex % 3) > 0 ? 1 : 0));
+        return coordinates;
+    }
+
+    /**
+     * Gets the coordinate x for a token standing in any of the board tiles.
+     * The coordinate y is obtained with the same formula for the position (pos + 39) % 52.
+     */
+    private int boardCoordinates(int pos) {
+        int coordinate;
+        int a = pos % 26;
+        int b = 7 - Math.abs(a - 11);
+        int c = pos > 24 & pos != 51 ? 2 : 0;
+        coordinate = (pos != 24 & pos != 50) ? c + (((a > 4) & (a < 18)) ? (b - (b / 7)) : 0) : 1;
+        coordinate = pos > 23 ? tileSize*(8 - coordinate) : tileSize*(8 + coordinate);
+        return coordinate;
+    }
+
+    /**
+     * Gets the coordinates x and y for a token in its final track.
+     */
+    private int[] finalTrackCoordinates(int pos, int pIndex, int tIndex) {
+        int coordinates[] = new int[2];
+        if (pos != GOAL) {
+            coordinates[pIndex % 2] = tileSize*7;
+            if (pIndex % 3 == 0) {
+                coordinates[(pIndex + 1) % 2] = tileSize * (pos + 1);
+            } else {
+                coordinates[(pIndex + 1) % 2] = tileSize * (13 - pos);
+            }
+        } else {
+            if (pIndex % 2 == 0) {
+                coordinates[0] = tileSize*6 + tileSize/2*(1 + tIndex);
+                coordinates[1] = tileSize*6 + tileSize*2 * (pIndex / 2);
+            } else {
+                coordinates[0] = tileSize*6 + tileSize*2*(1 - (pIndex / 2));
+                coordinates[1] = tileSize*6 + tileSize/2*(1 + tIndex);
+            }
+        }
+        return coordinates;
+    }
+}
@@ -0,0 +1,255 @@
+package ludo;
+
+import java.util.Arrays;
+import static ludo.BatchEngine.BOARD;
+import static ludo.BatchEngine.FINAL;
+import static ludo.BatchEngine.GLOBE;
+import static ludo.BatchEngine.HOME;
+import static ludo.BatchEngine.NEXT_STAR;
+import static ludo.BatchEngine.STAR;
+import static ludo.Player.START_DISTANCE;
+
+/**
+ * Probability that a token standing in each tile of the board is captured before the next turn of its player.
+ * <p>
+ * The threat of a single token is precomputed for every progress of the token and distance to the tile, enumerating
+ * the rolls of a turn up to the third one: a six or a globe gives another roll, a star moves the token to the next star
+ * without capturing there, and a six brings a token from home to the start tile of its player, capturing there.
+ * After a six the opponent may also move another token and roll again. The tokens of an opponent are taken as
+ * independent threats (only one of its tokens at home is counted, as they share the same six), and so are the opponents.
+ * In the special board a token in the start tile of its own player is safe.
+ * <p>
+ * The map keeps, for every player, the probability of each tile surviving its tokens, and it is subscribed to the
+ * events of its game so that only the rows of the players whose tokens moved are computed again, once per move.
+ * The same values are computed for a single tile by getDanger(byte[], ...) from the progress arrays of BatchEngine.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.GameState#getDangerMap()
+ */
+public class DangerMap implements GameListener {
+
+    public static final int TILES = 52;
+    private static final int ROLLS = 3; //rolls of a turn taken into account
+    private static final float[][] THREAT = new float[2][]; //[special][progress*TILES + distance from the start tile of the opponent]
+
+    static {
+        for (int s = 0; s < 2; s++) {
+            THREAT[s] = new float[FINAL * TILES];
+            for (int p = HOME; p < FINAL; p++)
+                threat(p, s == 1, THREAT[s], p * TILES);
+        }
+    }
+
+    private final GameState game;
+    private final float[] survival = new float[4 * TILES]; //[seat*TILES + tile] probability of not being captured by the seat
+    private int playing; //bit mask of the seats taking part in the round
+
+    /**
+     * Creates the map of a game, which must be subscribed to the events of the game to be kept up to date.
+     * @param game the game
+     */
+    public DangerMap(GameState game) {
+        this.game = game;
+        update();
+    }
+
+    //Fills the probability of a token with the given progress capturing in every tile, relative to the start tile of its player
+    private static void threat(int progress, boolean special, float[] row, int offset) {
+        double[] p = new double[TILES];
+        if (progress == HOME)
+            p[0] = 1.0 / 6; //entering does not give another roll
+        else
+            roll(new int[]{progress}, 1, 0, 1.0, special, p);
+        for (int tile = 0; tile < TILES; tile++)
+            row[offset + tile] = (float) p[tile];
+    }
+
+    //Adds the probability of every roll sequence to the tiles where the token can capture in it
+    private static void roll(int[] heads, int depth, long mask, double probability, boolean special, double[] p) {
+        for (int d = 1; d <= 6; d++) {
+            long hit = mask;
+            int[] next = new int[heads.length * 2];
+            int n = 0;
+            for (int head : heads) {
+                int r = head - BOARD + d;
+                if (d == 6)
+                    next[n++] = head; //another token moves and the player rolls again
+                if (r >= 51)
+                    continue; //into the final track
+                int tile = r;
+                hit |= 1L << tile;
+                boolean again = d == 6;
+                if (special && STAR[tile])
+                    tile = NEXT_STAR[tile];
+                else if (special && GLOBE[tile])
+                    again = true;
+                if (again)
+                    next[n++] = BOARD + tile;
+            }
+            if (n == 0 || depth == ROLLS) {
+                for (int tile = 0; tile < TILES; tile++)
+                    if ((hit & (1L << tile)) != 0)
+                        p[tile] += probability / 6;
+            } else
+                roll(Arrays.copyOf(next, n), depth + 1, hit, probability / 6, special, p);
+        }
+    }
+
+    /**
+     * Gets the probability that a token with the given progress captures in a tile during the next turn of its player.
+     * @param progress the progress of the token as in BatchEngine
+     * @param distance the distance from the start tile of the player of the token to the tile [0-51]
+     * @param special whether the board is special
+     * @return the probability [0-1]
+     */
+    static float getThreat(int progress, int distance, boolean special) {
+        return progress >= FINAL ? 0 : THREAT[special ? 1 : 0][progress * TILES + distance];
+    }
+
+    //Probability of a tile not being captured by any token of a seat, with the tokens in the order 0-3
+    private static float survival(byte[] progress, int base, int seat, int tile, boolean special) {
+        float s = 1;
+        boolean home = false;
+        int distance = (tile - seat * START_DISTANCE + TILES) % TILES;
+        for (int t = 0; t < 4; t++) {
+            int p = progress[base + seat * 4 + t];
+            if (p == HOME && home)
+                continue;
+            home |= p == HOME;
+            s *= 1 - getThreat(p, distance, special);
+        }
+        return s;
+    }
+
+    /**
+     * Computes the probability that a token of a player standing in a tile is captured before the next turn of the player,
+     * with the same values as a DangerMap.
+     * @param progress the progress of every token (seat*4 + token) as in BatchEngine
+     * @param base the index of the first token of the game in progress
+     * @param playing bit mask of the seats that have not finished
+     * @param seat the index of the player [0-3]
+     * @param tile the tile of the board [0-51]
+     * @param special whether the board is special
+     * @return the probability [0-1]
+     */
+    static float getDanger(byte[] progress, int base, int playing, int seat, int tile, boolean special) {
+        if (special && tile == seat * START_DISTANCE)
+            return 0;
+        float s = 1;
+        for (int o = 0; o < 4; o++)
+            if (o != seat && (playing & (1 << o)) != 0)
+                s *= survival(progress, base, o, tile, special);
+        return 1 - s;
+    }
+
+    /**
+     * Gathers the tokens of the opponents of a player that can capture in their next turn, for getDanger(int[], ...),
+     * so the danger of several tiles of the same position is computed without reading the progress again.
+     * @param progress the progress of every token (seat*4 + token) as in BatchEngine
+     * @param base the index of the first token of the game in progress
+     * @param playing bit mask of the seats that have not finished
+     * @param seat the index of the player [0-3]
+     * @param threats filled with the offset of the THREAT row of every token and the start tile of its player
+     * @return the number of tokens gathered [0-12]
+     */
+    static int getThreats(byte[] progress, int base, int playing, int seat, int[] threats) {
+        int n = 0;
+        for (int o = 0; o < 4; o++) {
+            if (o == seat || (playing & (1 << o)) == 0)
+                continue;
+            boolean home = false;
+            for (int t = 0; t < 4; t++) {
+                int p = progress[base + o * 4 + t];
+                if (p >= FINAL || (p == HOME && home))
+                    continue; //no threat, or the same one as the token already counted
+                home |= p == HOME;
+                threats[2 * n] = p * TILES;
+                threats[2 * n++ + 1] = o * START_DISTANCE;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Computes the probability that a token of a player standing in a tile is captured before the next turn of the player,
+     * with the same values as getDanger(byte[], ...), from the tokens gathered by getThreats.
+     * @param threats the tokens gathered by getThreats
+     * @param count the number of tokens gathered
+     * @param seat the index of the player [0-3]
+     * @param tile the tile of the board [0-51]
+     * @param special whether the board is special
+     * @return the probability [0-1]
+     */
+    static float getDanger(int[] threats, int count, int seat, int tile, boolean special) {
+        if (special && tile == seat * START_DISTANCE)
+            return 0;
+        float[] threat = THREAT[special ? 1 : 0];
+        float s = 1;
+        for (int i = 0; i < count; ) {
+            //the tokens of an opponent are multiplied first, in the order of survival
+            int start = threats[2 * i + 1], distance = tile >= start ? tile - start : tile - start + TILES;
+            float survival = 1;
+            for (; i < count && threats[2 * i + 1] == start; i++)
+                survival *= 1 - threat[threats[2 * i] + distance];
+            s *= survival;
+        }
+        return 1 - s;
+    }
+
+    /**
+     * Gets the probability that a token of a player standing in a tile is captured before the next turn of the player.
+     * @param seat the index of the player [0-3]
+     * @param tile the tile of the board [0-51]
+     * @return the probability [0-1]
+     */
+    public float getDanger(int seat, int tile) {
+        if (this.game.getBoard().getSpecial() && tile == seat * START_DISTANCE)
+            return 0;
+        float s = 1;
+        for (int o = 0; o < 4; o++)
+            if (o != seat && (this.playing & (1 << o)) != 0)
+                s *= this.survival[o * TILES + tile];
+        return 1 - s;
+    }
+
+    //Computes again the row of a seat from the tokens of its player
+    private void update(int seat) {
+        byte[] progress = RaceTablebase.progress(this.game);
+        boolean special = this.game.getBoard().getSpecial();
+        for (int tile = 0; tile < TILES; tile++)
+            this.survival[seat * TILES + tile] = survival(progress, 0, seat, tile, special);
+    }
+
+    //Computes again the whole map
+    private void update() {
+        this.playing = 0;
+        for (int p : this.game.getXPlayers())
+            this.playing |= 1 << p;
+        for (int seat = 0; seat < 4; seat++)
+            update(seat);
+    }
+
+    /**
+     * Updates the rows of the players whose tokens changed.
+     * @param event the change published by the game
+     */
+    @Override
+    public void onEvent(GameEvent event) {
+        switch (event.getType()) {
+            case move:
+            case starJump:
+            case goal:
+                update(event.getPlayer());
+                break;
+            case capture:
+                update(event.getTarget());
+                break;
+            case playerFinished:
+            case settings:
+                update();
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package ludo;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded cache from a compact key to an int value, shared by the threads of the process without locks.
+ * <p>
+ * The cache is set associative: a key can only be stored in the WAYS slots of its bucket, and each bucket evicts with
+ * the CLOCK algorithm, i.e. its hand skips and clears the slots read since it last passed them and replaces the first
+ * slot that was not. A slot is a single long with the key, the value and the reference bit, so it is read with one
+ * volatile read and replaced with one compare and swap, and a reader never sees the key of an entry with the value of
+ * another. The hits and misses are counted in the Metrics.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.Autoplay
+ */
+public class DecisionCache {
+
+    public static final int WAYS = 8;
+    public static final int MAX_KEY = (1 << 30) - 1;
+    private static final long REFERENCED = 1L << 62;
+
+    private final AtomicLongArray slots;  //[(key + 1) << 32 | value], 0 if empty
+    private final AtomicIntegerArray hands;
+    private final int mask;
+
+    /**
+     * Creates an empty cache.
+     * @param capacity the maximum number of entries, rounded up to a power of two of at least WAYS
+     */
+    public DecisionCache(int capacity) {
+        int buckets = Integer.highestOneBit(Math.max(WAYS, capacity) - 1) * 2 / WAYS;
+        this.slots = new AtomicLongArray(buckets * WAYS);
+        this.hands = new AtomicIntegerArray(buckets);
+        this.mask = buckets - 1;
+    }
+
+    private int bucket(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & this.mask;
+    }
+
+    /**
+     * Gets the value of a key, marking the entry as recently used.
+     * @param key the key [0-MAX_KEY]
+     * @param defaultValue the value returned if the key is not in the cache
+     * @return the value of the key, or defaultValue
+     */
+    public int get(int key, int defaultValue) {
+        int base = bucket(key) * WAYS;
+        long tag = (long) (key + 1) << 32;
+        for (int i = base; i < base + WAYS; i++) {
+            long slot = this.slots.get(i);
+            if ((slot & ~REFERENCED & 0xFFFFFFFF00000000L) == tag) {
+                if ((slot & REFERENCED) == 0)
+                    this.slots.compareAndSet(i, slot, slot | REFERENCED);
+                Metrics.getInstance().decisionCacheHit();
+                return (int) slot;
+            }
+        }
+        Metrics.getInstance().decisionCacheMiss();
+        return defaultValue;
+    }
+
+    /**
+     * Stores the value of a key, evicting the entry of its bucket not used for the longest time if the bucket is full.
+     * If another thread changes the bucket at the same time the value may not be stored, which only costs a later miss.
+     * @param key the key [0-MAX_KEY]
+     * @param value the value
+     */
+    public void put(int key, int value) {
+        int b = bucket(key), base = b * WAYS;
+        long entry = (long) (key + 1) << 32 | (value & 0xFFFFFFFFL);
+        for (int i = base; i < base + WAYS; i++) {
+            long slot = this.slots.get(i);
+            if (slot == 0 || (slot & ~REFERENCED & 0xFFFFFFFF00000000L) == (entry & 0xFFFFFFFF00000000L)) {
+                this.slots.compareAndSet(i, slot, entry);
+                return;
+            }
+        }
+        //the hand clears the reference bits until it finds an entry not used since its last turn, at most two turns
+        for (int step = 0; step < 2 * WAYS; step++) {
+            int hand = this.hands.getAndIncrement(b) & (WAYS - 1);
+            long slot = this.slots.get(base + hand);
+            if ((slot & REFERENCED) != 0)
+                this.slots.compareAndSet(base + hand, slot, slot & ~REFERENCED);
+            else if (this.slots.compareAndSet(base + hand, slot, entry))
+                return;
+        }
+    }
+
+    /**
+     * Gets the maximum number of entries of the cache.
+     * @return the number of slots
+     */
+    public int getCapacity() {
+        return this.slots.length();
+    }
+}
@@ -41,22 +41,15 @@ public class Dice{
     private int pos, vel;
     private int diceRollCount;
     
-    private BufferedImage dice[] = new BufferedImage[6];
-    private BufferedImage diceAnimation[] = new BufferedImage[25];
-    private BufferedImage diceImg;
+    private static final int RESULTS = 6, ANIMATION_FRAMES = 25;
+    private static BufferedImage[] images; //results [1-6] followed by the frames of the animation, shared by all dice
+    private int diceImg; //index of the current image in images
   
     /**
      * Initializes an instance of Dice.
      */
         public Dice(){  
-        try {
-            for (int i=0; i<dice.length; i++) 
-                    dice[i]=ImageIO.read(new File(DICE_PATH+"result"+(i+1)+FILE_EXTENSION));
-            for (int i=0; i<diceAnimation.length; i++) 
-                    diceAnimation[i]=ImageIO.read(new File(DICE_PATH+"animateddice"+(i+1)+FILE_EXTENSION));}
-        catch (IOException ex) {
-                System.out.println("Image not found.");}
-        diceImg = dice[result-1];
+        diceImg = result-1;
         this.coordinates[0]=(TILE_SIZE*15-DICE_SIZE)/2;
         this.coordinates[1]=(TILE_SIZE*15-DICE_SIZE)/2;
     }
@@ -85,6 +78,23 @@ public class Dice{
         return this.diceRollCount;
     }
 
+    /**
+     * Simulates a given number of dice casts.
+     * This method is meant to be used when a game is restored or replayed.
+     * @param diceRollCount the count of total dice-casts
+     */
+    public void setDiceRollCount(int diceRollCount) {
+        this.diceRollCount = diceRollCount;
+    }
+
+    /**
+     * Sets the seed of the random number generator used for the dice results.
+     * @param seed the initial seed
+     */
+    public void setSeed(long seed) {
+        this.random.setSeed(seed);
+    }
+
     /**
      * Gets a new dice result by the same player/holder.
      */
@@ -156,7 +166,22 @@ public class Dice{
      * @return the image used to represent the dice in the GUI
      */
     public BufferedImage getDiceImg() {
-        return this.diceImg;
+        return getImages()[this.diceImg];
+    }
+    
+    //Loads the images of the dice the first time they are drawn, so games without GUI never read them
+    private static synchronized BufferedImage[] getImages() {
+        if (images == null) {
+            images = new BufferedImage[RESULTS + ANIMATION_FRAMES];
+            try {
+                for (int i=0; i<RESULTS; i++) 
+                        images[i]=ImageIO.read(new File(DICE_PATH+"result"+(i+1)+FILE_EXTENSION));
+                for (int i=0; i<ANIMATION_FRAMES; i++) 
+                        images[RESULTS+i]=ImageIO.read(new File(DICE_PATH+"animateddice"+(i+1)+FILE_EXTENSION));}
+            catch (IOException ex) {
+                    System.out.println("Image not found.");}
+        }
+        return images;
     }
     
     /**
@@ -173,6 +198,31 @@ public class Dice{
         this.diceRollCount++;
     }
 
+    /**
+     * The player with index pIndex casts the dice and obtains the given result.
+     * This method is meant to be used when a game is replayed or the result comes from a remote player.
+     * @param pIndex number [0-3] representing the index of the player that will cast the dice
+     * @param result the outcome of the dice roll in the range [1-6]
+     */
+    public void rollDice(int pIndex, int result) {
+        this.pIndex = pIndex;
+        this.result = result;
+        this.isSix = this.result == 6;
+        resetCoordinates();
+        this.tickCounter=0;
+        this.vel=1;
+        this.diceRollCount++;
+    }
+
+    /**
+     * Shows the current result at the center of the board, skipping the dice animation.
+     */
+    public void showResult() {
+        diceImg = result-1;
+        pos=(TILE_SIZE*15-DICE_SIZE)/2;
+        setCoordinates(pos);
+    }
+
     /**
      * Generates a dice result.
      * In debug mode the result is generated by user input, else it is randomly generated.
@@ -229,13 +279,13 @@ public class Dice{
         pos += vel*tickCounter + ACC*tickCounter*tickCounter/2;
         if(pos<(TILE_SIZE*15-DICE_SIZE)/2){
             if(this.pIndex%3==0)
-                diceImg = diceAnimation[tickCounter%diceAnimation.length];
+                diceImg = RESULTS+tickCounter%ANIMATION_FRAMES;
             else
-                diceImg = diceAnimation[diceAnimation.length-1-(tickCounter%diceAnimation.length)];
+                diceImg = RESULTS+ANIMATION_FRAMES-1-(tickCounter%ANIMATION_FRAMES);
             tickCounter++;
             vel += ACC;}
         else{
-            diceImg = dice[result-1];
+            diceImg = result-1;
             pos=(TILE_SIZE*15-DICE_SIZE)/2;}
         setCoordinates(pos);
         //System.out.println("dice pos "+pos);
@@ -0,0 +1,199 @@
+package ludo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Elo ratings of a set of bots, updated incrementally after every game.
+ * <p>
+ * A game of Ludo between up to 4 bots is scored as a round of one-to-one results: every bot wins against
+ * the bots that finished after it. The changes are calculated with the ratings before the game and the
+ * factor K is divided by the number of opponents, so a 4-player game moves a rating as much as one duel.
+ * A game without result (an empty ranking, e.g. an abandoned game) rates nobody and is only counted as abandoned.
+ * The ratings are stored in a text file with one line "name rating games" per bot.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.League
+ */
+public class EloRatings {
+
+    public static final double INITIAL_RATING = 1500;
+    public static final double K = 32;
+
+    private final Map<String, double[]> ratings = new HashMap<>(); //name to {rating, games}
+    private long games, abandoned;
+
+    /**
+     * Gets the rating of a bot.
+     * @param name the name of the bot
+     * @return the rating, INITIAL_RATING if the bot has not played
+     */
+    public double getRating(String name) {
+        double[] r = this.ratings.get(name);
+        return r == null ? INITIAL_RATING : r[0];
+    }
+
+    /**
+     * Gets the number of games played by a bot.
+     * @param name the name of the bot
+     * @return the number of rated games of the bot
+     */
+    public long getGames(String name) {
+        double[] r = this.ratings.get(name);
+        return r == null ? 0 : (long) r[1];
+    }
+
+    /**
+     * Gets the number of games added to the ratings since they were created.
+     * @return the number of rated games
+     */
+    public long getTotalGames() {
+        return this.games;
+    }
+
+    /**
+     * Gets the number of games without result given to update, which are not rated.
+     * @return the number of abandoned games
+     */
+    public long getAbandonedGames() {
+        return this.abandoned;
+    }
+
+    /**
+     * Gets the expected score of a bot against another one.
+     * @param rating the rating of the bot
+     * @param opponent the rating of the opponent
+     * @return the probability of winning [0-1]
+     */
+    public static double expected(double rating, double opponent) {
+        return 1 / (1 + Math.pow(10, (opponent - rating) / 400));
+    }
+
+    /**
+     * Updates the ratings with the result of a game.
+     * A bot can appear more than once if it played in several seats; results between its own seats are ignored.
+     * @param ranking the names of the bots of each seat in the order they finished, empty if the game has no result
+     */
+    public synchronized void update(List<String> ranking) {
+        if (ranking.isEmpty()) {
+            this.abandoned++;
+            return;
+        }
+        int n = ranking.size();
+        double[] delta = new double[n];
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                String winner = ranking.get(i), loser = ranking.get(j);
+                if (winner.equals(loser))
+                    continue;
+                double change = K / (n - 1) * (1 - expected(getRating(winner), getRating(loser)));
+                delta[i] += change;
+                delta[j] -= change;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            double[] r = this.ratings.get(ranking.get(i));
+            if (r == null) {
+                r = new double[]{INITIAL_RATING, 0};
+                this.ratings.put(ranking.get(i), r);
+            }
+            r[0] += delta[i];
+        }
+        for (String name : new LinkedHashSet<>(ranking))
+            this.ratings.get(name)[1]++;
+        this.games++;
+    }
+
+    /**
+     * Gets the names of the bots sorted from the highest to the lowest rating.
+     * @return the ranking of the bots
+     */
+    public synchronized List<String> getRanking() {
+        List<String> names = new ArrayList<>(this.ratings.keySet());
+        Collections.sort(names, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return Double.compare(getRating(b), getRating(a));
+            }
+        });
+        return names;
+    }
+
+    /**
+     * Gets the table of ratings, one line per bot from the highest to the lowest rating.
+     * @param prefix the text at the start of each line, e.g. "# "
+     * @return the table of ratings
+     */
+    public synchronized String report(String prefix) {
+        StringBuilder s = new StringBuilder();
+        int place = 1;
+        for (String name : getRanking())
+            s.append(prefix).append(String.format("%d\t%-20s\t%.1f\t%d%n", place++, name, getRating(name), getGames(name)));
+        return s.toString();
+    }
+
+    /**
+     * Loads the ratings from a file. A missing file gives empty ratings.
+     * @param file the ratings file
+     * @return the ratings stored in the file
+     * @throws IOException if the file exists but can not be read
+     */
+    public static EloRatings load(File file) throws IOException {
+        EloRatings elo = new EloRatings();
+        if (!file.exists())
+            return elo;
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.startsWith("# games "))
+                    elo.games = Long.parseLong(line.substring(8).trim());
+                if (line.startsWith("# abandoned "))
+                    elo.abandoned = Long.parseLong(line.substring(12).trim());
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                String[] f = line.split("\\s+");
+                if (f.length != 3)
+                    throw new IOException("Invalid ratings line: " + line);
+                elo.ratings.put(f[0], new double[]{Double.parseDouble(f[1]), Long.parseLong(f[2])});
+            }
+        } catch (NumberFormatException ex) {
+            throw new IOException("Invalid ratings file.", ex);
+        }
+        return elo;
+    }
+
+    /**
+     * Writes the ratings into a file. The file is replaced atomically, so it is never left half written.
+     * @param file the ratings file
+     * @throws IOException if the file can not be written
+     */
+    public synchronized void save(File file) throws IOException {
+        File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try (PrintWriter out = new PrintWriter(temp)) {
+            out.println("# Elo ratings: name rating games");
+            out.println("# games " + this.games);
+            out.println("# abandoned " + this.abandoned);
+            for (String name : getRanking())
+                out.printf(Locale.ROOT, "%s %.3f %d%n", name, getRating(name), getGames(name));
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);}
+        catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);}
+    }
+}
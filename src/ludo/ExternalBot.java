@@ -0,0 +1,344 @@
+package ludo;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Controller of the external mode, which asks a bot running in other local processes for the token to move.
+ * <p>
+ * The bot is a command started with a pool of processes that read requests from their standard input and write the
+ * answers to their standard output. A request is a line with the number n of decisions followed by n lines, one per
+ * decision, "seat dice special playing candidates progress":
+ * <ul>
+ * <li>seat : the index of the player that has to move [0-3]
+ * <li>dice : the result of the dice [1-6]
+ * <li>special : 1 for the special board, 0 for the regular one
+ * <li>playing : the bit mask of the seats still playing
+ * <li>candidates : the bit mask of the tokens the player can move
+ * <li>progress : 32 hexadecimal digits, two for every token (seat*4 + token) with its progress as in BatchEngine:
+ * 0 at home, 1-51 on the track counted from the start tile of its player, 52-57 in the final track, 57 at the goal
+ * </ul>
+ * The answer is a single line with the n tokens to move, separated by spaces, in the order of the decisions.
+ * <p>
+ * The games waiting for a decision at the same time, e.g. the tables of a GameServer or the threads of a BatchRunner,
+ * put their decisions in a shared queue, and every process takes all the decisions waiting in it, up to the batch size,
+ * in a single request, so the round trips to the bot are shared by many games. A process that does not answer in time,
+ * answers something else or exits is stopped and started again for the next request, and its decisions are taken
+ * by the customAI fallback of Autoplay.
+ * <p>
+ * The settings of a bot are a properties file with the keys "command" (the command line of the bot),
+ * "processes" (default 1), "batch" (default 256) and "timeout" in milliseconds (default 1000).
+ * The main method is a reference bot that moves a random candidate token.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.Autoplay
+ */
+public class ExternalBot implements Closeable {
+
+    public static final File DEFAULT_FILE = new File("external.properties");
+    public static final int DEFAULT_PROCESSES = 1, DEFAULT_BATCH = 256;
+    public static final long DEFAULT_TIMEOUT = 1000; //milliseconds
+
+    private static ExternalBot defaultInstance;
+
+    private final List<String> command;
+    private final int processes, batch;
+    private final long timeout;
+    private final BlockingQueue<Request> pending = new LinkedBlockingQueue<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private final AtomicLong requests = new AtomicLong(), decisions = new AtomicLong(), failures = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * A decision waiting for the answer of the bot.
+     */
+    private static class Request {
+        final String line;
+        final int candidates;
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile int token = -1;
+
+        Request(String line, int candidates) {
+            this.line = line;
+            this.candidates = candidates;
+        }
+
+        void answer(int token) {
+            if (token >= 0 && token < 4 && (this.candidates & (1 << token)) != 0)
+                this.token = token;
+            this.done.countDown();
+        }
+    }
+
+    /**
+     * Initializes a bot, whose processes are started by the first decision.
+     * @param command the command line of the bot, split in arguments
+     * @param processes the number of processes of the pool
+     * @param batch the maximum number of decisions of a request
+     * @param timeout the milliseconds a process has to answer a request
+     */
+    public ExternalBot(List<String> command, int processes, int batch, long timeout) {
+        if (command.isEmpty() || processes < 1 || batch < 1 || timeout < 1)
+            throw new IllegalArgumentException("The command must not be empty and the other settings must be positive.");
+        this.command = new ArrayList<>(command);
+        this.processes = processes;
+        this.batch = batch;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Initializes a bot with the settings of a properties file.
+     * @param settings the settings, with the keys command, processes, batch and timeout
+     */
+    public ExternalBot(Properties settings) {
+        this(Arrays.asList(settings.getProperty("command", "").trim().split("\\s+")),
+                Integer.parseInt(settings.getProperty("processes", String.valueOf(DEFAULT_PROCESSES)).trim()),
+                Integer.parseInt(settings.getProperty("batch", String.valueOf(DEFAULT_BATCH)).trim()),
+                Long.parseLong(settings.getProperty("timeout", String.valueOf(DEFAULT_TIMEOUT)).trim()));
+    }
+
+    /**
+     * Loads the settings of a bot.
+     * @param file the properties file
+     * @return the bot
+     * @throws IOException if the file can not be read
+     */
+    public static ExternalBot load(File file) throws IOException {
+        Properties settings = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            settings.load(in);}
+        return new ExternalBot(settings);
+    }
+
+    /**
+     * Gets the bot used by default by the external mode, reading DEFAULT_FILE the first time.
+     * @return the shared default bot, or null if there is none
+     */
+    public static synchronized ExternalBot getDefault() {
+        if (defaultInstance == null && DEFAULT_FILE.exists()) {
+            try {
+                defaultInstance = load(DEFAULT_FILE);}
+            catch (IOException | IllegalArgumentException ex) {
+                System.err.println("External bot could not be read.");}
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Sets the bot used by default by the external mode, e.g. the one of a scenario of BatchRunner.
+     * @param bot the bot, which replaces and closes the previous one
+     */
+    public static synchronized void setDefault(ExternalBot bot) {
+        if (defaultInstance != null && defaultInstance != bot)
+            defaultInstance.close();
+        defaultInstance = bot;
+    }
+
+    /**
+     * Asks the bot for the token to be moved, waiting while the decision is sent with the others of its request.
+     * @param game the game, waiting for the current player to select a token
+     * @return the index of the selected token, or -1 if the bot did not give a valid answer in time
+     */
+    public int selectToken(GameState game) {
+        int candidates = 0;
+        for (int token : StateQLearning.candidates(game))
+            candidates |= 1 << token;
+        if (this.closed || candidates == 0)
+            return -1;
+        Request request = new Request(encode(game, candidates), candidates);
+        this.pending.add(request);
+        start();
+        try {
+            if (!request.done.await(2 * this.timeout, TimeUnit.MILLISECONDS))
+                return -1;}
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return -1;}
+        return request.token;
+    }
+
+    //Gets the line of a decision, as described in the protocol
+    static String encode(GameState game, int candidates) {
+        int playing = 0;
+        for (int p : game.getXPlayers())
+            playing |= 1 << p;
+        StringBuilder line = new StringBuilder(48);
+        line.append(game.getCurrentPlayer()).append(' ').append(game.getDice().getResult()).append(' ')
+                .append(game.getBoard().getSpecial() ? 1 : 0).append(' ').append(playing).append(' ').append(candidates).append(' ');
+        for (byte p : RaceTablebase.progress(game))
+            line.append(Character.forDigit(p >> 4, 16)).append(Character.forDigit(p & 15, 16));
+        return line.toString();
+    }
+
+    //Starts the workers of the pool, the first time a decision is asked
+    private synchronized void start() {
+        if (!this.workers.isEmpty() || this.closed)
+            return;
+        for (int i = 0; i < this.processes; i++) {
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "ludo-external");
+            t.setDaemon(true);
+            this.workers.add(t);
+            t.start();
+        }
+    }
+
+    //Sends the waiting decisions to a process of the bot, one request at a time, restarting the process when it fails
+    private void work() {
+        Process process = null;
+        Writer to = null;
+        BlockingQueue<String> from = null;
+        boolean reported = false;
+        List<Request> requests = new ArrayList<>(this.batch);
+        while (!this.closed) {
+            try {
+                requests.add(this.pending.take());}
+            catch (InterruptedException ex) {
+                break;}
+            this.pending.drainTo(requests, this.batch - 1);
+            try {
+                if (process == null) {
+                    process = new ProcessBuilder(this.command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+                    to = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.US_ASCII));
+                    from = lines(process);
+                }
+                StringBuilder request = new StringBuilder(requests.size() * 48 + 8).append(requests.size()).append('\n');
+                for (Request r : requests)
+                    request.append(r.line).append('\n');
+                to.write(request.toString());
+                to.flush();
+                String answer = from.poll(this.timeout, TimeUnit.MILLISECONDS);
+                String[] tokens = answer == null ? new String[0] : answer.trim().split("\\s+");
+                if (tokens.length != requests.size())
+                    throw new IOException(answer == null ? "no answer in " + this.timeout + " ms" : "wrong answer: " + answer);
+                int[] answers = new int[tokens.length];
+                for (int i = 0; i < tokens.length; i++)
+                    answers[i] = Integer.parseInt(tokens[i]);
+                //counted before answering, so the counts include every decision already returned
+                this.requests.incrementAndGet();
+                this.decisions.addAndGet(tokens.length);
+                for (int i = 0; i < answers.length; i++)
+                    requests.get(i).answer(answers[i]);
+                reported = false;}
+            catch (IOException | NumberFormatException ex) {
+                if (!reported)
+                    System.err.println("External bot could not answer: " + ex.getMessage());
+                reported = true;
+                this.failures.incrementAndGet();
+                if (process != null)
+                    process.destroy();
+                process = null;}
+            catch (InterruptedException ex) {
+                this.closed = true;}
+            for (Request r : requests)
+                r.done.countDown();
+            requests.clear();
+        }
+        if (process != null)
+            process.destroy();
+        for (Request r; (r = this.pending.poll()) != null; )
+            r.done.countDown();
+    }
+
+    //Reads the lines written by a process in another thread, so they can be waited for with a timeout
+    private static BlockingQueue<String> lines(Process process) {
+        final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+        final BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.US_ASCII));
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (String line = in.readLine(); line != null; line = in.readLine())
+                        lines.add(line);}
+                catch (IOException ex) {
+                    //the process was stopped
+                }
+                lines.add(""); //never a valid answer, the process fails at once instead of at the timeout
+            }
+        }, "ludo-external-reader");
+        t.setDaemon(true);
+        t.start();
+        return lines;
+    }
+
+    /**
+     * Gets the number of requests answered by the bot.
+     * @return the number of requests
+     */
+    public long getRequests() {
+        return this.requests.get();
+    }
+
+    /**
+     * Gets the number of decisions answered by the bot, in all the requests.
+     * @return the number of decisions
+     */
+    public long getDecisions() {
+        return this.decisions.get();
+    }
+
+    /**
+     * Gets the number of requests that failed, by timeout, wrong answer or exit of the process.
+     * @return the number of failed requests
+     */
+    public long getFailures() {
+        return this.failures.get();
+    }
+
+    /**
+     * Stops the workers and the processes of the bot. The decisions asked afterwards get -1.
+     */
+    @Override
+    public synchronized void close() {
+        this.closed = true;
+        for (Thread t : this.workers)
+            t.interrupt();
+    }
+
+    /**
+     * Plays as a reference bot: answers every request read from the standard input with random candidate tokens.
+     * @param args unused
+     * @throws IOException if the standard input or output fails
+     */
+    public static void main(String[] args) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.US_ASCII));
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.US_ASCII));
+        Random random = new Random();
+        for (String header = in.readLine(); header != null; header = in.readLine()) {
+            int n = Integer.parseInt(header.trim());
+            StringBuilder answer = new StringBuilder(2 * n);
+            for (int i = 0; i < n; i++) {
+                int candidates = Integer.parseInt(in.readLine().split(" ")[4]), token;
+                do {
+                    token = random.nextInt(4);}
+                while ((candidates & (1 << token)) == 0);
+                answer.append(i == 0 ? "" : " ").append(token);
+            }
+            out.write(answer.append('\n').toString());
+            out.flush();
+        }
+    }
+}
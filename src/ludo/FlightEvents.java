@@ -0,0 +1,130 @@
+package ludo;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JDK Flight Recorder events for the main phases of a round of Ludo.
+ * <p>
+ * All the events are disabled by default, so they cost a single check when no recording asks for them.
+ * They are enabled, and their thresholds changed, with the settings file ludo.jfc, e.g.
+ * <pre>java -XX:StartFlightRecording:settings=default.jfc,settings=ludo.jfc,filename=ludo.jfr -jar Ludo.jar</pre>
+ * or with the same settings in JDK Mission Control.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ */
+public class FlightEvents {
+
+    private FlightEvents() {
+    }
+
+    /**
+     * Dice roll of a player, including the update of the list of tokens that can be moved.
+     */
+    @Name("ludo.Roll")
+    @Label("Roll")
+    @Category("Ludo")
+    @Enabled(false)
+    @Threshold("0 ms")
+    @StackTrace(false)
+    public static class RollEvent extends Event {
+        @Label("Player")
+        int player;
+        @Label("Dice")
+        int dice;
+        @Label("Candidates")
+        @Description("Number of tokens that can be moved with the result")
+        int candidates;
+        @Label("Turn")
+        int turn;
+    }
+
+    /**
+     * Move of a token, including the captures of opponent tokens and the special tiles.
+     */
+    @Name("ludo.Move")
+    @Label("Move")
+    @Category("Ludo")
+    @Enabled(false)
+    @Threshold("0 ms")
+    @StackTrace(false)
+    public static class MoveEvent extends Event {
+        @Label("Player")
+        int player;
+        @Label("Token")
+        int token;
+        @Label("Dice")
+        int dice;
+        @Label("From")
+        @Description("Position before the move, see GameEvent")
+        int from;
+        @Label("To")
+        @Description("Position after the move and the special tiles, see GameEvent")
+        int to;
+        @Label("Captures")
+        int captures;
+    }
+
+    /**
+     * Selection of a token by a computer-operated player.
+     */
+    @Name("ludo.Decision")
+    @Label("AI Decision")
+    @Category("Ludo")
+    @Enabled(false)
+    @Threshold("0 ms")
+    @StackTrace(false)
+    public static class DecisionEvent extends Event {
+        @Label("Mode")
+        String mode;
+        @Label("Player")
+        int player;
+        @Label("Dice")
+        int dice;
+        @Label("Candidates")
+        int candidates;
+        @Label("Token")
+        @Description("Index of the selected token")
+        int token;
+    }
+
+    /**
+     * Read of a value of the qTable.
+     */
+    @Name("ludo.QTableAccess")
+    @Label("Q-Table Access")
+    @Category("Ludo")
+    @Enabled(false)
+    @Threshold("0 ms")
+    @StackTrace(false)
+    public static class QTableEvent extends Event {
+        @Label("Dice")
+        int dice;
+        @Label("Position")
+        int position;
+        @Label("Value")
+        double value;
+    }
+
+    /**
+     * Drawing of a frame of the GUI.
+     */
+    @Name("ludo.Render")
+    @Label("Render")
+    @Category("Ludo")
+    @Enabled(false)
+    @Threshold("0 ms")
+    @StackTrace(false)
+    public static class RenderEvent extends Event {
+        @Label("Theme")
+        String theme;
+        @Label("Special Board")
+        boolean special;
+    }
+}
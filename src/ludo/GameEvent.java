@@ -0,0 +1,152 @@
+package ludo;
+
+import static ludo.Player.OUT_OF_BOARD;
+
+/**
+ * Represents a change in the state of a round of Ludo, published by the GameState through its GameEventBus.
+ * This object contains the following information:
+ * <ul>
+ * <li>The type of change (dice roll, token move, capture, star jump, globe bonus, goal, player finished, game over,
+ * a change of the players or the board outside of a move, or the game being ready for the next action of the current player)
+ * <li>The index of the player that caused the change
+ * <li>The index of the token involved, if any
+ * <li>The index of the player whose token was captured, in case of a capture
+ * <li>The position of the token before and after the change
+ * <li>The dice result and the turn count at the moment of the change
+ * </ul>
+ * <p>
+ * Positions are given as a single number: [0-51] for the board tiles, FINAL_TRACK + [0-5] for the tiles of the
+ * player's final track and OUT_OF_BOARD for the home area.
+ * <p>
+ * Synchronous listeners receive an instance that is reused for the next event, so it must be copied if it has to be kept.
+ * 
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.GameEventBus
+ */
+public class GameEvent {
+
+    /**
+     * The types of changes published by a round of Ludo
+     */
+    public enum Type {roll, move, capture, starJump, globeBonus, goal, playerFinished, gameOver, settings, ready};
+
+    public static final int FINAL_TRACK = 52; //offset of the final track positions
+    public static final int NONE = -1;
+
+    private Type type;
+    private int player, token, target, from, to, dice, turn;
+
+    /**
+     * Initializes an empty event.
+     */
+    public GameEvent() {
+        this.player = NONE;
+        this.token = NONE;
+        this.target = NONE;
+        this.from = NONE;
+        this.to = NONE;
+    }
+
+    void set(Type type, int player, int token, int target, int from, int to, int dice, int turn) {
+        this.type = type;
+        this.player = player;
+        this.token = token;
+        this.target = target;
+        this.from = from;
+        this.to = to;
+        this.dice = dice;
+        this.turn = turn;
+    }
+
+    /**
+     * Creates a copy of this event that can be kept after the listener returns.
+     * @return a new event with the same values
+     */
+    public GameEvent copy() {
+        GameEvent event = new GameEvent();
+        event.set(type, player, token, target, from, to, dice, turn);
+        return event;
+    }
+
+    /**
+     * Gets the single-number position of a token, as used by the events.
+     * @param token a player's token
+     * @return [0-51] in the board, FINAL_TRACK + [0-5] in the final track, or OUT_OF_BOARD
+     */
+    public static int position(Token token) {
+        if (token.getPosition() == OUT_OF_BOARD)
+            return OUT_OF_BOARD;
+        return token.getFinalTrack() ? FINAL_TRACK + token.getPosition() : token.getPosition();
+    }
+
+    /**
+     * Gets the type of change.
+     * @return the event type
+     */
+    public Type getType() {
+        return this.type;
+    }
+
+    /**
+     * Gets the index of the player that caused the change.
+     * @return int number [0-3], or NONE for game over
+     */
+    public int getPlayer() {
+        return this.player;
+    }
+
+    /**
+     * Gets the index of the token involved in the change.
+     * For a capture this is the index of the captured token.
+     * @return int number [0-3], or NONE if no token is involved
+     */
+    public int getToken() {
+        return this.token;
+    }
+
+    /**
+     * Gets the index of the player whose token was captured.
+     * @return int number [0-3] for a capture, NONE otherwise
+     */
+    public int getTarget() {
+        return this.target;
+    }
+
+    /**
+     * Gets the position of the token before the change.
+     * @return the single-number position, or NONE if no token is involved
+     */
+    public int getFrom() {
+        return this.from;
+    }
+
+    /**
+     * Gets the position of the token after the change.
+     * For a player finished event this is the place [1-4] obtained by the player.
+     * @return the single-number position, or NONE if no token is involved
+     */
+    public int getTo() {
+        return this.to;
+    }
+
+    /**
+     * Gets the dice result at the moment of the change.
+     * @return int number [1-6]
+     */
+    public int getDice() {
+        return this.dice;
+    }
+
+    /**
+     * Gets the turn count at the moment of the change.
+     * @return total number of played turns
+     */
+    public int getTurn() {
+        return this.turn;
+    }
+
+    @Override
+    public String toString() {
+        return type + " player:" + player + " token:" + token + " target:" + target + " from:" + from + " to:" + to + " dice:" + dice + " turn:" + turn;
+    }
+}
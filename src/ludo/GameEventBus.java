@@ -0,0 +1,153 @@
+package ludo;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Dispatcher of the events published by a round of Ludo.
+ * <p>
+ * Synchronous listeners are called on the thread that changed the game, in the order they subscribed,
+ * and receive a single event instance that is reused for every change.
+ * Asynchronous listeners receive a copy of the event on an executor, by default a shared daemon thread.
+ * Publishing an event when there are no listeners does not allocate any object.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.GameEvent
+ * @see ludo.GameListener
+ */
+public class GameEventBus {
+
+    private static final GameListener[] NO_LISTENERS = new GameListener[0];
+    private static ExecutorService sharedExecutor;
+
+    private volatile GameListener[] listeners = NO_LISTENERS;
+    private volatile AsyncListener[] asyncListeners = new AsyncListener[0];
+    private final GameEvent event = new GameEvent();
+    private int depth;
+
+    private static class AsyncListener {
+        final GameListener listener;
+        final Executor executor;
+
+        AsyncListener(GameListener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+    }
+
+    /**
+     * Gets the executor used by default for asynchronous listeners, a single daemon thread shared by all games.
+     */
+    private static synchronized Executor getSharedExecutor() {
+        if (sharedExecutor == null) {
+            sharedExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ludo-events");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return sharedExecutor;
+    }
+
+    /**
+     * Subscribes a listener that is called synchronously on the thread that changes the game.
+     * The event passed to the listener is reused, use GameEvent.copy() to keep it.
+     * @param listener the listener to be added
+     */
+    public synchronized void subscribe(GameListener listener) {
+        GameListener[] l = Arrays.copyOf(this.listeners, this.listeners.length + 1);
+        l[l.length - 1] = listener;
+        this.listeners = l;
+    }
+
+    /**
+     * Subscribes a listener that is called with a copy of each event on the shared event thread.
+     * @param listener the listener to be added
+     */
+    public void subscribeAsync(GameListener listener) {
+        subscribeAsync(listener, getSharedExecutor());
+    }
+
+    /**
+     * Subscribes a listener that is called with a copy of each event on the given executor.
+     * @param listener the listener to be added
+     * @param executor the executor that will run the listener
+     */
+    public synchronized void subscribeAsync(GameListener listener, Executor executor) {
+        AsyncListener[] l = Arrays.copyOf(this.asyncListeners, this.asyncListeners.length + 1);
+        l[l.length - 1] = new AsyncListener(listener, executor);
+        this.asyncListeners = l;
+    }
+
+    /**
+     * Removes a synchronous or asynchronous listener.
+     * @param listener the listener to be removed
+     */
+    public synchronized void unsubscribe(GameListener listener) {
+        GameListener[] l = new GameListener[this.listeners.length];
+        int n = 0;
+        for (GameListener gl : this.listeners)
+            if (gl != listener)
+                l[n++] = gl;
+        this.listeners = Arrays.copyOf(l, n);
+        AsyncListener[] al = new AsyncListener[this.asyncListeners.length];
+        n = 0;
+        for (AsyncListener a : this.asyncListeners)
+            if (a.listener != listener)
+                al[n++] = a;
+        this.asyncListeners = Arrays.copyOf(al, n);
+    }
+
+    /**
+     * Indicates whether any listener is subscribed.
+     * @return true if there is at least one listener, false otherwise
+     */
+    public boolean hasListeners() {
+        return this.listeners.length > 0 || this.asyncListeners.length > 0;
+    }
+
+    /**
+     * Publishes an event to all the listeners.
+     * @param type the type of change
+     * @param player index of the player that caused the change
+     * @param token index of the token involved, or GameEvent.NONE
+     * @param target index of the player whose token was captured, or GameEvent.NONE
+     * @param from position before the change, or GameEvent.NONE
+     * @param to position after the change, or GameEvent.NONE
+     * @param dice the dice result
+     * @param turn the turn count
+     */
+    public void publish(GameEvent.Type type, int player, int token, int target, int from, int to, int dice, int turn) {
+        GameListener[] l = this.listeners;
+        AsyncListener[] al = this.asyncListeners;
+        if (l.length == 0 && al.length == 0)
+            return;
+        // a listener that changes the game while it is being notified gets its own event instance
+        GameEvent e = this.depth == 0 ? this.event : new GameEvent();
+        e.set(type, player, token, target, from, to, dice, turn);
+        if (al.length > 0) {
+            final GameEvent copy = e.copy();
+            for (final AsyncListener a : al) {
+                a.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        a.listener.onEvent(copy);
+                    }
+                });
+            }
+        }
+        this.depth++;
+        try {
+            for (GameListener listener : l)
+                listener.onEvent(e);
+        } finally {
+            this.depth--;
+        }
+    }
+}
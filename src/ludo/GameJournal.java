@@ -0,0 +1,174 @@
+package ludo;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Append-only binary record of a round of Ludo.
+ * <p>
+ * The journal starts with a header containing the seed, the board type, the theme and the settings of each seat
+ * (active, computer-operated, AutoplayMode). After the header, the journal subscribes to the events of the game and
+ * writes one record for every dice roll and every token move. Every record is a single VarInt: the value of the
+ * record followed by two bits with its kind, so rolls and moves take one byte each.
+ * <p>
+ * Every KEYFRAME_INTERVAL records, and whenever the players or the board are changed outside of a move,
+ * a keyframe with a snapshot of the game is written, so that a replay can jump to any step by reading
+ * at most KEYFRAME_INTERVAL records.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.GameReplay
+ * @see ludo.GameSnapshot
+ */
+public class GameJournal implements GameListener, Closeable {
+
+    public static final int MAGIC = 0x4C55444A; //"LUDJ"
+    public static final int VERSION = 1;
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 64;
+
+    //kinds of records
+    static final int ROLL = 0, MOVE = 1, KEYFRAME = 2, END = 3;
+
+    private final GameState game;
+    private final OutputStream out;
+    private final int keyframeInterval;
+    private int steps, lastKeyframe, lastResult, lastHolder;
+    private boolean closed;
+
+    /**
+     * Initializes a journal for a game using the default keyframe interval, writes its header and starts recording.
+     * @param game the game to be recorded
+     * @param out the stream the journal is written to
+     * @throws IOException if the header can not be written
+     */
+    public GameJournal(GameState game, OutputStream out) throws IOException {
+        this(game, out, DEFAULT_KEYFRAME_INTERVAL);
+    }
+
+    /**
+     * Initializes a journal for a game, writes its header and starts recording.
+     * @param game the game to be recorded
+     * @param out the stream the journal is written to
+     * @param keyframeInterval number of records between two keyframes
+     * @throws IOException if the header can not be written
+     */
+    public GameJournal(GameState game, OutputStream out, int keyframeInterval) throws IOException {
+        this.game = game;
+        this.out = out;
+        this.keyframeInterval = keyframeInterval;
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        VarInt.write(out, VERSION);
+        header.writeLong(game.getSeed());
+        VarInt.write(out, keyframeInterval);
+        VarInt.write(out, game.getBoard().getSpecial() ? 1 : 0);
+        VarInt.write(out, game.getTheme().ordinal());
+        for (Player player : game.getPlayers()) {
+            VarInt.write(out, (player.getActive() ? 1 : 0) | (player.getAuto() ? 2 : 0));
+            VarInt.write(out, player.getAutoMode().ordinal());
+        }
+        writeKeyframe();
+        this.lastResult = game.getDice().getResult();
+        this.lastHolder = game.getDice().getHolder();
+        game.getEvents().subscribe(this);
+    }
+
+    /**
+     * Starts recording a game into a file.
+     * @param game the game to be recorded
+     * @param file the file the journal is written to
+     * @return the journal recording the game
+     * @throws IOException if the file can not be created
+     */
+    public static GameJournal record(GameState game, File file) throws IOException {
+        return new GameJournal(game, new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    /**
+     * Gets the number of rolls and moves recorded so far.
+     * @return the number of steps in the journal
+     */
+    public int getSteps() {
+        return this.steps;
+    }
+
+    /**
+     * Writes a record for every dice roll and token move of the game.
+     * The journal is closed when the game is over.
+     * @param event the change published by the game
+     */
+    @Override
+    public void onEvent(GameEvent event) {
+        if (this.closed)
+            return;
+        try {
+            switch (event.getType()) {
+                case roll: {
+                    if (this.steps - this.lastKeyframe >= this.keyframeInterval) {
+                        // the dice was already cast, the keyframe must describe the dice before the roll
+                        writeKeyframe(GameSnapshot.capture(this.game, this.lastResult, this.lastHolder,
+                                this.game.getDice().getDiceRollCount() - 1));
+                    }
+                    writeRecord(event.getPlayer() * 8 + event.getDice(), ROLL);
+                    this.lastResult = event.getDice();
+                    this.lastHolder = event.getPlayer();
+                    break;
+                }
+                case move: {
+                    writeRecord(event.getToken(), MOVE);
+                    break;
+                }
+                case settings: {
+                    writeKeyframe();
+                    this.lastResult = this.game.getDice().getResult();
+                    this.lastHolder = this.game.getDice().getHolder();
+                    break;
+                }
+                case gameOver: {
+                    close();
+                    break;
+                }
+                default:
+                    break;
+            }
+        } catch (IOException ex) {
+            System.err.println("Journal could not be written.");
+            this.closed = true;
+            this.game.getEvents().unsubscribe(this);
+        }
+    }
+
+    private void writeRecord(int value, int kind) throws IOException {
+        VarInt.write(this.out, value << 2 | kind);
+        this.steps++;
+    }
+
+    private void writeKeyframe() throws IOException {
+        writeKeyframe(GameSnapshot.capture(this.game));
+    }
+
+    private void writeKeyframe(byte[] snapshot) throws IOException {
+        VarInt.write(this.out, this.steps << 2 | KEYFRAME);
+        VarInt.write(this.out, snapshot.length);
+        this.out.write(snapshot);
+        this.lastKeyframe = this.steps;
+    }
+
+    /**
+     * Stops recording, writes the end of the journal and closes the stream.
+     * @throws IOException if the stream can not be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed)
+            return;
+        this.closed = true;
+        this.game.getEvents().unsubscribe(this);
+        VarInt.write(this.out, this.steps << 2 | END);
+        this.out.close();
+    }
+}
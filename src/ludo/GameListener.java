@@ -0,0 +1,16 @@
+package ludo;
+
+/**
+ * Receiver of the changes published by a round of Ludo.
+ * 
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.GameEventBus
+ */
+public interface GameListener {
+
+    /**
+     * Called for every change in the state of the game the listener is subscribed to.
+     * @param event the change that took place
+     */
+    void onEvent(GameEvent event);
+}
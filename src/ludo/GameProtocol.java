@@ -0,0 +1,271 @@
+package ludo;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Binary messages exchanged by the ProtocolServer and its clients.
+ * <p>
+ * Every message is a frame made of its length as a VarInt, the type of the message in one byte and the values of the
+ * message as VarInts. The messages of the clients are:
+ * <ul>
+ * <li>OPEN humans special : opens a table with the seats of the bit mask humans for human players and computer players
+ * in the others, in the special (1) or regular (0) board
+ * <li>JOIN table seat : takes a human seat of a table
+ * <li>ROLL : rolls the dice
+ * <li>MOVE token : moves a token
+ * <li>LEAVE : leaves the seat, or stops watching
+ * <li>WATCH table : watches a table as a spectator, answered with the STATE of the game as a keyframe and then the
+ * EVENT of every change
+ * </ul>
+ * The messages of the server are:
+ * <ul>
+ * <li>OPENED table : the table was opened
+ * <li>JOINED table seat : the seat was taken, followed by the STATE of the game
+ * <li>STATE snapshot : the whole game as a GameSnapshot, also sent when the players or the board change, and to a
+ * spectator that fell behind instead of the events it missed
+ * <li>EVENT type values : a change of the game, with the values of its type as in encode(GameEvent)
+ * <li>TURN seat tokens : the seat that has to play, with the bit mask of the tokens it can move or 0 if it has to roll
+ * (not sent to spectators)
+ * <li>REJECTED reason : the last message of the client could not be done, MALFORMED if it was not a valid message;
+ * a frame whose length is not valid can not be skipped, so it is rejected and the connection is closed
+ * </ul>
+ * A roll or a move takes a frame of 2-3 bytes and the events it causes 3-7 bytes each.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.ProtocolServer
+ * @see ludo.ProtocolClient
+ */
+public class GameProtocol {
+
+    //messages of the clients
+    public static final int OPEN = 1, JOIN = 2, ROLL = 3, MOVE = 4, LEAVE = 5, WATCH = 6;
+    //messages of the server
+    public static final int OPENED = 16, JOINED = 17, STATE = 18, EVENT = 19, TURN = 20, REJECTED = 21;
+    //reasons of REJECTED
+    public static final int NO_TABLE = 1, SEAT_TAKEN = 2, NOT_SEATED = 3, INVALID_MOVE = 4, BUSY = 5, MALFORMED = 6;
+    public static final int MAX_FRAME = 1024; //length of the longest message
+
+    private GameProtocol() {
+    }
+
+    /**
+     * A message decoded from a frame.
+     */
+    public static class Message {
+
+        private final int type;
+        private final int[] values;
+        private final byte[] snapshot;
+        private final GameEvent event;
+
+        Message(int type, int[] values, byte[] snapshot, GameEvent event) {
+            this.type = type;
+            this.values = values;
+            this.snapshot = snapshot;
+            this.event = event;
+        }
+
+        /**
+         * Gets the type of the message.
+         * @return the type, e.g. ROLL or EVENT
+         */
+        public int getType() {
+            return this.type;
+        }
+
+        /**
+         * Gets a value of the message.
+         * @param i the index of the value
+         * @return the value
+         */
+        public int getValue(int i) {
+            return this.values[i];
+        }
+
+        /**
+         * Gets the snapshot of a STATE message.
+         * @return the snapshot, or null for other messages
+         */
+        public byte[] getSnapshot() {
+            return this.snapshot;
+        }
+
+        /**
+         * Gets the change of an EVENT message.
+         * @return the event, or null for other messages
+         */
+        public GameEvent getEvent() {
+            return this.event;
+        }
+
+        @Override
+        public String toString() {
+            return this.event != null ? "EVENT " + this.event : this.type + " " + Arrays.toString(this.values);
+        }
+    }
+
+    /**
+     * Creates the frame of a message with numbers as values.
+     * @param type the type of the message
+     * @param values the values of the message
+     * @return the frame, ready to be written
+     */
+    public static ByteBuffer frame(int type, int... values) {
+        int length = 1;
+        for (int v : values)
+            length += VarInt.size(v);
+        ByteBuffer frame = ByteBuffer.allocate(VarInt.size(length) + length);
+        VarInt.write(frame, length);
+        frame.put((byte) type);
+        for (int v : values)
+            VarInt.write(frame, v);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Creates the STATE frame of a game.
+     * @param game the game
+     * @return the frame, ready to be written
+     */
+    public static ByteBuffer state(GameState game) {
+        byte[] snapshot = GameSnapshot.capture(game);
+        ByteBuffer frame = ByteBuffer.allocate(VarInt.size(snapshot.length + 1) + snapshot.length + 1);
+        VarInt.write(frame, snapshot.length + 1);
+        frame.put((byte) STATE).put(snapshot);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Creates the EVENT frame of a change of a game, with only the values used by its type:
+     * the player and the dice of a roll, the player, token and positions of a move, a capture (with its target too),
+     * a star jump, a globe bonus or a goal, the player and its place when it finishes, and nothing else for the rest.
+     * @param event the change
+     * @return the frame, ready to be written
+     */
+    @SuppressWarnings("fallthrough")
+    public static ByteBuffer encode(GameEvent event) {
+        ByteBuffer frame = ByteBuffer.allocate(16);
+        frame.put((byte) 0).put((byte) EVENT).put((byte) event.getType().ordinal());
+        switch (event.getType()) {
+            case roll:
+                frame.put((byte) (event.getPlayer() * 8 + event.getDice()));
+                break;
+            case capture:
+                VarInt.write(frame, event.getTarget());
+                //falls through: a capture also has the values of a move
+            case move:
+            case starJump:
+            case globeBonus:
+            case goal:
+                frame.put((byte) (event.getPlayer() * 4 + event.getToken()));
+                VarInt.write(frame, event.getFrom());
+                VarInt.write(frame, event.getTo());
+                break;
+            case playerFinished:
+                frame.put((byte) event.getPlayer());
+                VarInt.write(frame, event.getTo());
+                break;
+            default:
+                break;
+        }
+        frame.put(0, (byte) (frame.position() - 1)); //always shorter than 128
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Removes the next complete frame from a buffer being filled by a channel.
+     * @param in the buffer, in read mode
+     * @return the frame without its length, or null if the frame is not complete yet
+     * @throws IllegalArgumentException if the frame is longer than MAX_FRAME
+     */
+    public static ByteBuffer next(ByteBuffer in) {
+        int start = in.position(), length = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (!in.hasRemaining() || shift > 14) {
+                in.position(start);
+                if (shift > 14)
+                    throw new IllegalArgumentException("Malformed frame.");
+                return null;
+            }
+            int b = in.get();
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                break;
+        }
+        if (length == 0 || length > MAX_FRAME)
+            throw new IllegalArgumentException("Malformed frame.");
+        if (in.remaining() < length) {
+            in.position(start);
+            return null;
+        }
+        ByteBuffer frame = in.slice();
+        frame.limit(length);
+        in.position(in.position() + length);
+        return frame;
+    }
+
+    /**
+     * Decodes a frame obtained with next(ByteBuffer).
+     * @param frame the frame without its length
+     * @return the message
+     * @throws IllegalArgumentException if the frame is not a valid message
+     */
+    public static Message decode(ByteBuffer frame) {
+        try {
+            int type = frame.get();
+            if (type == STATE) {
+                byte[] snapshot = new byte[frame.remaining()];
+                frame.get(snapshot);
+                return new Message(type, new int[0], snapshot, null);
+            }
+            if (type == EVENT)
+                return new Message(type, new int[0], null, decodeEvent(frame));
+            int[] values = new int[4];
+            int n = 0;
+            while (frame.hasRemaining() && n < values.length)
+                values[n++] = VarInt.read(frame);
+            return new Message(type, Arrays.copyOf(values, n), null, null);}
+        catch (RuntimeException ex) {
+            throw new IllegalArgumentException("Malformed message.", ex);}
+    }
+
+    //Reads the values of an event written by encode, the values not written are NONE
+    @SuppressWarnings("fallthrough")
+    private static GameEvent decodeEvent(ByteBuffer frame) {
+        GameEvent.Type type = GameEvent.Type.values()[frame.get()];
+        int player = GameEvent.NONE, token = GameEvent.NONE, target = GameEvent.NONE, from = GameEvent.NONE, to = GameEvent.NONE, dice = 0;
+        switch (type) {
+            case roll:
+                int b = frame.get();
+                player = b / 8;
+                dice = b % 8;
+                break;
+            case capture:
+                target = VarInt.read(frame);
+                //falls through: a capture also has the values of a move
+            case move:
+            case starJump:
+            case globeBonus:
+            case goal:
+                b = frame.get();
+                player = b / 4;
+                token = b % 4;
+                from = VarInt.read(frame);
+                to = VarInt.read(frame);
+                break;
+            case playerFinished:
+                player = frame.get();
+                to = VarInt.read(frame);
+                break;
+            default:
+                break;
+        }
+        GameEvent event = new GameEvent();
+        event.set(type, player, token, target, from, to, dice, 0);
+        return event;
+    }
+}
@@ -0,0 +1,216 @@
+package ludo;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import ludo.Autoplay.AutoplayMode;
+import ludo.ImgPath.Color;
+import ludo.ImgPath.Theme;
+import static ludo.GameJournal.END;
+import static ludo.GameJournal.KEYFRAME;
+import static ludo.GameJournal.MAGIC;
+import static ludo.GameJournal.MOVE;
+import static ludo.GameJournal.ROLL;
+
+/**
+ * Replay of a round of Ludo recorded by a GameJournal.
+ * <p>
+ * The replay keeps its own instance of GameState, which can be drawn by the GUI, and moves it to any step of the journal.
+ * A step is a dice roll or a token move. Jumping to a step restores the closest keyframe before it and applies the
+ * records in between, so it never reads more than the keyframe interval of the journal.
+ * Stepping backwards is a jump to the previous step. The replayed moves are counted in Metrics of the replay, not in
+ * the ones of the application, since they were already counted when the game was played.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.GameJournal
+ */
+public class GameReplay {
+
+    private final GameState game;
+    private final long seed;
+    private int[] records = new int[256];
+    private int stepCount, position;
+    private final List<Integer> keyframeSteps = new ArrayList<>();
+    private final List<byte[]> keyframes = new ArrayList<>();
+
+    /**
+     * Initializes a replay reading a journal from a stream.
+     * A journal that was not closed (e.g. because the game was interrupted) is replayed up to its last record.
+     * @param in the stream containing the journal
+     * @throws IOException if the stream can not be read or does not contain a journal
+     */
+    public GameReplay(InputStream in) throws IOException {
+        DataInputStream header = new DataInputStream(in);
+        if (header.readInt() != MAGIC)
+            throw new IOException("Not a ludo journal.");
+        if (VarInt.read(in) != GameJournal.VERSION)
+            throw new IOException("Unsupported journal version.");
+        this.seed = header.readLong();
+        VarInt.read(in); //keyframe interval, the keyframes are indexed while reading
+        boolean special = VarInt.read(in) == 1;
+        Theme theme = Theme.values()[VarInt.read(in)];
+        List<Color> colors = new ArrayList<>();
+        List<Boolean> auto = new ArrayList<>();
+        List<AutoplayMode> autoMode = new ArrayList<>();
+        for (Color c : Color.values()) {
+            int flags = VarInt.read(in);
+            if ((flags & 1) != 0)
+                colors.add(c);
+            auto.add((flags & 2) != 0);
+            autoMode.add(AutoplayMode.values()[VarInt.read(in)]);
+        }
+        this.game = new GameState(theme, colors, auto, autoMode, special, new Metrics(false));
+        this.game.setSeed(this.seed);
+        readRecords(in);
+        if (this.keyframes.isEmpty())
+            throw new IOException("Journal without keyframes.");
+        GameSnapshot.restore(this.game, this.keyframes.get(0));
+    }
+
+    /**
+     * Initializes a replay from the bytes of a journal.
+     * @param journal the journal written by a GameJournal
+     * @throws IOException if the bytes do not contain a journal
+     */
+    public GameReplay(byte[] journal) throws IOException {
+        this(new ByteArrayInputStream(journal));
+    }
+
+    /**
+     * Loads the replay of a journal file.
+     * @param file the journal file
+     * @return the replay of the journal
+     * @throws IOException if the file can not be read or does not contain a journal
+     */
+    public static GameReplay load(File file) throws IOException {
+        return new GameReplay(Files.readAllBytes(file.toPath()));
+    }
+
+    private void readRecords(InputStream in) throws IOException {
+        while (true) {
+            int record;
+            try {
+                record = VarInt.read(in);
+            } catch (EOFException ex) {
+                return;
+            }
+            switch (record & 3) {
+                case KEYFRAME: {
+                    byte[] snapshot = new byte[VarInt.read(in)];
+                    new DataInputStream(in).readFully(snapshot);
+                    this.keyframeSteps.add(record >>> 2);
+                    this.keyframes.add(snapshot);
+                    break;
+                }
+                case END:
+                    return;
+                default: {
+                    if (this.stepCount == this.records.length)
+                        this.records = Arrays.copyOf(this.records, this.stepCount * 2);
+                    this.records[this.stepCount++] = record;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the game being replayed, in the state of the current step.
+     * @return the game of this replay
+     */
+    public GameState getGame() {
+        return this.game;
+    }
+
+    /**
+     * Gets the seed stored in the journal header.
+     * @return the seed of the recorded game
+     */
+    public long getSeed() {
+        return this.seed;
+    }
+
+    /**
+     * Gets the number of steps (dice rolls and token moves) in the journal.
+     * @return total number of steps
+     */
+    public int getStepCount() {
+        return this.stepCount;
+    }
+
+    /**
+     * Gets the current step, which is the number of rolls and moves applied to the game.
+     * @return the current step [0-stepCount]
+     */
+    public int getStep() {
+        return this.position;
+    }
+
+    /**
+     * Moves the game to the given step.
+     * @param step the number of rolls and moves to be applied [0-stepCount]
+     */
+    public void seek(int step) {
+        step = Math.max(0, Math.min(step, this.stepCount));
+        if (step == this.position)
+            return;
+        int k = keyframeBefore(step);
+        if (step < this.position || this.keyframeSteps.get(k) >= this.position) {
+            GameSnapshot.restore(this.game, this.keyframes.get(k));
+            this.game.publishSettings();
+            this.position = this.keyframeSteps.get(k);
+        }
+        while (this.position < step)
+            apply(this.records[this.position++]);
+    }
+
+    /**
+     * Applies the next step to the game.
+     * @return true if there was a step to apply, false at the end of the journal
+     */
+    public boolean stepForward() {
+        if (this.position >= this.stepCount)
+            return false;
+        seek(this.position + 1);
+        return true;
+    }
+
+    /**
+     * Moves the game back to the previous step.
+     * @return true if there was a previous step, false at the beginning of the journal
+     */
+    public boolean stepBackward() {
+        if (this.position == 0)
+            return false;
+        seek(this.position - 1);
+        return true;
+    }
+
+    private int keyframeBefore(int step) {
+        int low = 0, high = this.keyframeSteps.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (this.keyframeSteps.get(mid) <= step)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        return low;
+    }
+
+    private void apply(int record) {
+        int value = record >>> 2;
+        if ((record & 3) == ROLL) {
+            this.game.rollAndCheckActiveTokens(value % 8);
+            this.game.checkMoveOrPass();
+        } else if ((record & 3) == MOVE) {
+            this.game.selectAndMove(value);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package ludo;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Helper class to save a round of Ludo into a file and to load it back.
+ * <p>
+ * A save file contains a header with the seed of the game followed by a GameSnapshot, which includes the theme
+ * and the type of board. Files are written into a temporary file that then replaces the save file in a single step,
+ * so a crash while saving never leaves a corrupted save file behind.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.GameSnapshot
+ * @see ludo.Autosave
+ */
+public class GameSaver {
+
+    public static final int MAGIC = 0x4C554453; //"LUDS"
+    public static final int VERSION = 1;
+
+    private GameSaver() {
+    }
+
+    /**
+     * Saves the current state of a game into a file.
+     * @param game the game to be saved
+     * @param file the save file
+     * @throws IOException if the file can not be written
+     */
+    public static void save(GameState game, File file) throws IOException {
+        write(game.getSeed(), GameSnapshot.capture(game), file);
+    }
+
+    /**
+     * Writes a snapshot into a save file, replacing the previous file atomically.
+     * @param seed the seed of the game
+     * @param snapshot the snapshot of the game obtained with GameSnapshot.capture
+     * @param file the save file
+     * @throws IOException if the file can not be written
+     */
+    public static void write(long seed, byte[] snapshot, File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            try (FileOutputStream fileOut = new FileOutputStream(temp)) {
+                DataOutputStream out = new DataOutputStream(fileOut);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(seed);
+                out.writeInt(snapshot.length);
+                out.write(snapshot);
+                out.flush();
+                fileOut.getFD().sync();
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     * Creates a new game from a save file.
+     * @param file the save file
+     * @return the game in the saved state
+     * @throws IOException if the file can not be read or is not a save file
+     */
+    public static GameState load(File file) throws IOException {
+        DataInputStream in = open(file);
+        long seed = in.readLong();
+        GameState game = GameSnapshot.read(new ByteArrayInputStream(readSnapshot(in)));
+        game.setSeed(seed);
+        return game;
+    }
+
+    /**
+     * Restores the state of an existing game from a save file.
+     * The listeners of the game are notified with a settings event. An invalid file leaves the game as it was.
+     * @param game the game to be restored
+     * @param file the save file
+     * @throws IOException if the file can not be read or is not a save file
+     */
+    public static void restore(GameState game, File file) throws IOException {
+        DataInputStream in = open(file);
+        long seed = in.readLong();
+        GameSnapshot.read(new ByteArrayInputStream(readSnapshot(in)), game);
+        game.setSeed(seed);
+        game.publishSettings();
+    }
+
+    private static DataInputStream open(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file.toPath())));
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a ludo save file.");
+        if (in.readInt() != VERSION)
+            throw new IOException("Unsupported save file version.");
+        return in;
+    }
+
+    private static byte[] readSnapshot(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available())
+            throw new IOException("Truncated save file.");
+        byte[] snapshot = new byte[length];
+        in.readFully(snapshot);
+        return snapshot;
+    }
+}
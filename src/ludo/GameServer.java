@@ -0,0 +1,251 @@
+package ludo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Host of many concurrent rounds of Ludo without GUI, each one in a GameTable with its own queue of commands.
+ * <p>
+ * The tables run on virtual threads when the Java runtime provides them (Java 21 or later), one at a time per table
+ * and only while the table has commands or computer turns to play, so thousands of tables share the processors.
+ * On older runtimes they run on a fixed pool of platform threads, one per processor by default.
+ * The tables that receive no command for the idle time of the server are parked as snapshots.
+ * <p>
+ * The main method plays a scenario of BatchRunner with the tables open at the same time given by the key "tables"
+ * (default 1000), opening a new table every time a game is over until the games of the scenario are played. A game
+ * still playing after BatchRunner.MAX_STEPS rolls is abandoned, and the run stops if no game ends for a minute.
+ * The key "threads" gives the platform threads of the tables (default 0, virtual threads if available).
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.GameTable
+ */
+public class GameServer {
+
+    public static final long DEFAULT_IDLE = 30000; //milliseconds without commands before a table is parked
+
+    private final ExecutorService executor;
+    private final boolean virtual;
+    private final ConcurrentHashMap<Integer, GameTable> tables = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final ScheduledExecutorService parking;
+    private volatile boolean closed;
+
+    /**
+     * Initializes a server with virtual threads if available and the default idle time.
+     */
+    public GameServer() {
+        this(0, DEFAULT_IDLE);
+    }
+
+    /**
+     * Initializes a server.
+     * @param threads the platform threads running the tables, or 0 to use virtual threads if available
+     * @param idle the milliseconds without commands before a table is parked, or 0 to never park
+     */
+    public GameServer(int threads, final long idle) {
+        ExecutorService e = threads > 0 ? null : newVirtualExecutor();
+        this.virtual = e != null;
+        this.executor = e != null ? e : Executors.newFixedThreadPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors(),
+                newThreadFactory("ludo-tables"));
+        this.parking = Executors.newSingleThreadScheduledExecutor(newThreadFactory("ludo-parking"));
+        if (idle > 0)
+            this.parking.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    for (GameTable table : tables.values())
+                        table.park(TimeUnit.MILLISECONDS.toNanos(idle));
+                }
+            }, idle, Math.max(1, idle / 2), TimeUnit.MILLISECONDS);
+    }
+
+    //Gets an executor starting a virtual thread for every task, or null if the runtime has no virtual threads
+    private static ExecutorService newVirtualExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);}
+        catch (ReflectiveOperationException | UnsupportedOperationException ex) {
+            return null;}
+    }
+
+    private static ThreadFactory newThreadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Gets whether the tables run on virtual threads.
+     * @return true if the tables run on virtual threads, false if on a pool of platform threads
+     */
+    public boolean getVirtual() {
+        return this.virtual;
+    }
+
+    /**
+     * Opens a table for a game, and starts the turns of its computer players.
+     * @param game the game, which must not be changed afterwards but by the commands of the table
+     * @return the table, or null if the server is shut down
+     */
+    public GameTable open(GameState game) {
+        return open(game, null);
+    }
+
+    /**
+     * Opens a table for a game with a listener subscribed before the computer players start.
+     * @param game the game, which must not be changed afterwards but by the commands of the table
+     * @param listener the listener subscribed to the table, or null
+     * @return the table, or null if the server is shut down
+     * @see ludo.GameTable#subscribe(ludo.GameListener)
+     */
+    public GameTable open(GameState game, GameListener listener) {
+        GameTable table = create(game, listener);
+        if (table != null)
+            table.start();
+        return table;
+    }
+
+    //Adds a table for a game without starting it, so the caller can keep the table before its listener is called
+    private GameTable create(GameState game, GameListener listener) {
+        if (this.closed)
+            return null;
+        GameTable table = new GameTable(this.nextId.getAndIncrement(), game, this.executor);
+        if (listener != null)
+            table.subscribe(listener);
+        this.tables.put(table.getId(), table);
+        return table;
+    }
+
+    /**
+     * Gets an open table.
+     * @param id the identifier of the table
+     * @return the table, or null if there is no open table with that identifier
+     */
+    public GameTable getTable(int id) {
+        return this.tables.get(id);
+    }
+
+    /**
+     * Gets the open tables.
+     * @return a live view of the open tables
+     */
+    public Collection<GameTable> getTables() {
+        return this.tables.values();
+    }
+
+    /**
+     * Closes a table: the commands already queued are run and then the table is removed from the server.
+     * @param table the table
+     */
+    public void close(GameTable table) {
+        table.close();
+        this.tables.remove(table.getId());
+    }
+
+    /**
+     * Shuts the server down gracefully: no more tables or commands are accepted, the computer players stop,
+     * and the commands already queued in the tables are run.
+     * @param timeout the maximum time to wait for the queued commands
+     * @param unit the unit of the timeout
+     * @return true if all the queued commands were run, false if the timeout elapsed before
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        this.closed = true;
+        this.parking.shutdownNow();
+        for (GameTable table : this.tables.values())
+            table.close();
+        this.executor.shutdown();
+        return this.executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Runs the scenario file given as the only argument in a server and writes the throughput and the summary of the games.
+     * @param args the path of the scenario file
+     */
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.out.println("Usage: java ludo.GameServer <scenario file>");
+            System.exit(1);
+        }
+        try {
+            Properties scenario = new Properties();
+            try (InputStream in = new FileInputStream(new File(args[0]))) {
+                scenario.load(in);}
+            run(new BatchRunner(scenario), Integer.parseInt(scenario.getProperty("tables", "1000").trim()),
+                    Integer.parseInt(scenario.getProperty("threads", "0").trim()));}
+        catch (IOException | IllegalArgumentException ex) {
+            System.out.println("Scenario could not be run: " + ex.getMessage());
+            System.exit(1);}
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();}
+    }
+
+    //Plays the games of a scenario with the given number of tables open at the same time
+    private static void run(final BatchRunner scenario, int tables, int threads) throws InterruptedException {
+        final GameServer server = new GameServer(threads, DEFAULT_IDLE);
+        final GameStats stats = new GameStats();
+        final AtomicLong next = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(scenario.getGames());
+        long start = System.nanoTime();
+        for (int t = 0; t < Math.min(tables, scenario.getGames()); t++)
+            openNext(server, scenario, stats, next, done);
+        //the games end after MAX_STEPS rolls at most, so a whole minute without any game over means the tables are stuck
+        for (long left = done.getCount(); !done.await(1, TimeUnit.MINUTES); left = done.getCount())
+            if (done.getCount() == left) {
+                System.err.println(left + " games could not be finished: no game over in a minute.");
+                break;
+            }
+        long ms = (System.nanoTime() - start) / 1000000;
+        server.shutdown(1, TimeUnit.MINUTES);
+        System.out.printf("# %d games in %d tables on %s threads: %d ms, %.1f games/s%n", stats.getGames(), tables,
+                server.getVirtual() ? "virtual" : "platform", ms, stats.getGames() * 1000.0 / Math.max(1, ms));
+        System.out.print(stats.report(scenario.getModes(), "# "));
+    }
+
+    //Opens the table of the next game of the scenario, which opens the following one when it is over or abandoned
+    private static void openNext(final GameServer server, final BatchRunner scenario, final GameStats stats,
+            final AtomicLong next, final CountDownLatch done) {
+        long index = next.getAndIncrement();
+        if (index >= scenario.getGames())
+            return;
+        final GameState game = scenario.newGame(scenario.getSeed() + index);
+        final long start = System.nanoTime();
+        final GameTable[] table = new GameTable[1];
+        table[0] = server.create(game, new GameListener() {
+            private int rolls;
+
+            @Override
+            public void onEvent(GameEvent event) {
+                boolean over = event.getType() == GameEvent.Type.gameOver;
+                if (!over && !(event.getType() == GameEvent.Type.roll && ++this.rolls == BatchRunner.MAX_STEPS))
+                    return;
+                if (over) {
+                    synchronized (stats) {
+                        stats.add(game, (System.nanoTime() - start) / 1e6);}
+                }
+                server.close(table[0]);
+                done.countDown();
+                openNext(server, scenario, stats, next, done);
+            }
+        });
+        if (table[0] != null)
+            table[0].start(); //after the assignment, which the thread of the table sees when it calls the listener
+    }
+}
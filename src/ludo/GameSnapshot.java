@@ -0,0 +1,240 @@
+package ludo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import ludo.Autoplay.AutoplayMode;
+import ludo.ImgPath.Color;
+import ludo.ImgPath.Theme;
+import static ludo.Player.OUT_OF_BOARD;
+
+/**
+ * Helper class to write the full state of a round of Ludo in a compact binary format and to read it back.
+ * The snapshot contains the theme, the type of board, the dice, the turn, the lists of active players,
+ * possible moves and winners, and the settings and tokens of each of the 4 players.
+ * All numbers are written with VarInt, so a snapshot usually takes less than 100 bytes.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.VarInt
+ */
+public class GameSnapshot {
+
+    public static final int VERSION = 1;
+
+    private GameSnapshot() {
+    }
+
+    /**
+     * Gets the snapshot of a game as an array of bytes.
+     * @param game the game to be written
+     * @return the snapshot of the game
+     */
+    public static byte[] capture(GameState game) {
+        Dice dice = game.getDice();
+        return capture(game, dice.getResult(), dice.getHolder(), dice.getDiceRollCount());
+    }
+
+    /**
+     * Gets the snapshot of a game with other values of the dice, e.g. the ones before the last roll.
+     * @param game the game to be written
+     * @param result the result of the dice
+     * @param holder the player holding the dice
+     * @param rollCount the number of rolls of the dice
+     * @return the snapshot of the game
+     */
+    static byte[] capture(GameState game, int result, int holder, int rollCount) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        try {
+            write(game, result, holder, rollCount, out);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the snapshot of a game to a stream.
+     * @param game the game to be written
+     * @param out the stream to write to
+     * @throws IOException if the stream can not be written
+     */
+    public static void write(GameState game, OutputStream out) throws IOException {
+        Dice dice = game.getDice();
+        write(game, dice.getResult(), dice.getHolder(), dice.getDiceRollCount(), out);
+    }
+
+    private static void write(GameState game, int result, int holder, int rollCount, OutputStream out) throws IOException {
+        VarInt.write(out, VERSION);
+        VarInt.write(out, flags(game.getPlaying(), game.getDiceRoller(), game.getBoard().getSpecial()));
+        VarInt.write(out, game.getTheme().ordinal());
+        VarInt.write(out, game.getCurrentPlayer());
+        VarInt.write(out, game.getTurnCount());
+        VarInt.write(out, result);
+        VarInt.write(out, holder);
+        VarInt.write(out, rollCount);
+        writeList(out, game.getXPlayers());
+        writeList(out, game.getXTokens());
+        writeList(out, game.getWinners());
+        for (Player player : game.getPlayers()) {
+            VarInt.write(out, flags(player.getActive(), player.getAuto(), player.getTurn()));
+            VarInt.write(out, player.getAutoMode().ordinal());
+            VarInt.write(out, player.getGoal());
+            writeList(out, player.getTokensOut());
+            for (Token token : player.getTokens()) {
+                VarInt.write(out, token.getPosition());
+                VarInt.write(out, flags(token.getOut(), token.getFinalTrack(), token.getSafe()));
+            }
+        }
+    }
+
+    /**
+     * Restores the state of a game from a snapshot.
+     * @param game the game to be restored
+     * @param snapshot the snapshot obtained with capture
+     * @see #capture(ludo.GameState)
+     */
+    public static void restore(GameState game, byte[] snapshot) {
+        try {
+            read(new ByteArrayInputStream(snapshot), game);
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("Invalid snapshot.", ex);
+        }
+    }
+
+    /**
+     * Reads a snapshot from a stream and restores the state of a game.
+     * The whole snapshot is read and checked before the game is changed, so an invalid one leaves the game as it was.
+     * @param in the stream to read from
+     * @param game the game to be restored
+     * @throws IOException if the stream can not be read or does not contain a valid snapshot
+     */
+    public static void read(InputStream in, GameState game) throws IOException {
+        if (VarInt.read(in) != VERSION)
+            throw new IOException("Unsupported snapshot version.");
+        int flags = VarInt.read(in);
+        Theme theme = Theme.values()[check(VarInt.read(in), Theme.values().length, "theme")];
+        int currentPlayer = check(VarInt.read(in), 4, "player");
+        int turnCount = VarInt.read(in), result = VarInt.read(in), holder = check(VarInt.read(in), 4, "player");
+        int rollCount = VarInt.read(in);
+        List<Integer> xPlayers = readList(in), xTokens = readList(in), winners = readList(in);
+        int[] playerFlags = new int[4], goals = new int[4], positions = new int[16], tokenFlags = new int[16];
+        AutoplayMode[] autoModes = new AutoplayMode[4];
+        List<List<Integer>> tokensOut = new ArrayList<>();
+        for (int p = 0; p < 4; p++) {
+            playerFlags[p] = VarInt.read(in);
+            autoModes[p] = AutoplayMode.values()[check(VarInt.read(in), AutoplayMode.values().length, "mode")];
+            goals[p] = check(VarInt.read(in), 5, "goal count");
+            tokensOut.add(readList(in));
+            for (int t = 0; t < 4; t++) {
+                positions[p * 4 + t] = check(VarInt.read(in), OUT_OF_BOARD + 1, "position");
+                tokenFlags[p * 4 + t] = VarInt.read(in);
+            }
+        }
+        game.setPlaying(flag(flags, 0));
+        game.setDiceRoller(flag(flags, 1));
+        game.getBoard().setSpecial(flag(flags, 2));
+        game.setTheme(theme);
+        game.setCurrentPlayer(currentPlayer);
+        game.setTurnCount(turnCount);
+        game.getDice().setResult(result);
+        game.getDice().setHolder(holder);
+        game.getDice().setDiceRollCount(rollCount);
+        setList(game.getXPlayers(), xPlayers);
+        setList(game.getXTokens(), xTokens);
+        setList(game.getWinners(), winners);
+        for (int p = 0; p < 4; p++) {
+            Player player = game.getPlayers()[p];
+            player.setActive(flag(playerFlags[p], 0));
+            player.setAuto(flag(playerFlags[p], 1));
+            player.setTurn(flag(playerFlags[p], 2));
+            player.setAutoMode(autoModes[p]);
+            player.setGoal(goals[p]);
+            setList(player.getTokensOut(), tokensOut.get(p));
+            for (Token token : player.getTokens()) {
+                int t = p * 4 + token.getIndex();
+                token.setPosition(positions[t]);
+                token.setOut(flag(tokenFlags[t], 0));
+                token.setFinalTrack(flag(tokenFlags[t], 1));
+                token.setSafe(flag(tokenFlags[t], 2));
+                player.setXY(token.getIndex());
+            }
+        }
+        if (!game.getPlaying())
+            game.updateGameResults();
+    }
+
+    /**
+     * Reads a snapshot from a stream into a new game, using the players, theme and board stored in it.
+     * @param in the stream to read from
+     * @return a new game in the state described by the snapshot
+     * @throws IOException if the stream can not be read or does not contain a valid snapshot
+     */
+    static GameState read(InputStream in) throws IOException {
+        GameState game = newGame();
+        read(in, game);
+        return game;
+    }
+
+    /**
+     * Creates a new game from a snapshot, using the players, theme and board stored in it.
+     * @param snapshot the snapshot obtained with capture
+     * @return a new game in the state described by the snapshot
+     */
+    public static GameState toGame(byte[] snapshot) {
+        GameState game = newGame();
+        restore(game, snapshot);
+        return game;
+    }
+
+    //Creates a game with the 4 players, to be restored from a snapshot
+    private static GameState newGame() {
+        List<Color> colors = new ArrayList<>();
+        List<Boolean> auto = new ArrayList<>();
+        List<AutoplayMode> autoMode = new ArrayList<>();
+        for (Color c : Color.values()) {
+            colors.add(c);
+            auto.add(false);
+            autoMode.add(GameState.DEFAULT_AUTOMODE);
+        }
+        return new GameState(GameState.DEFAULT_THEME, colors, auto, autoMode, GameState.DEFAULT_BOARD);
+    }
+
+    //Checks a number read from a snapshot, which must be in [0, limit)
+    private static int check(int value, int limit, String name) throws IOException {
+        if (value < 0 || value >= limit)
+            throw new IOException("Invalid " + name + " in snapshot: " + value);
+        return value;
+    }
+
+    private static int flags(boolean a, boolean b, boolean c) {
+        return (a ? 1 : 0) | (b ? 2 : 0) | (c ? 4 : 0);
+    }
+
+    private static boolean flag(int flags, int bit) {
+        return (flags & (1 << bit)) != 0;
+    }
+
+    private static void writeList(OutputStream out, List<Integer> list) throws IOException {
+        VarInt.write(out, list.size());
+        for (int i : list)
+            VarInt.write(out, i);
+    }
+
+    //Reads a list of player or token indexes [0-3], at most 4 of them
+    private static List<Integer> readList(InputStream in) throws IOException {
+        int size = check(VarInt.read(in), 5, "list size");
+        List<Integer> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            list.add(check(VarInt.read(in), 4, "index"));
+        return list;
+    }
+
+    private static void setList(List<Integer> list, List<Integer> values) {
+        list.clear();
+        list.addAll(values);
+    }
+}
@@ -5,7 +5,10 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import ludo.Autoplay.AutoplayMode;
+import ludo.FlightEvents.MoveEvent;
+import ludo.FlightEvents.RollEvent;
 import ludo.ImgPath.*;
+import static ludo.Board.GLOBE_TILES;
 import static ludo.Player.GOAL;
 import static ludo.Player.OUT_OF_BOARD;
 
@@ -25,6 +28,9 @@ import static ludo.Player.OUT_OF_BOARD;
  * <li>List of the possible moves at any given moment
  * <li>List of players that completed the game (all tokens at the goal area)
  * <li>The results of a round
+ * <li>The seed used for the dice and the random computer player
+ * <li>The event bus that publishes every change of the state to its listeners
+ * <li>The map of the danger of capture in every tile, kept up to date by the events once it is requested
  * </ul>
  * <p>
  * @author Carla Villegas <carv@itu.dk>
@@ -37,6 +43,7 @@ public class GameState {
     public static final boolean DEFAULT_BOARD = true;
     public static final boolean DEFAULT_AUTOPLAYER= false;
     public static final AutoplayMode DEFAULT_AUTOMODE= AutoplayMode.customAI;
+    private Metrics metrics; //where the game is counted, the ones of the application but in replays
     private static List<ImgPath.Color> DEFAULT_PLAYERS = Arrays.asList(Color.blue, Color.red, Color.yellow, Color.green);
     
     private Board board;
@@ -48,12 +55,15 @@ public class GameState {
     private boolean diceRoller, playing, debug; // check if click is dice roller or token selector
     private ArrayList<Integer> xPlayers, xTokens, winners; //indexes of active players
     private String gameResults;
+    private GameEventBus events;
+    private DangerMap danger;
+    private long seed;
     /** 
     * Initializes an instance of GameState using default game settings. 
     */
     public GameState(){
         this.gameResults = "";
-        initVars();
+        initVars(Metrics.getInstance(), true);
         this.theme = DEFAULT_THEME;
         this.board = new Board(DEFAULT_BOARD);
         createSetOfPlayers(DEFAULT_PLAYERS, DEFAULT_AUTOPLAYER, DEFAULT_AUTOMODE);
@@ -70,7 +80,7 @@ public class GameState {
     */
     public GameState(Theme theme, List<ImgPath.Color> plColors, boolean specialBoard){
         this.gameResults = "";
-        initVars();
+        initVars(Metrics.getInstance(), true);
         this.theme = theme;
         this.board = new Board(specialBoard);
         createSetOfPlayers(plColors, DEFAULT_AUTOPLAYER, DEFAULT_AUTOMODE);
@@ -88,16 +98,41 @@ public class GameState {
     * @param autoMode the computer algorithm used by the computer player to decide next moves
     */
     public GameState(Theme theme, List<ImgPath.Color> plColors, List<Boolean> auto, List<AutoplayMode> autoMode, boolean specialBoard){
-        initVars();
+        this(theme, plColors, auto, autoMode, specialBoard, Metrics.getInstance());
+    } 
+    
+    /**
+    * Initializes a game as GameState(theme, plColors, auto, autoMode, specialBoard), counted in the given Metrics
+    * instead of the ones of the application, e.g. a replay that must not count its moves again.
+    * @param metrics the registry the game is counted in
+    */
+    GameState(Theme theme, List<ImgPath.Color> plColors, List<Boolean> auto, List<AutoplayMode> autoMode, boolean specialBoard, Metrics metrics){
+        initVars(metrics, true);
         this.theme = theme;
         this.board = new Board(specialBoard);
         createSetOfPlayers(plColors, auto, autoMode);
     } 
     
+    /**
+    * Initializes a copy of a game from its snapshot, e.g. for a computer player deciding in another thread.
+    * The copy has its own event bus and is not counted as a game started in the Metrics.
+    * @param snapshot the snapshot of the game obtained with GameSnapshot.capture
+    */
+    GameState(byte[] snapshot){
+        initVars(Metrics.getInstance(), false);
+        this.theme = DEFAULT_THEME;
+        this.board = new Board(DEFAULT_BOARD);
+        createSetOfPlayers(DEFAULT_PLAYERS, DEFAULT_AUTOPLAYER, DEFAULT_AUTOMODE);
+        GameSnapshot.restore(this, snapshot);
+    }
+    
     /**
     * Initializes common variables to all GameState constructors.
+    * @param metrics the registry the game is counted in
+    * @param started whether the game is counted as a game started in the Metrics
     */
-    private void initVars(){
+    private void initVars(Metrics metrics, boolean started){
+        this.metrics = metrics;
         this.dice = new Dice();
         this.playing = true;
         this.currentPlayer = 0;
@@ -110,6 +145,18 @@ public class GameState {
         this.computerPlayer= new Autoplay();
         this.gameResults = "";
         this.debug = false;
+        this.events = new GameEventBus();
+        setSeed(System.nanoTime());
+        if (started)
+            this.metrics.gameStarted();
+    }
+
+    /**
+     * Gets the controller of the computer-operated players of this game.
+     * @return the instance of Autoplay that selects the moves of the players with auto set to true
+     */
+    public Autoplay getComputerPlayer() {
+        return this.computerPlayer;
     }
 
     /**
@@ -134,12 +181,12 @@ public class GameState {
 
      /**
      * Sets the attribute special from the object board to regular (false) or special (true).
-     * @param special boolean indicating if the board should be special or not
+     * @param special string equal to "special" (ignoring case) if the board should be special
      * @see ludo.Board#setSpecial(java.lang.String) 
      */
     public void setSpecial(String special) {
-        if(special.equals("special"))
-            this.board.setSpecial(true);
+        this.board.setSpecial(special);
+        publishSettings();
     }
 
     /**
@@ -247,6 +294,32 @@ public class GameState {
         return this.winners;
     }
 
+    /**
+     * Estimates the probability of every player of winning the round, i.e. of being the first to finish.
+     * Once a player has finished, it has won and the others have lost. While the WinProbability table is still being
+     * loaded in the background, the estimate is neutral: the same probability for every player in the round.
+     * @return the probabilities of the 4 players [0-1], 0 for the players not in the round
+     * @see WinProbability
+     */
+    public double[] getWinProbabilities() {
+        double[] p = new double[4];
+        if (!this.winners.isEmpty()) {
+            p[this.winners.get(0)] = 1;
+            return p;
+        }
+        WinProbability table = WinProbability.getLoaded();
+        if (table == null) {
+            for (int i : this.xPlayers)
+                p[i] = 1.0 / this.xPlayers.size();
+            return p;
+        }
+        int playing = 0;
+        for (int i : this.xPlayers)
+            playing |= 1 << i;
+        table.estimate(RaceTablebase.progress(this), 0, playing, this.board.getSpecial(), p);
+        return p;
+    }
+
     /**
      * Adds a player to the list of winners
      * @param playerIndex integer number [0-3] representing the index of one of the 4 players
@@ -255,6 +328,47 @@ public class GameState {
         this.winners.add(playerIndex);
     }
 
+    /**
+     * Gets the seed used for the dice results and the random computer player.
+     * @return the seed of this game
+     */
+    public long getSeed() {
+        return this.seed;
+    }
+
+    /**
+     * Sets the seed used for the dice results and the random computer player,
+     * so that a game played by computer players can be repeated.
+     * @param seed the initial seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+        this.dice.setSeed(seed);
+        this.computerPlayer.setSeed(seed * 31 + 17);
+    }
+
+    /**
+     * Gets the event bus that publishes the changes of this game (dice rolls, moves, captures, etc.)
+     * @return the event bus of this game
+     * @see ludo.GameEventBus
+     */
+    public GameEventBus getEvents() {
+        return this.events;
+    }
+
+    /**
+     * Gets the probability of capture in every tile of the board, for the computer players and the GUI.
+     * The map is created and subscribed to the events of the game the first time it is requested.
+     * @return the danger map of this game
+     */
+    public DangerMap getDangerMap() {
+        if (this.danger == null) {
+            this.danger = new DangerMap(this);
+            this.events.subscribe(this.danger);
+        }
+        return this.danger;
+    }
+
      /**
      * Gets the current theme/style used for the GUI
      * @return the theme/style of the game graphics
@@ -345,6 +459,22 @@ public class GameState {
         return this.turn;
     }
     
+    /**
+     * Sets the number of played turns. This method is meant to be used when a game is restored.
+     * @param turn total number of played turns
+     */
+    void setTurnCount(int turn){
+        this.turn = turn;
+    }
+    
+    /**
+     * Sets whether the current player should roll the dice or move a token. This method is meant to be used when a game is restored.
+     * @param diceRoller true if the current player should roll the dice, false if the player should move a token
+     */
+    void setDiceRoller(boolean diceRoller){
+        this.diceRoller = diceRoller;
+    }
+    
     /**
      * Gets a string with the results of a round of ludo
      * This is a list of winners by first to last to have finished the game
@@ -354,6 +484,18 @@ public class GameState {
     	return this.gameResults;
     }
 
+    /**
+     * Writes the list of winners, from first to last to have finished the game, into the game results.
+     */
+    void updateGameResults(){
+        this.gameResults = "\nResults:\n\n";
+        //System.out.println("-----GAME OVER!-----"+gameResults);
+        for (int i = 0; i < this.getWinners().size(); i++) {
+            //System.out.printf("%d place - %s player\n", i + 1, this.getPlayers()[this.getWinners().get(i)].getColor());
+            this.gameResults += (i + 1)+" place - "+this.getPlayers()[this.getWinners().get(i)].getColor()+" player\n";
+        }
+    }
+
     /**
      * Initializes the attributes of each of the active players for this round.
      * @param colors list of colors of the active players for this round
@@ -413,6 +555,8 @@ public class GameState {
         turn = 0;
         currentPlayer = 0;
         diceRoller=true;
+        this.metrics.gameStarted();
+        publishSettings();
     }
     
     /**
@@ -424,7 +568,8 @@ public class GameState {
             this.getPlayer(color).reset();
             this.getPlayer(color).setActive(true);
             addXPlayers(this.getPlayer(color).getPIndex());
-            turn = this.xPlayers.indexOf(currentPlayer);}
+            turn = this.xPlayers.indexOf(currentPlayer);
+            publishSettings();}
     }
     
     /**
@@ -435,33 +580,91 @@ public class GameState {
         this.getPlayer(color).setActive(false);
         removeXPlayers(this.getPlayer(color).getPIndex());
         turn = this.xPlayers.indexOf(currentPlayer);
+        publishSettings();
     }    
+    
+    /**
+     * Publishes that the players or the board were changed outside of a move.
+     */
+    void publishSettings(){
+        this.events.publish(GameEvent.Type.settings, this.currentPlayer, GameEvent.NONE, GameEvent.NONE, GameEvent.NONE, GameEvent.NONE, this.dice.getResult(), this.turn);
+    }
+    
+    /**
+     * Publishes that a roll or a move is complete and the game waits for the next action of the current player.
+     */
+    private void publishReady(){
+        this.events.publish(GameEvent.Type.ready, this.currentPlayer, GameEvent.NONE, GameEvent.NONE, GameEvent.NONE, GameEvent.NONE, this.dice.getResult(), this.turn);
+    }
 
      /**
      * Compares the position of a given token with other players' tokens and if equal, sends the opponent's token to its home area
      * @param pIndex integer number [0-3] representing the index of the given player
      * @param tIndex integer number [0-3] representing the index of the given token
+     * @return the number of opponent tokens sent home
      */
-    private void checkOtherTokens(int pIndex, int tIndex) {
+    private int checkOtherTokens(int pIndex, int tIndex) {
+        int captures = 0;
         int tokenPosition = this.players[pIndex].getToken(tIndex).getPosition();
         for (int i = 0; i < this.xPlayers.size(); i++) {
             if (!this.players[pIndex].getColor().equals(players[xPlayers.get(i)].getColor())) {
                 for (int j = 0; j < 4; j++) {
                     if (players[xPlayers.get(i)].getToken(j).getPosition() == tokenPosition && players[xPlayers.get(i)].getToken(j).getPosition() != OUT_OF_BOARD && !players[xPlayers.get(i)].getToken(j).getSafe()) {
+                        int from = GameEvent.position(players[xPlayers.get(i)].getToken(j));
                         players[xPlayers.get(i)].outOfBoard(j);
+                        if (from != GameEvent.position(players[xPlayers.get(i)].getToken(j))) {
+                            captures++;
+                            this.metrics.capture();
+                            this.events.publish(GameEvent.Type.capture, pIndex, j, xPlayers.get(i), from, OUT_OF_BOARD, this.dice.getResult(), this.turn);}
                     }
                 }
             }
         }
+        return captures;
     }
 
     /**
      * The current player rolls the dice and updates the list of active tokens
      */
     public void rollAndCheckActiveTokens() {
+        RollEvent event = new RollEvent();
+        event.begin();
         this.currentPlayer = this.xPlayers.get(this.turn % this.xPlayers.size());
         this.dice.rollDice(this.currentPlayer);
         //System.out.printf("%s player rolls the dice: %d\n", this.players[currentPlayer].getColor(), this.dice.getResult());
+        checkActiveTokens();
+        commit(event);
+    }
+    
+    /**
+     * The current player obtains the given dice result and updates the list of active tokens.
+     * This method is meant to be used when a game is replayed or the result comes from a remote player.
+     * @param result the outcome of the dice roll in the range [1-6]
+     */
+    public void rollAndCheckActiveTokens(int result) {
+        RollEvent event = new RollEvent();
+        event.begin();
+        this.currentPlayer = this.xPlayers.get(this.turn % this.xPlayers.size());
+        this.dice.rollDice(this.currentPlayer, result);
+        checkActiveTokens();
+        commit(event);
+    }
+    
+    //Fills in and commits the flight recorder event of a roll, if it is being recorded
+    private void commit(RollEvent event) {
+        if (event.shouldCommit()) {
+            event.player = this.currentPlayer;
+            event.dice = this.dice.getResult();
+            event.candidates = this.xTokens.size();
+            event.turn = this.turn;
+            event.commit();
+        }
+    }
+    
+    //Publishes the dice roll and fills the list of tokens that can be moved with the current dice result
+    private void checkActiveTokens() {
+        this.metrics.diceCast();
+        this.events.publish(GameEvent.Type.roll, this.currentPlayer, GameEvent.NONE, GameEvent.NONE, GameEvent.NONE, GameEvent.NONE, this.dice.getResult(), this.turn);
         this.xTokens.clear();
 
         if (this.dice.getIsSix()) {
@@ -487,9 +690,11 @@ public class GameState {
             this.diceRoller = false;} 
         else { //if no tokens to move, pass and let player roll dice
             this.turn++;
+            this.metrics.turn();
             //System.out.println("next turn player " + this.players[currentPlayer].getColor());
         }
         this.currentPlayer = this.xPlayers.get(this.turn % this.xPlayers.size());
+        publishReady();
     }
     
     /**
@@ -501,42 +706,67 @@ public class GameState {
         Token thisToken = this.players[currentPlayer].getTokens()[tokenIndex];
         //System.out.println((thisToken.getFinalTrack()&&!thisToken.getOut()));
         if(!(thisToken.getFinalTrack()&&!thisToken.getOut())){
+        MoveEvent event = new MoveEvent();
+        event.begin();
+        int captures = 0;
+        int goals = this.players[currentPlayer].getGoal();
+        int from = GameEvent.position(thisToken);
         this.players[currentPlayer].moveSelectedToken(tokenIndex,this.dice.getResult());
+        this.events.publish(GameEvent.Type.move, currentPlayer, tokenIndex, GameEvent.NONE, from, GameEvent.position(thisToken), this.dice.getResult(), this.turn);
         if (!thisToken.getFinalTrack()) {
-            this.checkOtherTokens(this.players[currentPlayer].getPIndex(), tokenIndex);
+            captures = this.checkOtherTokens(this.players[currentPlayer].getPIndex(), tokenIndex);
             if (this.board.getSpecial()) {
+                int landing = thisToken.getPosition();
                 this.players[currentPlayer].checkSpecial(tokenIndex, this.board);
+                if (thisToken.getPosition() != landing) {
+                    this.metrics.starJump();
+                    this.events.publish(GameEvent.Type.starJump, currentPlayer, tokenIndex, GameEvent.NONE, landing, thisToken.getPosition(), this.dice.getResult(), this.turn);}
+                else if (GLOBE_TILES.contains(landing))
+                    this.events.publish(GameEvent.Type.globeBonus, currentPlayer, tokenIndex, GameEvent.NONE, landing, landing, this.dice.getResult(), this.turn);
             }
         }
+        if (event.shouldCommit()) {
+            event.player = currentPlayer;
+            event.token = tokenIndex;
+            event.dice = this.dice.getResult();
+            event.from = from;
+            event.to = GameEvent.position(thisToken);
+            event.captures = captures;
+            event.commit();
+        }
+        if (this.players[currentPlayer].getGoal() > goals)
+            this.events.publish(GameEvent.Type.goal, currentPlayer, tokenIndex, GameEvent.NONE, from, GameEvent.FINAL_TRACK + GOAL, this.dice.getResult(), this.turn);
         if (this.players[currentPlayer].getGoal() == 4) {
             this.addWinners(this.players[currentPlayer].getPIndex());
             this.removeXPlayers(this.players[currentPlayer].getPIndex());
+            this.events.publish(GameEvent.Type.playerFinished, currentPlayer, GameEvent.NONE, GameEvent.NONE, GameEvent.NONE, this.winners.size(), this.dice.getResult(), this.turn);
             if (this.getXPlayers().isEmpty()) {
                 this.playing = false;
-                this.gameResults = "\nResults:\n\n";
-                //System.out.println("-----GAME OVER!-----"+gameResults);
-                for (int i = 0; i < this.getWinners().size(); i++) {
-                    //System.out.printf("%d place - %s player\n", i + 1, this.getPlayers()[this.getWinners().get(i)].getColor());
-                    this.gameResults += (i + 1)+" place - "+this.getPlayers()[this.getWinners().get(i)].getColor()+" player\n";
-                }
+                updateGameResults();
+                this.metrics.gameFinished();
+                this.events.publish(GameEvent.Type.gameOver, GameEvent.NONE, GameEvent.NONE, GameEvent.NONE, GameEvent.NONE, GameEvent.NONE, this.dice.getResult(), this.turn);
             }
         }
         //System.out.println("Player turn:" + this.players[currentPlayer].getTurn());
         if (!this.players[currentPlayer].getTurn()) {
             this.turn++;
+            this.metrics.turn();
             //System.out.println("next turn player " + this.players[currentPlayer].getColor());
         }
         this.diceRoller = true;
         if (playing)
             this.currentPlayer = this.xPlayers.get(this.turn % this.xPlayers.size());
+        publishReady();
         }
     }
      
     /**
-     * Calls the method SelectAndMove with the token selected by the computer player as the argument
+     * Calls the method SelectAndMove with the token selected by the computer player as the argument.
+     * The decision takes at most the deadline of the current player.
      * @see #selectAndMove(int)
+     * @see ludo.Autoplay#decideToken(ludo.GameState)
      */
     public void autoMove() {
-        selectAndMove(computerPlayer.selectToken(this));
+        selectAndMove(computerPlayer.decideToken(this));
     }
 }
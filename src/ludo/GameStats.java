@@ -0,0 +1,191 @@
+package ludo;
+
+import java.util.List;
+import ludo.Autoplay.AutoplayMode;
+import ludo.ImgPath.Color;
+
+/**
+ * Streaming accumulator of the results of many rounds of Ludo: placement distribution of each seat,
+ * game length in turns, dice casts and duration.
+ * <p>
+ * The memory used is constant no matter how many games are added. An accumulator is not thread-safe;
+ * every worker keeps its own and they are merged once the workers are done.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.RunningStats
+ */
+public class GameStats {
+
+    public static final double Z95 = 1.959964;
+
+    private final long[][] places = new long[4][4]; //row is place (1st, 2d, 3d, 4th) column is seat
+    private final long[] played = new long[4]; //games in which each seat was active
+    private final RunningStats turns = new RunningStats(new QuantileSketch());
+    private final RunningStats casts = new RunningStats(new QuantileSketch());
+    private final RunningStats millis = new RunningStats(new QuantileSketch());
+    private long games;
+
+    /**
+     * Adds the results of a finished game.
+     * @param game the game, which must be over
+     * @param millis the duration of the game in milliseconds
+     */
+    public void add(GameState game, double millis) {
+        boolean[] active = new boolean[4];
+        for (Player player : game.getPlayers())
+            active[player.getPIndex()] = player.getActive();
+        add(game.getWinners(), active, game.getTurnCount(), game.getDice().getDiceRollCount(), millis);
+    }
+
+    /**
+     * Adds the results of a finished game given by its values, e.g. read from the line of the game in a BatchRunner.
+     * @param winners the index of the players [0-3] in the order they finished
+     * @param active whether each player took part in the game
+     * @param turns the turns of the game
+     * @param casts the dice casts of the game
+     * @param millis the duration of the game in milliseconds
+     */
+    public void add(List<Integer> winners, boolean[] active, int turns, int casts, double millis) {
+        this.games++;
+        for (int seat = 0; seat < 4; seat++)
+            if (active[seat])
+                this.played[seat]++;
+        for (int i = 0; i < winners.size(); i++)
+            this.places[i][winners.get(i)]++;
+        this.turns.add(turns);
+        this.casts.add(casts);
+        this.millis.add(millis);
+    }
+
+    /**
+     * Adds all the results of another accumulator to this one.
+     * @param other the accumulator to be merged, it is not modified
+     */
+    public void merge(GameStats other) {
+        this.games += other.games;
+        for (int seat = 0; seat < 4; seat++) {
+            this.played[seat] += other.played[seat];
+            for (int place = 0; place < 4; place++)
+                this.places[place][seat] += other.places[place][seat];
+        }
+        this.turns.merge(other.turns);
+        this.casts.merge(other.casts);
+        this.millis.merge(other.millis);
+    }
+
+    /**
+     * Gets the number of games added.
+     * @return the number of finished games
+     */
+    public long getGames() {
+        return this.games;
+    }
+
+    /**
+     * Gets the number of games a seat finished in the given place.
+     * @param seat the index of the player [0-3]
+     * @param place the place [0-3], 0 is the winner
+     * @return the number of games
+     */
+    public long getPlaceCount(int seat, int place) {
+        return this.places[place][seat];
+    }
+
+    /**
+     * Gets the rate of games a seat finished in the given place, over the games it played.
+     * @param seat the index of the player [0-3]
+     * @param place the place [0-3], 0 is the winner
+     * @return the rate [0-1], or 0 if the seat did not play
+     */
+    public double getPlaceRate(int seat, int place) {
+        return this.played[seat] == 0 ? 0 : (double) this.places[place][seat] / this.played[seat];
+    }
+
+    /**
+     * Gets the rate of games won by a seat.
+     * @param seat the index of the player [0-3]
+     * @return the win rate [0-1]
+     */
+    public double getWinRate(int seat) {
+        return getPlaceRate(seat, 0);
+    }
+
+    /**
+     * Gets the Wilson score interval of the win rate of a seat.
+     * @param seat the index of the player [0-3]
+     * @param z the standard score of the confidence level, e.g. Z95
+     * @return the lower and upper bound of the interval
+     */
+    public double[] getWinInterval(int seat, double z) {
+        return wilson(this.places[0][seat], this.played[seat], z);
+    }
+
+    /**
+     * Gets the statistics of the length of the games in turns.
+     * @return the accumulator of the turns, with quantiles
+     */
+    public RunningStats getTurns() {
+        return this.turns;
+    }
+
+    /**
+     * Gets the statistics of the dice casts of the games.
+     * @return the accumulator of the casts, with quantiles
+     */
+    public RunningStats getCasts() {
+        return this.casts;
+    }
+
+    /**
+     * Gets the statistics of the duration of the games.
+     * @return the accumulator of the milliseconds, with quantiles
+     */
+    public RunningStats getMillis() {
+        return this.millis;
+    }
+
+    /**
+     * Calculates the Wilson score interval of a proportion, which unlike the normal interval
+     * stays within [0-1] and is accurate for rates close to 0 or 1 and for few trials.
+     * @param successes the number of successes
+     * @param trials the number of trials
+     * @param z the standard score of the confidence level, e.g. Z95
+     * @return the lower and upper bound of the interval, [0,1] if there are no trials
+     */
+    public static double[] wilson(long successes, long trials, double z) {
+        if (trials == 0)
+            return new double[]{0, 1};
+        double p = (double) successes / trials, z2 = z * z;
+        double center = (p + z2 / (2 * trials)) / (1 + z2 / trials);
+        double margin = z / (1 + z2 / trials) * Math.sqrt(p * (1 - p) / trials + z2 / (4.0 * trials * trials));
+        return new double[]{Math.max(0, center - margin), Math.min(1, center + margin)};
+    }
+
+    /**
+     * Gets a report of the results, with the placement percentages of each seat that played,
+     * the 95% interval of its win rate and the distribution of the game length.
+     * @param modes the AutoplayMode of each seat, or null to leave them out
+     * @param prefix the text at the start of each line, e.g. "# "
+     * @return the report
+     */
+    public String report(AutoplayMode[] modes, String prefix) {
+        StringBuilder s = new StringBuilder();
+        s.append(prefix).append(modes == null ? "color" : "color\tmode").append("\t1st\t2nd\t3rd\t4th\twin 95%\n");
+        for (Color color : Color.values()) {
+            int seat = color.ordinal();
+            if (this.played[seat] == 0)
+                continue;
+            s.append(prefix).append(color.name());
+            if (modes != null)
+                s.append('\t').append(modes[seat]);
+            for (int place = 0; place < 4; place++)
+                s.append(String.format("\t%.2f", getPlaceRate(seat, place) * 100));
+            double[] ci = getWinInterval(seat, Z95);
+            s.append(String.format("\t[%.2f-%.2f]%n", ci[0] * 100, ci[1] * 100));
+        }
+        s.append(prefix).append("turns: ").append(this.turns).append('\n');
+        s.append(prefix).append("casts: ").append(this.casts).append('\n');
+        s.append(prefix).append("millis: ").append(this.millis).append('\n');
+        return s.toString();
+    }
+}
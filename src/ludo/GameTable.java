@@ -0,0 +1,282 @@
+package ludo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A round of Ludo hosted by a GameServer, changed only by the commands of its queue.
+ * <p>
+ * The commands of a table are run one at a time and in order, by a task of the executor of the server that is scheduled
+ * when the first command arrives and ends when the queue is empty, so a table waiting for its human players holds no
+ * thread. Between commands the task plays the turns of the computer-operated players, at most BATCH steps before
+ * giving the thread to the other tables. The commands are Runnables, and the methods to be called from a command
+ * (roll, move, getGame, subscribe) must not be called from other threads. A command or computer step that throws an
+ * exception does not stop the table; the exceptions are counted and the last one is kept (getFailures, getFailure).
+ * <p>
+ * A table that stays idle can be parked: its game is replaced by its GameSnapshot, of less than 100 bytes, and
+ * restored with the same listeners by the next command. The dice of a restored game are seeded again from the seed of
+ * the table and the number of rolls, and the computer players go back to the default rewards and deadlines.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.GameServer
+ */
+public class GameTable {
+
+    public static final int MAX_PENDING = 64; //commands waiting in the queue, more are rejected
+    static final int BATCH = 32; //commands and computer steps run before the task gives up the thread
+
+    private final int id;
+    private final Executor executor;
+    private final long seed;
+    private final Queue<Runnable> commands = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final List<GameListener> listeners = new ArrayList<>();
+    private final Runnable task = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+    private GameState game; //null while parked
+    private byte[] snapshot; //the game while parked
+    private volatile boolean closed, parked, parking; //parking while a command to park is queued
+    private volatile long lastActive;
+    private volatile RuntimeException failure; //the last exception thrown by a command or a computer step
+
+    /**
+     * Creates a table, which does not run anything until it receives a command.
+     * @param id the identifier of the table in its server
+     * @param game the game played in the table
+     * @param executor the executor running the tasks of the table
+     */
+    GameTable(int id, GameState game, Executor executor) {
+        this.id = id;
+        this.game = game;
+        this.seed = game.getSeed();
+        this.executor = executor;
+        this.lastActive = System.nanoTime();
+    }
+
+    /**
+     * Gets the identifier of the table in its server.
+     * @return the identifier of the table
+     */
+    public int getId() {
+        return this.id;
+    }
+
+    /**
+     * Adds a command to the queue of the table, to be run after the commands already in it.
+     * @param command the command
+     * @return true if the command was queued, false if the table is closed or its queue is full
+     */
+    public boolean execute(Runnable command) {
+        return submit(command, true);
+    }
+
+    //Queues a command, and counts it as activity of the players unless it is run by the server
+    private boolean submit(Runnable command, boolean active) {
+        if (this.closed)
+            return false;
+        if (this.pending.incrementAndGet() > MAX_PENDING) {
+            this.pending.decrementAndGet();
+            return false;
+        }
+        this.commands.add(command);
+        if (active)
+            this.lastActive = System.nanoTime();
+        schedule();
+        return true;
+    }
+
+    /**
+     * Starts the turns of the computer players, if they are the first to play.
+     */
+    void start() {
+        schedule();
+    }
+
+    //Submits the task of the table to the executor, unless it is already scheduled or running
+    private void schedule() {
+        if (this.scheduled.compareAndSet(false, true)) {
+            try {
+                this.executor.execute(this.task);}
+            catch (RejectedExecutionException ex) {
+                this.scheduled.set(false);}
+        }
+    }
+
+    //Runs the commands of the queue and the turns of the computer players, until there is nothing to do or BATCH steps
+    private void drain() {
+        for (int steps = 0; steps < BATCH || this.closed; steps++) {
+            Runnable command = this.commands.poll();
+            try {
+                if (command != null) {
+                    this.pending.decrementAndGet();
+                    command.run();}
+                else if (!step())
+                    break;}
+            catch (RuntimeException ex) {
+                this.failures.incrementAndGet();
+                this.failure = ex;}
+        }
+        boolean more = getComputerTurn();
+        this.scheduled.set(false);
+        if (more || !this.commands.isEmpty())
+            schedule();
+    }
+
+    //Plays a step of a computer player, if it is its turn
+    private boolean step() {
+        if (!getComputerTurn())
+            return false;
+        if (this.game.getDiceRoller()) {
+            this.game.rollAndCheckActiveTokens();
+            this.game.checkMoveOrPass();}
+        else
+            this.game.autoMove();
+        return true;
+    }
+
+    //Whether the table is open and a computer player has to roll or move
+    private boolean getComputerTurn() {
+        return !this.closed && this.game != null && this.game.getPlaying()
+                && this.game.getPlayer(getSeat()).getAuto();
+    }
+
+    /**
+     * Gets the player that has to roll the dice or move a token. To be called from a command of the table.
+     * @return the index of the player [0-3], or -1 if the game is over
+     */
+    public int getSeat() {
+        GameState g = getGame();
+        if (!g.getPlaying())
+            return -1;
+        return g.getDiceRoller() ? g.getXPlayers().get(g.getTurnCount() % g.getXPlayers().size()) : g.getCurrentPlayer();
+    }
+
+    /**
+     * Rolls the dice for a human player, if it is the player that has to roll. To be called from a command of the table.
+     * @param seat the index of the player [0-3]
+     * @return true if the dice was rolled, false if the player can not roll now
+     */
+    public boolean roll(int seat) {
+        GameState g = getGame();
+        if (seat != getSeat() || !g.getDiceRoller() || g.getPlayer(seat).getAuto())
+            return false;
+        g.rollAndCheckActiveTokens();
+        g.checkMoveOrPass();
+        return true;
+    }
+
+    /**
+     * Moves a token of a human player, if the rules allow it now. To be called from a command of the table.
+     * @param seat the index of the player [0-3]
+     * @param token the index of the token [0-3]
+     * @return true if the token was moved, false if the move is not valid
+     */
+    public boolean move(int seat, int token) {
+        GameState g = getGame();
+        if (seat != getSeat() || g.getDiceRoller() || g.getPlayer(seat).getAuto() || !g.getXTokens().contains(token))
+            return false;
+        g.selectAndMove(token);
+        return true;
+    }
+
+    /**
+     * Gets the game of the table, restoring it if it is parked. To be called from a command of the table.
+     * @return the game
+     */
+    public GameState getGame() {
+        if (this.game == null) {
+            this.game = new GameState(this.snapshot);
+            this.game.setSeed(this.seed + this.game.getDice().getDiceRollCount());
+            for (GameListener listener : this.listeners)
+                this.game.getEvents().subscribe(listener);
+            this.snapshot = null;
+            this.parked = false;
+        }
+        return this.game;
+    }
+
+    /**
+     * Subscribes a listener to the events of the game, also after the table is parked.
+     * To be called from a command of the table, or by the server before the table is started.
+     * @param listener the listener, called synchronously by the thread of the table
+     */
+    public void subscribe(GameListener listener) {
+        this.listeners.add(listener);
+        getGame().getEvents().subscribe(listener);
+    }
+
+    /**
+     * Parks the table if no command has arrived for the given time and no computer player has to play.
+     * It is called by a single thread of the server.
+     * @param idleNanos the time without commands, in nanoseconds
+     */
+    void park(final long idleNanos) {
+        if (this.parked || this.parking || System.nanoTime() - this.lastActive < idleNanos)
+            return;
+        this.parking = true;
+        boolean queued = submit(new Runnable() {
+            @Override
+            public void run() {
+                parking = false;
+                if (game != null && !getComputerTurn() && commands.isEmpty() && System.nanoTime() - lastActive >= idleNanos) {
+                    snapshot = GameSnapshot.capture(game);
+                    game = null;
+                    parked = true;
+                }
+            }
+        }, false);
+        if (!queued)
+            this.parking = false;
+    }
+
+    /**
+     * Gets whether the game of the table is parked as a snapshot.
+     * @return true if the table is parked
+     */
+    public boolean getParked() {
+        return this.parked;
+    }
+
+    /**
+     * Gets the number of commands and computer steps that threw an exception.
+     * @return the number of failures
+     */
+    public int getFailures() {
+        return this.failures.get();
+    }
+
+    /**
+     * Gets the last exception thrown by a command or a computer step.
+     * @return the exception, or null if there was none
+     */
+    public RuntimeException getFailure() {
+        return this.failure;
+    }
+
+    /**
+     * Closes the table: the commands already queued are run, but no more commands are accepted and the computer players stop.
+     */
+    void close() {
+        this.closed = true;
+    }
+
+    /**
+     * Gets whether the table is closed.
+     * @return true if the table does not accept commands
+     */
+    public boolean getClosed() {
+        return this.closed;
+    }
+}
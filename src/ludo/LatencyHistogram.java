@@ -0,0 +1,123 @@
+package ludo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations with one bucket per power of two nanoseconds.
+ * Every bucket is a striped counter, so threads recording at the same time do not contend,
+ * and the quantiles are estimated with the upper bound of the bucket, i.e. with a relative error below 2x.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.Metrics
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 65;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Initializes an empty histogram.
+     */
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++)
+            this.buckets[i] = new LongAdder();
+    }
+
+    /**
+     * Adds a duration to the histogram.
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        this.buckets[BUCKETS - 1 - Long.numberOfLeadingZeros(nanos)].increment(); //bucket 0 holds 0, bucket i holds [2^(i-1), 2^i)
+        this.total.add(nanos);
+        long m = this.max.get();
+        while (nanos > m && !this.max.compareAndSet(m, nanos))
+            m = this.max.get();
+    }
+
+    /**
+     * Gets a summary of the durations recorded so far.
+     * @return the count, mean, median, 99th percentile and maximum of the histogram
+     */
+    public Snapshot getSnapshot() {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = this.buckets[i].sum();
+            count += counts[i];
+        }
+        long max = this.max.get();
+        return new Snapshot(count, count == 0 ? 0 : this.total.sum() / count,
+                Math.min(quantile(counts, count, 0.5), max), Math.min(quantile(counts, count, 0.99), max), max);
+    }
+
+    //upper bound of the bucket that contains the given quantile
+    private static long quantile(long[] counts, long count, double q) {
+        long rank = (long) Math.ceil(q * count), seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0)
+                return i == 0 ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+        }
+        return 0;
+    }
+
+    /**
+     * Clears the histogram.
+     */
+    public void reset() {
+        for (LongAdder bucket : this.buckets)
+            bucket.reset();
+        this.total.reset();
+        this.max.set(0);
+    }
+
+    /**
+     * Summary of a histogram, exposed over JMX as composite data.
+     * All durations are in microseconds.
+     */
+    public static class Snapshot {
+
+        private final long count, mean, median, p99, max;
+
+        Snapshot(long count, long mean, long median, long p99, long max) {
+            this.count = count;
+            this.mean = mean;
+            this.median = median;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public double getMeanMicros() {
+            return this.mean / 1000.0;
+        }
+
+        public double getMedianMicros() {
+            return this.median / 1000.0;
+        }
+
+        public double getP99Micros() {
+            return this.p99 / 1000.0;
+        }
+
+        public double getMaxMicros() {
+            return this.max / 1000.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count %d, mean %.1fus, p50 %.1fus, p99 %.1fus, max %.1fus",
+                    count, getMeanMicros(), getMedianMicros(), getP99Micros(), getMaxMicros());
+        }
+    }
+}
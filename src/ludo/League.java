@@ -0,0 +1,261 @@
+package ludo;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import ludo.Autoplay.AutoplayMode;
+import ludo.ImgPath.Color;
+
+/**
+ * Round-robin league between bot variants, rated with Elo.
+ * <p>
+ * A bot is an AutoplayMode with optional custom AI rewards or qTable file. Every round plays each group of 4 bots
+ * (or all of them if there are less than 4) once in each of the 4 rotations of the seats, which cancels the advantage
+ * of the first seat. The games run on a thread pool and the ratings are updated in the order of the games after every round,
+ * and saved into the ratings file. The file also keeps the number of games played, so the next run continues
+ * with new games and the ratings stay current without replaying the previous rounds.
+ * <p>
+ * The league is configured by a properties file with the keys:
+ * <ul>
+ * <li>bots : the names of the bots, e.g. "custom, aggressive, qspecial, random"
+ * <li>bot.NAME.mode : the AutoplayMode of the bot
+ * <li>bot.NAME.rewards : custom AI rewards different from the default ones, e.g. "sendHome=20, aheadOpponent=-1"
+ * <li>bot.NAME.qtable : qTable file read by a qLearning bot, e.g. "specialqtable.txt"
+ * <li>rounds : the number of rounds (default 1)
+ * <li>board : "special" or "regular" (default special)
+ * <li>ratings : the ratings file (default league.ratings)
+ * <li>seed, threads, output : as in BatchRunner
+ * </ul>
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.EloRatings
+ */
+public class League {
+
+    private final Map<String, Bot> bots = new LinkedHashMap<>();
+    private final List<String[]> schedule = new ArrayList<>(); //bot of each seat of the games of a round
+    private final int rounds, threads;
+    private final boolean special;
+    private final long seed;
+    private final File ratingsFile;
+    private final String output;
+    private final EloRatings ratings;
+
+    /**
+     * Settings of a bot variant.
+     */
+    static class Bot {
+        final String name;
+        final AutoplayMode mode;
+        final Map<String, Integer> rewards = new HashMap<>();
+        File qTable;
+
+        Bot(String name, AutoplayMode mode) {
+            this.name = name;
+            this.mode = mode;
+        }
+    }
+
+    /**
+     * Initializes a league with the settings of a properties file and loads its ratings file.
+     * @param settings the properties of the league
+     * @throws IOException if the ratings file can not be read
+     * @throws IllegalArgumentException if a value is missing or not valid
+     */
+    public League(Properties settings) throws IOException {
+        for (String name : settings.getProperty("bots", "").trim().split("\\s*,\\s*")) {
+            if (name.isEmpty())
+                continue;
+            String mode = settings.getProperty("bot." + name + ".mode");
+            if (mode == null)
+                throw new IllegalArgumentException("bot." + name + ".mode must be given.");
+            Bot bot = new Bot(name, AutoplayMode.valueOf(mode.trim()));
+            String rewards = settings.getProperty("bot." + name + ".rewards", "").trim();
+            if (!rewards.isEmpty())
+                for (String reward : rewards.split("\\s*,\\s*")) {
+                    String[] kv = reward.split("\\s*=\\s*");
+                    if (kv.length != 2)
+                        throw new IllegalArgumentException("Invalid reward: " + reward);
+                    bot.rewards.put(kv[0], Integer.parseInt(kv[1]));
+                }
+            String qTable = settings.getProperty("bot." + name + ".qtable", "").trim();
+            if (!qTable.isEmpty())
+                bot.qTable = new File(qTable);
+            this.bots.put(name, bot);
+        }
+        if (this.bots.size() < 2)
+            throw new IllegalArgumentException("A league needs at least 2 bots.");
+        this.rounds = Integer.parseInt(settings.getProperty("rounds", "1").trim());
+        String board = settings.getProperty("board", "special").trim();
+        if (!board.equals("special") && !board.equals("regular"))
+            throw new IllegalArgumentException("board must be special or regular.");
+        this.special = board.equals("special");
+        this.seed = Long.parseLong(settings.getProperty("seed", "0").trim());
+        this.threads = Integer.parseInt(settings.getProperty("threads", String.valueOf(Runtime.getRuntime().availableProcessors())).trim());
+        this.ratingsFile = new File(settings.getProperty("ratings", "league.ratings").trim());
+        this.output = settings.getProperty("output", "").trim();
+        this.ratings = EloRatings.load(this.ratingsFile);
+        createSchedule();
+    }
+
+    /**
+     * Loads a league file.
+     * @param file the properties file describing the league
+     * @return the league
+     * @throws IOException if the file or the ratings file can not be read
+     */
+    public static League load(File file) throws IOException {
+        Properties settings = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            settings.load(in);}
+        return new League(settings);
+    }
+
+    //Every group of 4 bots (all of them if there are less) in the 4 rotations of the seats
+    private void createSchedule() {
+        List<String> names = new ArrayList<>(this.bots.keySet());
+        int size = Math.min(4, names.size());
+        int[] group = new int[size];
+        for (int i = 0; i < size; i++)
+            group[i] = i;
+        while (true) {
+            for (int rotation = 0; rotation < 4; rotation++) {
+                String[] seats = new String[4];
+                for (int seat = 0; seat < 4; seat++)
+                    seats[seat] = names.get(group[(seat + rotation) % size]);
+                this.schedule.add(seats);
+            }
+            int i = size - 1;
+            while (i >= 0 && group[i] == names.size() - size + i)
+                i--;
+            if (i < 0)
+                return;
+            group[i]++;
+            for (int j = i + 1; j < size; j++)
+                group[j] = group[j - 1] + 1;
+        }
+    }
+
+    public EloRatings getRatings() {
+        return this.ratings;
+    }
+
+    /**
+     * Gets the number of games of a round.
+     * @return the number of games scheduled in each round
+     */
+    public int getGamesPerRound() {
+        return this.schedule.size();
+    }
+
+    /**
+     * Plays a game of the league.
+     * @param seats the name of the bot of each seat
+     * @param seed the seed of the game
+     * @return the names of the bots in the order they finished
+     */
+    List<String> playGame(String[] seats, long seed) {
+        List<AutoplayMode> modes = new ArrayList<>();
+        for (String name : seats)
+            modes.add(this.bots.get(name).mode);
+        GameState game = new GameState(GameState.DEFAULT_THEME, Arrays.asList(Color.values()),
+                Arrays.asList(true, true, true, true), modes, this.special);
+        for (int seat = 0; seat < 4; seat++) {
+            Bot bot = this.bots.get(seats[seat]);
+            if (!bot.rewards.isEmpty())
+                game.getComputerPlayer().setRewards(seat, bot.rewards);
+            game.getComputerPlayer().setQTable(seat, bot.qTable);
+        }
+        game.setSeed(seed);
+        List<String> ranking = new ArrayList<>();
+        if (BatchRunner.play(game))
+            for (int seat : game.getWinners())
+                ranking.add(seats[seat]);
+        return ranking;
+    }
+
+    /**
+     * Plays all the rounds of the league, updating and saving the ratings after every round.
+     * @throws IOException if the output or the ratings file can not be written
+     * @throws InterruptedException if the thread is interrupted while waiting for the games
+     */
+    public void run() throws IOException, InterruptedException {
+        try (Writer out = this.output.isEmpty()
+                ? new BufferedWriter(new OutputStreamWriter(System.out))
+                : new BufferedWriter(new FileWriter(this.output))) {
+            run(out);}
+    }
+
+    /**
+     * Plays all the rounds of the league, updating and saving the ratings after every round.
+     * @param out the writer the standings are written to after every round
+     * @throws IOException if the output or the ratings file can not be written
+     * @throws InterruptedException if the thread is interrupted while waiting for the games
+     */
+    public void run(Writer out) throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, this.threads));
+        try {
+            for (int round = 0; round < this.rounds; round++) {
+                // games continue the numbering of the ratings file, abandoned ones included, so every run plays new games
+                final long first = this.ratings.getTotalGames() + this.ratings.getAbandonedGames();
+                List<Callable<List<String>>> games = new ArrayList<>();
+                for (int g = 0; g < this.schedule.size(); g++) {
+                    final String[] seats = this.schedule.get(g);
+                    final long gameSeed = this.seed + first + g;
+                    games.add(new Callable<List<String>>() {
+                        @Override
+                        public List<String> call() {
+                            return playGame(seats, gameSeed);
+                        }
+                    });
+                }
+                for (Future<List<String>> ranking : executor.invokeAll(games))
+                    this.ratings.update(ranking.get());
+                this.ratings.save(this.ratingsFile);
+                out.write(String.format("# round %d of %d, %d rated games, %d abandoned%n", round + 1, this.rounds,
+                        this.ratings.getTotalGames(), this.ratings.getAbandonedGames()));
+                out.write(this.ratings.report("# "));
+                out.flush();
+            }
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs the league file given as the only argument.
+     * @param args the path of the league file
+     */
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.out.println("Usage: java ludo.League <league file>");
+            System.exit(1);
+        }
+        try {
+            load(new File(args[0])).run();}
+        catch (IOException | IllegalArgumentException ex) {
+            System.out.println("League could not be run: " + ex.getMessage());
+            System.exit(1);}
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();}
+    }
+}
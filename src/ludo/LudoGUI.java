@@ -15,6 +15,7 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import javax.imageio.ImageIO;
 import javax.swing.JDialog;
 import javax.swing.JMenu;
@@ -22,9 +23,11 @@ import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.SwingWorker;
 import javax.swing.Timer;
 import static javax.swing.JOptionPane.showMessageDialog;
 import static ludo.Dice.DICE_SIZE;
+import ludo.FlightEvents.RenderEvent;
 import static ludo.ImgPath.*;
 import ludo.ImgPath.Color;
 
@@ -40,6 +43,8 @@ import ludo.ImgPath.Color;
  * <li>A timer to trigger the computer player response.
  * <li>A timer to trigger dice animation events.
  * <li>Mouse, event and key listeners.
+ * <li>A listener of the game events, which repaints the canvas only when the state of the game changes.
+ * <li>A bar under the home area of each active player with its estimated probability of winning the round, updated every move.
  * </ul> 
  * <p>
  * The GUI accepts the following key combinations:
@@ -48,24 +53,38 @@ import ludo.ImgPath.Color;
  * <li>CTRL+P:  shows a Selector dialog box to modify the number and colors of the players participating in the round of ludo.
  * <li>CTRL+B:  shows a Selector dialog box to modify the type of Board (regular or special).
  * <li>CTRL+T:  shows a Selector dialog box to modify the Theme.
+ * <li>CTRL+H:  shows or hides the heatmap of the danger of capture in every tile for the current player.
+ * </ul>
+ * <p>
+ * The GUI can also show the replay of a recorded game. In that case the menu and the mouse are disabled and
+ * the following keys are accepted:
+ * <ul>
+ * <li>RIGHT / LEFT: moves the replay one step forward / backward.
+ * <li>HOME / END: moves the replay to the beginning / end of the game.
  * </ul>
  * <p>
  * 
  * @author Carla Villegas <carv@itu.dk>
  */
 
-public class LudoGUI extends JPanel implements ActionListener, MouseListener, KeyListener {
+public class LudoGUI extends JPanel implements ActionListener, MouseListener, KeyListener, GameListener {
     public static final int IGNORE = 10;
     public static final int TILE_SIZE = 40;
     public static final int DICE_DELAY = 40;
     public static final int AUTOPLAYER_DELAY = 1000;
+    public static final String SAVE_FILE = "ludo.sav";
     
-    private static final List<String> mGame = Arrays.asList("Restart", "Pause", "Exit");
+    private static final List<String> mGame = Arrays.asList("Restart", "Pause", "Save", "Load", "Exit");
     private static final List<String> mSettings = Arrays.asList("Players", "Theme", "Board", "Dice");
     private static final List<String> mPlayers = Arrays.asList("Yellow", "Red", "Green", "Blue");
     private static final List<String> mTheme = Arrays.asList("Plain", "Solid","Fruits");
     private static final List<String> mBoard = Arrays.asList("Regular", "Special");
     private static final List<String> mPSettings = Arrays.asList("Auto", "Manual", "Off");
+    private static final java.awt.Color[] DANGER_PALETTE = new java.awt.Color[201]; //red of every alpha drawn by renderDanger
+    static {
+        for (int alpha = 0; alpha < DANGER_PALETTE.length; alpha++)
+            DANGER_PALETTE[alpha] = new java.awt.Color(255, 0, 0, alpha);
+    }
     
     BufferedImage highlighter;
 //    BufferedImage dice[] = new BufferedImage[6];
@@ -76,11 +95,14 @@ public class LudoGUI extends JPanel implements ActionListener, MouseListener, Ke
 
     JMenuBar menuBar;
     GameState thisGame;
+    GameReplay replay;
     static JDialog frame;
     
     int tileSize = TILE_SIZE;
     int frameSize = tileSize*15;
     int diceSize = (int)(tileSize*1.5);
+    volatile boolean equity; //whether the win probability table is loaded
+    boolean heatmap; //whether the danger map of the current player is drawn
 
     /**
      * Initializes the event listeners and starts the timer for the computer-operated players.
@@ -88,18 +110,55 @@ public class LudoGUI extends JPanel implements ActionListener, MouseListener, Ke
      */
     public LudoGUI(GameState game) {
         thisGame = game;
+        thisGame.getEvents().subscribe(this);
         autoplayer.start();
         addMenu();
         addMouseListener(this);
         addKeyListener(this);
         setFocusable(true);
         setPreferredSize(new Dimension(frameSize, frameSize));
+        loadEquity();
         //System.out.println(thisGame.getTheme());
         try {
             highlighter = ImageIO.read(new File(GEN_PATH+DIR+"highlight.png"));} 
         catch (IOException e) {}
     }
     
+    /**
+     * Initializes the event listeners for the replay of a recorded game.
+     * The timers are not started and the menu bar is not created, the replay is controlled with the keyboard.
+     * @param replay the replay of a game recorded by a GameJournal
+     */
+    public LudoGUI(GameReplay replay) {
+        this.replay = replay;
+        thisGame = replay.getGame();
+        thisGame.getEvents().subscribe(this);
+        addKeyListener(this);
+        setFocusable(true);
+        setPreferredSize(new Dimension(frameSize, frameSize));
+        loadEquity();
+        try {
+            highlighter = ImageIO.read(new File(GEN_PATH+DIR+"highlight.png"));} 
+        catch (IOException e) {}
+    }
+    
+    /**
+     * Loads the win probability table in a background thread, which can take a few seconds if it has to be built,
+     * and repaints the canvas with the equity bars when it is ready.
+     */
+    private void loadEquity(){
+        Thread loader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                WinProbability.getDefault();
+                equity = true;
+                repaint();
+            }
+        }, "WinProbability-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+    
     /**
      * Gets the menu bar of the GUI.
      * @return the menu bar used in the ludo GUI
@@ -109,11 +168,15 @@ public class LudoGUI extends JPanel implements ActionListener, MouseListener, Ke
     }
 
     private void render(Graphics2D g2) {
+        RenderEvent event = new RenderEvent();
+        event.begin();
         //System.out.println("---- current player is: "+thisGame.getPlayer(thisGame.getCurrentPlayer()).getColor());
         g2.drawImage(thisGame.getBoard().getImg(thisGame.getTheme()), 0, 0, frameSize, frameSize, null);
         if (thisGame.getBoard().getSpecial()) {
             g2.drawImage(thisGame.getBoard().getImgSp(thisGame.getTheme()), 0, 0, frameSize, frameSize, null);
         }
+        if (heatmap)
+            renderDanger(g2);
         Player[] players = thisGame.getPlayers();
         for (Player player : players) {
             if (player.getActive()) {
@@ -137,18 +200,61 @@ public class LudoGUI extends JPanel implements ActionListener, MouseListener, Ke
                 }
             }
         }
+        if (equity)
+            renderEquity(g2);
             g2.drawImage(thisGame.getDice().getDiceImg(), thisGame.getDice().getCoordinates(0), thisGame.getDice().getCoordinates(1), DICE_SIZE, DICE_SIZE, null);
+        if (event.shouldCommit()) {
+            event.theme = thisGame.getTheme().name();
+            event.special = thisGame.getBoard().getSpecial();
+            event.commit();
+        }
     }
 
     /**
-     * Draws the images of each ludo game element in the canvas.
+     * Draws over every tile of the board a red square, more opaque the more likely a token of the current player
+     * standing in the tile is to be captured before its next turn.
+     */
+    private void renderDanger(Graphics2D g2) {
+        DangerMap danger = thisGame.getDangerMap();
+        CoordinateTable coordinates = CoordinateTable.forTileSize(tileSize);
+        for (int tile = 0; tile < DangerMap.TILES; tile++) {
+            g2.setColor(DANGER_PALETTE[Math.round(200*danger.getDanger(thisGame.getCurrentPlayer(), tile))]);
+            g2.fillRect(coordinates.getX(0, 0, tile, false), coordinates.getY(0, 0, tile, false), tileSize, tileSize);
+        }
+    }
+
+    /**
+     * Draws under the home area of each active player a bar with its probability of winning the round.
+     */
+    private void renderEquity(Graphics2D g2) {
+        double[] p = thisGame.getWinProbabilities();
+        CoordinateTable coordinates = CoordinateTable.forTileSize(tileSize);
+        for (Player player : thisGame.getPlayers()) {
+            if (!player.getActive())
+                continue;
+            int x = coordinates.getX(player.getPIndex(), 0, Player.OUT_OF_BOARD, false);
+            int y = coordinates.getY(player.getPIndex(), 0, Player.OUT_OF_BOARD, false) + tileSize*3 + tileSize/8;
+            int width = tileSize*3, height = tileSize/3;
+            g2.setColor(java.awt.Color.WHITE);
+            g2.fillRect(x, y, width, height);
+            g2.setColor(java.awt.Color.DARK_GRAY);
+            g2.fillRect(x, y, (int)Math.round(width*p[player.getPIndex()]), height);
+            g2.drawRect(x, y, width, height);
+            g2.drawString(Math.round(100*p[player.getPIndex()])+"%", x, y + height + tileSize/2);
+        }
+    }
+
+    /**
+     * Draws the images of each ludo game element in the canvas and records the render time in the Metrics.
      * @param g Graphics object that encapsulates state information needed for the basic rendering operations that Java supports
      */
     @Override
     public void paint(Graphics g) {
+        long start = System.nanoTime();
         super.paintComponent(g);
         Graphics2D g2 = (Graphics2D) g;
         render(g2);
+        Metrics.getInstance().frame(System.nanoTime() - start);
     }
     
      /**
@@ -198,6 +304,8 @@ public class LudoGUI extends JPanel implements ActionListener, MouseListener, Ke
      */
     @Override
     public void mouseClicked(MouseEvent e) {
+        if (replay != null)
+            return;
         if (!thisGame.getPlaying()) {
             showMessageDialog(frame, thisGame.getGameResults()+"\n", "Game Over", JOptionPane.PLAIN_MESSAGE); 
             closeGUI();
@@ -211,8 +319,7 @@ public class LudoGUI extends JPanel implements ActionListener, MouseListener, Ke
                 int[] clickXY = new int[2];
                 clickXY[0] = e.getX();
                 clickXY[1] = e.getY();
-                int selectedToken = thisGame.getPlayer(thisGame.getCurrentPlayer()).getTokenbyCoord(clickXY);
-                System.out.println("SelectedToken: "+selectedToken);
+                int selectedToken = thisGame.getPlayer(thisGame.getCurrentPlayer()).getTokenbyCoord(clickXY, thisGame.getXTokens());
                 if (thisGame.getDice().getIsSix() && selectedToken != IGNORE) {
                     thisGame.selectAndMove(selectedToken);} 
                 else {
@@ -221,7 +328,6 @@ public class LudoGUI extends JPanel implements ActionListener, MouseListener, Ke
                 autoplayer.start();
             }
         }
-        repaint();
         }
     }
     
@@ -233,12 +339,17 @@ public class LudoGUI extends JPanel implements ActionListener, MouseListener, Ke
      * <li>CTRL+P:  shows a Selector dialog box to modify the number and colors of the players participating in the round of ludo.
      * <li>CTRL+B:  shows a Selector dialog box to modify the type of Board (regular or special).
      * <li>CTRL+T:  shows a Selector dialog box to modify the Theme.
+     * <li>CTRL+H:  shows or hides the heatmap of the danger of capture in every tile for the current player.
      * </ul>
      * <p>
      * @param ke keyboard event
      */
     @Override
     public void keyPressed(KeyEvent ke) {
+        if(replay != null){
+            replayKey(ke);
+            return;
+        }
         if(ke.isControlDown()){
             switch(ke.getKeyCode()){
                 case KeyEvent.VK_D:{
@@ -268,18 +379,57 @@ public class LudoGUI extends JPanel implements ActionListener, MouseListener, Ke
                                 if(thisGame.getPlayer(color.name()).getActive())
                                     thisGame.removePlayer(color.name());
                     break;}
+                case KeyEvent.VK_H:{
+                    heatmap = !heatmap;
+                    break;}
                 case KeyEvent.VK_B:{
                     Selector s = new Selector("board", thisGame.getTheme().name());
-                    thisGame.getBoard().setSpecial(s.selectedBoard());
+                    thisGame.setSpecial(s.selectedBoard()? "special": "regular");
                     break;}                
             }
             repaint();
         }
     }
 
+    /**
+     * Moves the replay according to the key pressed by the user.
+     * @param ke keyboard event
+     */
+    private void replayKey(KeyEvent ke){
+        switch(ke.getKeyCode()){
+            case KeyEvent.VK_RIGHT:{
+                replay.stepForward();
+                break;}
+            case KeyEvent.VK_LEFT:{
+                replay.stepBackward();
+                break;}
+            case KeyEvent.VK_HOME:{
+                replay.seek(0);
+                break;}
+            case KeyEvent.VK_END:{
+                replay.seek(replay.getStepCount());
+                break;}
+        }
+        thisGame.getDice().showResult();
+        frame.setTitle("LUDO - Replay "+replay.getStep()+"/"+replay.getStepCount());
+        repaint();
+    }
+
+    /**
+     * Event handler for the game events.
+     * Repaints the canvas every time the state of the game changes.
+     * @param event the change published by the game
+     */
+    @Override
+    public void onEvent(GameEvent event) {
+        repaint();
+    }
+
     /**
      * Event handler for the timers and menu events.
      * If the event is triggered by a timer call method timerEvent, and if it's triggered by a menu event call menuEvent.
+     * The canvas is repainted for every tick of the dice animation and every menu event, 
+     * changes made by the players are repainted when the game publishes them.
      * @param ae action event triggered by the timer clock or a menu item being selected by the user
      * @see #timerEvent(javax.swing.Timer) 
      * @see #menuEvent(javax.swing.JMenuItem) 
@@ -290,11 +440,13 @@ public class LudoGUI extends JPanel implements ActionListener, MouseListener, Ke
         switch(event.getClass().getSimpleName()){
             case ("Timer"):{
                 timerEvent((Timer)event);
+                if (event == animation)
+                    repaint();
                 break;}
             case ("JMenuItem"):{
                 menuEvent((JMenuItem)event);
+                repaint();
                 break;}}
-        repaint();
     }
     
     /**
@@ -367,6 +519,8 @@ public class LudoGUI extends JPanel implements ActionListener, MouseListener, Ke
      * <ul>
      * <li>MENU ITEM : Restart -> Restarts the game
      * <li>MENU ITEM : Pause -> Pauses/Resumes the game
+     * <li>MENU ITEM : Save -> Saves the game into the file SAVE_FILE
+     * <li>MENU ITEM : Load -> Restores the game saved in the file SAVE_FILE
      * <li>MENU ITEM : Exit -> Terminates the game
      * </ul>
      * <p>
@@ -401,6 +555,12 @@ public class LudoGUI extends JPanel implements ActionListener, MouseListener, Ke
                         case "Pause":{
                             pause(item.getText().equals("Pause"));   
                             break;}
+                        case "Save":{
+                            saveGame();
+                            break;}
+                        case "Load":{
+                            loadGame();
+                            break;}
                         case "Exit":{
                             closeGUI();
                             break;}}
@@ -409,8 +569,7 @@ public class LudoGUI extends JPanel implements ActionListener, MouseListener, Ke
                         thisGame.setTheme(item.getText());}
                     else{
                         if(mBoard.contains(item.getText())){
-                            thisGame.getBoard().setSpecial(item.getText());
-                            System.out.println("Item set to "+item.getText());}
+                            thisGame.setSpecial(item.getText());}
                         else{
                             if(mPSettings.contains(item.getText())){
                                 switch(item.getText()){
@@ -436,6 +595,58 @@ public class LudoGUI extends JPanel implements ActionListener, MouseListener, Ke
         thisGame.restart();
     }
     
+    /**
+     * Saves the game into the file SAVE_FILE. The snapshot is taken at once and written by a background thread,
+     * so the GUI never waits for the disk.
+     */
+    public void saveGame(){
+        final long seed = thisGame.getSeed();
+        final byte[] snapshot = GameSnapshot.capture(thisGame);
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws IOException {
+                GameSaver.write(seed, snapshot, new File(SAVE_FILE));
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    get();}
+                catch (InterruptedException | ExecutionException ex) {
+                    showMessageDialog(frame, "The game could not be saved.", "Save", JOptionPane.ERROR_MESSAGE);}
+            }
+        }.execute();
+    }
+    
+    /**
+     * Restores the game saved in the file SAVE_FILE and restarts the timers. The file is read by a background thread,
+     * and the game is only changed, in the event dispatch thread, once the whole file has been read and checked.
+     */
+    public void loadGame(){
+        animation.stop();
+        autoplayer.stop();
+        new SwingWorker<GameState, Void>() {
+            @Override
+            protected GameState doInBackground() throws IOException {
+                return GameSaver.load(new File(SAVE_FILE));
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    GameState saved = get();
+                    GameSnapshot.restore(thisGame, GameSnapshot.capture(saved));
+                    thisGame.setSeed(saved.getSeed());
+                    thisGame.publishSettings();
+                    thisGame.getDice().showResult();}
+                catch (InterruptedException | ExecutionException ex) {
+                    showMessageDialog(frame, "The game could not be loaded.", "Load", JOptionPane.ERROR_MESSAGE);}
+                autoplayer.restart();
+            }
+        }.execute();
+    }
+    
     /**
      * Stops/restarts the timers of the GUI.
      * @param playing true to pause the game, false to resume
@@ -457,6 +668,7 @@ public class LudoGUI extends JPanel implements ActionListener, MouseListener, Ke
     public void closeGUI(){
         animation.stop();
         autoplayer.stop();
+        thisGame.getEvents().unsubscribe(this);
         //setFocusable(false);
         try{frame.dispose();}
         catch(NullPointerException e){}
@@ -472,6 +684,8 @@ public class LudoGUI extends JPanel implements ActionListener, MouseListener, Ke
         frame.setModal(true);
         frame.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
         game.setPlaying(true);
+        for (int p = 0; p < 4; p++) //the computer players never keep the human players waiting
+            game.getComputerPlayer().setDeadline(p, Autoplay.DEFAULT_DEADLINE);
         LudoGUI ludoPanel=new LudoGUI(game);  
         frame.setJMenuBar(ludoPanel.getMenu());
         frame.add(ludoPanel);
@@ -481,6 +695,24 @@ public class LudoGUI extends JPanel implements ActionListener, MouseListener, Ke
         frame.setVisible(true);
     }
     
+    /**
+     * Creates and initializes the container of the ludoGUI for the replay of a recorded game and shows it on screen.
+     * @param replay the replay of a game recorded by a GameJournal
+     */
+    public static void drawReplay(GameReplay replay) {
+        frame = new JDialog();
+        frame.setTitle("LUDO - Replay 0/"+replay.getStepCount());
+        frame.setModal(true);
+        frame.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
+        LudoGUI ludoPanel=new LudoGUI(replay);
+        replay.getGame().getDice().showResult();
+        frame.add(ludoPanel);
+        frame.setResizable(false);
+        frame.pack();
+        frame.setLocationRelativeTo(null); //center frame on screen
+        frame.setVisible(true);
+    }
+    
     @Override
     public void mousePressed(MouseEvent me) {
     }
@@ -1,5 +1,7 @@
 package ludo;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
@@ -14,6 +16,9 @@ import ludo.ImgPath.Theme;
 
 public class Main {
     
+    public static final String JOURNAL_FILE = "lastgame.journal";
+    public static final String AUTOSAVE_FILE = "autosave.sav";
+    
     private static GameState game;
     private static Selector selectWindow;
     
@@ -22,21 +27,79 @@ public class Main {
  * Initializes game and selectWindow. 
  Sets up the attributes of game according to the user‘s input (through selectWindow). 
  Calls the method drawGUI from the LudoGUI class.
+ The game is recorded in the journal file JOURNAL_FILE and saved in the background into the file AUTOSAVE_FILE.
+ If the arguments are "replay" and the name of a journal file, the recorded game is replayed instead.
+ If the arguments are "load" and the name of a save file (e.g. AUTOSAVE_FILE), the saved game is resumed.
+ If the arguments are "batch" and the name of a scenario file, the games of the scenario are run without GUI.
+ If the arguments are "match" and the name of a matchup file, two AutoplayModes are compared without GUI.
+ If the arguments are "league" and the name of a league file, the bots of the league are rated without GUI.
+ If the arguments are "selfplay" and the name of a configuration file, training data is generated without GUI.
+ If the arguments are "server" and the name of a scenario file, the games of the scenario are hosted in concurrent tables without GUI.
+ If the arguments are "shards" and the name of a scenario file, the games of the scenario are split into shards played by worker processes.
+ @see ludo.BatchRunner
+ @see ludo.MatchupRunner
+ @see ludo.League
+ @see ludo.SelfPlay
+ @see ludo.GameServer
+ @see ludo.ShardCoordinator
  */
     public static void main(String[] args) {     
     	
         new ImgPath();
-
-    	selectWindow= new Selector("theme");
-    	Theme theme = selectWindow.selectedTheme();
         
-    	selectWindow= new Selector("player", theme.name());
-    	List<Color> plColors = selectWindow.selectedPlayers();
-        
-    	selectWindow= new Selector("board", theme.name());
-    	boolean special = selectWindow.selectedBoard();
+        if (args.length == 2 && args[0].equals("batch")) {
+            BatchRunner.main(new String[]{args[1]});
+            System.exit(0);
+        }
+        if (args.length == 2 && args[0].equals("match")) {
+            MatchupRunner.main(new String[]{args[1]});
+            System.exit(0);
+        }
+        if (args.length == 2 && args[0].equals("league")) {
+            League.main(new String[]{args[1]});
+            System.exit(0);
+        }
+        if (args.length == 2 && args[0].equals("selfplay")) {
+            SelfPlay.main(new String[]{args[1]});
+            System.exit(0);
+        }
+        if (args.length == 2 && args[0].equals("server")) {
+            GameServer.main(new String[]{args[1]});
+            System.exit(0);
+        }
+        if (args.length == 2 && args[0].equals("shards")) {
+            ShardCoordinator.main(new String[]{args[1]});
+            System.exit(0);
+        }
+
+        if (args.length == 2 && args[0].equals("replay")) {
+            try {
+                LudoGUI.drawReplay(GameReplay.load(new File(args[1])));}
+            catch (IOException ex) {
+                System.out.println("Journal could not be read.");}
+            System.exit(0);
+        }
+
+        if (args.length == 2 && args[0].equals("load")) {
+            try {
+                game = GameSaver.load(new File(args[1]));
+                game.getDice().showResult();}
+            catch (IOException ex) {
+                System.out.println("Save file could not be read.");
+                System.exit(0);}
+        }
+        else {
+            selectWindow= new Selector("theme");
+            Theme theme = selectWindow.selectedTheme();
+
+            selectWindow= new Selector("player", theme.name());
+            List<Color> plColors = selectWindow.selectedPlayers();
+
+            selectWindow= new Selector("board", theme.name());
+            boolean special = selectWindow.selectedBoard();
 
-    	game = new GameState(theme, plColors, special); 
+            game = new GameState(theme, plColors, special);
+        }
 //        ImgPath.Theme theme = ImgPath.Theme.plain;
 //        List<ImgPath.Color> plColors = Arrays.asList(Color.yellow, Color.red, Color.green, Color.blue);
 //        List<Boolean> auto = Arrays.asList(true, true, true, true);
@@ -44,7 +107,19 @@ public class Main {
 //        boolean special = true;
 //        
 //        game = new GameState(theme, plColors, auto, autoMode, special);
+        GameJournal journal = null;
+        try {
+            journal = GameJournal.record(game, new File(JOURNAL_FILE));}
+        catch (IOException ex) {
+            System.out.println("Journal could not be created.");}
+        Autosave autosave = new Autosave(game, new File(AUTOSAVE_FILE));
         LudoGUI.drawGUI(game);
+        autosave.close();
+        try {
+            if (journal != null)
+                journal.close();}
+        catch (IOException ex) {
+            System.out.println("Journal could not be written.");}
         System.exit(0); // make sure all frames are disposed
     }
 }
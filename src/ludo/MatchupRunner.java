@@ -0,0 +1,277 @@
+package ludo;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import ludo.Autoplay.AutoplayMode;
+import ludo.ImgPath.Color;
+import ludo.SequentialTest.Decision;
+
+/**
+ * Headless comparison of two AutoplayModes that stops as soon as the result is clear.
+ * <p>
+ * Games are played in parallel batches between the configuration "a" and the configuration "b",
+ * which swap seats every game to cancel the advantage of the seats. After every game, in the order of the games,
+ * two sequential probability ratio tests check whether "a" wins more than (0.5 + margin) of the games,
+ * or less than (0.5 - margin). The matchup stops when one configuration is significantly stronger,
+ * or when both tests agree that the difference is within the margin.
+ * <p>
+ * The matchup is configured by a properties file with the keys:
+ * <ul>
+ * <li>a, b : the AutoplayModes to be compared
+ * <li>seats : 2 (yellow against green) or 4 (a and b take two opposite seats each) (default 2)
+ * <li>board : "special" or "regular" (default special)
+ * <li>margin : the smallest difference of win rate with respect to 0.5 worth detecting (default 0.05)
+ * <li>alpha, beta : the error rates of the tests (default 0.05)
+ * <li>batch : the number of games dispatched at once (default 4 per thread)
+ * <li>maxGames : the number of games after which the matchup stops undecided (default 20000), abandoned games included
+ * <li>seed, threads, output : as in BatchRunner
+ * </ul>
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.SequentialTest
+ * @see ludo.BatchRunner
+ */
+public class MatchupRunner {
+
+    /**
+     * The possible results of a matchup.
+     */
+    public enum Result {aStronger, bStronger, withinMargin, undecided};
+
+    //seats taken by the first configuration of a game, the rest is taken by the second one
+    private static final boolean[] TWO_SEATS = {true, false, false, false}, FOUR_SEATS = {true, false, true, false};
+
+    private final AutoplayMode a, b;
+    private final int seats, batch, maxGames, threads;
+    private final boolean special;
+    private final double margin;
+    private final long seed;
+    private final String output;
+    private final SequentialTest aBetter, bBetter;
+    private Decision aDecision = Decision.undecided, bDecision = Decision.undecided;
+    private long played, games, aWins; //played counts the abandoned games too, games only the ones with a winner
+
+    /**
+     * Initializes a matchup with the settings of a properties file.
+     * @param scenario the properties of the matchup
+     * @throws IllegalArgumentException if a value is missing or not valid
+     */
+    public MatchupRunner(Properties scenario) {
+        if (scenario.getProperty("a") == null || scenario.getProperty("b") == null)
+            throw new IllegalArgumentException("a and b must be given.");
+        this.a = AutoplayMode.valueOf(scenario.getProperty("a").trim());
+        this.b = AutoplayMode.valueOf(scenario.getProperty("b").trim());
+        this.seats = Integer.parseInt(scenario.getProperty("seats", "2").trim());
+        if (this.seats != 2 && this.seats != 4)
+            throw new IllegalArgumentException("seats must be 2 or 4.");
+        String board = scenario.getProperty("board", "special").trim();
+        if (!board.equals("special") && !board.equals("regular"))
+            throw new IllegalArgumentException("board must be special or regular.");
+        this.special = board.equals("special");
+        this.margin = Double.parseDouble(scenario.getProperty("margin", "0.05").trim());
+        if (this.margin <= 0 || this.margin >= 0.5)
+            throw new IllegalArgumentException("margin must be between 0 and 0.5.");
+        double alpha = Double.parseDouble(scenario.getProperty("alpha", "0.05").trim());
+        double beta = Double.parseDouble(scenario.getProperty("beta", "0.05").trim());
+        this.threads = Integer.parseInt(scenario.getProperty("threads", String.valueOf(Runtime.getRuntime().availableProcessors())).trim());
+        this.batch = Integer.parseInt(scenario.getProperty("batch", String.valueOf(4 * Math.max(1, this.threads))).trim());
+        this.maxGames = Integer.parseInt(scenario.getProperty("maxGames", "20000").trim());
+        this.seed = Long.parseLong(scenario.getProperty("seed", String.valueOf(System.currentTimeMillis())).trim());
+        this.output = scenario.getProperty("output", "").trim();
+        this.aBetter = new SequentialTest(0.5, 0.5 + this.margin, alpha, beta);
+        this.bBetter = new SequentialTest(0.5, 0.5 - this.margin, alpha, beta);
+    }
+
+    /**
+     * Loads a matchup file.
+     * @param file the properties file describing the matchup
+     * @return a runner for the matchup
+     * @throws IOException if the file can not be read
+     */
+    public static MatchupRunner load(File file) throws IOException {
+        Properties scenario = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            scenario.load(in);}
+        return new MatchupRunner(scenario);
+    }
+
+    /**
+     * Gets the AutoplayMode of every seat in a game of the matchup. In odd games the configurations swap seats.
+     * @param index the index of the game
+     * @return the mode of each of the 4 seats
+     */
+    public List<AutoplayMode> getModes(int index) {
+        boolean swap = index % 2 == 1;
+        AutoplayMode first = swap ? this.b : this.a, second = swap ? this.a : this.b;
+        boolean[] firstSeat = this.seats == 2 ? TWO_SEATS : FOUR_SEATS;
+        List<AutoplayMode> modes = new ArrayList<>();
+        for (int seat = 0; seat < 4; seat++)
+            modes.add(firstSeat[seat] ? first : second);
+        return modes;
+    }
+
+    /**
+     * Plays one game of the matchup. In odd games the configurations swap seats.
+     * @param index the index of the game, game i uses seed+i
+     * @return true if the winner of the game was configuration a, null if the game was abandoned after MAX_STEPS steps
+     */
+    Boolean playGame(int index) {
+        boolean swap = index % 2 == 1;
+        List<Color> colors = this.seats == 2
+                ? Arrays.asList(Color.yellow, Color.green)
+                : Arrays.asList(Color.values());
+        boolean[] firstSeat = this.seats == 2 ? TWO_SEATS : FOUR_SEATS;
+        GameState game = new GameState(GameState.DEFAULT_THEME, colors, Arrays.asList(true, true, true, true),
+                getModes(index), this.special);
+        game.setSeed(this.seed + index);
+        if (!BatchRunner.play(game))
+            return null;
+        boolean firstWon = !game.getWinners().isEmpty() && firstSeat[game.getWinners().get(0)];
+        return firstWon != swap;
+    }
+
+    /**
+     * Plays batches of games until the tests reach a decision or maxGames are played,
+     * and writes the progress after every batch to the output of the matchup.
+     * @return the result of the matchup
+     * @throws IOException if the output can not be written
+     * @throws InterruptedException if the thread is interrupted while waiting for the games
+     */
+    public Result run() throws IOException, InterruptedException {
+        try (Writer out = this.output.isEmpty()
+                ? new BufferedWriter(new OutputStreamWriter(System.out))
+                : new BufferedWriter(new FileWriter(this.output))) {
+            return run(out);}
+    }
+
+    /**
+     * Plays batches of games until the tests reach a decision or maxGames are played.
+     * @param out the writer the progress is written to
+     * @return the result of the matchup
+     * @throws IOException if the output can not be written
+     * @throws InterruptedException if the thread is interrupted while waiting for the games
+     */
+    public Result run(Writer out) throws IOException, InterruptedException {
+        out.write("games,aWins,aWinRate,llrA,llrB\n");
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, this.threads));
+        try {
+            while (getResult() == Result.undecided && this.played < this.maxGames) {
+                List<Callable<Boolean>> tasks = new ArrayList<>();
+                for (long g = this.played; g < Math.min(this.played + this.batch, this.maxGames); g++) {
+                    final int index = (int) g;
+                    tasks.add(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() {
+                            return playGame(index);
+                        }
+                    });
+                }
+                // the outcomes are added in the order of the games, so the result does not depend on the threads
+                for (Future<Boolean> outcome : executor.invokeAll(tasks)) {
+                    this.played++;
+                    if (outcome.get() != null)
+                        add(outcome.get());
+                    if (getResult() != Result.undecided)
+                        break;
+                }
+                out.write(String.format("%d,%d,%.4f,%.3f,%.3f%n", this.games, this.aWins,
+                        (double) this.aWins / this.games, this.aBetter.getLLR(), this.bBetter.getLLR()));
+                out.flush();
+            }
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        out.write(summary());
+        out.flush();
+        return getResult();
+    }
+
+    //Adds the outcome of a game to the tests that have not stopped yet
+    private void add(boolean aWon) {
+        this.games++;
+        if (aWon)
+            this.aWins++;
+        if (this.aDecision == Decision.undecided)
+            this.aDecision = this.aBetter.add(aWon);
+        if (this.bDecision == Decision.undecided)
+            this.bDecision = this.bBetter.add(aWon);
+    }
+
+    /**
+     * Gets the result of the matchup given the games played so far.
+     * @return aStronger or bStronger if a test accepted that configuration is stronger,
+     *         withinMargin if both tests rejected it, undecided otherwise
+     */
+    public Result getResult() {
+        if (this.aDecision == Decision.acceptH1)
+            return Result.aStronger;
+        if (this.bDecision == Decision.acceptH1)
+            return Result.bStronger;
+        if (this.aDecision == Decision.acceptH0 && this.bDecision == Decision.acceptH0)
+            return Result.withinMargin;
+        return Result.undecided;
+    }
+
+    public long getGames() {
+        return this.games;
+    }
+
+    /**
+     * Gets the number of games abandoned after MAX_STEPS steps, which are not counted by the tests.
+     * @return the abandoned games
+     */
+    public long getAbandoned() {
+        return this.played - this.games;
+    }
+
+    public long getAWins() {
+        return this.aWins;
+    }
+
+    /**
+     * Gets the summary of the matchup: result, games played and 95% interval of the win rate of a.
+     * @return the summary, every line starting with '#'
+     */
+    public String summary() {
+        double[] ci = GameStats.wilson(this.aWins, this.games, GameStats.Z95);
+        return String.format("# %s vs %s (%d seats, margin %.3f): %s after %d games%n"
+                + "# win rate of %s %.2f%% [%.2f-%.2f], %d games abandoned%n",
+                this.a, this.b, this.seats, this.margin, getResult(), this.games,
+                this.a, this.games == 0 ? 0 : this.aWins * 100.0 / this.games, ci[0] * 100, ci[1] * 100, getAbandoned());
+    }
+
+    /**
+     * Runs the matchup file given as the only argument.
+     * @param args the path of the matchup file
+     */
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.out.println("Usage: java ludo.MatchupRunner <matchup file>");
+            System.exit(1);
+        }
+        try {
+            load(new File(args[0])).run();}
+        catch (IOException | IllegalArgumentException ex) {
+            System.out.println("Matchup could not be run: " + ex.getMessage());
+            System.exit(1);}
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();}
+    }
+}
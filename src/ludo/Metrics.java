@@ -0,0 +1,288 @@
+package ludo;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import ludo.Autoplay.AutoplayMode;
+
+/**
+ * Registry of the runtime metrics of the application, shared by all the games of the process.
+ * <p>
+ * Counters are striped (LongAdder), so games running on several threads can update them without contention,
+ * and rates are calculated only when they are read. The registry is exposed over JMX as "ludo:type=Metrics"
+ * the first time it is used.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.MetricsMXBean
+ */
+public class Metrics implements MetricsMXBean {
+
+    public static final String OBJECT_NAME = "ludo:type=Metrics";
+
+    private static final Metrics INSTANCE = new Metrics(true);
+
+    private final LongAdder gamesStarted = new LongAdder(), gamesFinished = new LongAdder();
+    private final LongAdder captures = new LongAdder(), starJumps = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder(), cacheMisses = new LongAdder();
+    private final Meter turns = new Meter(), diceCasts = new Meter();
+    private final LatencyHistogram[] decisionLatency = new LatencyHistogram[AutoplayMode.values().length];
+    private final LongAdder[] decisionTimeouts = new LongAdder[AutoplayMode.values().length];
+    private final LongAdder[] decisionFallbacks = new LongAdder[AutoplayMode.values().length];
+    private final LatencyHistogram renderTime = new LatencyHistogram();
+
+    /**
+     * Counter with a rate per second, averaged exponentially over the last minute.
+     * The rate is updated when it is read, so counting costs a single striped increment.
+     */
+    private static class Meter {
+        private static final double WINDOW = 60e9;
+        final LongAdder count = new LongAdder();
+        private long lastTime = System.nanoTime(), lastCount;
+        private double rate;
+        private boolean first = true;
+
+        synchronized double getRate() {
+            long now = System.nanoTime(), c = this.count.sum();
+            long elapsed = now - this.lastTime;
+            if (elapsed >= 1e9) {
+                double current = (c - this.lastCount) * 1e9 / elapsed;
+                this.rate = this.first ? current : this.rate + (current - this.rate) * (1 - Math.exp(-elapsed / WINDOW));
+                this.first = false;
+                this.lastTime = now;
+                this.lastCount = c;
+            }
+            return this.rate;
+        }
+
+        synchronized void reset() {
+            this.count.reset();
+            this.lastTime = System.nanoTime();
+            this.lastCount = 0;
+            this.rate = 0;
+            this.first = true;
+        }
+    }
+
+    /**
+     * Initializes a registry of its own, e.g. for the games that must not be counted in the ones of the application.
+     * @param register whether the registry is exposed over JMX, which only the shared one can be
+     */
+    Metrics(boolean register) {
+        for (int i = 0; i < this.decisionLatency.length; i++) {
+            this.decisionLatency[i] = new LatencyHistogram();
+            this.decisionTimeouts[i] = new LongAdder();
+            this.decisionFallbacks[i] = new LongAdder();
+        }
+        if (!register)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));}
+        catch (JMException | SecurityException ex) {
+            System.err.println("Metrics could not be registered.");}
+    }
+
+    /**
+     * Gets the registry of the application.
+     * @return the only instance of Metrics
+     */
+    public static Metrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records a game that started.
+     */
+    public void gameStarted() {
+        this.gamesStarted.increment();
+    }
+
+    /**
+     * Records a game that finished, with all its players at the goal.
+     */
+    public void gameFinished() {
+        this.gamesFinished.increment();
+    }
+
+    /**
+     * Records a turn that started.
+     */
+    public void turn() {
+        this.turns.count.increment();
+    }
+
+    /**
+     * Records a cast of the dice.
+     */
+    public void diceCast() {
+        this.diceCasts.count.increment();
+    }
+
+    /**
+     * Records a token sent home by an opponent.
+     */
+    public void capture() {
+        this.captures.increment();
+    }
+
+    /**
+     * Records a token that jumped from a star to the next one.
+     */
+    public void starJump() {
+        this.starJumps.increment();
+    }
+
+    /**
+     * Records a reward found in the DecisionCache.
+     */
+    public void decisionCacheHit() {
+        this.cacheHits.increment();
+    }
+
+    /**
+     * Records a reward not found in the DecisionCache, which has to be calculated.
+     */
+    public void decisionCacheMiss() {
+        this.cacheMisses.increment();
+    }
+
+    /**
+     * Records the time taken by a computer-operated player to select a token.
+     * @param mode the AutoplayMode of the player
+     * @param nanos the duration of the decision in nanoseconds
+     */
+    public void decision(AutoplayMode mode, long nanos) {
+        this.decisionLatency[mode.ordinal()].record(nanos);
+    }
+
+    /**
+     * Records a decision that was not taken before the deadline of the player.
+     * @param mode the AutoplayMode of the player
+     */
+    public void decisionTimeout(AutoplayMode mode) {
+        this.decisionTimeouts[mode.ordinal()].increment();
+    }
+
+    /**
+     * Records a decision replaced by the customAI token, because there was no answer at the deadline or the mode failed.
+     * @param mode the AutoplayMode of the player
+     */
+    public void decisionFallback(AutoplayMode mode) {
+        this.decisionFallbacks[mode.ordinal()].increment();
+    }
+
+    /**
+     * Records the time taken to paint a frame of the GUI.
+     * @param nanos the duration of the frame in nanoseconds
+     */
+    public void frame(long nanos) {
+        this.renderTime.record(nanos);
+    }
+
+    @Override
+    public long getGamesStarted() {
+        return this.gamesStarted.sum();
+    }
+
+    @Override
+    public long getGamesFinished() {
+        return this.gamesFinished.sum();
+    }
+
+    @Override
+    public long getTurns() {
+        return this.turns.count.sum();
+    }
+
+    @Override
+    public double getTurnsPerSecond() {
+        return this.turns.getRate();
+    }
+
+    @Override
+    public long getDiceCasts() {
+        return this.diceCasts.count.sum();
+    }
+
+    @Override
+    public double getDiceCastsPerSecond() {
+        return this.diceCasts.getRate();
+    }
+
+    @Override
+    public long getCaptures() {
+        return this.captures.sum();
+    }
+
+    @Override
+    public long getStarJumps() {
+        return this.starJumps.sum();
+    }
+
+    @Override
+    public long getDecisionCacheHits() {
+        return this.cacheHits.sum();
+    }
+
+    @Override
+    public long getDecisionCacheMisses() {
+        return this.cacheMisses.sum();
+    }
+
+    @Override
+    public double getDecisionCacheHitRate() {
+        long hits = this.cacheHits.sum(), lookups = hits + this.cacheMisses.sum();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public Map<String, LatencyHistogram.Snapshot> getDecisionLatency() {
+        Map<String, LatencyHistogram.Snapshot> latency = new LinkedHashMap<>();
+        for (AutoplayMode mode : AutoplayMode.values())
+            latency.put(mode.name(), this.decisionLatency[mode.ordinal()].getSnapshot());
+        return latency;
+    }
+
+    @Override
+    public Map<String, Long> getDecisionTimeouts() {
+        return sums(this.decisionTimeouts);
+    }
+
+    @Override
+    public Map<String, Long> getDecisionFallbacks() {
+        return sums(this.decisionFallbacks);
+    }
+
+    private static Map<String, Long> sums(LongAdder[] counters) {
+        Map<String, Long> sums = new LinkedHashMap<>();
+        for (AutoplayMode mode : AutoplayMode.values())
+            sums.put(mode.name(), counters[mode.ordinal()].sum());
+        return sums;
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getRenderTime() {
+        return this.renderTime.getSnapshot();
+    }
+
+    @Override
+    public void reset() {
+        this.gamesStarted.reset();
+        this.gamesFinished.reset();
+        this.captures.reset();
+        this.starJumps.reset();
+        this.cacheHits.reset();
+        this.cacheMisses.reset();
+        this.turns.reset();
+        this.diceCasts.reset();
+        for (LatencyHistogram h : this.decisionLatency)
+            h.reset();
+        for (int i = 0; i < this.decisionTimeouts.length; i++) {
+            this.decisionTimeouts[i].reset();
+            this.decisionFallbacks[i].reset();
+        }
+        this.renderTime.reset();
+    }
+}
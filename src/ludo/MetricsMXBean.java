@@ -0,0 +1,108 @@
+package ludo;
+
+import java.util.Map;
+
+/**
+ * Management interface of the metrics of the application, registered in the platform MBean server as "ludo:type=Metrics".
+ * It can be inspected with jconsole or any other JMX client.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.Metrics
+ */
+public interface MetricsMXBean {
+
+    /**
+     * Gets the number of games started.
+     * @return the games started since the application started or the last reset
+     */
+    long getGamesStarted();
+
+    /**
+     * Gets the number of games finished, with all their players at the goal.
+     * @return the games finished
+     */
+    long getGamesFinished();
+
+    /**
+     * Gets the number of turns played.
+     * @return the turns started
+     */
+    long getTurns();
+
+    /**
+     * Gets the rate of turns, an exponential moving average over about a minute.
+     * @return the turns per second
+     */
+    double getTurnsPerSecond();
+
+    /**
+     * Gets the number of casts of the dice.
+     * @return the dice casts
+     */
+    long getDiceCasts();
+
+    /**
+     * Gets the rate of dice casts, an exponential moving average over about a minute.
+     * @return the dice casts per second
+     */
+    double getDiceCastsPerSecond();
+
+    /**
+     * Gets the number of tokens sent home by an opponent.
+     * @return the captures
+     */
+    long getCaptures();
+
+    /**
+     * Gets the number of jumps from a star to the next one.
+     * @return the star jumps
+     */
+    long getStarJumps();
+
+    /**
+     * Gets the number of customAI rewards read from the DecisionCache.
+     * @return the cache hits
+     */
+    long getDecisionCacheHits();
+
+    /**
+     * Gets the number of customAI rewards not found in the DecisionCache.
+     * @return the cache misses
+     */
+    long getDecisionCacheMisses();
+
+    /**
+     * Gets the fraction of the customAI rewards read from the DecisionCache instead of being calculated.
+     * @return hits / (hits + misses), 0 before the first lookup
+     */
+    double getDecisionCacheHitRate();
+
+    /**
+     * Gets the latency of Autoplay.selectToken for each AutoplayMode.
+     * @return summary of the decision latency keyed by the name of the AutoplayMode
+     */
+    Map<String, LatencyHistogram.Snapshot> getDecisionLatency();
+
+    /**
+     * Gets the decisions of Autoplay.decideToken not taken before the deadline, for each AutoplayMode.
+     * @return the number of timeouts keyed by the name of the AutoplayMode
+     */
+    Map<String, Long> getDecisionTimeouts();
+
+    /**
+     * Gets the decisions of Autoplay.decideToken replaced by the customAI token, for each AutoplayMode.
+     * @return the number of fallbacks keyed by the name of the AutoplayMode
+     */
+    Map<String, Long> getDecisionFallbacks();
+
+    /**
+     * Gets the time taken by the GUI to paint a frame.
+     * @return summary of the render time
+     */
+    LatencyHistogram.Snapshot getRenderTime();
+
+    /**
+     * Sets all the counters and histograms back to zero.
+     */
+    void reset();
+}
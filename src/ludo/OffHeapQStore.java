@@ -0,0 +1,325 @@
+package ludo;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Store of Q-values outside of the Java heap, for tables too large to be kept in a QValueMap.
+ * <p>
+ * The entries are slots of SLOT_SIZE bytes (the long key and the bits of the float value) in a hash table with
+ * open addressing and linear probing, split into pages of at most PAGE_SLOTS slots, each one a direct or memory mapped
+ * ByteBuffer, so the table is not limited by the 2GB of a single buffer and is never scanned by the garbage collector.
+ * <p>
+ * The store can be shared by several threads without locks: a key is inserted by a compare-and-set of its empty slot,
+ * and update changes the value with a compare-and-set loop, so no update is lost. A store mapped from a file with
+ * create or map is also shared with the other processes that map the same file, the number of entries being kept in
+ * the header of the file. Once trained, the file can be mapped read-only by any number of processes, which then share
+ * the pages of the operating system cache. snapshot copies the store into a file while it is still being updated.
+ * <p>
+ * The key 0 is reserved to mark the empty slots. Entries are never removed: the maximum size is fixed when the store
+ * is created, and inserting a key into a full store throws an IllegalStateException.
+ * A reader may see a new key with the value 0 for a moment, before its value is written.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.QValueMap
+ * @see ludo.StateQLearning
+ */
+public class OffHeapQStore implements QStore {
+
+    public static final int MAGIC = 0x4C554453; //"LUDS"
+    public static final int VERSION = 1;
+    public static final String EXTENSION = ".qstore";
+    static final int SLOT_SIZE = 16;
+    static final int PAGE_SLOTS = 1 << 20;
+    static final int HEADER_SIZE = 4096; //a whole page, so the mapped pages of slots are aligned
+    private static final int CAPACITY = 8, MAX_SIZE = 16, SIZE = 24; //offsets of the header fields
+    private static final double LOAD_FACTOR = 0.75;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final ByteBuffer header;
+    private final ByteBuffer[] pages;
+    private final long mask, maxSize;
+    private final int pageShift;
+    private final boolean readOnly;
+
+    private OffHeapQStore(ByteBuffer header, ByteBuffer[] pages, boolean readOnly) {
+        this.header = header;
+        this.pages = pages;
+        this.readOnly = readOnly;
+        long capacity = header.getLong(CAPACITY);
+        this.mask = capacity - 1;
+        this.maxSize = header.getLong(MAX_SIZE);
+        this.pageShift = Long.numberOfTrailingZeros(Math.min(capacity, PAGE_SLOTS));
+    }
+
+    /**
+     * Creates an empty store in direct buffers, outside of the heap but not backed by a file.
+     * @param maxSize the maximum number of entries, the memory is allocated for it at once
+     * @return the store
+     */
+    public static OffHeapQStore allocate(long maxSize) {
+        long capacity = capacity(maxSize);
+        ByteBuffer header = ByteBuffer.allocateDirect(HEADER_SIZE).order(ByteOrder.nativeOrder());
+        writeHeader(header, capacity, maxSize, 0);
+        ByteBuffer[] pages = new ByteBuffer[pageCount(capacity)];
+        for (int i = 0; i < pages.length; i++)
+            pages[i] = ByteBuffer.allocateDirect(pageBytes(capacity)).order(ByteOrder.nativeOrder());
+        return new OffHeapQStore(header, pages, false);
+    }
+
+    /**
+     * Creates an empty store in a new file and maps it for reading and writing.
+     * The file is sparse, so the disk space of the pages is only used as they are written.
+     * @param file the new store file
+     * @param maxSize the maximum number of entries
+     * @return the store
+     * @throws IOException if the file exists or can not be created
+     */
+    public static OffHeapQStore create(File file, long maxSize) throws IOException {
+        long capacity = capacity(maxSize);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.SPARSE)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.order(ByteOrder.nativeOrder());
+            writeHeader(header, capacity, maxSize, 0);
+            return new OffHeapQStore(header, mapPages(channel, capacity, false), false);
+        }
+    }
+
+    /**
+     * Maps a store file written by create or snapshot.
+     * @param file the store file
+     * @param readOnly whether the store is only read, so the file may be read-only and shared by any number of processes
+     * @return the store
+     * @throws IOException if the file can not be mapped or is not a store file
+     */
+    public static OffHeapQStore map(File file, boolean readOnly) throws IOException {
+        try (FileChannel channel = readOnly ? FileChannel.open(file.toPath(), StandardOpenOption.READ)
+                : FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() < HEADER_SIZE)
+                throw new IOException("Not a ludo Q-value store.");
+            MappedByteBuffer header = channel.map(readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.order(ByteOrder.nativeOrder());
+            if (header.getInt(0) != MAGIC)
+                throw new IOException("Not a ludo Q-value store.");
+            if (header.getInt(4) != VERSION)
+                throw new IOException("Unsupported Q-value store version.");
+            long capacity = header.getLong(CAPACITY);
+            if (Long.bitCount(capacity) != 1 || channel.size() < HEADER_SIZE + capacity * SLOT_SIZE)
+                throw new IOException("Truncated Q-value store.");
+            return new OffHeapQStore(header, mapPages(channel, capacity, readOnly), readOnly);
+        }
+    }
+
+    private static MappedByteBuffer[] mapPages(FileChannel channel, long capacity, boolean readOnly) throws IOException {
+        MappedByteBuffer[] pages = new MappedByteBuffer[pageCount(capacity)];
+        int bytes = pageBytes(capacity);
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = channel.map(readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, HEADER_SIZE + (long) i * bytes, bytes);
+            pages[i].order(ByteOrder.nativeOrder());
+        }
+        return pages;
+    }
+
+    private static long capacity(long maxSize) {
+        if (maxSize <= 0 || maxSize > 1L << 40)
+            throw new IllegalArgumentException("maxSize must be between 1 and 2^40.");
+        return Long.highestOneBit((long) Math.ceil(maxSize / LOAD_FACTOR) - 1) << 1;
+    }
+
+    private static int pageCount(long capacity) {
+        return (int) Math.max(1, capacity / PAGE_SLOTS);
+    }
+
+    private static int pageBytes(long capacity) {
+        return (int) Math.min(capacity, PAGE_SLOTS) * SLOT_SIZE;
+    }
+
+    private static void writeHeader(ByteBuffer header, long capacity, long maxSize, long size) {
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putLong(CAPACITY, capacity);
+        header.putLong(MAX_SIZE, maxSize);
+        header.putLong(SIZE, size);
+    }
+
+    //murmur3 finalizer, as in QValueMap
+    private long slot(long key) {
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        key *= 0xC4CEB9FE1A85EC53L;
+        key ^= key >>> 33;
+        return key & this.mask;
+    }
+
+    private ByteBuffer page(long slot) {
+        return this.pages[(int) (slot >>> this.pageShift)];
+    }
+
+    private int offset(long slot) {
+        return (int) (slot & ((1 << this.pageShift) - 1)) * SLOT_SIZE;
+    }
+
+    @Override
+    public float get(long key, float missing) {
+        for (long i = slot(key); ; i = (i + 1) & this.mask) {
+            ByteBuffer page = page(i);
+            int offset = offset(i);
+            long k = (long) LONGS.getAcquire(page, offset);
+            if (k == key)
+                return Float.intBitsToFloat((int) INTS.getAcquire(page, offset + 8));
+            if (k == QValueMap.EMPTY)
+                return missing;
+        }
+    }
+
+    @Override
+    public void put(long key, float value) {
+        long i = find(key);
+        INTS.setRelease(page(i), offset(i) + 8, Float.floatToRawIntBits(value));
+    }
+
+    @Override
+    public void update(long key, float alpha, float target) {
+        long i = find(key);
+        ByteBuffer page = page(i);
+        int offset = offset(i) + 8;
+        while (true) {
+            int bits = (int) INTS.getAcquire(page, offset);
+            float q = Float.intBitsToFloat(bits);
+            if (INTS.compareAndSet(page, offset, bits, Float.floatToRawIntBits(q + alpha * (target - q))))
+                return;
+        }
+    }
+
+    //Gets the slot of a key, inserting the key into the first empty slot of its probe sequence if it is not there
+    private long find(long key) {
+        if (key == QValueMap.EMPTY)
+            throw new IllegalArgumentException("The key 0 is reserved.");
+        if (this.readOnly)
+            throw new UnsupportedOperationException("The Q-value store is read-only.");
+        for (long i = slot(key); ; i = (i + 1) & this.mask) {
+            ByteBuffer page = page(i);
+            int offset = offset(i);
+            long k = (long) LONGS.getAcquire(page, offset);
+            if (k == key)
+                return i;
+            if (k != QValueMap.EMPTY)
+                continue;
+            reserve();
+            k = (long) LONGS.compareAndExchange(page, offset, QValueMap.EMPTY, key);
+            if (k == QValueMap.EMPTY)
+                return i;
+            //another thread took the slot first, maybe with the same key
+            LONGS.getAndAdd(this.header, SIZE, -1L);
+            if (k == key)
+                return i;
+        }
+    }
+
+    //Counts a new entry, so the table always keeps empty slots and the probe sequences end
+    private void reserve() {
+        while (true) {
+            long size = (long) LONGS.getAcquire(this.header, SIZE);
+            if (size >= this.maxSize)
+                throw new IllegalStateException("The Q-value store is full.");
+            if (LONGS.compareAndSet(this.header, SIZE, size, size + 1))
+                return;
+        }
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(getSize(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Gets the number of entries, which may be larger than an int.
+     * @return the number of keys in the store
+     */
+    public long getSize() {
+        return (long) LONGS.getAcquire(this.header, SIZE);
+    }
+
+    public long getMaxSize() {
+        return this.maxSize;
+    }
+
+    public boolean getReadOnly() {
+        return this.readOnly;
+    }
+
+    /**
+     * Writes the changes of a mapped store to its file. The store of allocate has no file and is not changed.
+     */
+    public void force() {
+        if (this.readOnly || !(this.header instanceof MappedByteBuffer))
+            return;
+        for (ByteBuffer page : this.pages)
+            ((MappedByteBuffer) page).force();
+        ((MappedByteBuffer) this.header).force();
+    }
+
+    /**
+     * Copies the store into a file that can be mapped later, replacing the previous file atomically.
+     * The store can be updated by other threads during the copy: every entry has the value it had when its slot was copied.
+     * @param file the snapshot file
+     * @return the number of entries in the snapshot
+     * @throws IOException if the file can not be written
+     */
+    public long snapshot(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            long size = 0;
+            try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+                ByteBuffer chunk = ByteBuffer.allocate(1 << 16).order(ByteOrder.nativeOrder());
+                long position = HEADER_SIZE;
+                for (ByteBuffer page : this.pages) {
+                    ByteBuffer source = page.duplicate();
+                    while (source.hasRemaining()) {
+                        chunk.clear();
+                        int end = Math.min(source.position() + chunk.capacity(), source.limit());
+                        //the keys are counted in the copy, so the size always matches the copied entries
+                        for (int offset = source.position(); offset < end; offset += SLOT_SIZE) {
+                            long key = (long) LONGS.getAcquire(source, offset);
+                            int value = (int) INTS.getAcquire(source, offset + 8);
+                            chunk.putLong(key).putInt(value).putInt(0);
+                            if (key != QValueMap.EMPTY)
+                                size++;
+                        }
+                        source.position(end);
+                        chunk.flip();
+                        while (chunk.hasRemaining())
+                            position += channel.write(chunk, position);
+                    }
+                }
+                ByteBuffer head = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+                writeHeader(head, this.mask + 1, this.maxSize, size);
+                channel.write(head, 0);
+                channel.force(true);
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return size;
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+}
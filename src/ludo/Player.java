@@ -4,7 +4,8 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
 import javax.imageio.ImageIO;
 import ludo.Autoplay.AutoplayMode;
@@ -41,6 +42,7 @@ public class Player {
     public static final int OUT_OF_BOARD = 60; //position of token out of the track
     public static final int START_DISTANCE = 13;
     public static final int GOAL = 5;
+    private static final CoordinateTable COORDINATES = CoordinateTable.forTileSize(TILE_SIZE);
 
     private int goal, pIndex; //goal: how many tokens have reached the goal, pNumber: index of the player when array of players is created
     private ArrayList<Integer> tokensOut; //position of each token currently in the board
@@ -48,7 +50,8 @@ public class Player {
     private Token[] tokens; //stores the position of each token in the board
     private boolean active, turn, auto;
     private AutoplayMode autoMode;
-    private Map<Theme, BufferedImage> img = new HashMap<>();
+    private static final Map<Color, Map<Theme, BufferedImage>> IMAGES = new EnumMap<>(Color.class); //shared by all players of each color
+    private final TokenGrid grid = new TokenGrid(TILE_SIZE);
     
     /**
      * Initializes an instance of Player given its color.
@@ -58,13 +61,6 @@ public class Player {
     public Player (Color color) {
         initVars();
         this.color = color;
-        for (Theme t: Theme.values()){
-            ImgPath.setTokenPath(t);
-            try {
-                img.put(t,ImageIO.read(new File(ImgPath.getTokenPath(color))));} 
-            catch (IOException ex) {
-                System.out.println("Image not found.");}
-        }
         this.auto = DEFAULT_AUTOPLAYER;
         this.autoMode = DEFAULT_AUTOMODE;
     }
@@ -78,13 +74,6 @@ public class Player {
     public Player(Color color, boolean auto, AutoplayMode autoMode) {
         initVars();
         this.color = color;
-        for (Theme t: Theme.values()){
-            ImgPath.setTokenPath(t);
-            try {
-                img.put(t,ImageIO.read(new File(ImgPath.getTokenPath(color))));} 
-            catch (IOException ex) {
-                System.out.println("Image not found.");}
-        }
         this.auto = auto;
         this.autoMode = autoMode;
     }
@@ -143,14 +132,40 @@ public class Player {
     public AutoplayMode getAutoMode(){
         return this.autoMode;
     }
+    
+    /**
+     * Sets the type of controller for the computer player.
+     * @param autoMode the type of controller for the computer-operated player
+     * @see ludo.Autoplay.AutoplayMode
+     */
+    public void setAutoMode(AutoplayMode autoMode){
+        this.autoMode = autoMode;
+    }
 
     /**
      * Gets the graphic representation of each of the player's tokens.
+     * The images are loaded the first time they are drawn, so games without GUI never read them.
      * @param theme the theme/graphic style of the game
      * @return the image used to represent a token of this player in the GUI
      */
     public BufferedImage getImage(Theme theme) {
-        return this.img.get(theme);
+        return getImages(this.color).get(theme);
+    }
+    
+    private static synchronized Map<Theme, BufferedImage> getImages(Color color) {
+        Map<Theme, BufferedImage> img = IMAGES.get(color);
+        if (img == null) {
+            img = new EnumMap<>(Theme.class);
+            for (Theme t: Theme.values()){
+                ImgPath.setTokenPath(t);
+                try {
+                    img.put(t,ImageIO.read(new File(ImgPath.getTokenPath(color))));} 
+                catch (IOException ex) {
+                    System.out.println("Image not found.");}
+            }
+            IMAGES.put(color, img);
+        }
+        return img;
     }
 
     /**
@@ -351,137 +366,50 @@ public class Player {
 
     /**
      * Sets the coordinates x and y of a given token according to its position in the board.
+     * The coordinates are read from the precomputed coordinate table and the token is placed in the player's token grid.
      * @param tIndex int number [0-3] representing the index of the token in the tokens array
+     * @see ludo.CoordinateTable
      */
     public void setXY(int tIndex) {
         Token token = this.getToken(tIndex);
-        switch (token.getPosition()) {
-            case OUT_OF_BOARD: {
-                token.setCoordinateX(outOfBoardCoordinates(this.pIndex, tIndex)[0]);
-                token.setCoordinateY(outOfBoardCoordinates(this.pIndex, tIndex)[1]);
-                break;
-            }
-            default: {
-                if (!token.getFinalTrack()) {
-                    token.setCoordinateX(boardCoordinates(token.getPosition()));
-                    token.setCoordinateY(boardCoordinates((token.getPosition() + 39) % 52));
-                } else {
-                    token.setCoordinateX(finalTrackCoordinates(token.getPosition(), this.pIndex, tIndex)[0]);
-                    token.setCoordinateY(finalTrackCoordinates(token.getPosition(), this.pIndex, tIndex)[1]);
-                }
-                break;
-            }
-        }
-    }
-    
-    /**
-     * Gets the coordinates x and y of a given token
-     * @param token a player's token
-     * @return coordinates x and y of the token in the graphic frame
-     */
-    private int[] getXY(Token token) {
-        int[]coordinates= new int[2];
-        switch (token.getPosition()) {
-            case OUT_OF_BOARD: {
-                coordinates=outOfBoardCoordinates(this.pIndex, token.getIndex());
-                break;
-            }
-            default: {
-                if (!token.getFinalTrack()) {
-                    coordinates[0]=boardCoordinates(token.getPosition());
-                    coordinates[1]=boardCoordinates((token.getPosition() + 39) % 52);
-                } else {
-                    coordinates=finalTrackCoordinates(token.getPosition(), this.pIndex, token.getPosition());
-                }
-                break;
-            }
-        }
-        return coordinates;
+        token.setCoordinateX(COORDINATES.getX(this.pIndex, tIndex, token.getPosition(), token.getFinalTrack()));
+        token.setCoordinateY(COORDINATES.getY(this.pIndex, tIndex, token.getPosition(), token.getFinalTrack()));
+        this.grid.place(tIndex, token.getCoordinateX(), token.getCoordinateY());
     }
     
     /**
-     * Gets the coordinates x and y for a token in its home area.
-     * @param pIndex int number [0-3] representing the index of the player in the players array
-     * @param tIndex int number [0-3] representing the index of the token in the tokens array
-     * @return coordinates x and y of the token in the graphic frame
-     */
-    private static int[] outOfBoardCoordinates(int pIndex, int tIndex) {
-        int coordinates[] = new int[2];
-        coordinates[0] = TILE_SIZE/2*(21 + 4 * (tIndex / 2) - 18 * (pIndex / 2));
-        coordinates[1] = TILE_SIZE/2*(3 + 4 * (tIndex % 2) + 18 * ((pIndex % 3) > 0 ? 1 : 0));
-        return coordinates;
-    }
-    
-    /**
-     * Gets the coordinate x for a token standing in any of the board tiles.
-     * @param pos int number [0-51] position of the token in the board
-     * @return coordinate x of the token in the graphic frame
-     */
-    private static int boardCoordinates(int pos) {
-        int coordinate;
-        int a = pos % 26;
-        int b = 7 - Math.abs(a - 11);
-        int c = pos > 24 & pos != 51 ? 2 : 0;
-        coordinate = (pos != 24 & pos != 50) ? c + (((a > 4) & (a < 18)) ? (b - (b / 7)) : 0) : 1;
-        coordinate = pos > 23 ? TILE_SIZE*(8 - coordinate) : TILE_SIZE*(8 + coordinate);
-        return coordinate;
-        }
-
-    /**
-     * Gets the coordinates x and y for a token in its final track.
-     * @param pos int number [0-5] position of the token in the final track
-     * @param pIndex int number [0-3] representing the index of the player in the players array
-     * @param tIndex int number [0-3] representing the index of the token in the tokens array
-     * @return coordinates x and y of the token in the graphic frame
+     * Gets the index of a token given the coordinates x and y from the graphic frame 
+     * if the coordinates are within the space occupied by the token's image.
+     * If the given coordinates don't belong to a player's token image, the method returns the value of the constant IGNORE.
+     * @param clickXY pair of coordinates x and y from the graphic frame
+     * @return the index of the token under the given coordinates
+     * @see ludo.LudoGUI#IGNORE
      */
-    private static int[] finalTrackCoordinates(int pos, int pIndex, int tIndex) {
-        int coordinates[] = new int[2];
-        if (pos != GOAL) {
-            coordinates[pIndex % 2] = TILE_SIZE*7;
-            if (pIndex % 3 == 0) {
-                coordinates[(pIndex + 1) % 2] = TILE_SIZE * (pos + 1);
-            } else {
-                coordinates[(pIndex + 1) % 2] = TILE_SIZE * (13 - pos);
-            }
-        } else {
-            if (pIndex % 2 == 0) {
-                coordinates[0] = TILE_SIZE*6 + TILE_SIZE/2*(1 + tIndex);
-                coordinates[1] = TILE_SIZE*6 + TILE_SIZE*2 * (pIndex / 2);
-            } else {
-                coordinates[0] = TILE_SIZE*6 + TILE_SIZE*2*(1 - (pIndex / 2));
-                coordinates[1] = TILE_SIZE*6 + TILE_SIZE/2*(1 + tIndex);
-            }
-        }
-        return coordinates;
+    public int getTokenbyCoord(int[] clickXY) {
+        return getTokenbyCoord(clickXY, null);
     }
     
     /**
      * Gets the index of a token given the coordinates x and y from the graphic frame 
      * if the coordinates are within the space occupied by the token's image.
+     * When several tokens are stacked under the coordinates, a token from the list of preferred tokens is returned first.
      * If the given coordinates don't belong to a player's token image, the method returns the value of the constant IGNORE.
      * @param clickXY pair of coordinates x and y from the graphic frame
-     * @return
+     * @param preferred list of indexes of the tokens to be chosen first (e.g. the tokens that can be moved), or null
+     * @return the index of the token under the given coordinates
      * @see ludo.LudoGUI#IGNORE
      */
-    public int getTokenbyCoord(int[] clickXY) {
-        int index = IGNORE;
-        int coordinateX, coordinateY;
-        for (Token token : this.tokens) {
-            System.out.println("token index: "+token.getIndex());
-            System.out.println("token position: "+token.getPosition());
-            
-            coordinateX=getXY(token)[0];
-            coordinateY=getXY(token)[1];
-            if (clickXY[0] - coordinateX >= 0 && clickXY[0] - coordinateX <= TILE_SIZE) {
-                if (clickXY[1] - coordinateY >= 0 && clickXY[1] - coordinateY <= TILE_SIZE) {
-                    System.out.println("coordX: "+coordinateX);
-                    System.out.println("coordY: "+coordinateY);
-                    index = token.getIndex();
-                    return index;
-                }
+    public int getTokenbyCoord(int[] clickXY, List<Integer> preferred) {
+        int hits = this.grid.tokensAt(clickXY[0], clickXY[1]);
+        if (hits == 0)
+            return IGNORE;
+        if (preferred != null) {
+            for (int tIndex : preferred) {
+                if ((hits & (1 << tIndex)) != 0)
+                    return tIndex;
             }
         }
-        return index;
+        return Integer.numberOfTrailingZeros(hits);
     }
     
     /**
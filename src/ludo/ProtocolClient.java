@@ -0,0 +1,189 @@
+package ludo;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import ludo.GameProtocol.Message;
+import static ludo.GameProtocol.*;
+
+/**
+ * Blocking client of a ProtocolServer, for remote players and bots.
+ * <p>
+ * The main method plays as a bot: it opens a table with a human seat for itself, joins it and moves a random token
+ * of the ones allowed by every TURN of its seat until the game is over.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.GameProtocol
+ */
+public class ProtocolClient implements Closeable {
+
+    private final SocketChannel channel;
+    private final ByteBuffer in = ByteBuffer.allocate(MAX_FRAME + 4);
+    private long received;
+
+    /**
+     * Connects to a server.
+     * @param host the name or address of the server
+     * @param port the port of the server
+     * @throws IOException if the server can not be reached
+     */
+    public ProtocolClient(String host, int port) throws IOException {
+        this.channel = SocketChannel.open(new InetSocketAddress(host, port));
+        this.channel.socket().setTcpNoDelay(true);
+        this.in.flip();
+    }
+
+    private void send(ByteBuffer frame) throws IOException {
+        while (frame.hasRemaining())
+            this.channel.write(frame);
+    }
+
+    /**
+     * Asks the server to open a table, answered with OPENED.
+     * @param humans bit mask of the seats for human players, the others are computer players
+     * @param special whether the board is special
+     * @throws IOException if the message can not be sent
+     */
+    public void open(int humans, boolean special) throws IOException {
+        send(frame(OPEN, humans, special ? 1 : 0));
+    }
+
+    /**
+     * Asks the server to take a seat of a table, answered with JOINED, STATE and TURN.
+     * @param table the identifier of the table
+     * @param seat the index of the player [0-3]
+     * @throws IOException if the message can not be sent
+     */
+    public void join(int table, int seat) throws IOException {
+        send(frame(JOIN, table, seat));
+    }
+
+    /**
+     * Rolls the dice.
+     * @throws IOException if the message can not be sent
+     */
+    public void roll() throws IOException {
+        send(frame(ROLL));
+    }
+
+    /**
+     * Moves a token.
+     * @param token the index of the token [0-3]
+     * @throws IOException if the message can not be sent
+     */
+    public void move(int token) throws IOException {
+        send(frame(MOVE, token));
+    }
+
+    /**
+     * Watches a table as a spectator, answered with the STATE of the game and then the EVENT of every change.
+     * @param table the identifier of the table
+     * @throws IOException if the message can not be sent
+     */
+    public void watch(int table) throws IOException {
+        send(frame(WATCH, table));
+    }
+
+    /**
+     * Leaves the seat, or stops watching.
+     * @throws IOException if the message can not be sent
+     */
+    public void leave() throws IOException {
+        send(frame(LEAVE));
+    }
+
+    /**
+     * Waits for the next message of the server.
+     * @return the message
+     * @throws IOException if the connection is closed or the message is not valid
+     */
+    public Message read() throws IOException {
+        while (true) {
+            try {
+                ByteBuffer frame = next(this.in);
+                if (frame != null)
+                    return decode(frame);}
+            catch (IllegalArgumentException ex) {
+                throw new IOException(ex.getMessage());}
+            this.in.compact();
+            int n = this.channel.read(this.in);
+            this.in.flip();
+            if (n < 0)
+                throw new EOFException();
+            this.received += n;
+        }
+    }
+
+    /**
+     * Gets the number of bytes received from the server.
+     * @return the number of bytes
+     */
+    public long getReceived() {
+        return this.received;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    /**
+     * Plays a game as a bot against computer players.
+     * @param args the host, the port and the seat of the bot, by default localhost, DEFAULT_PORT and 0
+     */
+    public static void main(String[] args) {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int seat = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        try (ProtocolClient client = new ProtocolClient(host, args.length > 1 ? Integer.parseInt(args[1]) : ProtocolServer.DEFAULT_PORT)) {
+            System.out.println(client.play(seat, new Random()));}
+        catch (IOException ex) {
+            System.out.println("Game could not be played: " + ex.getMessage());}
+    }
+
+    /**
+     * Opens a table, takes a seat in it and plays random moves until the game is over.
+     * @param seat the index of the player [0-3]
+     * @param random the generator of the moves
+     * @return the place of the bot, or 0 if the game ended without it finishing
+     * @throws IOException if the connection fails
+     */
+    int play(int seat, Random random) throws IOException {
+        open(1 << seat, true);
+        int place = 0;
+        for (Message m = read(); ; m = read()) {
+            switch (m.getType()) {
+                case OPENED:
+                    join(m.getValue(0), seat);
+                    break;
+                case TURN:
+                    if (m.getValue(0) - 1 == seat) {
+                        if (m.getValue(1) == 0)
+                            roll();
+                        else {
+                            int token;
+                            do {
+                                token = random.nextInt(4);}
+                            while ((m.getValue(1) & (1 << token)) == 0);
+                            move(token);
+                        }
+                    }
+                    break;
+                case EVENT:
+                    GameEvent event = m.getEvent();
+                    if (event.getType() == GameEvent.Type.playerFinished && event.getPlayer() == seat)
+                        place = event.getTo();
+                    else if (event.getType() == GameEvent.Type.gameOver)
+                        return place;
+                    break;
+                case REJECTED:
+                    throw new IOException("Rejected with reason " + m.getValue(0));
+                default:
+                    break;
+            }
+        }
+    }
+}
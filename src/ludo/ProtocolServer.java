@@ -0,0 +1,566 @@
+package ludo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import ludo.Autoplay.AutoplayMode;
+import ludo.ImgPath.Color;
+import static ludo.GameProtocol.*;
+
+/**
+ * Network front end of a GameServer, speaking the GameProtocol with remote human players and bots.
+ * <p>
+ * A single thread handles all the connections with a non-blocking selector: it reads the frames of the clients and
+ * turns every message into a command of the table of the client, so the moves are validated by the rules of the
+ * GameState in the thread of the table, and it writes the frames queued for every connection. The changes of a table
+ * are encoded once by a listener of the table and the same frame is queued for all its seated clients.
+ * A player whose queue grows beyond MAX_QUEUED frames is too slow to follow its table and is disconnected.
+ * <p>
+ * Any client can also watch a table: it receives the STATE of the game as a keyframe and then the EVENT frames of
+ * the table, which are the same read-only buffers queued for the players. The queue of a spectator is bounded by
+ * MAX_SPECTATOR_QUEUED frames; once it is full the following frames are dropped without any work for the table, and
+ * when the queue has been written the spectator gets a new keyframe and the events from there on, so a slow
+ * spectator never delays its table nor the other clients.
+ * When the game of a table is over its clients are unseated and the table is closed.
+ * <p>
+ * By default the server only listens on the loopback interface; it is exposed to other machines by giving the
+ * address to listen on, e.g. "java ludo.ProtocolServer 7457 0.0.0.0".
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.GameProtocol
+ * @see ludo.GameServer
+ */
+public class ProtocolServer implements Closeable {
+
+    public static final int DEFAULT_PORT = 7457;
+    public static final int MAX_QUEUED = 4096; //frames waiting to be written to a player
+    public static final int MAX_SPECTATOR_QUEUED = 256; //frames waiting to be written to a spectator
+
+    private final GameServer games;
+    private final java.nio.channels.Selector selector;
+    private final ServerSocketChannel server;
+    private final ConcurrentHashMap<Integer, Seats> seats = new ConcurrentHashMap<>();
+    private final Queue<Connection> writable = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean woken = new AtomicBoolean();
+    private final AtomicLong resyncs = new AtomicLong();
+    private final ByteBuffer[] batch = new ByteBuffer[64]; //frames of a gathering write
+    private final Thread thread;
+    private volatile boolean closed;
+
+    /**
+     * Connection of a client, read by the thread of the server and written by the threads of the tables.
+     */
+    private class Connection {
+
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(MAX_FRAME + 4);
+        final Queue<ByteBuffer> out = new ConcurrentLinkedQueue<>();
+        final AtomicInteger queued = new AtomicInteger();
+        final AtomicBoolean flushing = new AtomicBoolean(); //whether the connection is in the writable queue
+        final AtomicBoolean resync = new AtomicBoolean(); //whether a keyframe was requested for the lagging spectator
+        volatile GameTable table;
+        volatile int seat;
+        volatile Seats watching;
+        volatile boolean lagging; //whether the spectator missed events and waits for a keyframe
+        SelectionKey key;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        //Queues a frame and wakes the thread of the server up to write it
+        void send(ByteBuffer frame) {
+            if (!this.channel.isOpen())
+                return;
+            if (this.queued.incrementAndGet() > MAX_QUEUED) {
+                disconnect(this);
+                return;
+            }
+            this.out.add(frame);
+            wake();
+        }
+
+        //Queues a frame for a spectator, or drops it and the following ones until a keyframe if the spectator is behind
+        void watch(ByteBuffer frame) {
+            if (!this.channel.isOpen())
+                return;
+            if (!this.lagging) {
+                if (this.queued.incrementAndGet() > MAX_SPECTATOR_QUEUED) {
+                    this.queued.decrementAndGet();
+                    this.lagging = true;}
+                else
+                    this.out.add(frame);
+            }
+            wake();
+        }
+
+        //Queues the last frames of a game for a spectator, even if its queue is full
+        void finish(ByteBuffer... frames) {
+            if (!this.channel.isOpen())
+                return;
+            this.queued.addAndGet(frames.length);
+            for (ByteBuffer frame : frames)
+                this.out.add(frame);
+            this.lagging = false;
+            wake();
+        }
+
+        //Adds the connection to the ones the thread of the server has to write
+        void wake() {
+            if (this.flushing.compareAndSet(false, true)) {
+                writable.add(this);
+                if (woken.compareAndSet(false, true))
+                    selector.wakeup();
+            }
+        }
+    }
+
+    /**
+     * The clients seated in a table and its spectators, changed only by the thread of the table.
+     */
+    private class Seats implements GameListener {
+
+        final GameTable table;
+        final Connection[] clients = new Connection[4];
+        final Set<Connection> spectators = new LinkedHashSet<>(); //removed once they watch another table or none
+        final Queue<Connection> keyframes = new ConcurrentLinkedQueue<>(); //spectators waiting for a keyframe
+        final AtomicBoolean keyframing = new AtomicBoolean(); //whether a command to send the keyframes is queued
+        final Runnable sendKeyframes = new Runnable() {
+            @Override
+            public void run() {
+                keyframing.set(false);
+                sendKeyframes();
+            }
+        };
+
+        Seats(GameTable table) {
+            this.table = table;
+        }
+
+        //Queues a frame for every seated client and, unless it is only for players, for every spectator
+        void broadcast(ByteBuffer frame, boolean spectators) {
+            ByteBuffer shared = frame.asReadOnlyBuffer();
+            for (Connection c : this.clients)
+                if (c != null)
+                    c.send(shared.duplicate());
+            if (spectators)
+                for (Iterator<Connection> i = this.spectators.iterator(); i.hasNext(); ) {
+                    Connection c = i.next();
+                    if (c.watching != this)
+                        i.remove();
+                    else
+                        c.watch(shared.duplicate());
+                }
+        }
+
+        //Asks the table to send a keyframe to a spectator, at the next step of the game or with a command if it is idle
+        void requestKeyframe(Connection c) {
+            this.keyframes.add(c);
+            if (this.keyframing.compareAndSet(false, true) && !this.table.execute(this.sendKeyframes))
+                this.keyframing.set(false);
+        }
+
+        //Sends the same keyframe to all the spectators waiting for one, which receive the events from there on
+        void sendKeyframes() {
+            ByteBuffer keyframe = null;
+            for (Connection c; (c = this.keyframes.poll()) != null; ) {
+                if (c.watching != this)
+                    continue;
+                if (keyframe == null)
+                    keyframe = state(this.table.getGame()).asReadOnlyBuffer();
+                if (c.lagging)
+                    resyncs.incrementAndGet();
+                c.lagging = false;
+                c.resync.set(false);
+                this.spectators.add(c);
+                c.watch(keyframe.duplicate());
+            }
+        }
+
+        //Gets the TURN frame telling who has to roll or move
+        ByteBuffer turn() {
+            GameState game = this.table.getGame();
+            int mask = 0;
+            if (!game.getDiceRoller())
+                for (int token : game.getXTokens())
+                    mask |= 1 << token;
+            return frame(TURN, this.table.getSeat() + 1, mask);
+        }
+
+        @Override
+        public void onEvent(GameEvent event) {
+            boolean players = this.clients[0] != null || this.clients[1] != null || this.clients[2] != null || this.clients[3] != null;
+            switch (event.getType()) {
+                case ready:
+                    if (players)
+                        broadcast(turn(), false);
+                    if (!this.keyframes.isEmpty())
+                        sendKeyframes();
+                    break;
+                case settings:
+                    if (players || !this.spectators.isEmpty())
+                        broadcast(state(this.table.getGame()), true);
+                    break;
+                case gameOver:
+                    ByteBuffer over = encode(event).asReadOnlyBuffer(), keyframe = null;
+                    broadcast(over, false);
+                    for (Connection c : this.spectators)
+                        if (c.watching != this)
+                            continue;
+                        else if (c.lagging) {
+                            if (keyframe == null)
+                                keyframe = state(this.table.getGame()).asReadOnlyBuffer();
+                            resyncs.incrementAndGet();
+                            c.finish(keyframe.duplicate(), over.duplicate());}
+                        else
+                            c.finish(over.duplicate());
+                    for (int i = 0; i < 4; i++)
+                        if (this.clients[i] != null) {
+                            this.clients[i].table = null;
+                            this.clients[i] = null;}
+                    this.spectators.clear();
+                    games.close(this.table);
+                    seats.remove(this.table.getId());
+                    break;
+                default:
+                    if (players || !this.spectators.isEmpty())
+                        broadcast(encode(event), true);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Starts a server listening on a port of the loopback interface.
+     * @param games the server hosting the tables
+     * @param port the port, or 0 for any free port
+     * @throws IOException if the port can not be opened
+     */
+    public ProtocolServer(GameServer games, int port) throws IOException {
+        this(games, InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * Starts a server listening on a port of an address.
+     * @param games the server hosting the tables
+     * @param address the local address, or null for all the interfaces
+     * @param port the port, or 0 for any free port
+     * @throws IOException if the port can not be opened
+     */
+    public ProtocolServer(GameServer games, InetAddress address, int port) throws IOException {
+        this.games = games;
+        this.selector = java.nio.channels.Selector.open();
+        this.server = ServerSocketChannel.open();
+        this.server.bind(new InetSocketAddress(address, port), 1024);
+        this.server.configureBlocking(false);
+        this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "ludo-protocol");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Gets the port the server listens on.
+     * @return the local port
+     */
+    public int getPort() {
+        return this.server.socket().getLocalPort();
+    }
+
+    //Waits for the channels and for the frames queued by the tables until the server is closed
+    private void loop() {
+        while (!this.closed) {
+            try {
+                this.selector.select();
+                this.woken.set(false);
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable())
+                        accept();
+                    else {
+                        Connection c = (Connection) key.attachment();
+                        if (key.isReadable())
+                            read(c);
+                        if (key.isValid() && key.isWritable())
+                            flush(c);
+                    }
+                }
+                for (Connection c; (c = this.writable.poll()) != null; )
+                    flush(c);}
+            catch (IOException ex) {
+                if (!this.closed)
+                    System.err.println("Connections could not be handled: " + ex.getMessage());}
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = this.server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection c = new Connection(channel);
+            c.key = channel.register(this.selector, SelectionKey.OP_READ, c);
+        }
+    }
+
+    //Reads the frames of a client and handles its messages
+    private void read(Connection c) {
+        try {
+            if (c.channel.read(c.in) < 0) {
+                disconnect(c);
+                return;
+            }
+            c.in.flip();
+            for (ByteBuffer frame; (frame = nextFrame(c)) != null; ) {
+                try {
+                    handle(c, decode(frame));}
+                catch (IllegalArgumentException | IndexOutOfBoundsException ex) {
+                    c.send(frame(REJECTED, MALFORMED));}
+            }
+            if (c.channel.isOpen())
+                c.in.compact();}
+        catch (IOException | RuntimeException ex) {
+            disconnect(c);}
+    }
+
+    //Gets the next whole frame read from a client, or rejects a frame of invalid length and closes the connection
+    private ByteBuffer nextFrame(Connection c) {
+        try {
+            return next(c.in);}
+        catch (IllegalArgumentException ex) {
+            c.send(frame(REJECTED, MALFORMED));
+            flush(c);
+            disconnect(c);
+            return null;}
+    }
+
+    //Writes the frames queued for a client, several at a time, until the channel is full
+    private void flush(Connection c) {
+        try {
+            while (!c.out.isEmpty()) {
+                int n = 0;
+                for (ByteBuffer frame : c.out) {
+                    this.batch[n++] = frame;
+                    if (n == this.batch.length)
+                        break;
+                }
+                c.channel.write(this.batch, 0, n);
+                for (int i = 0; i < n; i++) {
+                    if (this.batch[i].hasRemaining()) {
+                        Arrays.fill(this.batch, null);
+                        c.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    c.out.poll();
+                    c.queued.decrementAndGet();
+                    this.batch[i] = null;
+                }
+            }
+            if (c.key.isValid())
+                c.key.interestOps(SelectionKey.OP_READ);
+            Seats watched = c.watching;
+            if (c.lagging && watched != null && c.resync.compareAndSet(false, true))
+                watched.requestKeyframe(c);
+            c.flushing.set(false);
+            if (!c.out.isEmpty() && c.flushing.compareAndSet(false, true))
+                this.writable.add(c);}
+        catch (IOException | RuntimeException ex) {
+            disconnect(c);}
+    }
+
+    //Turns a message of a client into a command of its table
+    private void handle(final Connection c, Message message) {
+        final GameTable table = c.table;
+        switch (message.getType()) {
+            case OPEN:
+                open(c, message.getValue(0), message.getValue(1) != 0);
+                break;
+            case JOIN: {
+                final Seats s = this.seats.get(message.getValue(0));
+                final int seat = message.getValue(1);
+                if (s == null || table != null)
+                    c.send(frame(REJECTED, s == null ? NO_TABLE : SEAT_TAKEN));
+                else if (!s.table.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            join(c, s, seat);
+                        }
+                    }))
+                    c.send(frame(REJECTED, BUSY));
+                break;
+            }
+            case ROLL:
+            case MOVE: {
+                if (table == null) {
+                    c.send(frame(REJECTED, NOT_SEATED));
+                    break;
+                }
+                final int seat = c.seat, token = message.getType() == MOVE ? message.getValue(0) : -1;
+                if (!table.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!(token < 0 ? table.roll(seat) : table.move(seat, token)))
+                                c.send(frame(REJECTED, INVALID_MOVE));
+                        }
+                    }))
+                    c.send(frame(REJECTED, BUSY));
+                break;
+            }
+            case LEAVE:
+                leave(c);
+                break;
+            case WATCH: {
+                Seats s = this.seats.get(message.getValue(0));
+                if (s == null || (c.watching != null && !c.watching.table.getClosed()))
+                    c.send(frame(REJECTED, s == null ? NO_TABLE : SEAT_TAKEN));
+                else {
+                    c.watching = s;
+                    s.requestKeyframe(c);}
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown message " + message.getType());
+        }
+    }
+
+    //Opens a table with computer players in the seats that are not for humans
+    private void open(Connection c, int humans, boolean special) {
+        Boolean[] auto = new Boolean[4];
+        for (int i = 0; i < 4; i++)
+            auto[i] = (humans & (1 << i)) == 0;
+        AutoplayMode[] modes = new AutoplayMode[4];
+        Arrays.fill(modes, GameState.DEFAULT_AUTOMODE);
+        GameState game = new GameState(GameState.DEFAULT_THEME, Arrays.asList(Color.values()), Arrays.asList(auto),
+                Arrays.asList(modes), special);
+        final GameTable table = this.games.open(game);
+        if (table == null) {
+            c.send(frame(REJECTED, BUSY));
+            return;
+        }
+        final Seats s = new Seats(table);
+        table.execute(new Runnable() {
+            @Override
+            public void run() {
+                table.subscribe(s);
+            }
+        });
+        this.seats.put(table.getId(), s);
+        c.send(frame(OPENED, table.getId()));
+    }
+
+    //Seats a client, in the thread of the table
+    private void join(Connection c, Seats s, int seat) {
+        if (c.table != null || seat < 0 || seat > 3 || s.clients[seat] != null || s.table.getGame().getPlayer(seat).getAuto()) {
+            c.send(frame(REJECTED, SEAT_TAKEN));
+            return;
+        }
+        s.clients[seat] = c;
+        c.seat = seat;
+        c.table = s.table;
+        c.send(frame(JOINED, s.table.getId(), seat));
+        c.send(state(s.table.getGame()));
+        c.send(s.turn());
+    }
+
+    //Frees the seat of a client, or stops it watching its table
+    private void leave(final Connection c) {
+        c.watching = null;
+        final GameTable table = c.table;
+        if (table == null)
+            return;
+        c.table = null;
+        final Seats s = this.seats.get(table.getId());
+        if (s != null)
+            table.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (s.clients[c.seat] == c)
+                        s.clients[c.seat] = null;
+                }
+            });
+    }
+
+    //Closes the connection of a client and frees its seat
+    private void disconnect(Connection c) {
+        leave(c);
+        try {
+            c.channel.close();}
+        catch (IOException ex) {
+            System.err.println("Connection could not be closed.");}
+    }
+
+    /**
+     * Gets the number of tables opened by the clients whose game is not over.
+     * @return the number of tables
+     */
+    public int getTableCount() {
+        return this.seats.size();
+    }
+
+    /**
+     * Gets the number of keyframes sent to spectators that fell behind their table.
+     * @return the number of resyncs
+     */
+    public long getResyncs() {
+        return this.resyncs.get();
+    }
+
+    /**
+     * Stops accepting connections and closes all of them. The tables remain open in the GameServer.
+     * @throws IOException if the port can not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        this.closed = true;
+        this.selector.wakeup();
+        try {
+            this.thread.join(1000);}
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();}
+        for (SelectionKey key : this.selector.keys())
+            key.channel().close();
+        this.selector.close();
+    }
+
+    /**
+     * Starts a GameServer with a ProtocolServer on the port given as the first argument, or DEFAULT_PORT,
+     * listening on the loopback interface or on the address given as the second argument.
+     * @param args the port and the address
+     */
+    public static void main(String[] args) {
+        try {
+            InetAddress address = args.length > 1 ? InetAddress.getByName(args[1]) : InetAddress.getLoopbackAddress();
+            ProtocolServer server = new ProtocolServer(new GameServer(), address, args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT);
+            System.out.println("Listening on " + address.getHostAddress() + " port " + server.getPort());
+            server.thread.join();}
+        catch (IOException | NumberFormatException ex) {
+            System.err.println("Server could not be started: " + ex.getMessage());
+            System.exit(1);}
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();}
+    }
+}
@@ -133,8 +133,20 @@ public class QLearning {
      * @throws FileNotFoundException
      */
     public static double readQTable(int row, int column) throws FileNotFoundException{
+        return readQTable(inputFile, row, column);
+    }
+    
+    /**
+     * Reads and returns a double value from the given qTable file given the row and column where the value is located.
+     * @param file the qTable file, e.g. one generated for the special board
+     * @param row int number [1-6] representing the dice result
+     * @param column int number [0-56] representing the position of the tile in the board
+     * @return the q value for the given state (dice result and new position)
+     * @throws FileNotFoundException
+     */
+    public static double readQTable(File file, int row, int column) throws FileNotFoundException{
         double qValue;
-        Scanner inData = new Scanner(inputFile);
+        Scanner inData = new Scanner(file);
         String qTableRow="";
         String[] qTableColumn;
         for(int j=0;j<row+1;j++) {
@@ -0,0 +1,41 @@
+package ludo;
+
+/**
+ * Storage of Q-values indexed by the long keys of StateQLearning.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.QValueMap
+ * @see ludo.OffHeapQStore
+ */
+public interface QStore {
+
+    /**
+     * Gets the value of a key.
+     * @param key the key, not 0
+     * @param missing the value returned if the key is not in the store
+     * @return the value of the key, or missing
+     */
+    float get(long key, float missing);
+
+    /**
+     * Sets the value of a key.
+     * @param key the key, not 0
+     * @param value the new value
+     */
+    void put(long key, float value);
+
+    /**
+     * Moves the value of a key a fraction of the way towards a target, Q = Q + alpha * (target - Q).
+     * A key that is not in the store starts at 0.
+     * @param key the key, not 0
+     * @param alpha the learning rate [0-1]
+     * @param target the target value
+     */
+    void update(long key, float alpha, float target);
+
+    /**
+     * Gets the number of keys in the store.
+     * @return the number of entries
+     */
+    int size();
+}
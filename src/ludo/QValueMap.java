@@ -0,0 +1,227 @@
+package ludo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Hash table of Q-values from long keys to float values, without boxing.
+ * <p>
+ * The entries are kept in parallel arrays with open addressing and linear probing, so a lookup is a hash and a few
+ * sequential reads. The table holds at most a fixed number of entries: when it is full, an entry is evicted with the
+ * CLOCK algorithm, i.e. a hand goes around the table giving a second chance to the entries read or written since
+ * its last pass, so the states that are visited often stay in the table. Removals shift the following entries back
+ * instead of leaving tombstones, so the probe sequences stay short.
+ * <p>
+ * The key 0 is reserved to mark the empty slots. The table is not thread-safe, OffHeapQStore can be shared by several threads.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.StateQLearning
+ * @see ludo.OffHeapQStore
+ */
+public class QValueMap implements QStore {
+
+    public static final int MAGIC = 0x4C554451; //"LUDQ"
+    public static final int VERSION = 1;
+    static final long EMPTY = 0;
+    private static final double LOAD_FACTOR = 0.75;
+
+    private final long[] keys;
+    private final float[] values;
+    private final boolean[] referenced;
+    private final int mask, maxSize;
+    private int size, hand;
+    private long evictions;
+
+    /**
+     * Initializes an empty table.
+     * @param maxSize the maximum number of entries, the arrays are allocated for it at once
+     */
+    public QValueMap(int maxSize) {
+        if (maxSize <= 0 || maxSize > 1 << 29)
+            throw new IllegalArgumentException("maxSize must be between 1 and 2^29.");
+        int capacity = Integer.highestOneBit((int) Math.ceil(maxSize / LOAD_FACTOR) - 1) << 1;
+        this.keys = new long[capacity];
+        this.values = new float[capacity];
+        this.referenced = new boolean[capacity];
+        this.mask = capacity - 1;
+        this.maxSize = maxSize;
+    }
+
+    //murmur3 finalizer, spreads the bits of the abstracted states over the whole table
+    private int slot(long key) {
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        key *= 0xC4CEB9FE1A85EC53L;
+        key ^= key >>> 33;
+        return (int) key & this.mask;
+    }
+
+    /**
+     * Gets the value of a key.
+     * @param key the key, not 0
+     * @param missing the value returned if the key is not in the table
+     * @return the value of the key, or missing
+     */
+    @Override
+    public float get(long key, float missing) {
+        for (int i = slot(key); ; i = (i + 1) & this.mask) {
+            long k = this.keys[i];
+            if (k == key) {
+                this.referenced[i] = true;
+                return this.values[i];
+            }
+            if (k == EMPTY)
+                return missing;
+        }
+    }
+
+    /**
+     * Sets the value of a key, evicting another entry if the table is full.
+     * @param key the key, not 0
+     * @param value the new value
+     */
+    @Override
+    public void put(long key, float value) {
+        if (key == EMPTY)
+            throw new IllegalArgumentException("The key 0 is reserved.");
+        int i = slot(key);
+        for (; this.keys[i] != EMPTY; i = (i + 1) & this.mask) {
+            if (this.keys[i] == key) {
+                this.values[i] = value;
+                this.referenced[i] = true;
+                return;
+            }
+        }
+        if (this.size == this.maxSize) {
+            evict();
+            //the eviction may have moved entries back into the probe sequence of the key
+            for (i = slot(key); this.keys[i] != EMPTY; i = (i + 1) & this.mask);
+        }
+        this.keys[i] = key;
+        this.values[i] = value;
+        this.referenced[i] = true;
+        this.size++;
+    }
+
+    @Override
+    public void update(long key, float alpha, float target) {
+        float q = get(key, 0);
+        put(key, q + alpha * (target - q));
+    }
+
+    //Removes the first entry found by the clock hand that was not referenced since the last pass
+    private void evict() {
+        while (true) {
+            int i = this.hand;
+            this.hand = (this.hand + 1) & this.mask;
+            if (this.keys[i] == EMPTY)
+                continue;
+            if (this.referenced[i])
+                this.referenced[i] = false;
+            else {
+                remove(i);
+                this.evictions++;
+                return;
+            }
+        }
+    }
+
+    //Empties a slot and moves back the entries of the cluster after it that can take its place
+    private void remove(int i) {
+        int empty = i;
+        for (int j = (i + 1) & this.mask; this.keys[j] != EMPTY; j = (j + 1) & this.mask) {
+            int home = slot(this.keys[j]);
+            //the entry can move back if its home slot is not between the empty slot and itself
+            if (((j - home) & this.mask) >= ((j - empty) & this.mask)) {
+                this.keys[empty] = this.keys[j];
+                this.values[empty] = this.values[j];
+                this.referenced[empty] = this.referenced[j];
+                empty = j;
+            }
+        }
+        this.keys[empty] = EMPTY;
+        this.referenced[empty] = false;
+        this.size--;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * Gets the number of entries removed to make room for new ones.
+     * @return the number of evictions since the table was created
+     */
+    public long getEvictions() {
+        return this.evictions;
+    }
+
+    /**
+     * Saves the entries of the table into a file, replacing the previous file atomically.
+     * @param file the table file
+     * @throws IOException if the file can not be written
+     */
+    public void save(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            try (FileOutputStream fileOut = new FileOutputStream(temp)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(this.maxSize);
+                out.writeInt(this.size);
+                for (int i = 0; i < this.keys.length; i++) {
+                    if (this.keys[i] != EMPTY) {
+                        out.writeLong(this.keys[i]);
+                        out.writeFloat(this.values[i]);
+                    }
+                }
+                out.flush();
+                fileOut.getFD().sync();
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     * Loads a table saved with save.
+     * @param file the table file
+     * @return a table with the saved entries and maximum size
+     * @throws IOException if the file can not be read or is not a table file
+     */
+    public static QValueMap load(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a ludo Q-value table.");
+            if (in.readInt() != VERSION)
+                throw new IOException("Unsupported Q-value table version.");
+            QValueMap map = new QValueMap(in.readInt());
+            int size = in.readInt();
+            for (int i = 0; i < size; i++)
+                map.put(in.readLong(), in.readFloat());
+            return map;
+        }
+    }
+}
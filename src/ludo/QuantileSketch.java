@@ -0,0 +1,137 @@
+package ludo;
+
+import java.util.Arrays;
+
+/**
+ * Mergeable sketch that estimates the quantiles of a series of non-negative values with a bounded relative error.
+ * Values are counted in logarithmic buckets whose bounds grow by a factor gamma = (1+accuracy)/(1-accuracy),
+ * so any quantile is estimated within the given relative accuracy.
+ * The number of buckets is bounded by MAX_BUCKETS; if the values span a wider range, the lowest buckets are collapsed.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ */
+public class QuantileSketch {
+
+    public static final double DEFAULT_ACCURACY = 0.01;
+    static final int MAX_BUCKETS = 2048;
+
+    private final double gamma, logGamma;
+    private long[] counts = new long[64];
+    private int offset, minIndex, maxIndex; //bucket index of counts[0], lowest and highest bucket in use
+    private boolean empty = true;
+    private long zeros, count;
+
+    /**
+     * Initializes an empty sketch with 1% relative accuracy.
+     */
+    public QuantileSketch() {
+        this(DEFAULT_ACCURACY);
+    }
+
+    /**
+     * Initializes an empty sketch.
+     * @param accuracy the relative accuracy of the quantiles (0-1)
+     */
+    public QuantileSketch(double accuracy) {
+        this.gamma = (1 + accuracy) / (1 - accuracy);
+        this.logGamma = Math.log(this.gamma);
+    }
+
+    /**
+     * Adds a value to the sketch.
+     * @param x the value, negative values are counted as 0
+     */
+    public void add(double x) {
+        add(x, 1);
+    }
+
+    private void add(double x, long n) {
+        this.count += n;
+        if (x <= 0) {
+            this.zeros += n;
+            return;
+        }
+        addToBucket((int) Math.ceil(Math.log(x) / this.logGamma), n);
+    }
+
+    private void addToBucket(int index, long n) {
+        if (this.empty) {
+            this.offset = index - this.counts.length / 2;
+            this.minIndex = this.maxIndex = index;
+            this.empty = false;
+        }
+        int low = Math.min(index, this.minIndex), high = Math.max(index, this.maxIndex);
+        boolean collapse = high - low + 1 > MAX_BUCKETS;
+        if (collapse) {
+            //collapse the lowest buckets, the high quantiles are the interesting ones
+            low = high - MAX_BUCKETS + 1;
+            index = Math.max(index, low);
+        }
+        if (collapse || low < this.offset || high >= this.offset + this.counts.length) {
+            int used = high - low + 1;
+            long[] c = new long[Math.min(MAX_BUCKETS, Math.max(used, this.counts.length * 2))];
+            int newOffset = low - (c.length - used) / 2;
+            for (int b = this.minIndex; b <= this.maxIndex; b++)
+                c[Math.max(b, low) - newOffset] += this.counts[b - this.offset];
+            this.counts = c;
+            this.offset = newOffset;
+        }
+        this.minIndex = low;
+        this.maxIndex = high;
+        this.counts[index - this.offset] += n;
+    }
+
+    /**
+     * Adds all the values of another sketch to this one.
+     * Both sketches must have the same accuracy.
+     * @param other the sketch to be merged, it is not modified
+     */
+    public void merge(QuantileSketch other) {
+        if (other.gamma != this.gamma)
+            throw new IllegalArgumentException("Sketches with different accuracy.");
+        this.count += other.count;
+        this.zeros += other.zeros;
+        if (!other.empty)
+            for (int b = other.minIndex; b <= other.maxIndex; b++)
+                if (other.counts[b - other.offset] > 0)
+                    addToBucket(b, other.counts[b - other.offset]);
+    }
+
+    /**
+     * Gets the number of values added, including the ones counted as 0.
+     * @return the count of values
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * Gets the estimated quantile of the values added so far.
+     * @param q the quantile [0-1], e.g. 0.5 for the median
+     * @return the estimated value, or NaN if the sketch is empty
+     */
+    public double getQuantile(double q) {
+        if (this.count == 0)
+            return Double.NaN;
+        long rank = (long) (Math.max(0, Math.min(1, q)) * (this.count - 1));
+        if (rank < this.zeros)
+            return 0;
+        long seen = this.zeros;
+        for (int b = this.minIndex; b < this.maxIndex; b++) {
+            seen += this.counts[b - this.offset];
+            if (seen > rank)
+                return 2 * Math.pow(this.gamma, b) / (this.gamma + 1);
+        }
+        return 2 * Math.pow(this.gamma, this.maxIndex) / (this.gamma + 1);
+    }
+
+    /**
+     * Clears the sketch.
+     */
+    public void reset() {
+        Arrays.fill(this.counts, 0);
+        this.empty = true;
+        this.zeros = 0;
+        this.count = 0;
+    }
+}
@@ -0,0 +1,452 @@
+package ludo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static ludo.BatchEngine.BOARD;
+import static ludo.BatchEngine.FINAL;
+import static ludo.BatchEngine.GLOBE;
+import static ludo.BatchEngine.GOAL;
+import static ludo.BatchEngine.HOME;
+import static ludo.BatchEngine.NEXT_STAR;
+import static ludo.BatchEngine.STAR;
+import static ludo.Player.START_DISTANCE;
+
+/**
+ * Tablebase of the expected number of turns a player needs to finish a race, i.e. a position where its tokens can no
+ * longer capture or be captured, so the game of the player is a pure dice race.
+ * <p>
+ * The position of a player in a race is given by the distance to the goal of each of its tokens [0-57], HOME being
+ * the farthest one, and does not depend on its seat because the star and globe tiles repeat every START_DISTANCE tiles.
+ * The tokens are interchangeable, so the distances are sorted and every multiset of 4 distances has its own index in
+ * the combinatorial number system, STATES positions per board. The expected turns of every position are computed by
+ * dynamic programming (value iteration, since the bounce at the goal and the jump from the last star make the
+ * positions repeat) assuming the best move for every dice, counting the extra turns of a six or a globe as part of
+ * the same turn.
+ * <p>
+ * The file is a header (MAGIC, VERSION, STATES) followed by the float expected turns of the regular and the special
+ * board, and is memory mapped, so a probe is one read. The best move is the one whose resulting position has the
+ * fewest expected turns, so every AI mode plays the races perfectly through selectToken.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.Autoplay
+ */
+public class RaceTablebase {
+
+    public static final File DEFAULT_FILE = new File("race.tablebase");
+    public static final int MAGIC = 0x4C554452; //"LUDR"
+    public static final int VERSION = 1;
+    static final int DISTANCES = GOAL - HOME + 1;
+    static final int STATES = binomial(DISTANCES + 3, 4);
+    static final int HEADER_SIZE = 16;
+    private static final int TRACK = 52;
+    private static final double PRECISION = 1e-6;
+
+    private static final int[][] INDEX = new int[4][DISTANCES]; //INDEX[i][d] = binomial(d + i, i + 1)
+    private static final long[][] PATH = new long[4][TRACK]; //tiles a token can still visit, by seat and relative tile
+    private static final long[][] SPECIAL_PATH = new long[4][TRACK];
+
+    static {
+        for (int i = 0; i < 4; i++)
+            for (int d = 0; d < DISTANCES; d++)
+                INDEX[i][d] = binomial(d + i, i + 1);
+        for (int seat = 0; seat < 4; seat++) {
+            for (int r = 0; r < 51; r++) {
+                for (int k = r; k <= 50; k++)
+                    PATH[seat][r] |= 1L << ((seat * START_DISTANCE + k) % TRACK);
+                //landing on the last star jumps to the first star of the player, so the token may go around again
+                SPECIAL_PATH[seat][r] = PATH[seat][r] | PATH[seat][NEXT_STAR[50]];
+            }
+            SPECIAL_PATH[seat][50] = PATH[seat][50];
+        }
+    }
+
+    private static volatile RaceTablebase defaultInstance;
+    private static final AtomicBoolean loading = new AtomicBoolean();
+
+    private final ByteBuffer table;
+
+    private RaceTablebase(ByteBuffer table) {
+        this.table = table;
+    }
+
+    /**
+     * Gets the tablebase probed by the AI modes, mapping DEFAULT_FILE the first time.
+     * If the file does not exist or can not be read, the tablebase is built, which takes a few seconds, and saved into
+     * DEFAULT_FILE.
+     * @return the shared tablebase
+     */
+    public static RaceTablebase getDefault() {
+        RaceTablebase tablebase = defaultInstance;
+        return tablebase != null ? tablebase : loadDefault();
+    }
+
+    private static synchronized RaceTablebase loadDefault() {
+        if (defaultInstance == null) {
+            RaceTablebase tablebase = null;
+            if (DEFAULT_FILE.exists()) {
+                try {
+                    tablebase = map(DEFAULT_FILE);}
+                catch (IOException ex) {
+                    System.err.println("Race tablebase could not be read.");}
+            }
+            if (tablebase == null) {
+                tablebase = build();
+                try {
+                    tablebase.save(DEFAULT_FILE);}
+                catch (IOException ex) {
+                    System.err.println("Race tablebase could not be saved.");}
+            }
+            defaultInstance = tablebase;
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Gets the shared tablebase without waiting for it: the first call starts loading it in a background thread,
+     * and the calls return null until it is ready, so the interactive games never block on the build.
+     * @return the shared tablebase, or null if it is still loading
+     */
+    public static RaceTablebase getLoaded() {
+        RaceTablebase tablebase = defaultInstance;
+        if (tablebase == null && loading.compareAndSet(false, true)) {
+            Thread loader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    getDefault();
+                }
+            }, "RaceTablebase-loader");
+            loader.setDaemon(true);
+            loader.start();
+        }
+        return tablebase;
+    }
+
+    private static int binomial(int n, int k) {
+        long b = 1;
+        for (int i = 1; i <= k; i++)
+            b = b * (n - k + i) / i;
+        return n < k ? 0 : (int) b;
+    }
+
+    //Index of a position, given the distances of its tokens in increasing order
+    private static int index(int d0, int d1, int d2, int d3) {
+        return INDEX[0][d0] + INDEX[1][d1] + INDEX[2][d2] + INDEX[3][d3];
+    }
+
+    //Index of a position, given the distances of its tokens in any order
+    private static int sortedIndex(int a, int b, int c, int d) {
+        int t;
+        if (a > b) { t = a; a = b; b = t; }
+        if (c > d) { t = c; c = d; d = t; }
+        if (a > c) { t = a; a = c; c = t; }
+        if (b > d) { t = b; b = d; d = t; }
+        if (b > c) { t = b; b = c; c = t; }
+        return index(a, b, c, d);
+    }
+
+    /**
+     * Moves a token of a race, with the rules of BatchEngine.
+     * @param distance the distance of the token to the goal [1-57]
+     * @param dice the dice result [1-6]
+     * @param special whether the board is special
+     * @return the new distance, plus DISTANCES if the player plays again, or -1 if the token can not move
+     */
+    static int move(int distance, int dice, boolean special) {
+        int p = GOAL - distance;
+        boolean extra = dice == 6;
+        if (p == GOAL || (p == HOME && dice != 6))
+            return -1;
+        if (p == HOME) {
+            p = BOARD;
+            extra = false;
+        } else if (p < FINAL) {
+            int r = p - BOARD + dice;
+            p = r >= 51 ? FINAL + r - 51 : BOARD + r;
+        } else {
+            int x = p - FINAL + dice;
+            p = FINAL + (x > Player.GOAL ? 2 * Player.GOAL - x : x);
+        }
+        if (special && p < FINAL) {
+            //the relative tiles of the stars and globes are the same for every seat
+            if (STAR[p - BOARD])
+                p = BOARD + NEXT_STAR[p - BOARD];
+            else if (GLOBE[p - BOARD])
+                extra = true;
+        }
+        return GOAL - p + (extra ? DISTANCES : 0);
+    }
+
+    /**
+     * Builds the tablebase of both boards by value iteration.
+     * <p>
+     * Only the moves in the final track (the bounce) and the jump from the last star lead to positions with more
+     * total distance. The positions are grouped by the distances of their tokens outside the final track, and the
+     * groups are solved in increasing order of that distance, iterating each group until its values converge, so the
+     * cycles of the bounce are solved where they are and the positions are iterated again only because of the star jumps.
+     * @return the tablebase, in memory
+     */
+    public static RaceTablebase build() {
+        int[][] distances = new int[STATES][];
+        long[] keys = new long[STATES]; //distance outside the final track | those distances | distance in the final track | position
+        for (int d3 = 0; d3 < DISTANCES; d3++)
+            for (int d2 = 0; d2 <= d3; d2++)
+                for (int d1 = 0; d1 <= d2; d1++)
+                    for (int d0 = 0; d0 <= d1; d0++) {
+                        int s = index(d0, d1, d2, d3);
+                        int[] d = {d0, d1, d2, d3};
+                        int outside = 0, inside = 0;
+                        int[] b = new int[4];
+                        for (int t = 0; t < 4; t++) {
+                            if (d[t] > Player.GOAL)
+                                outside += b[t] = d[t];
+                            else
+                                inside += d[t];
+                        }
+                        distances[s] = d;
+                        keys[s] = (long) outside << 45 | (long) sortedIndex(b[0], b[1], b[2], b[3]) << 25 | (long) inside << 20 | s;
+                    }
+        Arrays.sort(keys);
+        ByteBuffer table = ByteBuffer.allocate(HEADER_SIZE + 2 * STATES * 4);
+        table.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, STATES);
+        int[] next = new int[STATES * 24]; //[position*24 + (dice-1)*4 + token] index of the next position | cost << 20, or -1
+        for (int board = 0; board < 2; board++) {
+            for (int s = 0; s < STATES; s++) {
+                int[] d = distances[s];
+                for (int dice = 1; dice <= 6; dice++) {
+                    for (int t = 0; t < 4; t++) {
+                        int m = t > 0 && d[t] == d[t - 1] ? -1 : move(d[t], dice, board == 1); //same position as the previous token
+                        if (m < 0) {
+                            next[s * 24 + (dice - 1) * 4 + t] = -1;
+                            continue;
+                        }
+                        int old = d[t];
+                        d[t] = m % DISTANCES;
+                        int n = sortedIndex(d[0], d[1], d[2], d[3]);
+                        d[t] = old;
+                        //an extra turn continues the current turn, unless the player has finished
+                        next[s * 24 + (dice - 1) * 4 + t] = n | (m >= DISTANCES && n != 0 ? 0 : 1) << 20;
+                    }
+                }
+            }
+            double[] e = new double[STATES];
+            for (double outer = 1; outer > PRECISION; ) {
+                outer = 0;
+                for (int first = 0, last; first < STATES; first = last) {
+                    for (last = first + 1; last < STATES && keys[last] >>> 25 == keys[first] >>> 25; last++);
+                    for (int pass = 0; ; pass++) {
+                        double change = 0;
+                        for (int i = first; i < last; i++)
+                            change = Math.max(change, update(e, next, (int) (keys[i] & 0xFFFFF)));
+                        if (pass == 0)
+                            outer = Math.max(outer, change);
+                        if (change <= PRECISION)
+                            break;
+                    }
+                }
+            }
+            for (int s = 0; s < STATES; s++)
+                table.putFloat(HEADER_SIZE + (board * STATES + s) * 4, (float) e[s]);
+        }
+        return new RaceTablebase(table);
+    }
+
+    //Computes the expected turns of a position from the ones of the positions it leads to, returns the change
+    private static double update(double[] e, int[] next, int s) {
+        if (s == 0)
+            return 0; //all the tokens at the goal
+        double moves = 0;
+        int passes = 0;
+        for (int i = s * 24; i < s * 24 + 24; i += 4) {
+            double best = Double.MAX_VALUE;
+            for (int t = i; t < i + 4; t++)
+                if (next[t] >= 0)
+                    best = Math.min(best, (next[t] >>> 20) + e[next[t] & 0xFFFFF]);
+            if (best == Double.MAX_VALUE)
+                passes++;
+            else
+                moves += best;
+        }
+        //a pass costs a turn and stays in the same position: e = (moves + passes * (1 + e)) / 6
+        double value = (moves + passes) / (6 - passes);
+        double change = Math.abs(value - e[s]);
+        e[s] = value;
+        return change;
+    }
+
+    /**
+     * Saves the tablebase into a file, replacing the previous file atomically.
+     * @param file the tablebase file
+     * @throws IOException if the file can not be written
+     */
+    public void save(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+                ByteBuffer data = this.table.duplicate();
+                data.clear();
+                while (data.hasRemaining())
+                    channel.write(data);
+                channel.force(true);
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     * Maps a tablebase file read-only.
+     * @param file the tablebase file
+     * @return the tablebase
+     * @throws IOException if the file can not be read or is not a tablebase
+     */
+    public static RaceTablebase map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            if (channel.size() != HEADER_SIZE + 2L * STATES * 4)
+                throw new IOException("Not a ludo race tablebase.");
+            ByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (table.getInt(0) != MAGIC)
+                throw new IOException("Not a ludo race tablebase.");
+            if (table.getInt(4) != VERSION || table.getInt(8) != STATES)
+                throw new IOException("Unsupported race tablebase version.");
+            return new RaceTablebase(table);
+        }
+    }
+
+    /**
+     * Gets the expected number of turns a player needs to move its tokens to the goal, including the current turn.
+     * @param progress the progress of the tokens of the player as in BatchEngine, in any order
+     * @param special whether the board is special
+     * @return the expected turns, 0 if all the tokens are at the goal
+     */
+    public float getExpectedTurns(int[] progress, boolean special) {
+        return expectedTurns(sortedIndex(GOAL - progress[0], GOAL - progress[1], GOAL - progress[2], GOAL - progress[3]), special);
+    }
+
+    private float expectedTurns(int index, boolean special) {
+        return this.table.getFloat(HEADER_SIZE + ((special ? STATES : 0) + index) * 4);
+    }
+
+    /**
+     * Gets the expected turns of a player after moving one of its tokens, counting the current turn if it ends.
+     * @param progress the progress of every token as in BatchEngine
+     * @param base the index of the first token of the player in progress
+     * @param token the token moved [0-3]
+     * @param dice the dice result [1-6]
+     * @param special whether the board is special
+     * @return the expected turns of the player, or Float.MAX_VALUE if the token can not move
+     */
+    float moveValue(byte[] progress, int base, int token, int dice, boolean special) {
+        int[] d = new int[4];
+        for (int t = 0; t < 4; t++)
+            d[t] = GOAL - progress[base + t];
+        int m = move(d[token], dice, special);
+        if (m < 0)
+            return Float.MAX_VALUE;
+        d[token] = m % DISTANCES;
+        int n = sortedIndex(d[0], d[1], d[2], d[3]);
+        return (m >= DISTANCES && n != 0 ? 0 : 1) + expectedTurns(n, special);
+    }
+
+    /**
+     * Indicates whether a player is in a race, i.e. none of its tokens, including the ones at home, can ever be on the
+     * same tile as a token of an opponent. The tiles a token can visit are the ones between it and the final track,
+     * plus the whole track of the player if it can still land on the last star of the special board.
+     * @param progress the progress of every token (game*16 + seat*4 + token) as in BatchEngine
+     * @param base the index of the first token of the game in progress
+     * @param playing bit mask of the seats that have not finished
+     * @param seat the player [0-3]
+     * @param special whether the board is special
+     * @return true if the player is in a race
+     */
+    static boolean isRace(byte[] progress, int base, int playing, int seat, boolean special) {
+        long[][] path = special ? SPECIAL_PATH : PATH;
+        long own = 0;
+        for (int t = 0; t < 4; t++) {
+            int p = progress[base + seat * 4 + t];
+            if (p < FINAL)
+                own |= path[seat][p == HOME ? 0 : p - BOARD];
+        }
+        for (int s = 0; s < 4 && own != 0; s++) {
+            if (s == seat || (playing & (1 << s)) == 0)
+                continue;
+            for (int t = 0; t < 4; t++) {
+                int p = progress[base + s * 4 + t];
+                if (p < FINAL && (own & path[s][p == HOME ? 0 : p - BOARD]) != 0)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Indicates whether the current player of a game is in a race.
+     * @param game the game
+     * @return true if the tokens of the current player can no longer meet the tokens of its opponents
+     */
+    public static boolean isRace(GameState game) {
+        int playing = 0;
+        for (int p : game.getXPlayers())
+            playing |= 1 << p;
+        return isRace(progress(game), 0, playing, game.getCurrentPlayer(), game.getBoard().getSpecial());
+    }
+
+    //Gets the progress of every token (seat*4 + token) of a GameState as in BatchEngine
+    static byte[] progress(GameState game) {
+        byte[] progress = new byte[16];
+        for (int s = 0; s < 4; s++)
+            for (Token t : game.getPlayers()[s].getTokens())
+                progress[s * 4 + t.getIndex()] = (byte) BatchEngine.progress(t, s);
+        return progress;
+    }
+
+    /**
+     * Selects the candidate token whose move leaves the fewest expected turns, the first one in case of a tie.
+     * @param game the game, waiting for the current player to select a token
+     * @return the index of the selected token
+     */
+    public int selectToken(GameState game) {
+        byte[] progress = progress(game);
+        int seat = game.getCurrentPlayer(), best = 0;
+        float min = Float.MAX_VALUE;
+        for (int token : StateQLearning.candidates(game)) {
+            float v = moveValue(progress, seat * 4, token, game.getDice().getResult(), game.getBoard().getSpecial());
+            if (v < min) {
+                min = v;
+                best = token;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Builds the tablebase and saves it into the given file, or DEFAULT_FILE.
+     * @param args optionally the tablebase file
+     */
+    public static void main(String[] args) {
+        File file = args.length == 1 ? new File(args[0]) : DEFAULT_FILE;
+        long start = System.nanoTime();
+        RaceTablebase tablebase = build();
+        try {
+            tablebase.save(file);}
+        catch (IOException ex) {
+            System.out.println("Race tablebase could not be saved.");
+            System.exit(1);}
+        System.out.printf("%d positions per board built in %.1f s, %.2f expected turns from the start (special board %.2f)%n",
+                STATES, (System.nanoTime() - start) / 1e9, tablebase.getExpectedTurns(new int[4], false),
+                tablebase.getExpectedTurns(new int[4], true));
+    }
+}
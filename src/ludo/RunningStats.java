@@ -0,0 +1,140 @@
+package ludo;
+
+/**
+ * Streaming accumulator of the mean and variance of a series of values (Welford's algorithm).
+ * It keeps a constant amount of memory no matter how many values are added,
+ * and two accumulators filled by different threads can be merged into one (Chan's parallel algorithm).
+ * Optionally, the values are also added to a QuantileSketch.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.QuantileSketch
+ */
+public class RunningStats {
+
+    private long count;
+    private double mean, m2, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+    private final QuantileSketch sketch;
+
+    /**
+     * Initializes an empty accumulator without quantiles.
+     */
+    public RunningStats() {
+        this.sketch = null;
+    }
+
+    /**
+     * Initializes an empty accumulator that also estimates quantiles.
+     * @param sketch the sketch the values are added to
+     */
+    public RunningStats(QuantileSketch sketch) {
+        this.sketch = sketch;
+    }
+
+    /**
+     * Adds a value to the series.
+     * @param x the value to be added
+     */
+    public void add(double x) {
+        this.count++;
+        double delta = x - this.mean;
+        this.mean += delta / this.count;
+        this.m2 += delta * (x - this.mean);
+        this.min = Math.min(this.min, x);
+        this.max = Math.max(this.max, x);
+        if (this.sketch != null)
+            this.sketch.add(x);
+    }
+
+    /**
+     * Adds all the values of another accumulator to this one.
+     * @param other the accumulator to be merged, it is not modified
+     */
+    public void merge(RunningStats other) {
+        if (other.count == 0)
+            return;
+        long n = this.count + other.count;
+        double delta = other.mean - this.mean;
+        this.m2 += other.m2 + delta * delta * this.count * other.count / n;
+        this.mean += delta * other.count / n;
+        this.count = n;
+        this.min = Math.min(this.min, other.min);
+        this.max = Math.max(this.max, other.max);
+        if (this.sketch != null && other.sketch != null)
+            this.sketch.merge(other.sketch);
+    }
+
+    /**
+     * Gets the number of values added.
+     * @return the count of values
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * Gets the mean of the values.
+     * @return the mean, or NaN if there are no values
+     */
+    public double getMean() {
+        return this.count == 0 ? Double.NaN : this.mean;
+    }
+
+    /**
+     * Gets the sample variance of the values.
+     * @return the unbiased variance, or 0 if there are less than 2 values
+     */
+    public double getVariance() {
+        return this.count < 2 ? 0 : this.m2 / (this.count - 1);
+    }
+
+    /**
+     * Gets the sample standard deviation of the values.
+     * @return the square root of the variance
+     */
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * Gets the lowest value added.
+     * @return the minimum, or NaN if there are no values
+     */
+    public double getMin() {
+        return this.count == 0 ? Double.NaN : this.min;
+    }
+
+    /**
+     * Gets the highest value added.
+     * @return the maximum, or NaN if there are no values
+     */
+    public double getMax() {
+        return this.count == 0 ? Double.NaN : this.max;
+    }
+
+    /**
+     * Gets the estimated quantile of the values.
+     * @param q the quantile [0-1], e.g. 0.5 for the median
+     * @return the estimated value, or NaN if this accumulator has no sketch or no values
+     */
+    public double getQuantile(double q) {
+        return this.sketch == null ? Double.NaN : this.sketch.getQuantile(q);
+    }
+
+    /**
+     * Gets the half width of the normal confidence interval of the mean.
+     * @param z the standard score of the confidence level, e.g. 1.96 for 95%
+     * @return the margin of error of the mean
+     */
+    public double getMarginOfError(double z) {
+        return this.count == 0 ? Double.NaN : z * getStandardDeviation() / Math.sqrt(this.count);
+    }
+
+    @Override
+    public String toString() {
+        String s = String.format("mean %.2f +-%.2f, sd %.2f, min %.0f, max %.0f",
+                getMean(), getMarginOfError(1.96), getStandardDeviation(), getMin(), getMax());
+        if (this.sketch != null)
+            s += String.format(", p50 %.0f, p90 %.0f, p99 %.0f", getQuantile(0.5), getQuantile(0.9), getQuantile(0.99));
+        return s;
+    }
+}
@@ -192,9 +192,7 @@ public class Selector extends JDialog implements MouseListener{
             rButton.setFont(new Font(LABEL_FONT, 1, LABEL_FONT_SIZE));
             rButton.setName(option);
             rButton.setText(rButton.getName());
-            
-            System.out.println(getPath(type, option.toLowerCase(), theme, true));
-            System.out.println(getPath(type, option.toLowerCase(), theme, false));
+
 
             try {
                 selected = ImageIO.read(new File(getPath(type, option.toLowerCase(), theme, true)));
@@ -0,0 +1,219 @@
+package ludo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import ludo.Autoplay.AutoplayMode;
+import ludo.ImgPath.Color;
+
+/**
+ * Headless self-play generating training data: every decision of the players, with the state of the game, the dice,
+ * the token moved and the final place of every player, is written to binary shards by a ShardWriter.
+ * <p>
+ * The games are played by BatchEngines, one per thread, and the records of a game are kept until the game is over
+ * and its places are known. The records of finished games are collected in blocks that are queued to the writer.
+ * The configuration is a properties file with the following keys:
+ * <ul>
+ * <li>colors : the colors of the active players, e.g. "red, green, blue" (default all)
+ * <li>modes : the AutoplayMode of each seat, random or customAI, or a single mode for all seats (default customAI)
+ * <li>board : "special" or "regular" (default special)
+ * <li>games : the number of games to record (default 10000)
+ * <li>lanes : the number of games played in lockstep by every thread (default 256)
+ * <li>seed : the seed of the games, the thread i uses seed+i (default current time)
+ * <li>threads : the number of threads playing games (default number of processors)
+ * <li>output : the directory of the shards (default selfplay)
+ * <li>shardSize : the maximum size of a shard in megabytes, before compression (default 64)
+ * <li>compress : whether the shards are compressed with gzip, true or false (default true)
+ * <li>queue : the number of blocks waiting to be written before the threads wait for the writer (default 64)
+ * </ul>
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.BatchEngine
+ * @see ludo.ShardWriter
+ * @see ludo.ShardReader
+ */
+public class SelfPlay {
+
+    static final int BLOCK_SIZE = 1 << 16; //bytes of records queued to the writer at once
+
+    private final List<Color> colors = new ArrayList<>();
+    private final AutoplayMode[] modes = new AutoplayMode[4];
+    private final boolean special, compress;
+    private final int games, lanes, threads, queue;
+    private final long seed, shardSize;
+    private final File output;
+    private final AtomicLong finished = new AtomicLong();
+
+    /**
+     * Initializes a self-play run with the settings of a configuration.
+     * @param config the properties of the run
+     * @throws IllegalArgumentException if a value of the configuration is not valid
+     */
+    public SelfPlay(Properties config) {
+        String c = config.getProperty("colors", "").trim();
+        if (c.isEmpty())
+            this.colors.addAll(Arrays.asList(Color.values()));
+        else
+            for (String color : c.split("\\s*,\\s*"))
+                this.colors.add(Color.valueOf(color));
+        String[] m = config.getProperty("modes", GameState.DEFAULT_AUTOMODE.name()).trim().split("\\s*,\\s*");
+        if (m.length != 1 && m.length != 4)
+            throw new IllegalArgumentException("modes must contain 1 or 4 values.");
+        for (int i = 0; i < 4; i++) {
+            this.modes[i] = AutoplayMode.valueOf(m[m.length == 1 ? 0 : i]);
+            if (this.modes[i] != AutoplayMode.customAI && this.modes[i] != AutoplayMode.random)
+                throw new IllegalArgumentException("Self-play supports the random and customAI modes.");
+        }
+        String board = config.getProperty("board", "special").trim();
+        if (!board.equals("special") && !board.equals("regular"))
+            throw new IllegalArgumentException("board must be special or regular.");
+        this.special = board.equals("special");
+        this.games = Integer.parseInt(config.getProperty("games", "10000").trim());
+        this.lanes = Integer.parseInt(config.getProperty("lanes", "256").trim());
+        this.seed = Long.parseLong(config.getProperty("seed", String.valueOf(System.currentTimeMillis())).trim());
+        this.threads = Math.max(1, Integer.parseInt(config.getProperty("threads", String.valueOf(Runtime.getRuntime().availableProcessors())).trim()));
+        this.output = new File(config.getProperty("output", "selfplay").trim());
+        this.shardSize = Long.parseLong(config.getProperty("shardSize", "64").trim()) << 20;
+        if (this.shardSize <= 0 || this.shardSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("shardSize must be between 1 and 2047.");
+        this.compress = Boolean.parseBoolean(config.getProperty("compress", "true").trim());
+        this.queue = Integer.parseInt(config.getProperty("queue", "64").trim());
+    }
+
+    /**
+     * Loads a configuration file.
+     * @param file the properties file describing the run
+     * @return a self-play run with the configuration
+     * @throws IOException if the file can not be read
+     */
+    public static SelfPlay load(File file) throws IOException {
+        Properties config = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            config.load(in);}
+        return new SelfPlay(config);
+    }
+
+    /**
+     * Plays the games of the configuration and writes their records to the shards.
+     * @return the number of records written
+     * @throws IOException if the shards can not be written
+     * @throws InterruptedException if the thread is interrupted while waiting for the games
+     */
+    public long run() throws IOException, InterruptedException {
+        this.finished.set(0);
+        final ShardWriter writer = new ShardWriter(this.output, this.shardSize, this.compress, this.queue, this.special);
+        try {
+            final Exception[] error = new Exception[1];
+            Thread[] workers = new Thread[this.threads];
+            for (int i = 0; i < workers.length; i++) {
+                final Recorder recorder = new Recorder(new BatchEngine(this.lanes, this.colors, this.modes, this.special, this.seed + i, true), writer);
+                workers[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            recorder.play();}
+                        catch (IOException | InterruptedException ex) {
+                            error[0] = ex;}
+                    }
+                }, "SelfPlay-" + i);
+                workers[i].start();
+            }
+            for (Thread worker : workers)
+                worker.join();
+            if (error[0] instanceof IOException)
+                throw (IOException) error[0];
+            if (error[0] instanceof InterruptedException)
+                throw (InterruptedException) error[0];
+        } finally {
+            writer.close(); //writes the last shard, so the counts are final
+        }
+        System.err.printf("%d games, %d records in %d shards written to %s%n",
+                Math.min(this.finished.get(), this.games), writer.getRecordCount(), writer.getShardCount(), this.output);
+        return writer.getRecordCount();
+    }
+
+    //Records the decisions of the games of an engine, keeping them by game until the game is over
+    private class Recorder implements BatchEngine.Observer {
+
+        private final BatchEngine engine;
+        private final ShardWriter writer;
+        private final byte[][] records;
+        private final int[] length;
+        private byte[] block = new byte[BLOCK_SIZE / ShardWriter.RECORD_SIZE * ShardWriter.RECORD_SIZE];
+        private int blockLength;
+        private final List<byte[]> full = new ArrayList<>(); //blocks waiting to be queued after the step
+
+        Recorder(BatchEngine engine, ShardWriter writer) {
+            this.engine = engine;
+            this.writer = writer;
+            this.records = new byte[engine.getGameCount()][ShardWriter.RECORD_SIZE * 256];
+            this.length = new int[engine.getGameCount()];
+            engine.setObserver(this);
+        }
+
+        void play() throws IOException, InterruptedException {
+            while (finished.get() < games) {
+                this.engine.step();
+                for (byte[] b : this.full)
+                    this.writer.put(b);
+                this.full.clear();
+            }
+            this.writer.put(Arrays.copyOf(this.block, this.blockLength));
+        }
+
+        @Override
+        public void onDecision(BatchEngine engine, int g) {
+            if (this.length[g] == this.records[g].length)
+                this.records[g] = Arrays.copyOf(this.records[g], this.length[g] * 2);
+            ShardWriter.encode(engine, g, this.records[g], this.length[g]);
+            this.length[g] += ShardWriter.RECORD_SIZE;
+        }
+
+        @Override
+        public void onGameOver(BatchEngine engine, int g) {
+            byte[] game = this.records[g];
+            int n = this.length[g];
+            this.length[g] = 0;
+            if (finished.incrementAndGet() > games)
+                return;
+            byte places = ShardWriter.encodePlaces(engine.getWinners(g));
+            for (int i = 18; i < n; i += ShardWriter.RECORD_SIZE)
+                game[i] = places;
+            for (int i = 0; i < n; ) {
+                int count = Math.min(n - i, this.block.length - this.blockLength);
+                System.arraycopy(game, i, this.block, this.blockLength, count);
+                this.blockLength += count;
+                i += count;
+                if (this.blockLength == this.block.length) {
+                    this.full.add(this.block);
+                    this.block = new byte[this.block.length];
+                    this.blockLength = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the self-play configuration file given as the only argument.
+     * @param args the path of the configuration file
+     */
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("Usage: java ludo.SelfPlay <configuration file>");
+            System.exit(1);
+        }
+        try {
+            load(new File(args[0])).run();}
+        catch (IOException | IllegalArgumentException ex) {
+            System.err.println("Self-play could not be run: " + ex.getMessage());
+            System.exit(1);}
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();}
+    }
+}
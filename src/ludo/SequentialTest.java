@@ -0,0 +1,146 @@
+package ludo;
+
+/**
+ * Sequential probability ratio test (Wald) on the success rate of a series of trials, e.g. the win rate of a player.
+ * <p>
+ * The test compares the hypothesis H0: p = p0 against H1: p = p1 after every trial, and stops as soon as
+ * the log-likelihood ratio leaves the interval (log(beta/(1-alpha)), log((1-beta)/alpha)).
+ * On average it needs far fewer trials than a test with a fixed number of trials and the same error rates.
+ * Since the ratio only depends on the number of successes and failures, two tests can be merged by adding their counts.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ */
+public class SequentialTest {
+
+    /**
+     * The possible states of the test.
+     */
+    public enum Decision {
+
+        /**
+         * There is not enough evidence yet, more trials are needed.
+         */
+        undecided,
+
+        /**
+         * The success rate is p0 (or lower if p0 < p1).
+         */
+        acceptH0,
+
+        /**
+         * The success rate is p1 (or higher if p0 < p1).
+         */
+        acceptH1};
+
+    private final double p0, p1, lower, upper, successWeight, failureWeight;
+    private long successes, failures;
+
+    /**
+     * Initializes a test.
+     * @param p0 the success rate of the null hypothesis (0-1)
+     * @param p1 the success rate of the alternative hypothesis (0-1), different from p0
+     * @param alpha the probability of accepting H1 when H0 is true
+     * @param beta the probability of accepting H0 when H1 is true
+     */
+    public SequentialTest(double p0, double p1, double alpha, double beta) {
+        if (p0 <= 0 || p0 >= 1 || p1 <= 0 || p1 >= 1 || p0 == p1)
+            throw new IllegalArgumentException("Invalid hypotheses.");
+        this.p0 = p0;
+        this.p1 = p1;
+        this.lower = Math.log(beta / (1 - alpha));
+        this.upper = Math.log((1 - beta) / alpha);
+        this.successWeight = Math.log(p1 / p0);
+        this.failureWeight = Math.log((1 - p1) / (1 - p0));
+    }
+
+    /**
+     * Adds the outcome of a trial.
+     * @param success true if the trial was a success
+     * @return the decision of the test after this trial
+     */
+    public Decision add(boolean success) {
+        if (success)
+            this.successes++;
+        else
+            this.failures++;
+        return getDecision();
+    }
+
+    /**
+     * Adds the trials of another test with the same hypotheses.
+     * @param other the test to be merged, it is not modified
+     */
+    public void merge(SequentialTest other) {
+        this.successes += other.successes;
+        this.failures += other.failures;
+    }
+
+    /**
+     * Gets the log-likelihood ratio of H1 against H0 given the trials so far.
+     * @return the log-likelihood ratio
+     */
+    public double getLLR() {
+        return this.successes * this.successWeight + this.failures * this.failureWeight;
+    }
+
+    /**
+     * Gets the log-likelihood ratio at or below which H0 is accepted.
+     * @return log(beta/(1-alpha))
+     */
+    public double getLowerBound() {
+        return this.lower;
+    }
+
+    /**
+     * Gets the log-likelihood ratio at or above which H1 is accepted.
+     * @return log((1-beta)/alpha)
+     */
+    public double getUpperBound() {
+        return this.upper;
+    }
+
+    /**
+     * Gets the success rate of the null hypothesis.
+     * @return p0
+     */
+    public double getP0() {
+        return this.p0;
+    }
+
+    /**
+     * Gets the success rate of the alternative hypothesis.
+     * @return p1
+     */
+    public double getP1() {
+        return this.p1;
+    }
+
+    /**
+     * Gets the number of successes added.
+     * @return the successful trials
+     */
+    public long getSuccesses() {
+        return this.successes;
+    }
+
+    /**
+     * Gets the number of trials added.
+     * @return the successes and failures
+     */
+    public long getTrials() {
+        return this.successes + this.failures;
+    }
+
+    /**
+     * Gets the decision of the test given the trials so far.
+     * @return acceptH1 or acceptH0 if a bound was crossed, undecided otherwise
+     */
+    public Decision getDecision() {
+        double llr = getLLR();
+        if (llr >= this.upper)
+            return Decision.acceptH1;
+        if (llr <= this.lower)
+            return Decision.acceptH0;
+        return Decision.undecided;
+    }
+}
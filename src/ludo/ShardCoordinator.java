@@ -0,0 +1,352 @@
+package ludo;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runner of a scenario of BatchRunner split into shards of games, played by several worker processes.
+ * <p>
+ * The coordinator listens on a socket and starts the local ShardWorkers, each one in its own JVM with its own heap and
+ * garbage collector; workers started by hand on other nodes can join through the same socket. Every connected
+ * worker takes a shard at a time, and streams the line of every game back as soon as it finishes. The lines of a
+ * shard are kept until the shard is done, and only then written to the output and merged into the statistics, so a
+ * shard whose worker crashes, hangs or is disconnected is played again from the start by another worker, up to the
+ * given retries, without counting any game twice. A local worker that exits while there are shards left is started again.
+ * <p>
+ * The scenario file has the keys of BatchRunner (with the threads of every worker) and the following ones:
+ * <ul>
+ * <li>workers : the number of local worker processes (default number of processors)
+ * <li>shard : the number of games of a shard (default 500)
+ * <li>retries : the times a shard is played again after a failure (default 3)
+ * <li>timeout : the seconds a worker has to send the next line of a shard before it is considered hung (default 600,
+ * 0 for none)
+ * <li>port : the port workers on other nodes connect to (default 0, only local workers on a random loopback port)
+ * <li>jvm : the options of the JVMs of the local workers, e.g. "-Xmx512m" (default none)
+ * </ul>
+ * The output is the one of BatchRunner, with the games in the order they are merged; the errors of the coordinator
+ * and of its local workers are written to the standard error.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.ShardWorker
+ * @see ludo.BatchRunner
+ */
+public class ShardCoordinator {
+
+    public static final int DEFAULT_SHARD = 500, DEFAULT_RETRIES = 3;
+    public static final int DEFAULT_TIMEOUT = 600; //seconds
+
+    private final Properties scenario;
+    private final BatchRunner runner;
+    private final int workers, shardGames, retries, timeout, port;
+    private final List<String> jvm = new ArrayList<>();
+    private final String output;
+    private final BlockingQueue<Shard> shards = new LinkedBlockingQueue<>();
+    private final AtomicInteger alive = new AtomicInteger(); //local worker processes running
+    private final AtomicInteger retried = new AtomicInteger(), failed = new AtomicInteger();
+    private final GameStats stats = new GameStats();
+    private final Map<String, Integer> seats = new HashMap<>(); //seat of every color
+    private final boolean[] active = new boolean[4];
+    private CountDownLatch unfinished; //shards neither merged nor given up
+    private volatile boolean done;
+
+    /**
+     * A range of games of the scenario.
+     */
+    private static class Shard {
+        final int first, count;
+        int attempts;
+
+        Shard(int first, int count) {
+            this.first = first;
+            this.count = count;
+        }
+
+        @Override
+        public String toString() {
+            return "games " + this.first + "-" + (this.first + this.count - 1);
+        }
+    }
+
+    /**
+     * Initializes a coordinator with the settings of a scenario.
+     * @param scenario the properties of the scenario
+     * @throws IllegalArgumentException if a value of the scenario is not valid
+     */
+    public ShardCoordinator(Properties scenario) {
+        this.scenario = scenario;
+        this.runner = new BatchRunner(scenario);
+        scenario.setProperty("seed", String.valueOf(this.runner.getSeed())); //the same games in every worker and retry
+        this.workers = Integer.parseInt(scenario.getProperty("workers", String.valueOf(Runtime.getRuntime().availableProcessors())).trim());
+        this.shardGames = Integer.parseInt(scenario.getProperty("shard", String.valueOf(DEFAULT_SHARD)).trim());
+        this.retries = Integer.parseInt(scenario.getProperty("retries", String.valueOf(DEFAULT_RETRIES)).trim());
+        this.timeout = Integer.parseInt(scenario.getProperty("timeout", String.valueOf(DEFAULT_TIMEOUT)).trim());
+        this.port = Integer.parseInt(scenario.getProperty("port", "0").trim());
+        String options = scenario.getProperty("jvm", "").trim();
+        if (!options.isEmpty())
+            this.jvm.addAll(Arrays.asList(options.split("\\s+")));
+        this.output = scenario.getProperty("output", "").trim();
+        if (this.shardGames < 1 || this.retries < 0 || this.timeout < 0 || (this.workers < 1 && this.port == 0))
+            throw new IllegalArgumentException("shard must be positive, and workers too unless remote workers can connect.");
+        for (Player player : this.runner.newGame(0).getPlayers()) {
+            this.seats.put(player.getColor(), player.getPIndex());
+            this.active[player.getPIndex()] = player.getActive();
+        }
+    }
+
+    /**
+     * Loads a scenario file.
+     * @param file the properties file describing the scenario
+     * @return a coordinator for the scenario
+     * @throws IOException if the file can not be read
+     */
+    public static ShardCoordinator load(File file) throws IOException {
+        Properties scenario = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            scenario.load(in);}
+        return new ShardCoordinator(scenario);
+    }
+
+    /**
+     * Plays all the shards of the scenario and writes the results to the output of the scenario.
+     * @throws IOException if the output can not be written or the socket can not be opened
+     * @throws InterruptedException if the thread is interrupted while waiting for the shards
+     */
+    public void run() throws IOException, InterruptedException {
+        try (Writer out = this.output.isEmpty()
+                ? new BufferedWriter(new OutputStreamWriter(System.out))
+                : new BufferedWriter(new FileWriter(this.output))) {
+            run(out);}
+    }
+
+    /**
+     * Plays all the shards of the scenario and writes the results to the given writer.
+     * @param out the writer the results are streamed to
+     * @throws IOException if the output can not be written or the socket can not be opened
+     * @throws InterruptedException if the thread is interrupted while waiting for the shards
+     */
+    public void run(final Writer out) throws IOException, InterruptedException {
+        for (int first = 0; first < this.runner.getGames(); first += this.shardGames)
+            this.shards.add(new Shard(first, Math.min(this.shardGames, this.runner.getGames() - first)));
+        this.unfinished = new CountDownLatch(this.shards.size());
+        out.write(BatchRunner.HEADER + "\n");
+        out.flush();
+        try (final ServerSocket server = this.port > 0 ? new ServerSocket(this.port)
+                : new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            Thread acceptor = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    accept(server, out);
+                }
+            }, "ludo-coordinator");
+            acceptor.setDaemon(true);
+            acceptor.start();
+            for (int i = 0; i < this.workers; i++)
+                launch(server.getLocalPort());
+            //without local workers nor the port open to remote ones, nobody can play the shards left
+            while (!this.unfinished.await(1, TimeUnit.SECONDS))
+                if (this.alive.get() == 0 && this.port == 0)
+                    for (Shard shard; (shard = this.shards.poll()) != null; )
+                        giveUp(shard, "no worker left");
+            this.done = true;}
+        out.write(summary());
+        out.flush();
+    }
+
+    //Accepts the connections of the workers, each one served by its own thread
+    private void accept(ServerSocket server, final Writer out) {
+        while (!this.done) {
+            try {
+                final Socket socket = server.accept();
+                Thread t = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket, out);
+                    }
+                }, "ludo-coordinator-worker");
+                t.setDaemon(true);
+                t.start();}
+            catch (IOException ex) {
+                return;}
+        }
+    }
+
+    //Starts a local worker, and starts it again if it exits while there are shards left, up to the retries
+    private void launch(final int port) {
+        List<String> command = new ArrayList<>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        command.addAll(this.jvm);
+        command.addAll(Arrays.asList("-Djava.awt.headless=true", "-cp", System.getProperty("java.class.path"),
+                ShardWorker.class.getName(), InetAddress.getLoopbackAddress().getHostAddress(), String.valueOf(port)));
+        final ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(true); //all of it to the standard error
+        this.alive.incrementAndGet();
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int launches = 0; !done && launches <= retries; launches++) {
+                        Process process = builder.start();
+                        try {
+                            process.getOutputStream().close();
+                            copy(process.getInputStream());
+                            if (process.waitFor() == 0)
+                                break;}
+                        finally {
+                            process.destroy();}
+                    }}
+                catch (IOException ex) {
+                    System.err.println("Worker could not be started: " + ex.getMessage());}
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();}
+                alive.decrementAndGet();
+            }
+        }, "ludo-coordinator-launcher");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    //Copies the output of a local worker to the standard error, so it never mixes with the results
+    private static void copy(InputStream in) throws IOException {
+        byte[] buffer = new byte[4096];
+        try (InputStream i = in) {
+            for (int n = i.read(buffer); n >= 0; n = i.read(buffer))
+                System.err.write(buffer, 0, n);}
+        System.err.flush();
+    }
+
+    //Gives shards to a worker until there are none left, and merges the shards it plays
+    private void serve(Socket socket, Writer out) {
+        Shard shard = null;
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            s.setSoTimeout(this.timeout * 1000);
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            Writer to = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8));
+            StringWriter text = new StringWriter();
+            this.scenario.store(text, null);
+            to.write(text.toString());
+            to.write(".\n");
+            List<String> lines = new ArrayList<>();
+            while (true) {
+                shard = null;
+                while (shard == null && this.unfinished.getCount() > 0)
+                    shard = this.shards.poll(100, TimeUnit.MILLISECONDS);
+                if (shard == null)
+                    break;
+                to.write("shard " + shard.first + " " + shard.count + "\n");
+                to.flush();
+                lines.clear();
+                for (String line = in.readLine(); !"done".equals(line); line = in.readLine()) {
+                    if (line == null)
+                        throw new IOException("connection closed");
+                    lines.add(line);
+                }
+                if (lines.size() != shard.count)
+                    throw new IOException(lines.size() + " games instead of " + shard.count);
+                merge(lines, out);
+                this.unfinished.countDown();
+            }
+            to.write("stop\n");
+            to.flush();}
+        catch (IOException | RuntimeException ex) {
+            if (shard != null)
+                retry(shard, ex.getMessage());}
+        catch (InterruptedException ex) {
+            if (shard != null)
+                retry(shard, "interrupted");
+            Thread.currentThread().interrupt();}
+    }
+
+    //Writes the lines of a shard and adds its finished games to the statistics
+    private synchronized void merge(List<String> lines, Writer out) throws IOException {
+        for (String line : lines) {
+            String[] values = line.split(",", -1);
+            List<Integer> winners = new ArrayList<>();
+            for (int i = 5; i < values.length && !values[i].isEmpty(); i++)
+                winners.add(this.seats.get(values[i]));
+            if (!winners.isEmpty())
+                this.stats.add(winners, this.active, Integer.parseInt(values[2]), Integer.parseInt(values[3]),
+                        Double.parseDouble(values[4]));
+            out.write(line);
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    //Queues a failed shard again, or gives it up after the retries
+    private void retry(Shard shard, String reason) {
+        if (++shard.attempts > this.retries)
+            giveUp(shard, reason);
+        else {
+            this.retried.incrementAndGet();
+            this.shards.add(shard);}
+    }
+
+    private void giveUp(Shard shard, String reason) {
+        System.err.println("Shard of " + shard + " could not be played: " + reason);
+        this.failed.incrementAndGet();
+        this.unfinished.countDown();
+    }
+
+    /**
+     * Gets the statistics of the shards merged so far.
+     * @return the statistics of the scenario
+     */
+    public synchronized GameStats getStats() {
+        GameStats total = new GameStats();
+        total.merge(this.stats);
+        return total;
+    }
+
+    /**
+     * Gets the summary of the shards merged so far, as the one of BatchRunner followed by the shards retried and given up.
+     * @return the summary, every line starting with '#'
+     */
+    public String summary() {
+        GameStats total = getStats();
+        return String.format("# %d of %d games finished%n", total.getGames(), this.runner.getGames())
+                + total.report(this.runner.getModes(), "# ")
+                + String.format("# shards of %d games: %d retried, %d given up%n", this.shardGames, this.retried.get(), this.failed.get());
+    }
+
+    /**
+     * Runs the scenario file given as the only argument.
+     * @param args the path of the scenario file
+     */
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("Usage: java ludo.ShardCoordinator <scenario file>");
+            System.exit(1);
+        }
+        try {
+            load(new File(args[0])).run();}
+        catch (IOException | IllegalArgumentException ex) {
+            System.err.println("Scenario could not be run: " + ex.getMessage());
+            System.exit(1);}
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();}
+    }
+}
@@ -0,0 +1,241 @@
+package ludo;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import static ludo.ShardWriter.MAGIC;
+import static ludo.ShardWriter.RECORD_SIZE;
+import static ludo.ShardWriter.SAFE;
+
+/**
+ * Reader of the records of a self-play shard written by a ShardWriter.
+ * <p>
+ * A compressed shard is streamed sequentially with next. An uncompressed shard is memory mapped, so it can also be
+ * read in any order with seek, e.g. to shuffle the records for training, and the pages are shared between processes.
+ * The accessors decode the current record.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.ShardWriter
+ */
+public class ShardReader implements Closeable {
+
+    private final File file;
+    private final boolean special;
+    private final DataInputStream in;    //compressed shards
+    private final MappedByteBuffer map;  //uncompressed shards
+    private final long recordCount;
+    private final byte[] record = new byte[RECORD_SIZE];
+    private long position = -1;
+
+    /**
+     * Opens a shard, mapping it into memory if it is not compressed.
+     * @param file the shard file
+     * @throws IOException if the file can not be read or is not a shard
+     */
+    public ShardReader(File file) throws IOException {
+        this.file = file;
+        ByteBuffer header = ByteBuffer.allocate(ShardWriter.HEADER_SIZE);
+        if (file.getName().endsWith(ShardWriter.COMPRESSED)) {
+            this.in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), 1 << 16), 1 << 16));
+            this.map = null;
+            this.recordCount = -1;
+            try {
+                this.in.readFully(header.array());}
+            catch (EOFException ex) {
+                this.in.close();
+                throw new IOException("Not a ludo shard.");}
+        } else {
+            this.in = null;
+            try (FileChannel channel = FileChannel.open(file.toPath())) {
+                if (channel.size() < ShardWriter.HEADER_SIZE)
+                    throw new IOException("Not a ludo shard.");
+                this.map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());}
+            this.map.get(header.array());
+            this.recordCount = (this.map.capacity() - ShardWriter.HEADER_SIZE) / RECORD_SIZE;
+        }
+        if (header.getInt() != MAGIC)
+            throw new IOException("Not a ludo shard.");
+        if (header.getInt() != ShardWriter.VERSION || header.getInt() != RECORD_SIZE)
+            throw new IOException("Unsupported shard version.");
+        this.special = header.get() != 0;
+    }
+
+    /**
+     * Lists the shards of a directory in the order they were written.
+     * @param directory the directory of the shards
+     * @return the shard files
+     */
+    public static List<File> list(File directory) {
+        List<File> shards = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files != null)
+            for (File f : files)
+                if (f.getName().startsWith(ShardWriter.PREFIX) && f.getName().contains(ShardWriter.EXTENSION))
+                    shards.add(f);
+        File[] sorted = shards.toArray(new File[shards.size()]);
+        Arrays.sort(sorted);
+        return Arrays.asList(sorted);
+    }
+
+    /**
+     * Gets the shard file read.
+     * @return the file of the shard
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Indicates whether the games of the shard were played in the special board.
+     * @return true for the special board, false for the regular board
+     */
+    public boolean getSpecial() {
+        return this.special;
+    }
+
+    /**
+     * Indicates whether the shard is memory mapped and supports seek.
+     * @return true if the shard is not compressed
+     */
+    public boolean isMapped() {
+        return this.map != null;
+    }
+
+    /**
+     * Gets the number of records of a mapped shard.
+     * @return the number of records, or -1 if the shard is compressed and the number is not known
+     */
+    public long getRecordCount() {
+        return this.recordCount;
+    }
+
+    /**
+     * Reads the next record.
+     * @return true if there was a record, false at the end of the shard
+     * @throws IOException if the shard can not be read
+     */
+    public boolean next() throws IOException {
+        if (this.map != null) {
+            if (this.position + 1 >= this.recordCount)
+                return false;
+            seek(this.position + 1);
+            return true;
+        }
+        try {
+            this.in.readFully(this.record);}
+        catch (EOFException ex) {
+            return false;}
+        this.position++;
+        return true;
+    }
+
+    /**
+     * Reads the record at the given index of a mapped shard.
+     * @param index the index of the record [0-recordCount)
+     * @throws UnsupportedOperationException if the shard is compressed
+     */
+    public void seek(long index) {
+        if (this.map == null)
+            throw new UnsupportedOperationException("Compressed shards can only be read sequentially.");
+        if (index < 0 || index >= this.recordCount)
+            throw new IndexOutOfBoundsException("Record " + index + " of " + this.recordCount);
+        for (int i = 0; i < RECORD_SIZE; i++)
+            this.record[i] = this.map.get((int) (ShardWriter.HEADER_SIZE + index * RECORD_SIZE) + i);
+        this.position = index;
+    }
+
+    /**
+     * Gets the index of the current record.
+     * @return the number of records before the current one
+     */
+    public long getPosition() {
+        return this.position;
+    }
+
+    /**
+     * Gets the progress of a token in the current record.
+     * @param seat the index of the player [0-3]
+     * @param token the index of the token [0-3]
+     * @return HOME, BOARD + relative tile [0-50] or FINAL + position in the final track [0-5], as in BatchEngine
+     */
+    public int getProgress(int seat, int token) {
+        return this.record[seat * 4 + token] & ~SAFE;
+    }
+
+    /**
+     * Indicates whether a token was safe in the start tile of its player in the current record.
+     * @param seat the index of the player [0-3]
+     * @param token the index of the token [0-3]
+     * @return true if the token could not be captured
+     */
+    public boolean isSafe(int seat, int token) {
+        return (this.record[seat * 4 + token] & SAFE) != 0;
+    }
+
+    /**
+     * Gets the player that took the decision of the current record.
+     * @return the seat of the player [0-3]
+     */
+    public int getSeat() {
+        return this.record[16] & 3;
+    }
+
+    /**
+     * Gets the token moved in the current record.
+     * @return the index of the token [0-3]
+     */
+    public int getToken() {
+        return this.record[16] >> 2 & 3;
+    }
+
+    /**
+     * Gets the dice of the decision of the current record.
+     * @return the dice [1-6]
+     */
+    public int getDice() {
+        return (this.record[16] >> 4 & 7) + 1;
+    }
+
+    /**
+     * Gets the tokens that could be moved in the current record.
+     * @return bit mask with the bit of every movable token set
+     */
+    public int getMovable() {
+        return this.record[17] & 15;
+    }
+
+    /**
+     * Indicates whether a seat takes part in the game of the current record.
+     * @param seat the index of the player [0-3]
+     * @return true if the seat is playing or has finished
+     */
+    public boolean isPlayer(int seat) {
+        return (this.record[17] >> 4 & (1 << seat)) != 0;
+    }
+
+    /**
+     * Gets the place a seat finished the game of the current record in.
+     * @param seat the index of the player [0-3]
+     * @return the place [0-3], 0 is the winner
+     */
+    public int getPlace(int seat) {
+        return this.record[18] >> (2 * seat) & 3;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.in != null)
+            this.in.close();
+    }
+}
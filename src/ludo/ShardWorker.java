@@ -0,0 +1,81 @@
+package ludo;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+/**
+ * Worker process of a ShardCoordinator, playing the shards of games it is given by the coordinator.
+ * <p>
+ * The worker connects to the coordinator and reads the scenario of BatchRunner, as the lines of a properties file
+ * ended by a line ".". Then it reads one line at a time: "shard first count" plays the games [first, first+count)
+ * of the scenario with the threads of the scenario, writing the line of every game as soon as it finishes and the line
+ * "done" at the end of the shard, and "stop" ends the worker. The worker also ends when the connection is closed,
+ * so it never outlives its coordinator.
+ * <p>
+ * The coordinator starts its local workers itself; workers on other nodes are started by hand with the address
+ * of the coordinator, e.g. "java ludo.ShardWorker coordinator-host 7458".
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.ShardCoordinator
+ */
+public class ShardWorker {
+
+    private ShardWorker() {
+    }
+
+    /**
+     * Plays the shards given by a coordinator until it stops the worker or the connection is closed.
+     * @param host the name or address of the coordinator
+     * @param port the port of the coordinator
+     * @throws IOException if the connection fails
+     * @throws InterruptedException if the thread is interrupted while playing
+     */
+    public static void work(String host, int port) throws IOException, InterruptedException {
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            StringBuilder text = new StringBuilder();
+            for (String line = in.readLine(); !".".equals(line); line = in.readLine()) {
+                if (line == null)
+                    return;
+                text.append(line).append('\n');
+            }
+            Properties scenario = new Properties();
+            scenario.load(new StringReader(text.toString()));
+            BatchRunner runner = new BatchRunner(scenario);
+            for (String line = in.readLine(); line != null && !line.equals("stop"); line = in.readLine()) {
+                String[] shard = line.split(" ");
+                runner.play(Integer.parseInt(shard[1]), Integer.parseInt(shard[2]), out);
+                out.write("done\n");
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * Runs a worker.
+     * @param args the host and the port of the coordinator
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: java ludo.ShardWorker <host> <port>");
+            System.exit(1);
+        }
+        try {
+            work(args[0], Integer.parseInt(args[1]));}
+        catch (IOException | IllegalArgumentException ex) {
+            System.err.println("Shards could not be played: " + ex.getMessage());
+            System.exit(1);}
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();}
+    }
+}
@@ -0,0 +1,216 @@
+package ludo;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writer of self-play training data into binary shard files.
+ * <p>
+ * The producers hand blocks of records to the writer through a bounded queue and a single background thread
+ * writes them to disk, so the producers never wait for the disk: they only wait, through put, when the queue is full
+ * because the disk can not keep up (backpressure). A shard is closed and the next one started when its records
+ * would exceed the maximum size, counted in uncompressed bytes, so a block is never split between two shards.
+ * <p>
+ * A shard is a header (MAGIC, VERSION, RECORD_SIZE and the board type) followed by records of RECORD_SIZE bytes,
+ * each one a decision of a player:
+ * <ul>
+ * <li>bytes 0-15 : progress of every token (seat*4 + token) as in BatchEngine, plus SAFE if the token is safe
+ * <li>byte 16 : seat of the current player | selected token &lt;&lt; 2 | (dice - 1) &lt;&lt; 4
+ * <li>byte 17 : movable tokens | seats taking part in the game &lt;&lt; 4
+ * <li>byte 18 : final place [0-3] of every seat, 2 bits per seat
+ * </ul>
+ * The whole shard is compressed with gzip if compression is enabled ("shard-N.ludt.gz"), otherwise it is
+ * written as is ("shard-N.ludt") and can be memory mapped by the ShardReader.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.ShardReader
+ * @see ludo.SelfPlay
+ */
+public class ShardWriter implements Closeable {
+
+    public static final int MAGIC = 0x4C554454; //"LUDT"
+    public static final int VERSION = 1;
+    public static final int RECORD_SIZE = 19;
+    public static final int HEADER_SIZE = 13;
+    public static final int SAFE = 0x40;
+    static final String PREFIX = "shard-", EXTENSION = ".ludt", COMPRESSED = ".gz";
+
+    private static final byte[] END = new byte[0];
+
+    private final File directory;
+    private final long maxShardBytes;
+    private final boolean compress, special;
+    private final BlockingQueue<byte[]> queue;
+    private final Thread thread;
+    private volatile IOException error;
+
+    private OutputStream out;
+    private long shardBytes, records;
+    private int shards;
+
+    /**
+     * Initializes a writer and starts its thread.
+     * @param directory the directory of the shards, created if it does not exist
+     * @param maxShardBytes the maximum size of the records of a shard, before compression
+     * @param compress whether the shards are compressed with gzip
+     * @param queueCapacity the number of blocks waiting to be written before put blocks
+     * @param special whether the games are played in the special board, stored in the header
+     * @throws IOException if the directory can not be created
+     */
+    public ShardWriter(File directory, long maxShardBytes, boolean compress, int queueCapacity, boolean special) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Directory " + directory + " can not be created.");
+        this.directory = directory;
+        this.maxShardBytes = maxShardBytes;
+        this.compress = compress;
+        this.special = special;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        }, "ShardWriter");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Writes the decision taken in a game of an engine into a record, without the final places.
+     * @param engine the engine playing the game, in the state before the move
+     * @param g the index of the game
+     * @param buffer the array the record is written to
+     * @param offset the position of the record in the array
+     */
+    public static void encode(BatchEngine engine, int g, byte[] buffer, int offset) {
+        for (int seat = 0; seat < 4; seat++)
+            for (int t = 0; t < 4; t++)
+                buffer[offset + seat * 4 + t] = (byte) (engine.getProgress(g, seat, t) | (engine.isSafe(g, seat, t) ? SAFE : 0));
+        buffer[offset + 16] = (byte) (engine.getCurrentPlayer(g) | engine.getSelected(g) << 2 | (engine.getDice(g) - 1) << 4);
+        buffer[offset + 17] = (byte) (engine.getMovable(g) | engine.getPlayerMask() << 4);
+    }
+
+    /**
+     * Encodes the final places of a game, to be stored in its records once it is over.
+     * @param winners the seats in the order they finished
+     * @return the byte with the place of every seat
+     */
+    public static byte encodePlaces(int[] winners) {
+        int places = 0;
+        for (int place = 0; place < winners.length; place++)
+            places |= place << (2 * winners[place]);
+        return (byte) places;
+    }
+
+    /**
+     * Queues a block of complete records to be written, waiting while the queue is full.
+     * @param block the records, its length must be a multiple of RECORD_SIZE
+     * @throws IOException if a previous block could not be written
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void put(byte[] block) throws IOException, InterruptedException {
+        if (this.error != null)
+            throw this.error;
+        if (block.length > 0)
+            this.queue.put(block);
+    }
+
+    //A block that can not be written closes the shard and is kept as the error, and the rest of the queue is discarded
+    private void write() {
+        try {
+            for (byte[] block = this.queue.take(); block != END; block = this.queue.take()) {
+                if (this.error != null)
+                    continue; //keep draining, so the producers are not blocked
+                try {
+                    if (this.out != null && this.shardBytes + block.length > this.maxShardBytes)
+                        closeShard();
+                    if (this.out == null)
+                        openShard();
+                    this.out.write(block);
+                    this.shardBytes += block.length;
+                    this.records += block.length / RECORD_SIZE;
+                } catch (IOException ex) {
+                    this.error = ex;
+                    abortShard();
+                }
+            }
+            if (this.out != null)
+                closeShard();
+        } catch (IOException ex) {
+            this.error = ex;
+            abortShard();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void openShard() throws IOException {
+        File file = new File(this.directory, String.format("%s%05d%s%s", PREFIX, this.shards, EXTENSION, this.compress ? COMPRESSED : ""));
+        OutputStream stream = new FileOutputStream(file);
+        this.out = this.compress ? new GZIPOutputStream(stream, 1 << 16) : new BufferedOutputStream(stream, 1 << 16);
+        DataOutputStream header = new DataOutputStream(this.out);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(RECORD_SIZE);
+        header.writeBoolean(this.special);
+        this.shardBytes = 0;
+        this.shards++;
+    }
+
+    private void closeShard() throws IOException {
+        this.out.close();
+        this.out = null;
+    }
+
+    //Closes the shard after an error, which is already reported
+    private void abortShard() {
+        if (this.out == null)
+            return;
+        try {
+            this.out.close();
+        } catch (IOException ex) {
+            //the first error is the one reported
+        }
+        this.out = null;
+    }
+
+    /**
+     * Gets the number of shards started so far.
+     * @return the number of shard files
+     */
+    public int getShardCount() {
+        return this.shards;
+    }
+
+    /**
+     * Gets the number of records written so far.
+     * @return the number of records in all the shards
+     */
+    public long getRecordCount() {
+        return this.records;
+    }
+
+    /**
+     * Writes the blocks left in the queue, closes the last shard and stops the thread.
+     * After an error the blocks left are discarded, so it never waits for a writer that has stopped writing.
+     * @throws IOException if a block could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            this.queue.put(END);
+            this.thread.join();}
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();}
+        if (this.error != null)
+            throw this.error;
+    }
+}
@@ -0,0 +1,419 @@
+package ludo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import ludo.Autoplay.AutoplayMode;
+import ludo.ImgPath.Color;
+import static ludo.Board.GLOBE_TILES;
+import static ludo.Board.STAR_TILES;
+import static ludo.Player.GOAL;
+import static ludo.Player.OUT_OF_BOARD;
+import static ludo.Player.START_DISTANCE;
+
+/**
+ * Q-learning over an abstraction of the whole state of the game, trained by playing games with the rules of GameState.
+ * <p>
+ * Unlike QLearning, which models a single token on its own, a decision is described by a key that combines:
+ * <ul>
+ * <li>the progress [0-57] of the moved token before and after the move (including star jumps), which also gives the dice
+ * <li>the danger of the token before and after the move: the number of opponent tokens up to 6 tiles behind it [0-3]
+ * <li>whether the move captures an opponent and whether it gives an extra turn
+ * <li>the other tokens of the player: how many are at home, threatened by an opponent, and in the final track or the goal
+ * <li>the type of board
+ * </ul>
+ * The Q-values of the keys are stored in a QStore, so selecting a token is one lookup per candidate: a QValueMap in
+ * the heap, or an OffHeapQStore for tables larger than the heap, which several learners can train at the same time.
+ * The value of a decision is learned towards the reward until the next decision of the same player plus the discounted
+ * value of that decision. The reward is the change of the lead of the player, i.e. its progress minus the average
+ * progress of its opponents, and at the end the place the player finished in (1 for the winner, 0 for the last one).
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.QValueMap
+ * @see ludo.OffHeapQStore
+ * @see ludo.QLearning
+ */
+public class StateQLearning {
+
+    public static final File DEFAULT_FILE = new File("stateq.table");
+    public static final File DEFAULT_STORE_FILE = new File("stateq" + OffHeapQStore.EXTENSION);
+    static final int DEFAULT_MAX_SIZE = 1 << 18;
+    static final long DEFAULT_STORE_SIZE = 1L << 22;
+    static final float ALPHA = 0.05f;
+    static final double EPSILON = 0.1;
+    static final float SHAPING = 0.5f; //weight of the lead of the player in the rewards
+    static final float GAMMA = 0.9f;
+    static final float UNKNOWN = 0f; //value of the decisions not in the table yet
+
+    //progress of a token from the point of view of its player, as in BatchEngine
+    private static final int HOME = 0, BOARD = 1, FINAL = 52;
+    private static final int[] NEXT_STAR = new int[52];
+
+    static {
+        for (int tile = 0; tile < 52; tile++) {
+            int next = (tile + 1) % 52;
+            while (!STAR_TILES.contains(next))
+                next = (next + 1) % 52;
+            NEXT_STAR[tile] = next;
+        }
+    }
+
+    private static StateQLearning defaultInstance;
+
+    private final QStore table;
+    private final Random random = new Random();
+
+    /**
+     * Initializes a learner with the Q-values of a table.
+     * @param table the table of Q-values, updated by the training
+     */
+    public StateQLearning(QStore table) {
+        this.table = table;
+    }
+
+    /**
+     * Gets the learner used by default by the stateQLearning mode, mapping DEFAULT_STORE_FILE read-only or reading
+     * DEFAULT_FILE the first time. If neither file exists or can be read, the learner starts with an empty table.
+     * @return the shared default learner
+     */
+    public static synchronized StateQLearning getDefault() {
+        if (defaultInstance == null) {
+            QStore table = null;
+            if (DEFAULT_STORE_FILE.exists()) {
+                try {
+                    table = OffHeapQStore.map(DEFAULT_STORE_FILE, true);}
+                catch (IOException ex) {
+                    System.out.println("State Q-store could not be mapped.");}
+            }
+            if (table == null && DEFAULT_FILE.exists()) {
+                try {
+                    table = QValueMap.load(DEFAULT_FILE);}
+                catch (IOException ex) {
+                    System.out.println("State Q-table could not be read.");}
+            }
+            defaultInstance = new StateQLearning(table != null ? table : new QValueMap(DEFAULT_MAX_SIZE));
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Gets the table of Q-values of the learner.
+     * @return the table read and trained by this learner
+     */
+    public QStore getTable() {
+        return this.table;
+    }
+
+    /**
+     * Sets the seed of the random number generator used to explore while training.
+     * @param seed the initial seed
+     */
+    public void setSeed(long seed) {
+        this.random.setSeed(seed);
+    }
+
+    /**
+     * Gets the tokens the current player can move with the dice, in the order Autoplay considers them.
+     * @param game the game, waiting for the current player to select a token
+     * @return the indexes of the candidate tokens
+     */
+    static List<Integer> candidates(GameState game) {
+        Player player = game.getPlayers()[game.getCurrentPlayer()];
+        if (!game.getDice().getIsSix())
+            return player.getTokensOut();
+        List<Integer> tokens = new ArrayList<>();
+        for (Token token : player.getTokens())
+            if (!(token.getFinalTrack() && !token.getOut()))
+                tokens.add(token.getIndex());
+        return tokens;
+    }
+
+    /**
+     * Computes the key of the decision of moving a token of the current player with the current dice.
+     * @param game the game, waiting for the current player to select a token
+     * @param tokenIndex the index of the token to be moved [0-3]
+     * @return the key of the decision, never 0
+     */
+    public static long key(GameState game, int tokenIndex) {
+        int seat = game.getCurrentPlayer();
+        Player player = game.getPlayers()[seat];
+        boolean special = game.getBoard().getSpecial();
+        int dice = game.getDice().getResult();
+        //absolute positions of the opponent tokens on the track, and whether they are safe
+        int[] opponents = new int[12];
+        boolean[] safe = new boolean[12];
+        int n = 0;
+        for (int p : game.getXPlayers()) {
+            if (p == seat)
+                continue;
+            for (Token t : game.getPlayers()[p].getTokens())
+                if (t.getPosition() != OUT_OF_BOARD && !t.getFinalTrack()) {
+                    safe[n] = t.getSafe();
+                    opponents[n++] = t.getPosition();
+                }
+        }
+        //origin and destination of the moved token
+        Token token = player.getToken(tokenIndex);
+        int from = progress(token, seat), to;
+        if (from == HOME)
+            to = BOARD;
+        else if (from < FINAL) {
+            int r = from - BOARD + dice;
+            to = r >= 51 ? FINAL + r - 51 : BOARD + r;
+        } else {
+            int x = from - FINAL + dice;
+            to = FINAL + (x > GOAL ? 2 * GOAL - x : x);
+        }
+        int fromDanger = from > HOME && from < FINAL && !token.getSafe() ? danger(token.getPosition(), opponents, n) : 0;
+        boolean extra = dice == 6 && from != HOME, capture = false;
+        int toDanger = 0;
+        if (to < FINAL) {
+            int position = (to - BOARD + seat * START_DISTANCE) % 52;
+            //the captured opponents go home, so they are no longer a danger
+            for (int i = 0; i < n; i++)
+                if (opponents[i] == position && !safe[i]) {
+                    opponents[i] = opponents[--n];
+                    safe[i--] = safe[n];
+                    capture = true;
+                }
+            if (special && STAR_TILES.contains(position))
+                position = NEXT_STAR[position];
+            extra |= special && GLOBE_TILES.contains(position);
+            to = BOARD + (position - seat * START_DISTANCE + 52) % 52;
+            boolean safeStart = special && position == seat * START_DISTANCE;
+            toDanger = safeStart ? 0 : danger(position, opponents, n);
+        }
+        //the other tokens of the player: at home, threatened on the track, and in the final track or the goal
+        int home = 0, threatened = 0, finished = 0;
+        for (Token t : player.getTokens()) {
+            if (t.getIndex() == tokenIndex)
+                continue;
+            if (t.getPosition() == OUT_OF_BOARD)
+                home++;
+            else if (t.getFinalTrack())
+                finished++;
+            else if (!t.getSafe() && danger(t.getPosition(), opponents, n) > 0)
+                threatened++;
+        }
+        return from | to << 6 | fromDanger << 12 | toDanger << 14 | (capture ? 1 : 0) << 16 | (extra ? 1 : 0) << 17
+                | home << 18 | threatened << 20 | finished << 22 | (special ? 1 : 0) << 24;
+    }
+
+    private static int progress(Token t, int seat) {
+        if (t.getFinalTrack())
+            return FINAL + t.getPosition();
+        if (t.getPosition() == OUT_OF_BOARD)
+            return HOME;
+        return BOARD + (t.getPosition() + 52 - seat * START_DISTANCE) % 52;
+    }
+
+    //Number of opponent tokens up to 6 tiles behind a position of the track [0-3]
+    private static int danger(int position, int[] opponents, int n) {
+        int danger = 0;
+        for (int i = 0; i < n; i++) {
+            int gap = (position - opponents[i] + 52) % 52;
+            if (gap >= 1 && gap <= 6)
+                danger++;
+        }
+        return Math.min(danger, 3);
+    }
+
+    /**
+     * Selects the candidate token with the highest Q-value, the first one in case of a tie.
+     * @param game the game, waiting for the current player to select a token
+     * @return the index of the selected token
+     */
+    public int selectToken(GameState game) {
+        return selectToken(game, null);
+    }
+
+    //Selects the token as selectToken, offering the best token after every candidate to the decision if there is one
+    int selectToken(GameState game, Autoplay.Decision decision) {
+        int best = 0;
+        float maxQ = -Float.MAX_VALUE;
+        for (int token : candidates(game)) {
+            float q = this.table.get(key(game, token), UNKNOWN);
+            if (q > maxQ) {
+                maxQ = q;
+                best = token;
+                if (decision != null)
+                    decision.offer(best);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Trains the table playing games. The seats with the stateQLearning mode are learners that explore with probability
+     * EPSILON, the other seats are played by their AutoplayMode.
+     * @param games the number of games to play
+     * @param colors the colors of the active players
+     * @param modes the AutoplayMode of each of the 4 seats
+     * @param special whether the games are played in the special board
+     */
+    public void train(int games, List<Color> colors, List<AutoplayMode> modes, boolean special) {
+        for (int g = 0; g < games; g++) {
+            GameState game = new GameState(GameState.DEFAULT_THEME, colors, Arrays.asList(true, true, true, true), modes, special);
+            game.setSeed(this.random.nextLong());
+            train(game);
+        }
+    }
+
+    //Plays a game taking the decisions of the learners and updating the Q-values of their decisions
+    private void train(GameState game) {
+        long[] last = new long[4]; //key of the last decision of each seat, 0 before the first one
+        float[] lead = new float[4]; //lead of each seat at its last decision
+        int players = game.getXPlayers().size();
+        for (int steps = 0; game.getPlaying() && steps < BatchRunner.MAX_STEPS; steps++) {
+            if (game.getDiceRoller()) {
+                game.rollAndCheckActiveTokens();
+                game.checkMoveOrPass();
+                continue;
+            }
+            int seat = game.getCurrentPlayer();
+            if (game.getPlayers()[seat].getAutoMode() != AutoplayMode.stateQLearning) {
+                game.autoMove();
+                continue;
+            }
+            List<Integer> candidates = candidates(game);
+            int best = candidates.get(0);
+            long bestKey = 0;
+            float maxQ = -Float.MAX_VALUE;
+            for (int token : candidates) {
+                long key = key(game, token);
+                float q = this.table.get(key, UNKNOWN);
+                if (q > maxQ) {
+                    maxQ = q;
+                    best = token;
+                    bestKey = key;
+                }
+            }
+            float now = lead(game, seat);
+            if (last[seat] != 0)
+                update(last[seat], now - lead[seat] + GAMMA * maxQ);
+            lead[seat] = now;
+            int token = best;
+            long key = bestKey;
+            if (candidates.size() > 1 && this.random.nextDouble() < EPSILON) {
+                token = candidates.get(this.random.nextInt(candidates.size()));
+                key = key(game, token);
+            }
+            last[seat] = key;
+            int finished = game.getWinners().size();
+            game.selectAndMove(token);
+            if (game.getWinners().size() > finished) {
+                int place = game.getWinners().size() - 1;
+                float reward = players > 1 ? 1 - (float) place / (players - 1) : 1;
+                update(last[seat], reward + lead(game, seat) - lead[seat]);
+                last[seat] = 0;
+            }
+        }
+    }
+
+    //Lead of a player: its progress minus the average progress of its opponents, scaled by SHAPING.
+    //The rewards between decisions are the changes of the lead, so captures and progress are rewarded as they happen
+    private static float lead(GameState game, int seat) {
+        int own = 0, opponents = 0, n = 0;
+        for (int p : game.getXPlayers()) {
+            int sum = 0;
+            for (Token t : game.getPlayers()[p].getTokens())
+                sum += progress(t, p);
+            if (p == seat)
+                own = sum;
+            else {
+                opponents += sum;
+                n++;
+            }
+        }
+        if (!game.getXPlayers().contains(seat))
+            own = 4 * (FINAL + GOAL);
+        return SHAPING * (own - (n == 0 ? 0 : (float) opponents / n)) / (4 * (FINAL + GOAL));
+    }
+
+    private void update(long key, float target) {
+        this.table.update(key, ALPHA, target);
+    }
+
+    /**
+     * Trains the default table, continuing from DEFAULT_FILE if it exists, and saves it.
+     * The learner plays against itself in every seat, or in one seat against 3 players of the given AutoplayMode.
+     * If the table file ends with OffHeapQStore.EXTENSION, it is mapped (or created) as an OffHeapQStore and trained by
+     * one learner per processor; other processes can train the same file at the same time.
+     * @param args the number of games to play, optionally the AutoplayMode of the opponents and the table file instead of DEFAULT_FILE
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 3) {
+            System.out.println("Usage: java ludo.StateQLearning <games> [opponent mode] [table file]");
+            System.exit(1);
+        }
+        AutoplayMode opponents = args.length >= 2 ? AutoplayMode.valueOf(args[1]) : AutoplayMode.stateQLearning;
+        File file = args.length == 3 ? new File(args[2]) : DEFAULT_FILE;
+        int games = Integer.parseInt(args[0]);
+        if (file.getName().endsWith(OffHeapQStore.EXTENSION)) {
+            trainStore(file, games, opponents);
+            return;
+        }
+        QValueMap table = new QValueMap(DEFAULT_MAX_SIZE);
+        if (file.exists()) {
+            try {
+                table = QValueMap.load(file);}
+            catch (IOException ex) {
+                System.out.println("State Q-table could not be read.");
+                System.exit(1);}
+        }
+        StateQLearning learner = new StateQLearning(table);
+        for (int done = 0, block = 0; done < games; done += 1000, block++) {
+            learner.trainBlock(block, Math.min(1000, games - done), opponents);
+            System.out.printf("%d games, %d Q-values, %d evicted%n", Math.min(done + 1000, games), table.size(), table.getEvictions());
+        }
+        try {
+            table.save(file);}
+        catch (IOException ex) {
+            System.out.println("State Q-table could not be saved.");}
+    }
+
+    //Plays a block of training games. The blocks alternate between the special and the regular board, and the learner changes seat
+    private void trainBlock(int block, int games, AutoplayMode opponents) {
+        List<AutoplayMode> modes = new ArrayList<>(Collections.nCopies(4, opponents));
+        modes.set(block % 4, AutoplayMode.stateQLearning);
+        train(games, Arrays.asList(Color.values()), modes, block % 2 == 0);
+    }
+
+    //Trains a mapped OffHeapQStore with a learner per thread, taking blocks of 1000 games until all the games are played
+    private static void trainStore(File file, final int games, final AutoplayMode opponents) {
+        final OffHeapQStore store;
+        try {
+            store = file.exists() ? OffHeapQStore.map(file, false) : OffHeapQStore.create(file, DEFAULT_STORE_SIZE);}
+        catch (IOException ex) {
+            System.out.println("State Q-store could not be mapped.");
+            System.exit(1);
+            return;}
+        final AtomicInteger blocks = new AtomicInteger();
+        final int blockCount = (games + 999) / 1000;
+        Thread[] workers = new Thread[Runtime.getRuntime().availableProcessors()];
+        for (int i = 0; i < workers.length; i++) {
+            final StateQLearning learner = new StateQLearning(store);
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int block = blocks.getAndIncrement(); block < blockCount; block = blocks.getAndIncrement()) {
+                        learner.trainBlock(block, Math.min(1000, games - block * 1000), opponents);
+                        System.out.printf("block %d of %d, %d Q-values%n", block + 1, blockCount, store.getSize());
+                    }
+                }
+            }, "StateQLearning-" + i);
+            workers[i].start();
+        }
+        try {
+            for (Thread worker : workers)
+                worker.join();}
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();}
+        store.force();
+    }
+}
@@ -0,0 +1,504 @@
+package ludo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import ludo.Autoplay.AutoplayMode;
+import ludo.ImgPath.Color;
+import static ludo.BatchEngine.BOARD;
+import static ludo.BatchEngine.FINAL;
+import static ludo.BatchEngine.GLOBE;
+import static ludo.BatchEngine.GOAL;
+import static ludo.BatchEngine.HOME;
+import static ludo.BatchEngine.NEXT_STAR;
+import static ludo.BatchEngine.STAR;
+import static ludo.Player.START_DISTANCE;
+
+/**
+ * Linear value function over features of the game, learned with TD(lambda) from games played by BatchEngines.
+ * <p>
+ * The value of a position for a player is the dot product of a weight vector with FEATURES features of the position
+ * seen by that player, e.g. its tokens at home, its progress, its tokens threatened by opponents and the progress of
+ * its opponents. The player selects the move that leads to the position (afterstate) with the highest value, so the
+ * features play the role of the hand-weighted conditions of customAI, but the weights are learned: the value of every
+ * afterstate of a player is moved towards the value of its next afterstate, and the last one towards the place the
+ * player finished in (1 for the winner, 0 for the last one), spreading the error back through eligibility traces.
+ * <p>
+ * The training runs one actor per thread, each one playing LANES games in lockstep in a BatchEngine whose learner seats
+ * select their tokens through a Policy. Every actor updates its own copy of the weights after every decision and,
+ * every SYNC_GAMES finished games, adds its change to the shared weights and continues from them, so the actors
+ * never wait for each other during the games.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.BatchEngine
+ * @see ludo.StateQLearning
+ */
+public class TDLearning {
+
+    public static final File DEFAULT_FILE = new File("tdlambda.weights");
+    public static final String[] FEATURES = {"bias", "home", "progress", "finalTrack", "goal", "threatened", "threats",
+        "advanced", "safe", "targets", "opponentHome", "opponentProgress", "opponentMaxProgress", "opponentGoal",
+        "opponentsFinished", "extraTurn", "progressSquared"};
+    static final int F = FEATURES.length;
+    static final float ALPHA = 0.005f;
+    static final float LAMBDA = 0.7f;
+    static final double EPSILON = 0.05;
+    static final int LANES = 64;
+    static final int BLOCK_GAMES = 1000;
+    static final int SYNC_GAMES = 32;
+    private static final int TRACK = 52, TOTAL = 4 * GOAL; //progress of a player with all its tokens at the goal
+    private static final int EXTRA = 1 << 16; //flag of afterstate, next to the safe bits
+
+    private static TDLearning defaultInstance;
+
+    private volatile float[] weights; //replaced, never changed, so the players can read it while the actors synchronize
+
+    /**
+     * Initializes a learner with the given weights.
+     * @param weights the weight of each of the FEATURES
+     */
+    public TDLearning(float[] weights) {
+        if (weights.length != F)
+            throw new IllegalArgumentException("There must be " + F + " weights.");
+        this.weights = weights.clone();
+    }
+
+    /**
+     * Gets the learner used by default by the tdLambda mode, reading DEFAULT_FILE the first time.
+     * If the file does not exist or can not be read, all the weights are 0.
+     * @return the shared default learner
+     */
+    public static synchronized TDLearning getDefault() {
+        if (defaultInstance == null) {
+            float[] w = new float[F];
+            if (DEFAULT_FILE.exists()) {
+                try {
+                    w = load(DEFAULT_FILE).getWeights();}
+                catch (IOException | IllegalArgumentException ex) {
+                    System.out.println("TD weights could not be read.");}
+            }
+            defaultInstance = new TDLearning(w);
+        }
+        return defaultInstance;
+    }
+
+    public float[] getWeights() {
+        return this.weights.clone();
+    }
+
+    /**
+     * Saves the weights into a properties file, one feature per line.
+     * @param file the weights file
+     * @throws IOException if the file can not be written
+     */
+    public void save(File file) throws IOException {
+        Properties p = new Properties();
+        float[] w = this.weights;
+        for (int i = 0; i < F; i++)
+            p.setProperty(FEATURES[i], Float.toString(w[i]));
+        try (OutputStream out = new FileOutputStream(file)) {
+            p.store(out, "TD(lambda) weights");}
+    }
+
+    /**
+     * Loads the weights saved with save. The features missing from the file have weight 0.
+     * @param file the weights file
+     * @return a learner with the weights
+     * @throws IOException if the file can not be read
+     */
+    public static TDLearning load(File file) throws IOException {
+        Properties p = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            p.load(in);}
+        float[] w = new float[F];
+        for (int i = 0; i < F; i++)
+            w[i] = Float.parseFloat(p.getProperty(FEATURES[i], "0").trim());
+        return new TDLearning(w);
+    }
+
+    /**
+     * Selects the candidate token whose move leads to the position with the highest value, the first one in case of a tie.
+     * @param game the game, waiting for the current player to select a token
+     * @return the index of the selected token
+     */
+    public int selectToken(GameState game) {
+        return selectToken(game, null);
+    }
+
+    //Selects the token as selectToken, offering the best token after every candidate to the decision if there is one
+    int selectToken(GameState game, Autoplay.Decision decision) {
+        int seat = game.getCurrentPlayer();
+        byte[] progress = new byte[16];
+        int safe = 0, players = 0;
+        for (int p : game.getXPlayers())
+            players |= 1 << p;
+        for (int p : game.getWinners())
+            players |= 1 << p;
+        for (int s = 0; s < 4; s++) {
+            for (Token t : game.getPlayers()[s].getTokens()) {
+                progress[s * 4 + t.getIndex()] = (byte) BatchEngine.progress(t, s);
+                safe |= t.getSafe() ? 1 << (s * 4 + t.getIndex()) : 0;
+            }
+        }
+        boolean special = game.getBoard().getSpecial();
+        float[] w = this.weights, x = new float[F];
+        byte[] after = new byte[16];
+        int best = 0;
+        float max = -Float.MAX_VALUE;
+        for (int token : StateQLearning.candidates(game)) {
+            int s = afterstate(progress, safe, players, seat, token, game.getDice().getResult(), special, after);
+            features(after, s, players, seat, (s & EXTRA) != 0, x, 0);
+            float v = dot(w, x, 0);
+            if (v > max) {
+                max = v;
+                best = token;
+                if (decision != null)
+                    decision.offer(best);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Applies a move to a copy of a position, with the rules of BatchEngine.
+     * @param progress the progress of every token (seat*4 + token) as in BatchEngine
+     * @param safe bit mask of the tokens safe in their start tile
+     * @param players bit mask of the seats taking part in the game
+     * @param seat the player moving [0-3]
+     * @param token the token moved [0-3]
+     * @param dice the dice result [1-6]
+     * @param special whether the board is special
+     * @param after the array the progress after the move is written to
+     * @return the safe tokens after the move, plus EXTRA if the player plays again
+     */
+    static int afterstate(byte[] progress, int safe, int players, int seat, int token, int dice, boolean special, byte[] after) {
+        System.arraycopy(progress, 0, after, 0, 16);
+        int p = progress[seat * 4 + token];
+        boolean extra = dice == 6;
+        if (p == HOME) {
+            p = BOARD;
+            extra = false;
+        } else if (p < FINAL) {
+            int r = p - BOARD + dice;
+            p = r >= 51 ? FINAL + r - 51 : BOARD + r;
+        } else {
+            int x = p - FINAL + dice;
+            p = FINAL + (x > Player.GOAL ? 2 * Player.GOAL - x : x);
+        }
+        if (p < FINAL) {
+            int position = (p - BOARD + seat * START_DISTANCE) % TRACK;
+            for (int o = 0; o < 4; o++) {
+                if (o == seat || (players & (1 << o)) == 0)
+                    continue;
+                int op = (position - o * START_DISTANCE + TRACK) % TRACK + BOARD;
+                for (int t = 0; t < 4; t++)
+                    if (op < FINAL && after[o * 4 + t] == op && (safe & (1 << (o * 4 + t))) == 0)
+                        after[o * 4 + t] = HOME;
+            }
+            if (special) {
+                safe &= ~(1 << (seat * 4 + token));
+                if (STAR[position])
+                    p = BOARD + (NEXT_STAR[position] - seat * START_DISTANCE + TRACK) % TRACK;
+                else if (GLOBE[position])
+                    extra = true;
+                else if (position == seat * START_DISTANCE)
+                    safe |= 1 << (seat * 4 + token);
+            }
+        }
+        after[seat * 4 + token] = (byte) p;
+        return safe | (extra ? EXTRA : 0);
+    }
+
+    /**
+     * Computes the features of a position from the point of view of a player.
+     * @param progress the progress of every token (seat*4 + token) as in BatchEngine
+     * @param safe bit mask of the tokens safe in their start tile
+     * @param players bit mask of the seats taking part in the game
+     * @param seat the player [0-3]
+     * @param extra whether the player plays again
+     * @param x the array the features are written to
+     * @param offset the position of the first feature in the array
+     */
+    static void features(byte[] progress, int safe, int players, int seat, boolean extra, float[] x, int offset) {
+        Arrays.fill(x, offset, offset + F, 0);
+        int[] track = new int[12];
+        boolean[] hittable = new boolean[12];
+        int n = 0, opponents = 0, oppProgress = 0, oppMax = 0, oppHome = 0, oppGoal = 0, finished = 0;
+        int startsWithHome = 0; //opponent start tiles where a token leaving home captures
+        for (int o = 0; o < 4; o++) {
+            if (o == seat || (players & (1 << o)) == 0)
+                continue;
+            opponents++;
+            int sum = 0, home = 0, goal = 0;
+            for (int t = 0; t < 4; t++) {
+                int p = progress[o * 4 + t];
+                sum += p;
+                home += p == HOME ? 1 : 0;
+                goal += p == GOAL ? 1 : 0;
+                if (p >= BOARD && p < FINAL) {
+                    hittable[n] = (safe & (1 << (o * 4 + t))) == 0;
+                    track[n++] = (p - BOARD + o * START_DISTANCE) % TRACK;
+                }
+            }
+            if (home > 0)
+                startsWithHome |= 1 << o;
+            oppProgress += sum;
+            oppMax = Math.max(oppMax, sum);
+            oppHome += home;
+            oppGoal += goal;
+            finished += goal == 4 ? 1 : 0;
+        }
+        int own = 0, home = 0, finalTrack = 0, goal = 0, threatened = 0, threats = 0, advanced = 0, safeTokens = 0;
+        int targets = 0; //bit mask of the opponent tokens some token of the player can reach with one dice
+        for (int t = 0; t < 4; t++) {
+            int p = progress[seat * 4 + t];
+            own += p;
+            if (p == HOME)
+                home++;
+            else if (p == GOAL)
+                goal++;
+            else if (p >= FINAL)
+                finalTrack++;
+            else {
+                advanced += p - BOARD >= 39 ? 1 : 0;
+                int position = (p - BOARD + seat * START_DISTANCE) % TRACK;
+                if ((safe & (1 << (seat * 4 + t))) != 0)
+                    safeTokens++;
+                else {
+                    int danger = 0;
+                    for (int i = 0; i < n; i++) {
+                        int gap = (position - track[i] + TRACK) % TRACK;
+                        danger += gap >= 1 && gap <= 6 ? 1 : 0;
+                    }
+                    if (position % START_DISTANCE == 0 && (startsWithHome & (1 << (position / START_DISTANCE))) != 0)
+                        danger++;
+                    threatened += danger > 0 ? 1 : 0;
+                    threats += danger;
+                }
+                for (int i = 0; i < n; i++) {
+                    int gap = (track[i] - position + TRACK) % TRACK;
+                    if (hittable[i] && gap >= 1 && gap <= 6 && p - BOARD + gap < 51)
+                        targets |= 1 << i;
+                }
+            }
+        }
+        float lead = (float) own / TOTAL;
+        x[offset] = 1;
+        x[offset + 1] = home / 4f;
+        x[offset + 2] = lead;
+        x[offset + 3] = finalTrack / 4f;
+        x[offset + 4] = goal / 4f;
+        x[offset + 5] = threatened / 4f;
+        x[offset + 6] = Math.min(threats, 8) / 8f;
+        x[offset + 7] = advanced / 4f;
+        x[offset + 8] = safeTokens / 4f;
+        x[offset + 9] = Integer.bitCount(targets) / 4f;
+        if (opponents > 0) {
+            x[offset + 10] = oppHome / (4f * opponents);
+            x[offset + 11] = (float) oppProgress / (TOTAL * opponents);
+            x[offset + 12] = (float) oppMax / TOTAL;
+            x[offset + 13] = oppGoal / (4f * opponents);
+            x[offset + 14] = (float) finished / opponents;
+        }
+        x[offset + 15] = extra ? 1 : 0;
+        x[offset + 16] = lead * lead;
+    }
+
+    private static float dot(float[] w, float[] x, int offset) {
+        float v = 0;
+        for (int i = 0; i < F; i++)
+            v += w[i] * x[offset + i];
+        return v;
+    }
+
+    /**
+     * Trains the weights playing games in blocks of BLOCK_GAMES, with one actor per thread.
+     * The learner plays against itself in every seat, or in one seat against 3 players of the given mode, random or
+     * customAI. The blocks alternate between the special and the regular board, and the learner changes seat.
+     * @param games the number of games to play
+     * @param opponents the AutoplayMode of the opponents, tdLambda for self-play
+     * @param actors the number of threads playing games
+     * @param seed the seed of the games, the block i uses seed+i
+     * @throws IllegalArgumentException if the mode of the opponents is not supported
+     */
+    public void train(final int games, final AutoplayMode opponents, int actors, final long seed) {
+        if (opponents != AutoplayMode.tdLambda && opponents != AutoplayMode.random && opponents != AutoplayMode.customAI)
+            throw new IllegalArgumentException("The opponents must be tdLambda, random or customAI.");
+        final AtomicInteger blocks = new AtomicInteger();
+        final int blockCount = (games + BLOCK_GAMES - 1) / BLOCK_GAMES;
+        Thread[] workers = new Thread[actors];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int block = blocks.getAndIncrement(); block < blockCount; block = blocks.getAndIncrement()) {
+                        new Actor(block, Math.min(BLOCK_GAMES, games - block * BLOCK_GAMES), opponents, seed + block).play();
+                        System.out.printf("block %d of %d%n", block + 1, blockCount);
+                    }
+                }
+            }, "TDLearning-" + i);
+            workers[i].start();
+        }
+        try {
+            for (Thread worker : workers)
+                worker.join();}
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();}
+    }
+
+    //Adds the change of the weights of an actor to the shared weights and returns the new shared weights
+    private synchronized float[] synchronize(float[] base, float[] local) {
+        float[] w = this.weights.clone();
+        for (int i = 0; i < F; i++)
+            w[i] += local[i] - base[i];
+        this.weights = w;
+        return w.clone();
+    }
+
+    //Plays a block of games in a BatchEngine, selecting the tokens of the learner seats and updating a copy of the weights
+    private class Actor implements BatchEngine.Policy, BatchEngine.Observer {
+
+        private final BatchEngine engine;
+        private final int games, players;
+        private final boolean[] learner = new boolean[4];
+        private final Random random;
+        private float[] base, w;
+        private final float[] traces, last; //[(game*4 + seat)*F + feature]
+        private final boolean[] started;    //[game*4 + seat] the seat has an afterstate in last
+        private final float[] x = new float[4 * F];
+        private final byte[] progress = new byte[16], after = new byte[16];
+        private int finished, sinceSync;
+
+        Actor(int block, int games, AutoplayMode opponents, long seed) {
+            AutoplayMode[] modes = new AutoplayMode[4];
+            for (int seat = 0; seat < 4; seat++) {
+                this.learner[seat] = opponents == AutoplayMode.tdLambda || seat == block % 4;
+                modes[seat] = this.learner[seat] ? AutoplayMode.random : opponents;
+            }
+            this.engine = new BatchEngine(Math.min(LANES, games), Arrays.asList(Color.values()), modes, block % 2 == 0, seed, true);
+            for (int seat = 0; seat < 4; seat++)
+                if (this.learner[seat])
+                    this.engine.setPolicy(seat, this);
+            this.engine.setObserver(this);
+            this.games = games;
+            this.players = this.engine.getPlayerMask();
+            this.random = new Random(seed);
+            this.base = weights.clone();
+            this.w = this.base.clone();
+            int lanes = this.engine.getGameCount();
+            this.traces = new float[lanes * 4 * F];
+            this.last = new float[lanes * 4 * F];
+            this.started = new boolean[lanes * 4];
+        }
+
+        void play() {
+            for (int steps = 0; this.finished < this.games && steps < BatchRunner.MAX_STEPS * this.games; steps++)
+                this.engine.step();
+            synchronize(this.base, this.w);
+        }
+
+        @Override
+        public int selectToken(BatchEngine engine, int g) {
+            int seat = engine.getCurrentPlayer(g), safe = 0;
+            for (int i = 0; i < 16; i++) {
+                this.progress[i] = (byte) engine.getProgress(g, i / 4, i % 4);
+                safe |= engine.isSafe(g, i / 4, i % 4) ? 1 << i : 0;
+            }
+            int movable = engine.getMovable(g), best = -1, count = 0;
+            float max = -Float.MAX_VALUE;
+            for (int t = 0; t < 4; t++) {
+                if ((movable & (1 << t)) == 0)
+                    continue;
+                int s = afterstate(this.progress, safe, this.players, seat, t, engine.getDice(g), engine.getSpecial(), this.after);
+                features(this.after, s, this.players, seat, (s & EXTRA) != 0, this.x, t * F);
+                float v = dot(this.w, this.x, t * F);
+                if (v > max) {
+                    max = v;
+                    best = t;
+                }
+                count++;
+            }
+            int token = best;
+            if (count > 1 && this.random.nextDouble() < EPSILON) {
+                int n = this.random.nextInt(count);
+                for (token = 0; (movable & (1 << token)) == 0 || n-- > 0; token++);
+            }
+            int index = (g * 4 + seat) * F;
+            if (this.started[g * 4 + seat])
+                learn(index, dot(this.w, this.x, token * F));
+            System.arraycopy(this.x, token * F, this.last, index, F);
+            this.started[g * 4 + seat] = true;
+            return token;
+        }
+
+        //TD(lambda) step from the last afterstate of a seat towards a target: e = lambda*e + x, w += alpha*(target - V(x))*e
+        private void learn(int index, float target) {
+            float delta = target - dot(this.w, this.last, index);
+            for (int i = 0; i < F; i++) {
+                this.traces[index + i] = LAMBDA * this.traces[index + i] + this.last[index + i];
+                this.w[i] += ALPHA * delta * this.traces[index + i];
+            }
+        }
+
+        @Override
+        public void onDecision(BatchEngine engine, int g) {
+        }
+
+        @Override
+        public void onGameOver(BatchEngine engine, int g) {
+            int[] winners = engine.getWinners(g);
+            for (int place = 0; place < winners.length; place++) {
+                int seat = winners[place];
+                if (!this.started[g * 4 + seat])
+                    continue;
+                int index = (g * 4 + seat) * F;
+                learn(index, winners.length > 1 ? 1 - (float) place / (winners.length - 1) : 1);
+                Arrays.fill(this.traces, index, index + F, 0);
+                this.started[g * 4 + seat] = false;
+            }
+            this.finished++;
+            if (++this.sinceSync == SYNC_GAMES) {
+                this.base = synchronize(this.base, this.w);
+                this.w = this.base.clone();
+                this.sinceSync = 0;
+            }
+        }
+    }
+
+    /**
+     * Trains the default weights, continuing from DEFAULT_FILE if it exists, and saves them.
+     * @param args the number of games to play, optionally the AutoplayMode of the opponents (tdLambda, random or customAI)
+     * and the weights file instead of DEFAULT_FILE
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 3) {
+            System.out.println("Usage: java ludo.TDLearning <games> [opponent mode] [weights file]");
+            System.exit(1);
+        }
+        AutoplayMode opponents = args.length >= 2 ? AutoplayMode.valueOf(args[1]) : AutoplayMode.tdLambda;
+        File file = args.length == 3 ? new File(args[2]) : DEFAULT_FILE;
+        TDLearning learner = new TDLearning(new float[F]);
+        if (file.exists()) {
+            try {
+                learner = load(file);}
+            catch (IOException | IllegalArgumentException ex) {
+                System.out.println("TD weights could not be read.");
+                System.exit(1);}
+        }
+        learner.train(Integer.parseInt(args[0]), opponents, Runtime.getRuntime().availableProcessors(), System.currentTimeMillis());
+        try {
+            learner.save(file);}
+        catch (IOException ex) {
+            System.out.println("TD weights could not be saved.");}
+        float[] w = learner.getWeights();
+        for (int i = 0; i < F; i++)
+            System.out.printf("%s = %.4f%n", FEATURES[i], w[i]);
+    }
+}
@@ -0,0 +1,84 @@
+package ludo;
+
+/**
+ * Spatial index from a cell of the graphic frame to the tokens of a player whose images cover that cell.
+ * The frame is divided in cells of half a tile, which is the smallest step between two token coordinates,
+ * and each cell stores a bit mask with the indexes of the tokens drawn over it.
+ * This way a click can be resolved by looking at a single cell, no matter how many tokens are stacked on it.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ */
+public class TokenGrid {
+
+    private final int tileSize, cellSize, cells;
+    private final byte[] masks;
+    private final int[] placedX = new int[4], placedY = new int[4];
+    private final boolean[] placed = new boolean[4];
+
+    /**
+     * Initializes an empty grid covering a board of 15x15 tiles of the given size.
+     * @param tileSize the size of a board tile in pixels
+     */
+    public TokenGrid(int tileSize) {
+        this.tileSize = tileSize;
+        this.cellSize = Math.max(1, tileSize / 2);
+        this.cells = tileSize * 15 / this.cellSize + 2;
+        this.masks = new byte[this.cells * this.cells];
+    }
+
+    /**
+     * Places a token at the given coordinates, removing it from its previous location.
+     * @param tIndex int number [0-3] representing the index of the token in the tokens array
+     * @param x coordinate x of the token in the graphic frame
+     * @param y coordinate y of the token in the graphic frame
+     */
+    public void place(int tIndex, int x, int y) {
+        if (this.placed[tIndex]) {
+            if (this.placedX[tIndex] == x && this.placedY[tIndex] == y)
+                return;
+            mark(tIndex, this.placedX[tIndex], this.placedY[tIndex], false);
+        }
+        mark(tIndex, x, y, true);
+        this.placedX[tIndex] = x;
+        this.placedY[tIndex] = y;
+        this.placed[tIndex] = true;
+    }
+
+    private void mark(int tIndex, int x, int y, boolean set) {
+        int bit = 1 << tIndex;
+        for (int cx = clamp(x / cellSize); cx <= clamp((x + tileSize) / cellSize); cx++) {
+            for (int cy = clamp(y / cellSize); cy <= clamp((y + tileSize) / cellSize); cy++) {
+                int i = cy * cells + cx;
+                this.masks[i] = (byte) (set ? this.masks[i] | bit : this.masks[i] & ~bit);
+            }
+        }
+    }
+
+    private int clamp(int cell) {
+        return cell < 0 ? 0 : (cell >= cells ? cells - 1 : cell);
+    }
+
+    /**
+     * Gets the bit mask of the tokens whose image contains the given point.
+     * Bit i of the result is set if the token with index i covers the point.
+     * @param x coordinate x in the graphic frame
+     * @param y coordinate y in the graphic frame
+     * @return bit mask with the indexes of the tokens under the point
+     */
+    public int tokensAt(int x, int y) {
+        if (x < 0 || y < 0)
+            return 0;
+        int cx = x / cellSize, cy = y / cellSize;
+        if (cx >= cells || cy >= cells)
+            return 0;
+        int candidates = this.masks[cy * cells + cx];
+        int hits = 0;
+        for (int tIndex = 0; tIndex < 4; tIndex++) {
+            if ((candidates & (1 << tIndex)) != 0
+                    && x - placedX[tIndex] >= 0 && x - placedX[tIndex] <= tileSize
+                    && y - placedY[tIndex] >= 0 && y - placedY[tIndex] <= tileSize)
+                hits |= 1 << tIndex;
+        }
+        return hits;
+    }
+}
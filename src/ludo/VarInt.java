@@ -0,0 +1,96 @@
+package ludo;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Helper class to write and read non-negative integer numbers using a variable number of bytes.
+ * Each byte stores 7 bits of the number and the highest bit indicates whether more bytes follow,
+ * so numbers smaller than 128 take a single byte.
+ * 
+ * @author Carla Villegas <carv@itu.dk>
+ */
+public class VarInt {
+
+    private VarInt() {
+    }
+
+    /**
+     * Writes a non-negative number to a stream.
+     * @param out the stream to write to
+     * @param value the number to be written
+     * @throws IOException if the stream can not be written
+     */
+    public static void write(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Writes a non-negative number to a buffer.
+     * @param buffer the buffer to write to
+     * @param value the number to be written
+     */
+    public static void write(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Reads a number from a stream.
+     * @param in the stream to read from
+     * @return the number read
+     * @throws IOException if the stream ends before the number is complete
+     */
+    public static int read(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0)
+                throw new EOFException();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed number.");
+    }
+
+    /**
+     * Reads a number from a buffer.
+     * @param buffer the buffer to read from
+     * @return the number read
+     */
+    public static int read(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Malformed number.");
+    }
+
+    /**
+     * Gets the number of bytes used to write a number.
+     * @param value a non-negative number
+     * @return the number of bytes [1-5]
+     */
+    public static int size(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,352 @@
+package ludo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import ludo.Autoplay.AutoplayMode;
+import ludo.ImgPath.Color;
+import static ludo.BatchEngine.FINAL;
+import static ludo.BatchEngine.GOAL;
+import static ludo.BatchEngine.HOME;
+
+/**
+ * Table of the probability that a player finishes before another one, used to estimate the chance of every player
+ * of winning a game without playing it out.
+ * <p>
+ * A player is summarized by a key of compressed race features: its pip count (the total distance of its tokens to
+ * the goal) in buckets of PIP_BUCKET, its tokens at home and its tokens in the final track, KEYS keys in all. The table
+ * holds, for every pair of keys and board, the probability that the first player finishes before the second one,
+ * counted in games played by customAI players in BatchEngines, one per thread, and smoothed towards the probability
+ * given by the pip counts alone where there are few games. The win probability of a player is the product of its
+ * probabilities of finishing before each of its opponents, normalized over the players, so an estimate is a few
+ * reads of the table.
+ * <p>
+ * The file is a header (MAGIC, VERSION, KEYS) followed by the float probabilities of the regular and the special board.
+ *
+ * @author Carla Villegas <carv@itu.dk>
+ * @see ludo.GameState#getWinProbabilities()
+ */
+public class WinProbability {
+
+    public static final File DEFAULT_FILE = new File("winprob.table");
+    public static final int MAGIC = 0x4C554457; //"LUDW"
+    public static final int VERSION = 1;
+    static final int PIP_BUCKET = 12;
+    static final int PIPS = 4 * GOAL / PIP_BUCKET + 1;
+    static final int KEYS = PIPS * 5 * 5;
+    static final int DEFAULT_GAMES = 20000;
+    private static final int LANES = 256;
+    private static final int PRIOR = 5; //weight in games of the pip count probability
+
+    private static volatile WinProbability defaultInstance;
+    private static final AtomicBoolean loading = new AtomicBoolean();
+
+    private final float[] table; //[board*KEYS*KEYS + key*KEYS + other]
+
+    private WinProbability(float[] table) {
+        this.table = table;
+    }
+
+    /**
+     * Gets the table used by GameState, reading DEFAULT_FILE the first time.
+     * If the file does not exist or can not be read, the table is built with DEFAULT_GAMES games and saved into DEFAULT_FILE.
+     * @return the shared table
+     */
+    public static WinProbability getDefault() {
+        WinProbability table = defaultInstance;
+        return table != null ? table : loadDefault();
+    }
+
+    private static synchronized WinProbability loadDefault() {
+        if (defaultInstance == null) {
+            WinProbability table = null;
+            if (DEFAULT_FILE.exists()) {
+                try {
+                    table = load(DEFAULT_FILE);}
+                catch (IOException ex) {
+                    System.err.println("Win probability table could not be read.");}
+            }
+            if (table == null) {
+                table = build(DEFAULT_GAMES, Runtime.getRuntime().availableProcessors(), 1);
+                try {
+                    table.save(DEFAULT_FILE);}
+                catch (IOException ex) {
+                    System.err.println("Win probability table could not be saved.");}
+            }
+            defaultInstance = table;
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Gets the shared table without waiting for it: the first call starts loading it in a background thread,
+     * and the calls return null until it is ready.
+     * @return the shared table, or null if it is still loading
+     */
+    public static WinProbability getLoaded() {
+        WinProbability table = defaultInstance;
+        if (table == null && loading.compareAndSet(false, true)) {
+            Thread loader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    getDefault();
+                }
+            }, "WinProbability-loader");
+            loader.setDaemon(true);
+            loader.start();
+        }
+        return table;
+    }
+
+    /**
+     * Computes the key of a player.
+     * @param progress the progress of every token as in BatchEngine
+     * @param base the index of the first token of the player in progress
+     * @return the key [0-KEYS)
+     */
+    static int key(byte[] progress, int base) {
+        int pips = 0, home = 0, finalTrack = 0;
+        for (int t = 0; t < 4; t++) {
+            int p = progress[base + t];
+            pips += GOAL - p;
+            home += p == HOME ? 1 : 0;
+            finalTrack += p >= FINAL && p < GOAL ? 1 : 0;
+        }
+        return (pips / PIP_BUCKET * 5 + home) * 5 + finalTrack;
+    }
+
+    /**
+     * Gets the probability that a player finishes before another one.
+     * @param key the key of the player
+     * @param other the key of the other player
+     * @param special whether the board is special
+     * @return the probability [0-1]
+     */
+    public float getProbability(int key, int other, boolean special) {
+        return this.table[(special ? KEYS * KEYS : 0) + key * KEYS + other];
+    }
+
+    /**
+     * Estimates the probability of every seat of winning a game.
+     * @param progress the progress of every token (seat*4 + token) as in BatchEngine
+     * @param base the index of the first token of the game in progress
+     * @param playing bit mask of the seats that have not finished
+     * @param special whether the board is special
+     * @param p the array the probabilities of the 4 seats are written to, 0 for the seats not playing
+     */
+    void estimate(byte[] progress, int base, int playing, boolean special, double[] p) {
+        double sum = 0;
+        for (int s = 0; s < 4; s++) {
+            p[s] = 0;
+            if ((playing & (1 << s)) == 0)
+                continue;
+            int key = key(progress, base + s * 4);
+            p[s] = 1;
+            for (int o = 0; o < 4; o++)
+                if (o != s && (playing & (1 << o)) != 0)
+                    p[s] *= getProbability(key, key(progress, base + o * 4), special);
+            sum += p[s];
+        }
+        for (int s = 0; s < 4; s++)
+            p[s] = sum > 0 ? p[s] / sum : 0;
+    }
+
+    /**
+     * Builds the table playing games between customAI players.
+     * @param games the number of games to play
+     * @param threads the number of threads playing games, each with its own BatchEngine
+     * @param seed the seed of the games, the thread i uses seed+i
+     * @return the table
+     */
+    public static WinProbability build(final int games, int threads, final long seed) {
+        final long[][] counts = new long[threads][];
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int index = i;
+            final int share = games / threads + (i < games % threads ? 1 : 0);
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    counts[index] = new Counter(share, seed + index).play();
+                }
+            }, "WinProbability-" + i);
+            workers[i].start();
+        }
+        try {
+            for (Thread worker : workers)
+                worker.join();}
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();}
+        long[] total = new long[4 * KEYS * KEYS];
+        for (long[] c : counts)
+            for (int i = 0; c != null && i < total.length; i++)
+                total[i] += c[i];
+        return new WinProbability(smooth(total));
+    }
+
+    //Turns the counts of games and wins of every pair of keys into probabilities, smoothed with the pip counts
+    private static float[] smooth(long[] counts) {
+        float[] table = new float[2 * KEYS * KEYS];
+        for (int board = 0; board < 2; board++) {
+            long[] pipGames = new long[PIPS * PIPS], pipWins = new long[PIPS * PIPS];
+            int base = board * 2 * KEYS * KEYS;
+            for (int a = 0; a < KEYS; a++)
+                for (int b = 0; b < KEYS; b++) {
+                    pipGames[a / 25 * PIPS + b / 25] += counts[base + 2 * (a * KEYS + b)];
+                    pipWins[a / 25 * PIPS + b / 25] += counts[base + 2 * (a * KEYS + b) + 1];
+                }
+            for (int a = 0; a < KEYS; a++)
+                for (int b = 0; b < KEYS; b++) {
+                    int pip = a / 25 * PIPS + b / 25;
+                    double prior = (pipWins[pip] + 0.5) / (pipGames[pip] + 1);
+                    long n = counts[base + 2 * (a * KEYS + b)], wins = counts[base + 2 * (a * KEYS + b) + 1];
+                    table[board * KEYS * KEYS + a * KEYS + b] = (float) ((wins + PRIOR * prior) / (n + PRIOR));
+                }
+        }
+        return table;
+    }
+
+    //Plays games in a BatchEngine and counts, for every pair of players, the games and the times the first one finished first
+    private static class Counter implements BatchEngine.Observer {
+
+        private final int games;
+        private final long seed;
+        private final long[] counts = new long[4 * KEYS * KEYS]; //[board*2*KEYS*KEYS + 2*(key*KEYS + other) + won]
+        private final short[][] keys;  //keys of the 4 seats at every decision of each game
+        private final int[] length;
+        private final int[] place = new int[4];
+        private int finished, board;
+
+        Counter(int games, long seed) {
+            this.games = games;
+            this.keys = new short[LANES][1024];
+            this.length = new int[LANES];
+            this.seed = seed;
+        }
+
+        long[] play() {
+            AutoplayMode[] modes = new AutoplayMode[4];
+            Arrays.fill(modes, AutoplayMode.customAI);
+            //half of the games on each board
+            for (this.board = 0; this.board < 2; this.board++) {
+                BatchEngine engine = new BatchEngine(LANES, Arrays.asList(Color.values()), modes, this.board == 1, this.seed * 2 + this.board, true);
+                engine.setObserver(this);
+                Arrays.fill(this.length, 0);
+                int target = this.board == 0 ? this.games / 2 : this.games;
+                while (this.finished < target)
+                    engine.step();
+            }
+            return this.counts;
+        }
+
+        @Override
+        public void onDecision(BatchEngine engine, int g) {
+            if (this.length[g] + 4 > this.keys[g].length)
+                this.keys[g] = Arrays.copyOf(this.keys[g], this.keys[g].length * 2);
+            byte[] progress = new byte[16];
+            for (int i = 0; i < 16; i++)
+                progress[i] = (byte) engine.getProgress(g, i / 4, i % 4);
+            for (int s = 0; s < 4; s++)
+                this.keys[g][this.length[g]++] = (short) key(progress, s * 4);
+        }
+
+        @Override
+        public void onGameOver(BatchEngine engine, int g) {
+            int[] winners = engine.getWinners(g);
+            for (int i = 0; i < winners.length; i++)
+                this.place[winners[i]] = i;
+            int base = this.board * 2 * KEYS * KEYS;
+            short[] k = this.keys[g];
+            for (int i = 0; i < this.length[g]; i += 4) {
+                for (int s = 0; s < 4; s++) {
+                    if (k[i + s] == 0)
+                        continue; //finished, already ahead of the others
+                    for (int o = 0; o < 4; o++) {
+                        if (o == s || k[i + o] == 0)
+                            continue;
+                        int cell = base + 2 * (k[i + s] * KEYS + k[i + o]);
+                        this.counts[cell]++;
+                        this.counts[cell + 1] += this.place[s] < this.place[o] ? 1 : 0;
+                    }
+                }
+            }
+            this.length[g] = 0;
+            this.finished++;
+        }
+    }
+
+    /**
+     * Saves the table into a file, replacing the previous file atomically.
+     * @param file the table file
+     * @throws IOException if the file can not be written
+     */
+    public void save(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            try (FileOutputStream fileOut = new FileOutputStream(temp)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(KEYS);
+                for (float p : this.table)
+                    out.writeFloat(p);
+                out.flush();
+                fileOut.getFD().sync();
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     * Loads a table saved with save.
+     * @param file the table file
+     * @return the table
+     * @throws IOException if the file can not be read or is not a win probability table
+     */
+    public static WinProbability load(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a ludo win probability table.");
+            if (in.readInt() != VERSION || in.readInt() != KEYS)
+                throw new IOException("Unsupported win probability table version.");
+            float[] table = new float[2 * KEYS * KEYS];
+            for (int i = 0; i < table.length; i++)
+                table[i] = in.readFloat();
+            return new WinProbability(table);
+        }
+    }
+
+    /**
+     * Builds the table and saves it into the given file, or DEFAULT_FILE.
+     * @param args optionally the number of games and the table file
+     */
+    public static void main(String[] args) {
+        int games = args.length >= 1 ? Integer.parseInt(args[0]) : DEFAULT_GAMES;
+        File file = args.length >= 2 ? new File(args[1]) : DEFAULT_FILE;
+        long start = System.nanoTime();
+        WinProbability table = build(games, Runtime.getRuntime().availableProcessors(), System.currentTimeMillis());
+        try {
+            table.save(file);}
+        catch (IOException ex) {
+            System.out.println("Win probability table could not be saved.");
+            System.exit(1);}
+        System.out.printf("%d games played in %.1f s%n", games, (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -6,20 +6,69 @@
 
 package test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Properties;
 import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import ludo.Autoplay;
+import ludo.Autosave;
+import ludo.BatchEngine;
+import ludo.BatchRunner;
 import ludo.Board;
+import ludo.DangerMap;
+import ludo.DecisionCache;
+import ludo.EloRatings;
+import ludo.ExternalBot;
 import ludo.Dice;
+import ludo.GameEvent;
+import ludo.GameEventBus;
+import ludo.GameJournal;
+import ludo.GameListener;
+import ludo.GameProtocol;
+import ludo.GameProtocol.Message;
+import ludo.GameReplay;
+import ludo.GameSaver;
+import ludo.GameServer;
+import ludo.GameSnapshot;
+import ludo.GameStats;
+import ludo.GameTable;
 import ludo.GameState;
 import ludo.ImgPath;
 import ludo.ImgPath.Color;
+import ludo.LatencyHistogram;
+import ludo.League;
 import ludo.LudoGUI;
+import ludo.MatchupRunner;
+import ludo.OffHeapQStore;
+import ludo.Metrics;
+import ludo.ProtocolClient;
+import ludo.ProtocolServer;
 import ludo.Player;
 import ludo.QLearning;
+import ludo.QStore;
+import ludo.QuantileSketch;
+import ludo.QValueMap;
+import ludo.RaceTablebase;
+import ludo.RunningStats;
+import ludo.SequentialTest;
+import ludo.ShardCoordinator;
+import ludo.ShardWriter;
+import ludo.StateQLearning;
 import ludo.Token;
 import static ludo.Player.OUT_OF_BOARD;
 
@@ -252,6 +301,50 @@ public class Test {
          return test;
      }
 
+    /**
+     * Prints a message indicating whether the click hit-testing tests were successful.
+     * <p>
+     * For every player, each token is placed in every tile of the board, every tile of its final track and its home area,
+     * and a click on the center of the token image must select that token.
+     * Finally all the tokens of a player are stacked in the same tile and a click must select the preferred token.
+     */
+    public void testTokenbyCoord(){
+         boolean test=true;
+         for(Color color: Color.values()){
+             Player player = new Player(color);
+             player.setPIndex(color.ordinal());
+             for(int i=0; i<4; i++){
+                 Token token = player.getToken(i);
+                 for(int pos=0; pos<52 && test; pos++){
+                     token.setFinalTrack(false);
+                     token.setPosition(pos);
+                     test = test&&clickSelects(player, i);
+                 }
+                 for(int pos=0; pos<=Player.GOAL && test; pos++){
+                     token.setFinalTrack(true);
+                     token.setPosition(pos);
+                     test = test&&clickSelects(player, i);
+                 }
+                 token.sendHome();
+                 test = test&&clickSelects(player, i);
+             }
+             for(int i=0; i<4; i++){
+                 player.getToken(i).setPosition(20);
+                 player.setXY(i);
+             }
+             int[] clickXY = {player.getToken(0).getCoordinateX()+LudoGUI.TILE_SIZE/2, player.getToken(0).getCoordinateY()+LudoGUI.TILE_SIZE/2};
+             test = test&&player.getTokenbyCoord(clickXY, Arrays.asList(2))==2;
+         }
+         System.out.printf("\n----- TOKEN BY COORDINATES TEST: %s -----\n\n", test? "PASSED":"FAILED");
+    }
+    
+    private boolean clickSelects(Player player, int tIndex){
+        player.setXY(tIndex);
+        Token token = player.getToken(tIndex);
+        int[] clickXY = {token.getCoordinateX()+LudoGUI.TILE_SIZE/2, token.getCoordinateY()+LudoGUI.TILE_SIZE/2};
+        return player.getTokenbyCoord(clickXY, Arrays.asList(tIndex))==tIndex;
+    }
+
     /**
      * Prints a message indicating whether the board tests were successful.
      * <p>
@@ -371,6 +464,1027 @@ public class Test {
              return true; 
      }
 
+    /**
+     * Tests the classes GameJournal and GameReplay.
+     * <p>
+     * A game between 4 computer players is recorded in a journal, storing a snapshot of the game after every step.
+     * The journal is then replayed and this method verifies that the state of the replayed game is equal to the stored snapshot:
+     * <ul>
+     * <li>when the replay moves forward one step at a time,
+     * <li>when the replay moves backward one step at a time,
+     * <li>when the replay jumps to random steps.
+     * </ul>
+     * The replayed moves must not be counted in the Metrics of the application.
+     */
+    public void testReplay(){
+        List<ImgPath.Color> plColors = Arrays.asList(Color.yellow, Color.red, Color.green, Color.blue);
+        List<Boolean> auto = Arrays.asList(true, true, true, true);
+        List<Autoplay.AutoplayMode> autoMode = Arrays.asList(Autoplay.AutoplayMode.customAI, Autoplay.AutoplayMode.random, Autoplay.AutoplayMode.customAI, Autoplay.AutoplayMode.random);
+        GameState game = new GameState(ImgPath.Theme.plain, plColors, auto, autoMode, true);
+        game.setSeed(2014);
+        List<byte[]> snapshots = new ArrayList<>();
+        boolean test = true;
+        try{
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            GameJournal journal = new GameJournal(game, out, 16);
+            snapshots.add(GameSnapshot.capture(game));
+            while(game.getPlaying()){
+                if(game.getDiceRoller()){
+                    game.rollAndCheckActiveTokens();
+                    game.checkMoveOrPass();}
+                else
+                    game.autoMove();
+                if(journal.getSteps()==snapshots.size())
+                    snapshots.add(GameSnapshot.capture(game));
+            }
+            long casts = Metrics.getInstance().getDiceCasts(), started = Metrics.getInstance().getGamesStarted();
+            GameReplay replay = new GameReplay(out.toByteArray());
+            System.out.printf("Journal: %d steps in %d bytes\n", replay.getStepCount(), out.size());
+            for(int step=0; step<=replay.getStepCount() && test; step++){
+                replay.seek(step);
+                test = Arrays.equals(GameSnapshot.capture(replay.getGame()), snapshots.get(step));}
+            System.out.printf("Replay forward: %s\n", test? "passed":"failed");
+            for(int step=replay.getStepCount(); step>=0 && test; step--){
+                replay.seek(step);
+                test = Arrays.equals(GameSnapshot.capture(replay.getGame()), snapshots.get(step));}
+            System.out.printf("Replay backward: %s\n", test? "passed":"failed");
+            Random random = new Random(2014);
+            for(int i=0; i<1000 && test; i++){
+                int step = random.nextInt(replay.getStepCount()+1);
+                replay.seek(step);
+                test = Arrays.equals(GameSnapshot.capture(replay.getGame()), snapshots.get(step));}
+            System.out.printf("Replay random jumps: %s\n", test? "passed":"failed");
+            test &= Metrics.getInstance().getDiceCasts() == casts && Metrics.getInstance().getGamesStarted() == started;
+            System.out.printf("Replay not counted in the Metrics: %s\n", test? "passed":"failed");
+        }
+        catch(IOException ex){
+            test = false;}
+        System.out.printf("\n----- REPLAY TEST: %s -----\n\n", test? "PASSED":"FAILED");
+    }
+    /**
+     * Tests the autosave of a seeded game of customAI controllers: after every 25 steps the save file must hold the
+     * game as it is. Then the game loaded from the last autosave, saved again with GameSaver, must load the same, and
+     * a truncated save file, one with an invalid theme and one with a negative length must throw an IOException
+     * without changing the game they are restored into.
+     */
+    public void testAutosave(){
+        List<Autoplay.AutoplayMode> autoMode = Arrays.asList(Autoplay.AutoplayMode.customAI, Autoplay.AutoplayMode.customAI, Autoplay.AutoplayMode.customAI, Autoplay.AutoplayMode.customAI);
+        GameState game = new GameState(ImgPath.Theme.plain, Arrays.asList(Color.values()), Arrays.asList(true, true, true, true), autoMode, true);
+        game.setSeed(2029);
+        boolean saved = true, resaved = false, rejected = true;
+        File file = null;
+        try {
+            file = File.createTempFile("ludo-autosave", ".sav");
+            Autosave autosave = new Autosave(game, file);
+            for (int step = 1; step <= 200 && saved; step++) {
+                if (game.getDiceRoller()) {
+                    game.rollAndCheckActiveTokens();
+                    game.checkMoveOrPass();}
+                else
+                    game.autoMove();
+                if (step % 25 == 0) {
+                    // closing waits for the latest snapshot to be written
+                    autosave.close();
+                    GameState loaded = GameSaver.load(file);
+                    saved = loaded.getSeed() == game.getSeed() && Arrays.equals(GameSnapshot.capture(loaded), GameSnapshot.capture(game));
+                    autosave = new Autosave(game, file);
+                }
+            }
+            autosave.close();
+            GameState loaded = GameSaver.load(file);
+            GameSaver.save(loaded, file);
+            GameState reloaded = GameSaver.load(file);
+            resaved = reloaded.getSeed() == game.getSeed() && Arrays.equals(GameSnapshot.capture(reloaded), GameSnapshot.capture(game));
+            byte[] valid = Files.readAllBytes(file.toPath()), before = GameSnapshot.capture(game);
+            byte[][] corrupt = {Arrays.copyOf(valid, valid.length - 5), valid.clone(), valid.clone()};
+            corrupt[1][22] = 99; //theme, after the header of 20 bytes, the version and the flags
+            Arrays.fill(corrupt[2], 16, 20, (byte) 0xFF); //length of the snapshot
+            for (byte[] bytes : corrupt) {
+                Files.write(file.toPath(), bytes);
+                try {
+                    GameSaver.restore(game, file);
+                    rejected = false;}
+                catch (IOException ex) {
+                    rejected &= Arrays.equals(GameSnapshot.capture(game), before);}
+            }}
+        catch (IOException ex) {
+            System.out.println("Autosave test could not be run: " + ex.getMessage());
+            saved = false;}
+        finally {
+            if (file != null)
+                file.delete();}
+        System.out.printf("Autosave: snapshots %s, saved again %s, invalid files %s%n", saved? "passed":"failed", resaved? "passed":"failed", rejected? "passed":"failed");
+        System.out.printf("\n----- AUTOSAVE TEST: %s -----\n\n", saved && resaved && rejected? "PASSED":"FAILED");
+    }
+
+    /**
+     * Tests the Elo updates of a duel and of a 4-player game against their values by hand, that a game without result
+     * rates nobody, and that the ratings are saved and loaded back. Then runs two rounds of a League between customAI
+     * and random bots, which must rate customAI first and count every game of the rounds.
+     */
+    public void testLeague(){
+        int errors = 0;
+        EloRatings elo = new EloRatings();
+        elo.update(Arrays.asList("a", "b"));
+        if (Math.abs(elo.getRating("a") - 1516) > 1e-9 || Math.abs(elo.getRating("b") - 1484) > 1e-9)
+            errors++;
+        EloRatings four = new EloRatings();
+        four.update(Arrays.asList("a", "b", "c", "d"));
+        double third = EloRatings.K / 3 / 2;
+        if (Math.abs(four.getRating("a") - (1500 + 3 * third)) > 1e-9 || Math.abs(four.getRating("b") - (1500 + third)) > 1e-9
+                || Math.abs(four.getRating("c") - (1500 - third)) > 1e-9 || Math.abs(four.getRating("d") - (1500 - 3 * third)) > 1e-9)
+            errors++;
+        if (!four.getRanking().equals(Arrays.asList("a", "b", "c", "d")))
+            errors++;
+        elo.update(Arrays.asList("a", "a")); //results between the seats of the same bot are ignored
+        elo.update(new ArrayList<String>());
+        if (elo.getTotalGames() != 2 || elo.getAbandonedGames() != 1 || elo.getGames("a") != 2 || elo.getGames("b") != 1
+                || Math.abs(elo.getRating("a") - 1516) > 1e-9)
+            errors++;
+        File file = null;
+        try {
+            file = File.createTempFile("ludo-league", ".ratings");
+            elo.save(file);
+            EloRatings loaded = EloRatings.load(file);
+            if (Math.abs(loaded.getRating("a") - elo.getRating("a")) > 1e-3 || loaded.getGames("a") != 2
+                    || loaded.getTotalGames() != 2 || loaded.getAbandonedGames() != 1)
+                errors++;
+            file.delete();
+            Properties settings = new Properties();
+            settings.setProperty("bots", "custom, random");
+            settings.setProperty("bot.custom.mode", "customAI");
+            settings.setProperty("bot.random.mode", "random");
+            settings.setProperty("rounds", "2");
+            settings.setProperty("seed", "2035");
+            settings.setProperty("threads", "2");
+            settings.setProperty("ratings", file.getPath());
+            League league = new League(settings);
+            StringWriter out = new StringWriter();
+            league.run(out);
+            EloRatings ratings = league.getRatings();
+            System.out.print(out);
+            if (!ratings.getRanking().get(0).equals("custom")
+                    || ratings.getTotalGames() + ratings.getAbandonedGames() != 2 * league.getGamesPerRound())
+                errors++;}
+        catch (IOException | InterruptedException ex) {
+            System.out.println("League test could not be run: " + ex.getMessage());
+            errors++;}
+        finally {
+            if (file != null)
+                file.delete();}
+        System.out.printf("\n----- LEAGUE TEST: %s (%d errors) -----\n\n", errors == 0? "PASSED":"FAILED", errors);
+    }
+
+    /**
+     * Tests the sequential probability ratio test of a matchup: a run of successes must accept H1 and a run of failures
+     * H0 exactly at the trial where the log-likelihood ratio crosses its bound, and biased random outcomes (30% and 75% of
+     * successes against H0: 0.5, H1: 0.6) must stop at H0 and at H1. Then the seats of the configurations of a
+     * MatchupRunner must swap in odd games, and customAI must be found stronger than random as "a" and as "b".
+     */
+    public void testMatchup(){
+        int errors = 0;
+        double p0 = 0.5, p1 = 0.6, bound = Math.log(0.95 / 0.05);
+        long[] expected = {(long) Math.ceil(bound / Math.log(p1 / p0)), (long) Math.ceil(bound / -Math.log((1 - p1) / (1 - p0)))};
+        SequentialTest.Decision[] decisions = {SequentialTest.Decision.acceptH1, SequentialTest.Decision.acceptH0};
+        for (int i = 0; i < 2; i++) {
+            SequentialTest sprt = new SequentialTest(p0, p1, 0.05, 0.05);
+            SequentialTest.Decision decision = SequentialTest.Decision.undecided;
+            while (decision == SequentialTest.Decision.undecided)
+                decision = sprt.add(i == 0);
+            System.out.printf("SPRT: %s after %d trials (expected %d)%n", decision, sprt.getTrials(), expected[i]);
+            if (decision != decisions[i] || sprt.getTrials() != expected[i])
+                errors++;
+        }
+        double[] rates = {0.3, 0.75};
+        for (int i = 0; i < 2; i++) {
+            Random random = new Random(2034 + i);
+            SequentialTest sprt = new SequentialTest(p0, p1, 0.05, 0.05), half = new SequentialTest(p0, p1, 0.05, 0.05);
+            SequentialTest.Decision decision = SequentialTest.Decision.undecided;
+            while (decision == SequentialTest.Decision.undecided && sprt.getTrials() < 10000) {
+                boolean success = random.nextDouble() < rates[i];
+                decision = sprt.add(success);
+                if (sprt.getTrials() % 2 == 0)
+                    half.add(success);
+            }
+            SequentialTest merged = new SequentialTest(p0, p1, 0.05, 0.05);
+            random = new Random(2034 + i);
+            for (long n = 1; n <= sprt.getTrials(); n++) {
+                boolean success = random.nextDouble() < rates[i];
+                if (n % 2 == 1)
+                    merged.add(success);
+            }
+            merged.merge(half);
+            System.out.printf("SPRT: %.0f%% of successes: %s after %d trials%n", rates[i] * 100, decision, sprt.getTrials());
+            if (decision != (i == 0 ? SequentialTest.Decision.acceptH0 : SequentialTest.Decision.acceptH1)
+                    || merged.getDecision() != decision || Math.abs(merged.getLLR() - sprt.getLLR()) > 1e-9)
+                errors++;
+        }
+        Properties scenario = new Properties();
+        scenario.setProperty("a", "customAI");
+        scenario.setProperty("b", "random");
+        scenario.setProperty("seed", "2034");
+        scenario.setProperty("threads", "2");
+        scenario.setProperty("margin", "0.1");
+        Autoplay.AutoplayMode c = Autoplay.AutoplayMode.customAI, r = Autoplay.AutoplayMode.random;
+        MatchupRunner two = new MatchupRunner(scenario);
+        scenario.setProperty("seats", "4");
+        MatchupRunner four = new MatchupRunner(scenario);
+        if (!two.getModes(0).equals(Arrays.asList(c, r, r, r)) || !two.getModes(1).equals(Arrays.asList(r, c, c, c))
+                || !four.getModes(2).equals(Arrays.asList(c, r, c, r)) || !four.getModes(3).equals(Arrays.asList(r, c, r, c)))
+            errors++;
+        try {
+            MatchupRunner.Result first = two.run(new StringWriter());
+            scenario.setProperty("a", "random");
+            scenario.setProperty("b", "customAI");
+            scenario.setProperty("seats", "2");
+            MatchupRunner.Result second = new MatchupRunner(scenario).run(new StringWriter());
+            System.out.printf("Matchup: customAI vs random %s, random vs customAI %s%n", first, second);
+            if (first != MatchupRunner.Result.aStronger || second != MatchupRunner.Result.bStronger)
+                errors++;}
+        catch (IOException | InterruptedException ex) {
+            System.out.println("Matchup could not be run: " + ex.getMessage());
+            errors++;}
+        System.out.printf("\n----- MATCHUP TEST: %s (%d errors) -----\n\n", errors == 0? "PASSED":"FAILED", errors);
+    }
+
+    /**
+     * Tests the statistics accumulators against exact values of small samples: the mean, variance, minimum and maximum
+     * of a RunningStats merged from two uneven parts, the quantiles of a QuantileSketch within its relative accuracy,
+     * also when merged, and the Wilson intervals of GameStats against the published values of 0/10, 5/10 and 81/263.
+     */
+    public void testStats(){
+        int errors = 0;
+        double[] sample = {3, 7.5, 0.25, 12, 9, 9, 4.75, 18, 1, 6.5};
+        double sum = 0, squares = 0;
+        for (double x : sample)
+            sum += x;
+        double mean = sum / sample.length;
+        for (double x : sample)
+            squares += (x - mean) * (x - mean);
+        double variance = squares / (sample.length - 1);
+        RunningStats all = new RunningStats(), left = new RunningStats(), right = new RunningStats();
+        for (int i = 0; i < sample.length; i++) {
+            all.add(sample[i]);
+            (i < 3 ? left : right).add(sample[i]);
+        }
+        left.merge(right);
+        left.merge(new RunningStats());
+        RunningStats empty = new RunningStats();
+        empty.merge(left);
+        for (RunningStats stats : new RunningStats[]{all, left, empty})
+            if (stats.getCount() != 10 || Math.abs(stats.getMean() - mean) > 1e-12 || Math.abs(stats.getVariance() - variance) > 1e-12
+                    || stats.getMin() != 0.25 || stats.getMax() != 18)
+                errors++;
+        System.out.printf("RunningStats: mean %.4f (exact %.4f), variance %.4f (exact %.4f)%n", left.getMean(), mean, left.getVariance(), variance);
+        QuantileSketch sketch = new QuantileSketch(), low = new QuantileSketch(), high = new QuantileSketch();
+        double[] values = new double[1001];
+        for (int i = 0; i <= 1000; i++) {
+            values[i] = i * i / 10.0; //from 0 to 100000, with a single 0
+            sketch.add(values[i]);
+            (i % 2 == 0 ? low : high).add(values[i]);
+        }
+        low.merge(high);
+        double worst = 0;
+        for (double q : new double[]{0, 0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99, 1}) {
+            double exact = values[(int) (q * 1000)];
+            for (QuantileSketch s : new QuantileSketch[]{sketch, low}) {
+                double error = exact == 0 ? s.getQuantile(q) : Math.abs(s.getQuantile(q) - exact) / exact;
+                worst = Math.max(worst, error);
+            }
+        }
+        System.out.printf("QuantileSketch: worst relative error %.4f (accuracy %.2f)%n", worst, QuantileSketch.DEFAULT_ACCURACY);
+        if (worst > QuantileSketch.DEFAULT_ACCURACY + 1e-9 || low.getCount() != 1001)
+            errors++;
+        double[][] expected = {{0, 10, 0, 0.2775}, {5, 10, 0.2366, 0.7634}, {81, 263, 0.2553, 0.3662}};
+        for (double[] e : expected) {
+            GameStats stats = new GameStats(), other = new GameStats();
+            for (int game = 0; game < e[1]; game++)
+                (game % 3 == 0 ? stats : other).add(game < e[0] ? Arrays.asList(0, 1) : Arrays.asList(1, 0),
+                        new boolean[]{true, true, false, false}, 30, 100, 1);
+            stats.merge(other);
+            double[] ci = stats.getWinInterval(0, GameStats.Z95);
+            System.out.printf("Wilson %d/%d: [%.4f-%.4f]%n", (int) e[0], (int) e[1], ci[0], ci[1]);
+            if (Math.abs(ci[0] - e[2]) > 1e-4 || Math.abs(ci[1] - e[3]) > 1e-4 || stats.getGames() != e[1])
+                errors++;
+        }
+        System.out.printf("\n----- STATS TEST: %s (%d errors) -----\n\n", errors == 0? "PASSED":"FAILED", errors);
+    }
+
+    /**
+     * Tests the decisions of a stateQLearning player with a deadline of 100 ms, in a position with several candidates
+     * whose customAI move is not the first candidate. A table that answers at once must give the move of the learner
+     * without timeout, a table that stalls after the first candidate must give that candidate (the best token so far)
+     * with a timeout and no fallback, and a table that stalls from the start must give the customAI move with a timeout
+     * and a fallback, all of them counted in the Metrics.
+     */
+    public void testDecisionDeadline(){
+        GameState game = deadlineGame();
+        int seat = game.getCurrentPlayer();
+        Autoplay autoplay = game.getComputerPlayer();
+        int fallback = autoplay.selectToken(game); //customAI
+        game.getPlayers()[seat].setAutoMode(Autoplay.AutoplayMode.stateQLearning);
+        int learned = new StateQLearning(new StalledStore(Integer.MAX_VALUE)).selectToken(game);
+        autoplay.setDeadline(seat, 100);
+        int[] stalls = {Integer.MAX_VALUE, 1, 0}, expected = {learned, learned, fallback};
+        long[] timeouts = {0, 1, 1}, fallbacks = {0, 0, 1};
+        boolean test = true;
+        for (int i = 0; i < stalls.length; i++) {
+            Metrics metrics = Metrics.getInstance();
+            long timeout = metrics.getDecisionTimeouts().get("stateQLearning"), fallen = metrics.getDecisionFallbacks().get("stateQLearning");
+            autoplay.setStateQLearning(seat, new StateQLearning(new StalledStore(stalls[i])));
+            long start = System.nanoTime();
+            int token = autoplay.decideToken(game);
+            long ms = (System.nanoTime() - start) / 1000000;
+            timeout = metrics.getDecisionTimeouts().get("stateQLearning") - timeout;
+            fallen = metrics.getDecisionFallbacks().get("stateQLearning") - fallen;
+            System.out.printf("Deadline: table answering %s candidates: token %d (expected %d), %d ms, %d timeouts, %d fallbacks%n",
+                    stalls[i] == Integer.MAX_VALUE ? "all" : String.valueOf(stalls[i]), token, expected[i], ms, timeout, fallen);
+            test &= token == expected[i] && timeout == timeouts[i] && fallen == fallbacks[i] && ms < 2000;
+        }
+        test &= learned != fallback;
+        System.out.printf("\n----- DECISION DEADLINE TEST: %s -----\n\n", test? "PASSED":"FAILED");
+    }
+
+    //Plays a seeded game of customAI controllers until a decision between several tokens out, outside a race,
+    //whose customAI move is not the first token out
+    private static GameState deadlineGame(){
+        List<Autoplay.AutoplayMode> autoMode = Arrays.asList(Autoplay.AutoplayMode.customAI, Autoplay.AutoplayMode.customAI, Autoplay.AutoplayMode.customAI, Autoplay.AutoplayMode.customAI);
+        GameState game = new GameState(ImgPath.Theme.plain, Arrays.asList(Color.values()), Arrays.asList(true, true, true, true), autoMode, true);
+        game.setSeed(2044);
+        while (true) {
+            game.rollAndCheckActiveTokens();
+            game.checkMoveOrPass();
+            if (game.getDiceRoller())
+                continue;
+            Player player = game.getPlayers()[game.getCurrentPlayer()];
+            if (!game.getDice().getIsSix() && player.getTokensOut().size() >= 2 && !RaceTablebase.isRace(game)
+                    && game.getComputerPlayer().selectToken(game) != player.getTokensOut().get(0))
+                return game;
+            game.autoMove();
+        }
+    }
+
+    //Q-value table of a learner that prefers the first token it is asked about and stalls after a number of questions
+    private static class StalledStore implements QStore {
+        private final int answers;
+        private int questions;
+
+        StalledStore(int answers) {
+            this.answers = answers;
+        }
+
+        @Override
+        public float get(long key, float missing) {
+            if (this.questions++ >= this.answers) {
+                try {
+                    Thread.sleep(10000);}
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();}
+            }
+            return this.questions == 1 ? 1 : 0;
+        }
+
+        @Override
+        public void put(long key, float value) {
+        }
+
+        @Override
+        public void update(long key, float alpha, float target) {
+        }
+
+        @Override
+        public int size() {
+            return 0;
+        }
+    }
+
+    /**
+     * Tests the DecisionCache: the rounding of its capacity, the hits and misses counted in the Metrics, the CLOCK
+     * eviction of a full bucket, which must keep the entries read since the hand last passed them, and the entries
+     * read by 8 threads replacing each other, which must never give the value of another key.
+     */
+    public void testDecisionCache(){
+        int errors = 0;
+        if (new DecisionCache(1).getCapacity() != DecisionCache.WAYS || new DecisionCache(100).getCapacity() != 128)
+            errors++;
+        Metrics metrics = Metrics.getInstance();
+        long hits = metrics.getDecisionCacheHits(), misses = metrics.getDecisionCacheMisses();
+        DecisionCache cache = new DecisionCache(DecisionCache.WAYS); //a single bucket
+        for (int key = 0; key < DecisionCache.WAYS; key++)
+            cache.put(key, -key);
+        for (int key = 0; key < DecisionCache.WAYS / 2; key++)
+            if (cache.get(key, 1) != -key)
+                errors++;
+        if (cache.get(DecisionCache.MAX_KEY, 1) != 1)
+            errors++;
+        cache.put(DecisionCache.WAYS, -DecisionCache.WAYS); //the hand skips the keys read and evicts the first one not read
+        cache.put(DecisionCache.WAYS + 1, -DecisionCache.WAYS - 1);
+        for (int key = 0; key <= DecisionCache.WAYS + 1; key++) {
+            boolean evicted = key == DecisionCache.WAYS / 2 || key == DecisionCache.WAYS / 2 + 1;
+            if (cache.get(key, 1) != (evicted? 1:-key))
+                errors++;
+        }
+        hits = metrics.getDecisionCacheHits() - hits;
+        misses = metrics.getDecisionCacheMisses() - misses;
+        System.out.printf("DecisionCache: %d hits, %d misses%n", hits, misses);
+        if (hits != DecisionCache.WAYS / 2 + DecisionCache.WAYS || misses != 3)
+            errors++;
+        final DecisionCache shared = new DecisionCache(64);
+        final AtomicInteger wrong = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final int seed = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    for (int n = 0; n < 200000; n++) {
+                        int key = random.nextInt(1024);
+                        int value = shared.get(key, -1);
+                        if (value == -1)
+                            shared.put(key, key * 31);
+                        else if (value != key * 31)
+                            wrong.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        try {
+            for (Thread t : threads)
+                t.join();}
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();}
+        if (wrong.get() != 0)
+            errors++;
+        System.out.printf("\n----- DECISION CACHE TEST: %s (%d errors, %d wrong values) -----\n\n", errors == 0? "PASSED":"FAILED", errors, wrong.get());
+    }
+
+    /**
+     * Tests the Q-value stores: the values and updates of a QValueMap, its CLOCK eviction when it is full, which must
+     * keep a key read between every insertion, and the compare-and-set updates of an OffHeapQStore shared by 8 threads,
+     * which must lose none of the updates of a key nor insert any key twice.
+     */
+    public void testQStore(){
+        int errors = 0;
+        QValueMap map = new QValueMap(1000);
+        for (long key = 1; key <= 500; key++)
+            map.put(key, key);
+        for (long key = 1; key <= 500; key++)
+            map.update(key, 0.25f, 0);
+        for (long key = 1; key <= 500; key++)
+            if (map.get(key, -1) != key * 0.75f)
+                errors++;
+        if (map.size() != 500 || map.get(501, -1) != -1)
+            errors++;
+        QValueMap full = new QValueMap(100);
+        full.put(1, 1);
+        for (long key = 2; key <= 1000; key++) {
+            full.get(1, -1);
+            full.put(key, key);
+        }
+        int present = 0;
+        for (long key = 1; key <= 1000; key++) {
+            float value = full.get(key, -1);
+            if (value >= 0) {
+                present++;
+                if (value != key)
+                    errors++;
+            }
+        }
+        System.out.printf("QValueMap: %d entries, %d evictions%n", present, full.getEvictions());
+        if (present != 100 || full.size() != 100 || full.getEvictions() != 900 || full.get(1, -1) != 1 || full.get(1000, -1) != 1000)
+            errors++;
+        final OffHeapQStore store = OffHeapQStore.allocate(1000);
+        store.put(7, 1);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int n = 0; n < 16; n++)
+                        store.update(7, 0.5f, 0); //halves the value whatever the order of the threads
+                    for (long key = 100; key < 300; key++)
+                        store.update(key, 1, key);
+                }
+            });
+            threads[i].start();
+        }
+        try {
+            for (Thread t : threads)
+                t.join();}
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();}
+        System.out.printf("OffHeapQStore: %d entries, value %s after 128 halvings%n", store.size(), store.get(7, -1));
+        if (store.get(7, -1) != Math.scalb(1f, -128) || store.size() != 201)
+            errors++;
+        for (long key = 100; key < 300; key++)
+            if (store.get(key, -1) != key)
+                errors++;
+        System.out.printf("\n----- Q STORE TEST: %s (%d errors) -----\n\n", errors == 0? "PASSED":"FAILED", errors);
+    }
+
+    /**
+     * Tests the delivery of a GameEventBus: synchronous listeners are called in the order they subscribed for every
+     * event, a listener publishing while it is notified does not change the event the next listeners receive, and an
+     * asynchronous listener gets copies of all the events in order on the shared event thread. An unsubscribed listener
+     * receives nothing more.
+     */
+    public void testEventBus(){
+        final GameEventBus bus = new GameEventBus();
+        final List<String> calls = new ArrayList<>();
+        final List<GameEvent> received = Collections.synchronizedList(new ArrayList<GameEvent>());
+        final CountDownLatch delivered = new CountDownLatch(100);
+        final boolean[] eventThread = {true};
+        GameListener first = new GameListener() {
+            @Override
+            public void onEvent(GameEvent event) {
+                calls.add("first " + event.getType() + " " + event.getTurn());
+                if (event.getType() == GameEvent.Type.roll && event.getTurn() == 50)
+                    bus.publish(GameEvent.Type.move, 0, 1, GameEvent.NONE, 2, 3, 4, 50);
+            }
+        };
+        GameListener second = new GameListener() {
+            @Override
+            public void onEvent(GameEvent event) {
+                calls.add("second " + event.getType() + " " + event.getTurn());
+            }
+        };
+        bus.subscribe(first);
+        bus.subscribe(second);
+        bus.subscribeAsync(new GameListener() {
+            @Override
+            public void onEvent(GameEvent event) {
+                eventThread[0] &= Thread.currentThread().getName().equals("ludo-events");
+                if (event.getType() == GameEvent.Type.roll) {
+                    received.add(event);
+                    delivered.countDown();
+                }
+            }
+        });
+        for (int turn = 0; turn < 100; turn++)
+            bus.publish(GameEvent.Type.roll, turn % 4, GameEvent.NONE, GameEvent.NONE, GameEvent.NONE, GameEvent.NONE, turn % 6 + 1, turn);
+        List<String> expected = new ArrayList<>();
+        for (int turn = 0; turn < 100; turn++) {
+            expected.add("first roll " + turn);
+            if (turn == 50) {
+                expected.add("first move 50");
+                expected.add("second move 50");
+            }
+            expected.add("second roll " + turn);
+        }
+        boolean ordered = calls.equals(expected), async = false;
+        try {
+            async = delivered.await(5, TimeUnit.SECONDS) && eventThread[0];
+            for (int turn = 0; turn < 100 && async; turn++)
+                async = received.get(turn).getTurn() == turn && received.get(turn).getDice() == turn % 6 + 1;}
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();}
+        bus.unsubscribe(first);
+        bus.unsubscribe(second);
+        int before = calls.size();
+        bus.publish(GameEvent.Type.gameOver, 0, GameEvent.NONE, GameEvent.NONE, GameEvent.NONE, GameEvent.NONE, 0, 100);
+        boolean unsubscribed = calls.size() == before && bus.hasListeners();
+        System.out.printf("EventBus: synchronous order %s, asynchronous delivery %s, unsubscribe %s%n",
+                ordered? "passed":"failed", async? "passed":"failed", unsubscribed? "passed":"failed");
+        System.out.printf("\n----- EVENT BUS TEST: %s -----\n\n", ordered && async && unsubscribed? "PASSED":"FAILED");
+    }
+
+    /**
+     * Tests the BatchEngine against GameState, following the dice of 100 seeded games with customAI controllers, half of
+     * them with the danger reward, and comparing the final positions, turns and winners. Then measures the rolls per
+     * second of the engine.
+     */
+    public void testBatchEngine(){
+        List<Color> plColors = Arrays.asList(Color.yellow, Color.red, Color.green, Color.blue);
+        Autoplay.AutoplayMode[] autoMode = {Autoplay.AutoplayMode.customAI, Autoplay.AutoplayMode.customAI, Autoplay.AutoplayMode.customAI, Autoplay.AutoplayMode.customAI};
+        int mismatches = 0;
+        for (int seed = 0; seed < 100; seed++) {
+            boolean special = seed % 2 == 0;
+            GameState game = new GameState(ImgPath.Theme.plain, plColors, Arrays.asList(true, true, true, true), Arrays.asList(autoMode), special);
+            game.setSeed(seed);
+            BatchEngine engine = new BatchEngine(1, plColors, autoMode, special, seed, false);
+            if (seed % 4 >= 2)
+                for (int s = 0; s < 4; s++) {
+                    game.getComputerPlayer().setRewards(s, Collections.singletonMap("danger", -40));
+                    engine.setRewards(s, game.getComputerPlayer().getRewards(s));
+                }
+            // the engine follows the dice of the game and must take the same decisions
+            while (game.getPlaying()) {
+                game.rollAndCheckActiveTokens();
+                engine.setDice(0, game.getDice().getResult());
+                game.checkMoveOrPass();
+                if (!game.getDiceRoller())
+                    game.autoMove();
+                engine.play();
+            }
+            for (int s = 0; s < 4; s++)
+                for (int t = 0; t < 4; t++)
+                    if (engine.getProgress(0, s, t) != BatchEngine.GOAL)
+                        mismatches++;
+            if (engine.getTurnCount(0) != game.getTurnCount() || !Arrays.toString(engine.getWinners(0)).equals(game.getWinners().toString()))
+                mismatches++;
+        }
+        System.out.println("BatchEngine: "+mismatches+" mismatches in 100 games");
+        
+        BatchEngine engine = new BatchEngine(4096, plColors, autoMode, true, 1, true);
+        long initialTime = System.nanoTime();
+        engine.run(10000);
+        double seconds = (System.nanoTime() - initialTime) / 1e9;
+        System.out.printf("BatchEngine: %.1f million rolls per second, %d games%n", 4096 * 10000 / seconds / 1e6, engine.getFinishedGames());
+    }
+
+    /**
+     * Tests that the danger map kept up to date by the events of 20 seeded games with customAI controllers
+     * has the same values as a map computed from scratch after every move.
+     */
+    public void testDangerMap(){
+        List<Color> plColors = Arrays.asList(Color.yellow, Color.red, Color.green, Color.blue);
+        List<Autoplay.AutoplayMode> autoMode = Arrays.asList(Autoplay.AutoplayMode.customAI, Autoplay.AutoplayMode.customAI, Autoplay.AutoplayMode.customAI, Autoplay.AutoplayMode.customAI);
+        int mismatches = 0;
+        for (int seed = 0; seed < 20; seed++) {
+            GameState game = new GameState(ImgPath.Theme.plain, plColors, Arrays.asList(true, true, true, true), autoMode, seed % 2 == 0);
+            game.setSeed(seed);
+            DangerMap danger = game.getDangerMap();
+            while (game.getPlaying()) {
+                game.rollAndCheckActiveTokens();
+                game.checkMoveOrPass();
+                if (!game.getDiceRoller())
+                    game.autoMove();
+                DangerMap expected = new DangerMap(game);
+                for (int s = 0; s < 4; s++)
+                    for (int tile = 0; tile < DangerMap.TILES; tile++)
+                        if (danger.getDanger(s, tile) != expected.getDanger(s, tile))
+                            mismatches++;
+            }
+        }
+        System.out.printf("\n----- DANGER MAP TEST: %s (%d mismatches) -----\n\n", mismatches == 0? "PASSED":"FAILED", mismatches);
+    }
+
+    /**
+     * Tests the race tablebase of the regular board against the expected turns of the positions with two tokens out of
+     * the goal, computed here by exhaustive play: every dice result and every move of the player, until the values converge.
+     */
+    public void testRaceTablebase(){
+        double[][] e = new double[58][58]; //[progress of the first token][progress of the second one], 57 at the goal
+        for (double change = 1; change > 1e-9; ) {
+            change = 0;
+            for (int a = 0; a <= 57; a++)
+                for (int b = 0; b <= 57; b++) {
+                    if (a == 57 && b == 57)
+                        continue;
+                    double moves = 0;
+                    int passes = 0;
+                    for (int dice = 1; dice <= 6; dice++) {
+                        double best = Double.MAX_VALUE;
+                        for (int t = 0; t < 2; t++) {
+                            int p = raceMove(t == 0 ? a : b, dice);
+                            if (p < 0)
+                                continue;
+                            int na = t == 0 ? p : a, nb = t == 0 ? b : p;
+                            //a six plays again, unless the token left home or the player finished
+                            boolean extra = dice == 6 && (t == 0 ? a : b) != 0 && !(na == 57 && nb == 57);
+                            best = Math.min(best, (extra ? 0 : 1) + e[na][nb]);
+                        }
+                        if (best == Double.MAX_VALUE)
+                            passes++;
+                        else
+                            moves += best;
+                    }
+                    double value = (moves + passes) / (6 - passes);
+                    change = Math.max(change, Math.abs(value - e[a][b]));
+                    e[a][b] = value;
+                }
+        }
+        RaceTablebase tablebase = RaceTablebase.getDefault();
+        int errors = 0;
+        double worst = 0;
+        for (int a = 0; a <= 57; a++)
+            for (int b = 0; b <= 57; b++) {
+                double diff = Math.abs(tablebase.getExpectedTurns(new int[]{a, b, 57, 57}, false) - e[a][b]);
+                worst = Math.max(worst, diff);
+                if (diff > 1e-3)
+                    errors++;
+            }
+        System.out.printf("RaceTablebase: home and home %.3f turns, worst difference %.2e%n", e[0][0], worst);
+        System.out.printf("\n----- RACE TABLEBASE TEST: %s (%d errors) -----\n\n", errors == 0? "PASSED":"FAILED", errors);
+    }
+
+    //Moves a token of a race on the regular board, by its progress as in BatchEngine, -1 if it can not move
+    private static int raceMove(int p, int dice) {
+        if (p == 57 || (p == 0 && dice != 6))
+            return -1;
+        if (p == 0)
+            return 1;
+        if (p < 52)
+            return p + dice; //the track leads straight into the final track
+        int x = p - 52 + dice;
+        return 52 + (x > Player.GOAL ? 2 * Player.GOAL - x : x);
+    }
+
+    /**
+     * Tests a game played through the loopback network by a random client in the yellow seat against 3 customAI players.
+     * A move sent when the client has to roll must be rejected, and the game must reach its end.
+     * Then tests that malformed frames are rejected as MALFORMED.
+     */
+    public void testProtocol(){
+        int rejected = 0, events = 0;
+        boolean over = false, malformed = false;
+        try (ProtocolServer server = new ProtocolServer(new GameServer(), 0);
+                ProtocolClient client = new ProtocolClient("localhost", server.getPort())) {
+            Random random = new Random(1);
+            client.open(1, true);
+            while (!over) {
+                Message m = client.read();
+                switch (m.getType()) {
+                    case GameProtocol.OPENED:
+                        client.join(m.getValue(0), 0);
+                        break;
+                    case GameProtocol.TURN:
+                        if (m.getValue(0) != 1)
+                            break;
+                        if (m.getValue(1) == 0) {
+                            if (events == 0)
+                                client.move(0);
+                            client.roll();}
+                        else {
+                            int token = random.nextInt(4);
+                            while ((m.getValue(1) & (1 << token)) == 0)
+                                token = random.nextInt(4);
+                            client.move(token);}
+                        break;
+                    case GameProtocol.EVENT:
+                        events++;
+                        over = m.getEvent().getType() == GameEvent.Type.gameOver;
+                        break;
+                    case GameProtocol.REJECTED:
+                        rejected++;
+                        break;
+                }
+            }
+            System.out.printf("Protocol: %d events in %d bytes%n", events, client.getReceived());
+            // an unknown message and a JOIN without seat are rejected, a frame of length 0 also closes the connection
+            try (Socket raw = new Socket("localhost", server.getPort())) {
+                raw.getOutputStream().write(new byte[]{1, 99, 2, GameProtocol.JOIN, 5, 0});
+                ByteArrayOutputStream answer = new ByteArrayOutputStream();
+                byte[] buffer = new byte[64];
+                for (int n; (n = raw.getInputStream().read(buffer)) > 0; )
+                    answer.write(buffer, 0, n);
+                byte[] reject = {2, GameProtocol.REJECTED, GameProtocol.MALFORMED};
+                malformed = Arrays.equals(answer.toByteArray(), new byte[]{reject[0], reject[1], reject[2], reject[0], reject[1], reject[2], reject[0], reject[1], reject[2]});
+            }}
+        catch (IOException ex) {
+            System.out.println("Protocol test could not be run: " + ex.getMessage());}
+        System.out.printf("\n----- PROTOCOL TEST: %s -----\n\n", over && rejected == 1 && malformed ? "PASSED":"FAILED");
+    }
+
+    /**
+     * Tests that the quantiles of a LatencyHistogram are the upper bounds of the buckets holding the recorded
+     * durations, i.e. at least the duration and less than twice it, and never above the maximum.
+     */
+    public void testLatencyHistogram(){
+        int errors = 0;
+        Random random = new Random(30);
+        for (int i = 0; i < 1000; i++) {
+            long nanos = 1 + random.nextInt(1 << 24);
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(nanos);
+            histogram.record(4 * nanos);
+            long median = Math.round(histogram.getSnapshot().getMedianMicros() * 1000);
+            if (median < nanos || median >= 2 * nanos)
+                errors++;
+        }
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 900; i++)
+            histogram.record(1000);
+        for (int i = 0; i < 99; i++)
+            histogram.record(3000);
+        histogram.record(1000);
+        LatencyHistogram.Snapshot s = histogram.getSnapshot();
+        System.out.println("LatencyHistogram: " + s);
+        if (s.getMedianMicros() != 1.023 || s.getP99Micros() != 3.0 || s.getMaxMicros() != 3.0 || s.getMedianMicros() > s.getMaxMicros())
+            errors++;
+        System.out.printf("\n----- LATENCY HISTOGRAM TEST: %s (%d errors) -----\n\n", errors == 0? "PASSED":"FAILED", errors);
+    }
+
+    /**
+     * Tests a GameServer playing 100 seeded games between customAI and random controllers in tables on two threads:
+     * every table must end with the same winners and turns as the same game played in the calling thread.
+     * Then tests that a table waiting for its human player is parked, and restored by the next command.
+     */
+    public void testServer(){
+        List<Color> plColors = Arrays.asList(Color.yellow, Color.red, Color.green, Color.blue);
+        List<Autoplay.AutoplayMode> autoMode = Arrays.asList(Autoplay.AutoplayMode.customAI, Autoplay.AutoplayMode.random, Autoplay.AutoplayMode.customAI, Autoplay.AutoplayMode.random);
+        int mismatches = 0;
+        boolean parked = false, restored = false;
+        try {
+            GameServer server = new GameServer(2, 0);
+            final CountDownLatch over = new CountDownLatch(100);
+            List<GameState> games = new ArrayList<>();
+            for (int seed = 0; seed < 100; seed++) {
+                GameState game = new GameState(ImgPath.Theme.plain, plColors, Arrays.asList(true, true, true, true), autoMode, true);
+                game.setSeed(seed);
+                games.add(game);
+                server.open(game, new GameListener() {
+                    @Override
+                    public void onEvent(GameEvent event) {
+                        if (event.getType() == GameEvent.Type.gameOver)
+                            over.countDown();
+                    }
+                });
+            }
+            if (!over.await(1, TimeUnit.MINUTES))
+                mismatches += (int) over.getCount();
+            for (int seed = 0; seed < 100; seed++) {
+                GameState game = new GameState(ImgPath.Theme.plain, plColors, Arrays.asList(true, true, true, true), autoMode, true);
+                game.setSeed(seed);
+                BatchRunner.play(game);
+                if (game.getTurnCount() != games.get(seed).getTurnCount() || !game.getWinners().equals(games.get(seed).getWinners()))
+                    mismatches++;
+            }
+            server.shutdown(1, TimeUnit.MINUTES);
+            System.out.println("GameServer: " + mismatches + " mismatches in 100 games");
+
+            server = new GameServer(1, 50);
+            GameState game = new GameState(ImgPath.Theme.plain, plColors, Arrays.asList(false, true, true, true), autoMode, true);
+            game.setSeed(1);
+            final GameTable table = server.open(game);
+            for (int i = 0; i < 100 && !table.getParked(); i++)
+                Thread.sleep(20);
+            parked = table.getParked();
+            final boolean[] rolled = new boolean[1];
+            final CountDownLatch command = new CountDownLatch(1);
+            table.execute(new Runnable() {
+                @Override
+                public void run() {
+                    rolled[0] = table.roll(table.getSeat());
+                    command.countDown();
+                }
+            });
+            restored = command.await(10, TimeUnit.SECONDS) && rolled[0] && !table.getParked() && table.getFailures() == 0;
+            server.shutdown(1, TimeUnit.MINUTES);
+            System.out.printf("GameTable: parked %s, restored %s%n", parked, restored);}
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();}
+        System.out.printf("\n----- SERVER TEST: %s -----\n\n", mismatches == 0 && parked && restored? "PASSED":"FAILED");
+    }
+
+    /**
+     * Tests a scenario of 200 games split into shards of 30 games played by two local worker processes against the same
+     * scenario run by a BatchRunner: both must write the same games, apart from their duration, and the same summary.
+     */
+    public void testShards(){
+        Properties scenario = new Properties();
+        scenario.setProperty("modes", "customAI, random, customAI, random");
+        scenario.setProperty("games", "200");
+        scenario.setProperty("seed", "2050");
+        scenario.setProperty("threads", "1");
+        scenario.setProperty("workers", "2");
+        scenario.setProperty("shard", "30");
+        boolean test;
+        try {
+            StringWriter batch = new StringWriter(), shards = new StringWriter();
+            new BatchRunner(scenario).run(batch);
+            new ShardCoordinator(scenario).run(shards);
+            List<String> expected = gameLines(batch.toString()), actual = gameLines(shards.toString());
+            System.out.printf("Shards: %d games, BatchRunner: %d games%n", actual.size(), expected.size());
+            test = expected.size() == 200 && expected.equals(actual)
+                    && summaryLines(batch.toString()).equals(summaryLines(shards.toString()));}
+        catch (IOException | InterruptedException ex) {
+            System.out.println("Shard test could not be run: " + ex.getMessage());
+            test = false;}
+        System.out.printf("\n----- SHARDS TEST: %s -----\n\n", test? "PASSED":"FAILED");
+    }
+
+    //Gets the lines of the games of a BatchRunner output without their duration, sorted by game
+    private static List<String> gameLines(String output){
+        List<String> lines = new ArrayList<>();
+        for (String line : output.split("\n"))
+            if (!line.startsWith("#") && !line.equals(BatchRunner.HEADER))
+                lines.add(line.replaceFirst("^((?:[^,]*,){4})[^,]*", "$1"));
+        Collections.sort(lines, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return Integer.compare(Integer.parseInt(a.split(",")[0]), Integer.parseInt(b.split(",")[0]));
+            }
+        });
+        return lines;
+    }
+
+    //Gets the lines of the summary of a BatchRunner output that do not depend on the duration of the games
+    private static List<String> summaryLines(String output){
+        List<String> lines = new ArrayList<>();
+        for (String line : output.split("\n"))
+            if (line.startsWith("#") && !line.startsWith("# millis") && !line.startsWith("# shards"))
+                lines.add(line);
+        return lines;
+    }
+
+    /**
+     * Tests a ShardWriter whose shards can not be written, as when the disk is full: with a queue of a single block,
+     * the producer must get the error from put instead of waiting for the queue forever, and close must end and throw it.
+     */
+    public void testShardWriter(){
+        File directory = new File(System.getProperty("java.io.tmpdir"), "shardwriter-test-" + System.nanoTime());
+        final boolean[] failed = new boolean[2];
+        Thread producer = null;
+        try {
+            final ShardWriter writer = new ShardWriter(directory, 1 << 20, false, 1, false);
+            directory.delete(); //the first shard can not be opened
+            producer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 1000; i++)
+                            writer.put(new byte[ShardWriter.RECORD_SIZE]);}
+                    catch (IOException ex) {
+                        failed[0] = true;}
+                    catch (InterruptedException ex) {
+                        return;}
+                    try {
+                        writer.close();}
+                    catch (IOException ex) {
+                        failed[1] = true;}
+                }
+            });
+            producer.setDaemon(true);
+            producer.start();
+            producer.join(10000);}
+        catch (IOException | InterruptedException ex) {
+            System.out.println("Shard writer test could not be run: " + ex.getMessage());}
+        boolean test = producer != null && !producer.isAlive() && failed[0] && failed[1];
+        System.out.printf("ShardWriter: put %s, close %s%n", failed[0]? "failed":"did not fail", failed[1]? "failed":"did not fail");
+        System.out.printf("\n----- SHARD WRITER TEST: %s -----\n\n", test? "PASSED":"FAILED");
+    }
+
+    /**
+     * Tests an ExternalBot against scripted bots: 32 threads asking the reference bot at the same time must get valid
+     * tokens in fewer requests than decisions, a bot that crashes on its first request must be started again and
+     * answer the next one, and a bot that never answers must fail in time.
+     */
+    public void testExternalBot(){
+        String java = System.getProperty("java.home") + "/bin/java", classpath = System.getProperty("java.class.path");
+        List<String> reference = Arrays.asList(java, "-cp", classpath, "ludo.ExternalBot");
+        boolean batched = false, restarted = false, timedOut = false;
+        try (ExternalBot bot = new ExternalBot(reference, 1, 256, 5000)) {
+            final ExternalBot shared = bot;
+            final int[] invalid = new int[1];
+            Thread[] players = new Thread[32];
+            for (int i = 0; i < players.length; i++) {
+                final GameState game = decisionGame(i);
+                players[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int k = 0; k < 20; k++) {
+                            if (shared.selectToken(game) < 0) //the answers that are not candidates are -1 too
+                                synchronized (invalid) {
+                                    invalid[0]++;}
+                        }
+                    }
+                });
+                players[i].start();
+            }
+            for (Thread player : players)
+                player.join();
+            System.out.printf("ExternalBot: %d decisions in %d requests, %d invalid%n", bot.getDecisions(), bot.getRequests(), invalid[0]);
+            batched = invalid[0] == 0 && bot.getDecisions() == 640 && bot.getRequests() < 640 && bot.getFailures() == 0;}
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();}
+        try {
+            File marker = File.createTempFile("ludo-crash", ".marker");
+            marker.delete();
+            List<String> crashing = Arrays.asList("/bin/sh", "-c", "if [ -e '" + marker + "' ]; then exec '" + java + "' -cp '" + classpath
+                    + "' ludo.ExternalBot; else touch '" + marker + "'; exit 1; fi");
+            try (ExternalBot bot = new ExternalBot(crashing, 1, 256, 5000)) {
+                GameState game = decisionGame(0);
+                int first = bot.selectToken(game), second = bot.selectToken(game);
+                System.out.printf("ExternalBot: crashed answer %d, restarted answer %d, %d failures%n", first, second, bot.getFailures());
+                restarted = first < 0 && second >= 0 && bot.getFailures() == 1;}
+            marker.delete();}
+        catch (IOException ex) {
+            System.out.println("External bot test could not be run: " + ex.getMessage());}
+        try (ExternalBot bot = new ExternalBot(Arrays.asList("/bin/sh", "-c", "sleep 5"), 1, 256, 200)) {
+            long start = System.nanoTime();
+            int token = bot.selectToken(decisionGame(0));
+            long millis = (System.nanoTime() - start) / 1000000;
+            System.out.printf("ExternalBot: silent bot answered %d in %d ms%n", token, millis);
+            timedOut = token < 0 && millis < 1000;}
+        System.out.printf("\n----- EXTERNAL BOT TEST: %s -----\n\n", batched && restarted && timedOut ? "PASSED":"FAILED");
+    }
+
+    //Gets a seeded game of customAI players waiting for its current player to select a token
+    private static GameState decisionGame(int seed){
+        List<Autoplay.AutoplayMode> autoMode = Arrays.asList(Autoplay.AutoplayMode.customAI, Autoplay.AutoplayMode.customAI, Autoplay.AutoplayMode.customAI, Autoplay.AutoplayMode.customAI);
+        GameState game = new GameState(ImgPath.Theme.plain, Arrays.asList(Color.values()), Arrays.asList(true, true, true, true), autoMode, true);
+        game.setSeed(seed);
+        while (true) {
+            game.rollAndCheckActiveTokens();
+            game.checkMoveOrPass();
+            if (!game.getDiceRoller())
+                return game;
+        }
+    }
+
     /**
      * Tests the game in Autoplayer mode in different scenarios and shows resulting statistics for each scenario.
      * <p>
@@ -389,12 +1503,9 @@ public class Test {
      */ 
     public void testGame(){ 
         int counter=0;
-        int turnStats=0;
-        int castStats=0;
         GameState game;
         final int ITERATIONS = 100;
-        float[] gameDuration = new float[ITERATIONS];
-        float[][] statistic= new float[4][4]; //row is place (1st, 2d, 3d, 4th) column is token(0,1,2,3)
+        GameStats stats = new GameStats();
         
 ////        1st scenario : 4 players customAI controller ------
 //        ImgPath.Theme theme = ImgPath.Theme.plain;
@@ -434,47 +1545,18 @@ public class Test {
         for (int i = 0; i < game.getWinners().size(); i++) {
             System.out.printf("%d place - %s player\n", i + 1, game.getPlayers()[game.getWinners().get(i)].getColor());
                 } 
-        gameDuration[counter] = (finalTime-initialTime);
-        System.out.printf("Game duration: %.1f miliseconds\n", gameDuration[counter]);
+        long gameDuration = finalTime-initialTime;
+        System.out.printf("Game duration: %d miliseconds\n", gameDuration);
         System.out.println("Total dice casts: "+game.getDice().getDiceRollCount());
-        castStats+=game.getDice().getDiceRollCount();
         System.out.println("Total turns: "+game.getTurnCount());
-        turnStats+=game.getTurnCount();
-        for(int i=0; i<game.getWinners().size(); i++)
-            statistic[i][game.getWinners().get(i)]+=1;
+        stats.add(game, gameDuration);
         counter++;
         }
         while(counter<ITERATIONS);
         System.out.println("\n____________________________________________");
         System.out.println("Statistics");
-        System.out.println("Place\u0009Yellow\u0009Red\u0009Green\u0009Blue");
-        int place = 1;
-        for (float[] row: statistic){
-            System.out.printf(place+"\u0009");
-            for (float column: row)
-                System.out.printf("%.0f\u0009",column);
-            System.out.println("");
-            place++;
-        }
-        float avgGameDuration =0;
-        System.out.println("\nGame Duration (ms)");
-        for(float duration: gameDuration){
-            System.out.printf("%.0f ",duration);
-            avgGameDuration+= duration; 
-        }
-        System.out.println("");
-        System.out.println("\nResults winnning% by Player color");
-        System.out.println("Color\u00091st\u00092nd\u00093rd\u00094th");
-        for(Color color: Color.values()){
-            System.out.print(color.name()+":\u0009");
-            for (int j=0; j<4; j++){
-                System.out.printf("%.2f\u0009",statistic[j][color.ordinal()]*100/counter); 
-            }
-            System.out.println("");
-        }
-        System.out.println("\nAverage game duration: "+avgGameDuration/counter);    
-        System.out.println("Average turns: "+turnStats/counter);
-        System.out.println("Average casts: "+castStats/counter);
+        System.out.println("Results winnning% by Player color");
+        System.out.print(stats.report(autoMode.toArray(new Autoplay.AutoplayMode[4]), ""));
         System.out.println("____________________________________________\n");
     }
     
@@ -28,10 +28,29 @@ public class TestMain {
         new ImgPath();
 //        test.testToken();
 //        test.testPlayer();
+//        test.testTokenbyCoord();
 //        test.testBoard();
 //        test.testDice();
 //        
 //        test.testQLearning();
+//        test.testReplay();
+//        test.testEventBus();
+//        test.testAutosave();
+//        test.testLeague();
+//        test.testQStore();
+//        test.testDecisionCache();
+//        test.testShardWriter();
+//        test.testDecisionDeadline();
+//        test.testStats();
+//        test.testMatchup();
+//        test.testBatchEngine();
+//        test.testDangerMap();
+//        test.testRaceTablebase();
+//        test.testServer();
+//        test.testProtocol();
+//        test.testLatencyHistogram();
+//        test.testShards();
+//        test.testExternalBot();
         test.testGame();
 //          test.testCustomAI();
     }